@@ -13,6 +13,8 @@ import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
+import net.jcip.annotations.NotThreadSafe;
+
 import com.sebster.util.Validate;
 
 public final class CompressLZFI {
@@ -99,6 +101,254 @@ public final class CompressLZFI {
 		}
 	}
 
+	/**
+	 * Streaming decompressor, which expands a compressed stream a block at a
+	 * time into a window. Back references can reach back {@link #MAX_OFFSET}
+	 * values, or less if the stream restarts at regular intervals (see
+	 * {@link CompressLZFI#compressBlocks(int[], int, int, int[], int, int[])}),
+	 * so the window holds at least that many values before the current block.
+	 * This allows several streams to be expanded in lock-step without
+	 * materializing any of them completely.
+	 * 
+	 * @author sebster
+	 */
+	@NotThreadSafe
+	public static final class Decoder {
+
+		private final int[] window;
+
+		private final int mask;
+
+		private int[] in;
+
+		private int inPos;
+
+		private int inEnd;
+
+		/**
+		 * The total number of values expanded.
+		 */
+		private int outPos;
+
+		/**
+		 * The number of values remaining in the current literal run.
+		 */
+		private int literals;
+
+		/**
+		 * The number of values remaining in the current back reference.
+		 */
+		private int refLength;
+
+		/**
+		 * The position of the next value of the current back reference.
+		 */
+		private int refPos;
+
+		/**
+		 * Whether the literals are packed two to an int, see
+		 * {@link CompressLZFI#pack16(int[], int, int)}.
+		 */
+		private boolean packed;
+
+		/**
+		 * Whether the next packed literal is in the low half of the current
+		 * input value.
+		 */
+		private boolean lowHalf;
+
+		/**
+		 * Create a decoder which expands at most the specified number of values
+		 * at a time.
+		 * 
+		 * @param blockSize
+		 *            the maximum number of values expanded at a time, must be a
+		 *            power of 2
+		 */
+		public Decoder(final int blockSize) {
+			this(blockSize, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Create a decoder which expands at most the specified number of values
+		 * at a time, for streams which restart at the specified interval.
+		 * 
+		 * @param blockSize
+		 *            the maximum number of values expanded at a time, must be a
+		 *            power of 2
+		 * @param restartInterval
+		 *            the number of values after which the compressed streams
+		 *            restart
+		 */
+		public Decoder(final int blockSize, final int restartInterval) {
+			Validate.isTrue(blockSize > 0 && Integer.bitCount(blockSize) == 1, "blockSize not a power of 2");
+			Validate.isTrue(restartInterval > 0, "restartInterval <= 0");
+			window = new int[getWindowSize(blockSize, restartInterval)];
+			mask = window.length - 1;
+		}
+
+		/**
+		 * Get the size of the window of a decoder with the specified block
+		 * size.
+		 * 
+		 * @param blockSize
+		 *            the maximum number of values expanded at a time
+		 * @return the window size
+		 */
+		public static int getWindowSize(final int blockSize) {
+			return getWindowSize(blockSize, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Get the size of the window of a decoder with the specified block
+		 * size, for streams which restart at the specified interval.
+		 * 
+		 * @param blockSize
+		 *            the maximum number of values expanded at a time
+		 * @param restartInterval
+		 *            the number of values after which the compressed streams
+		 *            restart
+		 * @return the window size
+		 */
+		public static int getWindowSize(final int blockSize, final int restartInterval) {
+			return Integer.highestOneBit(Math.min(MAX_OFFSET + 1, restartInterval) + blockSize) << 1;
+		}
+
+		/**
+		 * Start expanding the specified compressed data.
+		 * 
+		 * @param in
+		 *            the input array to decompress
+		 * @param inPos
+		 *            the input position to start decompressing from
+		 * @param inLen
+		 *            the number of integers to decompress
+		 */
+		public void reset(final int[] in, final int inPos, final int inLen) {
+			reset(in, inPos, inLen, false);
+		}
+
+		/**
+		 * Start expanding the specified compressed data of 16-bit values, with
+		 * the literals packed two to an int.
+		 * 
+		 * @param in
+		 *            the input array to decompress
+		 * @param inPos
+		 *            the input position to start decompressing from
+		 * @param inLen
+		 *            the number of integers to decompress
+		 * @see CompressLZFI#pack16(int[], int, int)
+		 */
+		public void reset16(final int[] in, final int inPos, final int inLen) {
+			reset(in, inPos, inLen, true);
+		}
+
+		private void reset(final int[] in, final int inPos, final int inLen, final boolean packed) {
+			if (inPos < 0 || inLen < 0 || inPos + inLen > in.length) {
+				throw new IllegalArgumentException();
+			}
+			this.in = in;
+			this.inPos = inPos;
+			inEnd = inPos + inLen;
+			outPos = 0;
+			literals = 0;
+			refLength = 0;
+			this.packed = packed;
+			lowHalf = false;
+		}
+
+		/**
+		 * Get the window. The values returned by {@link #expand(int)} are at
+		 * consecutive positions in this array.
+		 * 
+		 * @return the window
+		 */
+		public int[] getWindow() {
+			return window;
+		}
+
+		/**
+		 * Expand the next values of the stream into the window. If the number
+		 * of values expanded so far is a multiple of the block size, the
+		 * expanded values do not wrap around the end of the window.
+		 * 
+		 * @param count
+		 *            the number of values to expand, at most the block size
+		 * @return the window position of the first expanded value
+		 * @throws ArrayIndexOutOfBoundsException
+		 *             if the compressed input is invalid or too short
+		 */
+		public int expand(final int count) {
+			final int[] in = this.in;
+			final int[] window = this.window;
+			final int mask = this.mask;
+			final int start = outPos & mask;
+			int n = count;
+			while (n > 0) {
+				if (literals > 0 && packed) {
+					// Unpack (part of) the literal run.
+					final int len = Math.min(n, literals);
+					n -= len;
+					literals -= len;
+					for (int i = 0; i < len; i++) {
+						window[outPos++ & mask] = lowHalf ? (short) in[inPos++] : in[inPos] >> 16;
+						lowHalf = !lowHalf;
+					}
+					if (literals == 0 && lowHalf) {
+						// Skip the unused low half of an odd length run.
+						inPos++;
+						lowHalf = false;
+					}
+				} else if (literals > 0) {
+					// Copy (part of) the literal run, in at most two pieces.
+					int len = Math.min(n, literals);
+					n -= len;
+					literals -= len;
+					while (len > 0) {
+						final int pos = outPos & mask;
+						final int piece = Math.min(len, window.length - pos);
+						System.arraycopy(in, inPos, window, pos, piece);
+						inPos += piece;
+						outPos += piece;
+						len -= piece;
+					}
+				} else if (refLength > 0) {
+					// Copy (part of) the back reference, which may overlap.
+					final int len = Math.min(n, refLength);
+					n -= len;
+					refLength -= len;
+					int pos = outPos & mask, ref = refPos & mask;
+					outPos += len;
+					refPos += len;
+					if (pos + len <= window.length && ref + len <= window.length) {
+						// No wrap around, copy forward without masking.
+						for (int i = 0; i < len; i++) {
+							window[pos++] = window[ref++];
+						}
+					} else {
+						for (int i = 0; i < len; i++) {
+							window[pos++ & mask] = window[ref++ & mask];
+						}
+					}
+				} else {
+					if (inPos >= inEnd) {
+						throw new ArrayIndexOutOfBoundsException("compressed input too short");
+					}
+					final int ctrl = in[inPos++];
+					if (ctrl >= 0) {
+						literals = ctrl + 1;
+					} else {
+						refLength = (ctrl & (1 << LENGTH_BITS) - 1) + 3;
+						refPos = outPos - ((ctrl & Integer.MAX_VALUE) >> LENGTH_BITS) - 1;
+					}
+				}
+			}
+			return start;
+		}
+
+	}
+
 	/**
 	 * Compress an array of integers from the source to the destination array.
 	 * 
@@ -223,6 +473,112 @@ public final class CompressLZFI {
 		return outPos;
 	}
 
+	/**
+	 * Compress an array of integers from the source to the destination array in
+	 * independently compressed blocks of the specified size. No back reference
+	 * crosses a block boundary, so each block can be expanded on its own, and
+	 * the concatenated blocks are also a valid compressed stream of the entire
+	 * input.
+	 * 
+	 * @param in
+	 *            the input array to compress
+	 * @param inLen
+	 *            the number of integers to compress
+	 * @param blockSize
+	 *            the number of integers per block
+	 * @param out
+	 *            the output array
+	 * @param outPos
+	 *            the destination index to which to compress
+	 * @param blockOffsets
+	 *            the array to contain the offset of each compressed block
+	 *            relative to <code>outPos</code>, must be at least
+	 *            <code>ceil(inLen / blockSize)</code> long
+	 * @return the compressed size
+	 */
+	public static int compressBlocks(final int[] in, final int inLen, final int blockSize, final int[] out, final int outPos, final int[] blockOffsets) {
+		return compressBlocks(in, inLen, blockSize, out, outPos, blockOffsets, false);
+	}
+
+	/**
+	 * Compress an array of 16-bit values in independently compressed blocks
+	 * of the specified size, with the literals packed two to an int. See
+	 * {@link #compressBlocks(int[], int, int, int[], int, int[])} and
+	 * {@link #pack16(int[], int, int)}.
+	 * 
+	 * @param in
+	 *            the input array to compress
+	 * @param inLen
+	 *            the number of integers to compress
+	 * @param blockSize
+	 *            the number of integers per block
+	 * @param out
+	 *            the output array
+	 * @param outPos
+	 *            the destination index to which to compress
+	 * @param blockOffsets
+	 *            the array to contain the offset of each compressed block
+	 *            relative to <code>outPos</code>, must be at least
+	 *            <code>ceil(inLen / blockSize)</code> long
+	 * @return the compressed size
+	 * @throws IllegalArgumentException
+	 *             if a value does not fit in a short
+	 */
+	public static int compressBlocks16(final int[] in, final int inLen, final int blockSize, final int[] out, final int outPos, final int[] blockOffsets) {
+		return compressBlocks(in, inLen, blockSize, out, outPos, blockOffsets, true);
+	}
+
+	private static int compressBlocks(final int[] in, final int inLen, final int blockSize, final int[] out, final int outPos, final int[] blockOffsets, final boolean pack16) {
+		Validate.isTrue(blockSize > 0, "blockSize <= 0");
+		final int[] block = new int[Math.min(blockSize, inLen)];
+		int pos = outPos;
+		for (int b = 0, from = 0; from < inLen; b++, from += blockSize) {
+			final int len = Math.min(blockSize, inLen - from);
+			System.arraycopy(in, from, block, 0, len);
+			blockOffsets[b] = pos - outPos;
+			final int end = compress(block, len, out, pos);
+			pos = pack16 ? pos + pack16(out, pos, end - pos) : end;
+		}
+		return pos - outPos;
+	}
+
+	/**
+	 * Pack the literals of the specified compressed stream of 16-bit values
+	 * two to an int, in place. The first literal of a pair is stored in the
+	 * high half. The back references and the lengths in the control words are
+	 * unchanged, so they still count values. Packed streams are expanded with
+	 * the 16-bit variants of the expand methods.
+	 * 
+	 * @param data
+	 *            the compressed stream
+	 * @param pos
+	 *            the position of the compressed stream
+	 * @param len
+	 *            the length of the compressed stream
+	 * @return the length of the packed stream
+	 * @throws IllegalArgumentException
+	 *             if a literal does not fit in a short
+	 */
+	public static int pack16(final int[] data, final int pos, final int len) {
+		final int end = pos + len;
+		int r = pos, w = pos;
+		while (r < end) {
+			final int ctrl = data[r++];
+			data[w++] = ctrl;
+			if (ctrl >= 0) {
+				// Literal run of length = ctrl + 1.
+				final int runEnd = r + ctrl + 1;
+				while (r < runEnd) {
+					final int hi = data[r++];
+					final int lo = r < runEnd ? data[r++] : 0;
+					Validate.isTrue(hi == (short) hi && lo == (short) lo, "literal does not fit in a short");
+					data[w++] = hi << 16 | lo & 0xffff;
+				}
+			}
+		}
+		return w - pos;
+	}
+
 	/**
 	 * Decompress an array of integers from the source to the destination array.
 	 * 
@@ -278,6 +634,108 @@ public final class CompressLZFI {
 		}
 	}
 
+	/**
+	 * Decompress an array of 16-bit values with packed literals from the
+	 * source to the destination array, see {@link #pack16(int[], int, int)}.
+	 * 
+	 * @param in
+	 *            the input array to decompress
+	 * @param inPos
+	 *            the input position to start compressing from
+	 * @param inLen
+	 *            the number of integers to decompress
+	 * @param out
+	 *            the output array
+	 * @param outPos
+	 *            the destination index to which to decompress
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the compressed input is invalid
+	 */
+	public static void expand16(final int[] in, int inPos, final int inLen, final short[] out, int outPos) {
+		final int inEnd = inPos + inLen;
+		if (inPos < 0 || inLen < 0 || outPos < 0 || inEnd > in.length) {
+			throw new IllegalArgumentException();
+		}
+		while (inPos < inEnd) {
+			final int ctrl = in[inPos++];
+			if (ctrl >= 0) {
+				// Packed literal run of length = ctrl + 1.
+				final int len = ctrl + 1;
+				final int pairsEnd = outPos + (len & ~1);
+				while (outPos < pairsEnd) {
+					final int v = in[inPos++];
+					out[outPos++] = (short) (v >> 16);
+					out[outPos++] = (short) v;
+				}
+				if ((len & 1) != 0) {
+					out[outPos++] = (short) (in[inPos++] >> 16);
+				}
+			} else {
+				// Back reference, get the length and offset from ctrl.
+				final int len = (ctrl & (1 << LENGTH_BITS) - 1) + 3;
+				final int off = ((ctrl & Integer.MAX_VALUE) >> LENGTH_BITS) + 1;
+				int ref = outPos - off;
+				if (outPos + len > out.length) {
+					throw new ArrayIndexOutOfBoundsException();
+				}
+				for (int i = 0; i < len; i++) {
+					out[outPos++] = out[ref++];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Decompress an array of 16-bit values with packed literals from the
+	 * source to the destination int array, see {@link #pack16(int[], int, int)}.
+	 * 
+	 * @param in
+	 *            the input array to decompress
+	 * @param inPos
+	 *            the input position to start compressing from
+	 * @param inLen
+	 *            the number of integers to decompress
+	 * @param out
+	 *            the output array
+	 * @param outPos
+	 *            the destination index to which to decompress
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the compressed input is invalid
+	 */
+	public static void expand16(final int[] in, int inPos, final int inLen, final int[] out, int outPos) {
+		final int inEnd = inPos + inLen;
+		if (inPos < 0 || inLen < 0 || outPos < 0 || inEnd > in.length) {
+			throw new IllegalArgumentException();
+		}
+		while (inPos < inEnd) {
+			final int ctrl = in[inPos++];
+			if (ctrl >= 0) {
+				// Packed literal run of length = ctrl + 1.
+				final int len = ctrl + 1;
+				final int pairsEnd = outPos + (len & ~1);
+				while (outPos < pairsEnd) {
+					final int v = in[inPos++];
+					out[outPos++] = v >> 16;
+					out[outPos++] = (short) v;
+				}
+				if ((len & 1) != 0) {
+					out[outPos++] = in[inPos++] >> 16;
+				}
+			} else {
+				// Back reference, get the length and offset from ctrl.
+				final int len = (ctrl & (1 << LENGTH_BITS) - 1) + 3;
+				final int off = ((ctrl & Integer.MAX_VALUE) >> LENGTH_BITS) + 1;
+				int ref = outPos - off;
+				if (outPos + len > out.length) {
+					throw new ArrayIndexOutOfBoundsException();
+				}
+				for (int i = 0; i < len; i++) {
+					out[outPos++] = out[ref++];
+				}
+			}
+		}
+	}
+
 	public static void main(final String[] args) throws IOException {
 		if (args.length != 3 || !"c".equals(args[0]) && !"x".equals(args[0])) {
 			System.err.println("usage: " + CompressLZFI.class.getSimpleName() + " <c|x> <infile> <outfile>");
@@ -0,0 +1,127 @@
+package com.sebster.poker;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import com.sebster.util.Validate;
+
+/**
+ * Incremental combination evaluator for enumerating board runouts. The board
+ * cards are pushed and popped one at a time, and the rank masks per suit of
+ * the board are kept for each board length. The combination value of a hole
+ * with the current board is then a matter of or-ing the precomputed suit ranks
+ * of the hole into those of the board, see {@link #getSuitRanks(CardSet)}.
+ * <p>
+ * The evaluator does not check for duplicate cards, and the board must consist
+ * of at least 3 cards when evaluating holes.
+ * 
+ * @author sebster
+ */
+@NotThreadSafe
+public final class BoardEvaluator {
+
+	/**
+	 * The suit ranks of the board for each board length.
+	 */
+	private final long[] boardSuitRanks = new long[6];
+
+	/**
+	 * The current number of board cards.
+	 */
+	private int size;
+
+	/**
+	 * Create a board evaluator with an empty board.
+	 */
+	public BoardEvaluator() {
+		// Empty board.
+	}
+
+	/**
+	 * Create a board evaluator with the specified board cards.
+	 * 
+	 * @param board
+	 *            the board cards
+	 */
+	public BoardEvaluator(final Card... board) {
+		for (final Card card : board) {
+			push(card);
+		}
+	}
+
+	/**
+	 * Get the current number of board cards.
+	 * 
+	 * @return the current number of board cards
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add a card to the board.
+	 * 
+	 * @param card
+	 *            the card to add
+	 */
+	public void push(final Card card) {
+		push(card.ordinal());
+	}
+
+	/**
+	 * Add a card to the board.
+	 * 
+	 * @param card
+	 *            the ordinal of the card to add
+	 */
+	public void push(final int card) {
+		Validate.isTrue(size < 5, "board is full");
+		boardSuitRanks[size + 1] = boardSuitRanks[size] | 1L << ((card & 3) << 4) + (card >> 2);
+		size++;
+	}
+
+	/**
+	 * Remove the last added card from the board.
+	 */
+	public void pop() {
+		Validate.isTrue(size > 0, "board is empty");
+		size--;
+	}
+
+	/**
+	 * Get the best combination value of the current board with the specified
+	 * hole.
+	 * 
+	 * @param holeSuitRanks
+	 *            the suit ranks of the hole, see {@link #getSuitRanks(CardSet)}
+	 * @return the best combination value of the board and the hole
+	 */
+	public int getBestValue(final long holeSuitRanks) {
+		return Combination.getBestValueFromSuitRanks(boardSuitRanks[size] | holeSuitRanks);
+	}
+
+	/**
+	 * Get the best combination value of the current board with the specified
+	 * hole.
+	 * 
+	 * @param hole
+	 *            the hole
+	 * @return the best combination value of the board and the hole
+	 */
+	public int getBestValue(final CardSet hole) {
+		return getBestValue(getSuitRanks(hole));
+	}
+
+	/**
+	 * Get the suit ranks of a card set, which is the representation in which
+	 * the evaluator combines holes with the board. Callers evaluating the same
+	 * hole for many boards should compute its suit ranks only once.
+	 * 
+	 * @param cardSet
+	 *            the card set
+	 * @return the suit ranks of the card set
+	 */
+	public static long getSuitRanks(final CardSet cardSet) {
+		return Combination.getSuitRanks(cardSet.getMask());
+	}
+
+}
@@ -119,6 +119,17 @@ public enum Card implements LinearOrderElement<Card> {
 		return buffer.toString();
 	}
 
+	/**
+	 * Get the bit mask of the card. This is a long with only the bit at
+	 * position {@link #ordinal()} set. The masks of different cards can be
+	 * or-ed together to represent a set of cards as a primitive value.
+	 * 
+	 * @return the bit mask of the card
+	 */
+	public long getMask() {
+		return 1L << ordinal();
+	}
+
 	/**
 	 * Get the two letter short name of the card, e.g. "2s" or "Tc".
 	 * 
@@ -284,6 +284,20 @@ public class CardSet extends AbstractSet<Card> implements LinearOrderElement<Car
 		return index;
 	}
 
+	/**
+	 * Get the bit mask of this card set. This is the bitwise or of the masks of
+	 * the cards in the set, see {@link Card#getMask()}.
+	 * 
+	 * @return the bit mask of this card set
+	 */
+	public long getMask() {
+		long mask = 0;
+		for (final Card card : cards) {
+			mask |= card.getMask();
+		}
+		return mask;
+	}
+
 	/**
 	 * Create a new card set for the specified card array. This constructor is
 	 * only called internally with a valid array, so no validation is done.
@@ -1,5 +1,7 @@
 package com.sebster.poker;
 
+import java.util.Arrays;
+
 import com.sebster.util.Validate;
 
 /**
@@ -186,6 +188,159 @@ public class Combination {
 		return getHighCardValue(cardSet);
 	}
 
+	/**
+	 * Get the value of the best 5-card combination that can be made from the
+	 * cards in the specified card mask. The card mask has the bit at position
+	 * {@link Card#ordinal()} set for every card in the hand, see
+	 * {@link Card#getMask()} and {@link CardSet#getMask()}. The value returned
+	 * is the same as the value returned by {@link #getBestValue(CardSet)} for
+	 * the same cards, but it is calculated without allocating any objects,
+	 * using rank bit masks and small lookup tables.
+	 * 
+	 * @param cardMask
+	 *            the card mask of a hand of 5 to 7 cards
+	 * @return the value of the best 5-card combination found
+	 */
+	public static int getBestValue(final long cardMask) {
+		final int size = Long.bitCount(cardMask);
+		Validate.isTrue(size >= 5, "Long.bitCount(cardMask) < 5");
+		Validate.isTrue(size <= 7, "Long.bitCount(cardMask) > 7");
+
+		return getBestValueFromSuitRanks(getSuitRanks(cardMask));
+	}
+
+	/**
+	 * Spread a card mask into one 16-bit rank mask per suit. The ranks of the
+	 * clubs are in bits 0-12, the diamonds in bits 16-28, the hearts in bits
+	 * 32-44, and the spades in bits 48-60. The suit ranks of disjoint card
+	 * masks can be or-ed together.
+	 * 
+	 * @param cardMask
+	 *            the card mask
+	 * @return the suit ranks of the card mask
+	 */
+	static long getSuitRanks(final long cardMask) {
+		long suitRanks = 0;
+		for (int i = 0; i < 7; i++) {
+			suitRanks |= SUIT_RANKS[(int) (cardMask >>> (i << 3)) & 0xff] << (i << 1);
+		}
+		return suitRanks;
+	}
+
+	/**
+	 * Get the best combination value of the cards in the specified suit ranks,
+	 * see {@link #getSuitRanks(long)}.
+	 * 
+	 * @param suitRanks
+	 *            the suit ranks of a hand of 5 to 7 cards
+	 * @return the best combination value of the hand
+	 */
+	static int getBestValueFromSuitRanks(final long suitRanks) {
+		return getBestValue((int) suitRanks & RANKS_MASK, (int) (suitRanks >>> 16) & RANKS_MASK, (int) (suitRanks >>> 32) & RANKS_MASK, (int) (suitRanks >>> 48) & RANKS_MASK);
+	}
+
+	/**
+	 * Get the value of the best 5-card combination that can be made from the
+	 * cards given by the rank masks of each suit. Bit <i>i</i> of a rank mask
+	 * is set if the hand contains the card with rank ordinal <i>i</i> in that
+	 * suit.
+	 * 
+	 * @param clubs
+	 *            the rank mask of the clubs
+	 * @param diamonds
+	 *            the rank mask of the diamonds
+	 * @param hearts
+	 *            the rank mask of the hearts
+	 * @param spades
+	 *            the rank mask of the spades
+	 * @return the value of the best 5-card combination found
+	 */
+	static int getBestValue(final int clubs, final int diamonds, final int hearts, final int spades) {
+		final int ranks = clubs | diamonds | hearts | spades;
+		final int pairs = clubs & diamonds | hearts & spades | (clubs | diamonds) & (hearts | spades);
+		final int trips = clubs & diamonds & (hearts | spades) | hearts & spades & (clubs | diamonds);
+		final int quads = clubs & diamonds & hearts & spades;
+
+		// Find the flush suit, there can be at most one with 7 cards or less.
+		int flush = 0;
+		if (Integer.bitCount(clubs) >= 5) {
+			flush = clubs;
+		} else if (Integer.bitCount(diamonds) >= 5) {
+			flush = diamonds;
+		} else if (Integer.bitCount(hearts) >= 5) {
+			flush = hearts;
+		} else if (Integer.bitCount(spades) >= 5) {
+			flush = spades;
+		}
+
+		if (flush != 0) {
+			final int high = STRAIGHT_HIGH_RANK[flush];
+			if (high != 0) {
+				// A straight flush was found.
+				return STRAIGHT_FLUSH | high;
+			}
+		}
+
+		if (quads != 0) {
+			// Four of a kind was found.
+			final int quadsRank = highestRank(quads);
+			return QUADS | quadsRank + 2 << 4 | TOP_FIVE_RANKS[ranks & ~(1 << quadsRank)] >> 16;
+		}
+
+		if (trips != 0) {
+			final int tripsRank = highestRank(trips);
+			final int others = pairs & ~(1 << tripsRank);
+			if (others != 0) {
+				// A three of a kind and another pair or three of a kind was
+				// found, so we have a full house.
+				return FULL_HOUSE | tripsRank + 2 << 4 | highestRank(others) + 2;
+			}
+		}
+
+		if (flush != 0) {
+			// A flush was found.
+			return FLUSH | TOP_FIVE_RANKS[flush];
+		}
+
+		final int straightHigh = STRAIGHT_HIGH_RANK[ranks];
+		if (straightHigh != 0) {
+			// A straight was found.
+			return STRAIGHT | straightHigh;
+		}
+
+		if (trips != 0) {
+			// Three of a kind was found.
+			final int tripsRank = highestRank(trips);
+			return TRIPS | tripsRank + 2 << 8 | TOP_FIVE_RANKS[ranks & ~(1 << tripsRank)] >> 12;
+		}
+
+		if (pairs != 0) {
+			final int pairRank = highestRank(pairs);
+			final int others = pairs & ~(1 << pairRank);
+			if (others != 0) {
+				// Two pair was found.
+				final int secondPairRank = highestRank(others);
+				return TWO_PAIR | pairRank + 2 << 8 | secondPairRank + 2 << 4 | TOP_FIVE_RANKS[ranks & ~(1 << pairRank | 1 << secondPairRank)] >> 16;
+			}
+			// A pair was found.
+			return PAIR | pairRank + 2 << 12 | TOP_FIVE_RANKS[ranks & ~(1 << pairRank)] >> 8;
+		}
+
+		// Nothing was found, return high card value.
+		return HIGH_CARD | TOP_FIVE_RANKS[ranks];
+	}
+
+	/**
+	 * Get the highest rank ordinal in a non-empty rank mask.
+	 * 
+	 * @param ranks
+	 *            the rank mask
+	 * @return the ordinal of the highest rank in the mask
+	 */
+	private static int highestRank(final int ranks) {
+		return 31 - Integer.numberOfLeadingZeros(ranks);
+	}
+
 	public static int getCombinationType(final int combinationValue) {
 		return combinationValue & COMBINATION_TYPE_MASK;
 	}
@@ -226,6 +381,42 @@ public class Combination {
 		return getCombinationType(combinationValue) == STRAIGHT_FLUSH;
 	}
 
+	/**
+	 * Get the rank of a combination value, which is the index of the value in
+	 * the ascending list of all {@link #RANK_COUNT} distinct 5-card
+	 * combination values. Ranks compare the same as the values they were
+	 * derived from, but fit in a short. The value -1, which the hand value
+	 * databases use for boards which intersect the hole, has rank -1.
+	 * 
+	 * @param combinationValue
+	 *            the combination value, or -1
+	 * @return the rank of the combination value, or -1
+	 * @throws IllegalArgumentException
+	 *             if the value is not a valid combination value
+	 */
+	public static int getRank(final int combinationValue) {
+		if (combinationValue == -1) {
+			return -1;
+		}
+		final int rank = Arrays.binarySearch(RANK_VALUES, combinationValue);
+		Validate.isTrue(rank >= 0, "invalid combination value");
+		return rank;
+	}
+
+	/**
+	 * Get the combination value of a rank, see {@link #getRank(int)}.
+	 * 
+	 * @param rank
+	 *            the rank, or -1
+	 * @return the combination value of the rank, or -1
+	 * @throws IllegalArgumentException
+	 *             if the rank is not between -1 and {@link #RANK_COUNT} - 1
+	 */
+	public static int getValue(final int rank) {
+		Validate.isTrue(rank >= -1 && rank < RANK_COUNT, "invalid rank");
+		return rank == -1 ? -1 : RANK_VALUES[rank];
+	}
+
 	public static final String toString(final int combinationValue) {
 		// FIXME implement
 		return null;
@@ -484,4 +675,91 @@ public class Combination {
 	 */
 	public static final int COMBINATION_TYPE_MASK = 0x00F00000;
 
+	/**
+	 * The number of distinct 5-card combination values.
+	 */
+	public static final int RANK_COUNT = 7462;
+
+	/**
+	 * The mask of all 13 ranks in a rank mask.
+	 */
+	private static final int RANKS_MASK = 0x1FFF;
+
+	/**
+	 * Maps each byte of a card mask to the rank masks of the four suits for
+	 * the two ranks in that byte. The rank mask of suit <i>s</i> is stored in
+	 * bits <i>16s</i> to <i>16s + 1</i>, so the result only has to be shifted
+	 * to the ranks of the byte.
+	 */
+	private static final long[] SUIT_RANKS = new long[256];
+
+	/**
+	 * The values of the (at most) 5 highest ranks in a rank mask, one rank per
+	 * nibble, highest rank first, aligned to the left of the lowest 5 nibbles.
+	 * Shifting right by 4 times (5 - n) gives the n highest ranks.
+	 */
+	private static final int[] TOP_FIVE_RANKS = new int[RANKS_MASK + 1];
+
+	/**
+	 * The value of the high rank of the highest straight in a rank mask, or 0
+	 * if the rank mask does not contain a straight.
+	 */
+	private static final int[] STRAIGHT_HIGH_RANK = new int[RANKS_MASK + 1];
+
+	/**
+	 * All distinct 5-card combination values in ascending order.
+	 */
+	private static final int[] RANK_VALUES = new int[RANK_COUNT];
+
+	static {
+		for (int i = 0; i < SUIT_RANKS.length; i++) {
+			for (int j = 0; j < 8; j++) {
+				if ((i & 1 << j) != 0) {
+					SUIT_RANKS[i] |= 1L << ((j & 3) << 4) + (j >> 2);
+				}
+			}
+		}
+		for (int ranks = 0; ranks <= RANKS_MASK; ranks++) {
+			int value = 0, count = 0;
+			for (int rank = 12; rank >= 0 && count < 5; rank--) {
+				if ((ranks & 1 << rank) != 0) {
+					value = value << 4 | rank + 2;
+					count++;
+				}
+			}
+			TOP_FIVE_RANKS[ranks] = value << (5 - count << 2);
+
+			// Treat the ace as a one as well to find the five high straight.
+			final int straightRanks = ranks << 1 | ranks >> 12;
+			final int straights = straightRanks & straightRanks << 1 & straightRanks << 2 & straightRanks << 3 & straightRanks << 4;
+			STRAIGHT_HIGH_RANK[ranks] = straights != 0 ? 32 - Integer.numberOfLeadingZeros(straights) : 0;
+		}
+
+		/*
+		 * Each distinct value is either a flush (or straight flush) of 5
+		 * distinct ranks, or a non-flush of 5 ranks with at most 4 of each
+		 * rank. Dealing the sorted ranks of a non-flush to the suits in turn
+		 * never gives a flush, and never deals the same card twice.
+		 */
+		int k = 0;
+		for (int r0 = 0; r0 < 13; r0++) {
+			for (int r1 = r0; r1 < 13; r1++) {
+				for (int r2 = r1; r2 < 13; r2++) {
+					for (int r3 = r2; r3 < 13; r3++) {
+						for (int r4 = r3; r4 < 13; r4++) {
+							if (r0 == r4) {
+								continue;
+							}
+							RANK_VALUES[k++] = getBestValue(1 << r0 | 1 << r4, 1 << r1, 1 << r2, 1 << r3);
+							if (r0 < r1 && r1 < r2 && r2 < r3 && r3 < r4) {
+								RANK_VALUES[k++] = getBestValue(1 << r0 | 1 << r1 | 1 << r2 | 1 << r3 | 1 << r4, 0, 0, 0);
+							}
+						}
+					}
+				}
+			}
+		}
+		Arrays.sort(RANK_VALUES);
+	}
+
 }
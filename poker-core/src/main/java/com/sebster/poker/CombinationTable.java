@@ -0,0 +1,225 @@
+package com.sebster.poker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sebster.util.IOUtil;
+
+/**
+ * Table driven evaluator which calculates the same combination values as
+ * {@link Combination#getBestValue(CardSet)} using one memory load per card.
+ * <p>
+ * The table is a state machine. Each state is a row of {@value #ROW_SIZE} ints,
+ * and is identified by the offset of its row in the table. The start state
+ * (no cards) has offset 0. Entry <code>1 + card.ordinal()</code> of a row
+ * contains the offset of the state reached by adding the card, or for states
+ * with 6 cards, the combination value of the resulting 7-card hand. Entry 0 of
+ * a row contains the combination value of the cards of the state if the state
+ * has 5 or 6 cards. Suits which can no longer make a flush are forgotten by
+ * the states, which keeps the number of states small enough for the table to
+ * be around 130 MB.
+ * <p>
+ * The table is loaded by memory mapping the table file, so JVMs running on the
+ * same machine share the table through the page cache. The table file is
+ * generated by the <code>GenerateCombinationTable</code> tool in the
+ * poker-dev-support project, see {@link CombinationTableGenerator}. All cards
+ * given to the table must be different, this is not checked. The post flop
+ * calculator can evaluate the hands with the table, see
+ * {@link com.sebster.poker.holdem.odds.ParallelPostFlopOddsCalculator}.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public final class CombinationTable {
+
+	private static final Logger logger = LoggerFactory.getLogger(CombinationTable.class);
+
+	/**
+	 * The default combination table filename.
+	 */
+	public static final String DEFAULT_FILENAME = "combination_table.bin";
+
+	/**
+	 * The magic number at the start of the table file.
+	 */
+	public static final int MAGIC = 0x43544142;
+
+	/**
+	 * The version of the table file format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The size of the table file header in bytes: the magic number, the version
+	 * and the number of states.
+	 */
+	public static final int HEADER_SIZE = 12;
+
+	/**
+	 * The number of ints in each state row.
+	 */
+	public static final int ROW_SIZE = 53;
+
+	/**
+	 * The offset of the start state.
+	 */
+	public static final int START = 0;
+
+	/**
+	 * The table.
+	 */
+	private final IntBuffer table;
+
+	/**
+	 * Create a combination table backed by the specified buffer. The buffer
+	 * must contain the table rows, without the file header.
+	 * 
+	 * @param table
+	 *            the table rows
+	 */
+	public CombinationTable(final IntBuffer table) {
+		if (table == null) {
+			throw new NullPointerException("table");
+		}
+		if (table.capacity() % ROW_SIZE != 0) {
+			throw new IllegalArgumentException("table.capacity() not a multiple of " + ROW_SIZE);
+		}
+		this.table = table;
+	}
+
+	/**
+	 * Load the combination table by memory mapping the specified table file.
+	 * 
+	 * @param file
+	 *            the table file
+	 * @return the combination table
+	 * @throws IOException
+	 *             if an I/O exception occurs, or if the file is not a valid
+	 *             table file
+	 */
+	public static CombinationTable load(final File file) throws IOException {
+		final long t1 = System.currentTimeMillis();
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+				throw new IOException("not a combination table file: " + file);
+			}
+			if (buffer.getInt(4) != VERSION) {
+				throw new IOException("unsupported combination table version: " + buffer.getInt(4));
+			}
+			final int states = buffer.getInt(8);
+			if (buffer.capacity() != HEADER_SIZE + (long) states * ROW_SIZE * 4) {
+				throw new IOException("combination table file has invalid length: " + buffer.capacity());
+			}
+			buffer.position(HEADER_SIZE);
+			final CombinationTable table = new CombinationTable(buffer.slice().asIntBuffer());
+			final long t2 = System.currentTimeMillis();
+			logger.info("combination table with {} states mapped in {} ms", states, t2 - t1);
+			return table;
+		} catch (final RuntimeException e) {
+			throw IOUtil.ioException("invalid combination table file: " + file, e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get the number of states in the table.
+	 * 
+	 * @return the number of states in the table
+	 */
+	public int getStateCount() {
+		return table.capacity() / ROW_SIZE;
+	}
+
+	/**
+	 * Get the state reached by adding a card to the specified state. If the
+	 * specified state has 6 cards, the combination value of the resulting
+	 * 7-card hand is returned instead.
+	 * 
+	 * @param state
+	 *            the state
+	 * @param card
+	 *            the ordinal of the card to add
+	 * @return the next state, or the combination value for a 7-card hand
+	 */
+	public int next(final int state, final int card) {
+		return table.get(state + card + 1);
+	}
+
+	/**
+	 * Get the combination value of the cards of the specified state. The state
+	 * must have 5 or 6 cards.
+	 * 
+	 * @param state
+	 *            the state
+	 * @return the combination value of the cards of the state
+	 */
+	public int getValue(final int state) {
+		return table.get(state);
+	}
+
+	/**
+	 * Get the combination value of a 7-card hand.
+	 * 
+	 * @param c1
+	 *            the ordinal of the first card
+	 * @param c2
+	 *            the ordinal of the second card
+	 * @param c3
+	 *            the ordinal of the third card
+	 * @param c4
+	 *            the ordinal of the fourth card
+	 * @param c5
+	 *            the ordinal of the fifth card
+	 * @param c6
+	 *            the ordinal of the sixth card
+	 * @param c7
+	 *            the ordinal of the seventh card
+	 * @return the combination value of the hand
+	 */
+	public int getBestValue(final int c1, final int c2, final int c3, final int c4, final int c5, final int c6, final int c7) {
+		final IntBuffer table = this.table;
+		int state = table.get(START + c1 + 1);
+		state = table.get(state + c2 + 1);
+		state = table.get(state + c3 + 1);
+		state = table.get(state + c4 + 1);
+		state = table.get(state + c5 + 1);
+		state = table.get(state + c6 + 1);
+		return table.get(state + c7 + 1);
+	}
+
+	/**
+	 * Get the combination value of the cards in the specified card mask, see
+	 * {@link Combination#getBestValue(long)}.
+	 * 
+	 * @param cardMask
+	 *            the card mask of a hand of 5 to 7 cards
+	 * @return the combination value of the hand
+	 */
+	public int getBestValue(final long cardMask) {
+		final int size = Long.bitCount(cardMask);
+		if (size < 5 || size > 7) {
+			throw new IllegalArgumentException("Long.bitCount(cardMask) not between 5 and 7");
+		}
+		int state = START;
+		long mask = cardMask;
+		while (mask != 0) {
+			state = table.get(state + Long.numberOfTrailingZeros(mask) + 1);
+			mask &= mask - 1;
+		}
+		return size == 7 ? state : table.get(state);
+	}
+
+}
@@ -0,0 +1,183 @@
+package com.sebster.poker;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generator of the rows of a {@link CombinationTable}.
+ * <p>
+ * A state is a sorted list of at most 6 cards. A card is encoded as
+ * <code>(rank << 3 | suit) + 1</code>, where the suit {@link #NO_SUIT} is used
+ * for cards of a suit which can no longer make a flush with the remaining
+ * cards of a 7-card hand. This makes many states equal, e.g., all 5-card
+ * states with only one card of each suit. The states are numbered in breadth
+ * first order, so the rows can be written while the states are generated.
+ * <p>
+ * The table can be restricted to the cards of a deck mask. Transitions on
+ * cards outside the deck are invalid, which gives a much smaller table for
+ * testing.
+ * 
+ * @author sebster
+ */
+public final class CombinationTableGenerator {
+
+	private static final Logger logger = LoggerFactory.getLogger(CombinationTableGenerator.class);
+
+	/**
+	 * The mask of all 52 cards.
+	 */
+	public static final long ALL_CARDS = (1L << 52) - 1;
+
+	private static final int NO_SUIT = 4;
+
+	private CombinationTableGenerator() {
+		// Utility class.
+	}
+
+	/**
+	 * Generate the rows of the combination table for the cards of the
+	 * specified deck mask, and write them to the specified output, without
+	 * the file header.
+	 * 
+	 * @param deck
+	 *            the mask of the cards of the deck, see {@link #ALL_CARDS}
+	 * @param out
+	 *            the output
+	 * @return the number of states
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public static int generate(final long deck, final DataOutput out) throws IOException {
+		final Map<Long, Integer> stateIds = new HashMap<Long, Integer>();
+		final List<Long> states = new ArrayList<Long>();
+		stateIds.put(0L, 0);
+		states.add(0L);
+
+		final int[] codes = new int[7];
+		for (int i = 0; i < states.size(); i++) {
+			final long state = states.get(i);
+			final int size = decode(state, codes);
+			out.writeInt(size >= 5 ? evaluate(codes, size) : 0);
+			for (int card = 0; card < 52; card++) {
+				final int nextSize = decode(state, codes);
+				if ((deck & 1L << card) == 0 || !add(codes, nextSize, card)) {
+					// Invalid transition, the card is not in the deck or
+					// already in the state.
+					out.writeInt(0);
+				} else if (nextSize + 1 == 7) {
+					out.writeInt(evaluate(codes, 7));
+				} else {
+					final long next = encode(codes, nextSize + 1);
+					Integer nextId = stateIds.get(next);
+					if (nextId == null) {
+						nextId = states.size();
+						stateIds.put(next, nextId);
+						states.add(next);
+					}
+					out.writeInt(nextId * CombinationTable.ROW_SIZE);
+				}
+			}
+			if (i % 100000 == 0 && i > 0) {
+				logger.info("generated {} of {} states so far", i, states.size());
+			}
+		}
+		return states.size();
+	}
+
+	private static int decode(final long state, final int[] codes) {
+		int size = 0;
+		for (long s = state; s != 0; s >>>= 8) {
+			codes[size++] = (int) (s & 0xff);
+		}
+		return size;
+	}
+
+	private static long encode(final int[] codes, final int size) {
+		Arrays.sort(codes, 0, size);
+		long state = 0;
+		for (int i = 0; i < size; i++) {
+			state = state << 8 | codes[i];
+		}
+		return state;
+	}
+
+	/**
+	 * Add a card to the specified codes, and forget the suits which can no
+	 * longer make a flush.
+	 */
+	private static boolean add(final int[] codes, final int size, final int card) {
+		final int rank = card >> 2, suit = card & 3;
+		int rankCount = 0;
+		for (int i = 0; i < size; i++) {
+			final int code = codes[i] - 1;
+			if (code == (rank << 3 | suit)) {
+				return false;
+			}
+			if (code >> 3 == rank) {
+				rankCount++;
+			}
+		}
+		if (rankCount == 4) {
+			return false;
+		}
+		codes[size] = (rank << 3 | suit) + 1;
+		final int remaining = 7 - (size + 1);
+		final int[] suitCounts = new int[4];
+		for (int i = 0; i <= size; i++) {
+			final int s = codes[i] - 1 & 7;
+			if (s != NO_SUIT) {
+				suitCounts[s]++;
+			}
+		}
+		for (int i = 0; i <= size; i++) {
+			final int s = codes[i] - 1 & 7;
+			if (s != NO_SUIT && suitCounts[s] + remaining < 5) {
+				codes[i] = (codes[i] - 1 & ~7 | NO_SUIT) + 1;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Evaluate the specified codes by giving the cards without a suit suits
+	 * which do not occur in the codes, so they can not make a flush.
+	 */
+	private static int evaluate(final int[] codes, final int size) {
+		long mask = 0;
+		final int[] suitCounts = new int[4];
+		for (int i = 0; i < size; i++) {
+			final int code = codes[i] - 1;
+			if ((code & 7) != NO_SUIT) {
+				mask |= 1L << ((code >> 3) << 2 | code & 7);
+				suitCounts[code & 7] += 5;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			final int code = codes[i] - 1;
+			if ((code & 7) == NO_SUIT) {
+				int best = -1;
+				for (int s = 0; s < 4; s++) {
+					final long bit = 1L << ((code >> 3) << 2 | s);
+					if ((mask & bit) == 0 && (best < 0 || suitCounts[s] < suitCounts[best])) {
+						best = s;
+					}
+				}
+				if (best < 0 || suitCounts[best] >= 4) {
+					throw new IllegalStateException("cannot assign suit to " + Arrays.toString(codes));
+				}
+				mask |= 1L << ((code >> 3) << 2 | best);
+				suitCounts[best]++;
+			}
+		}
+		return Combination.getBestValue(mask);
+	}
+
+}
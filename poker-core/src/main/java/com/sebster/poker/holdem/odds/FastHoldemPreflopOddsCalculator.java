@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.GZIPInputStream;
 
 import net.jcip.annotations.NotThreadSafe;
@@ -13,22 +15,57 @@ import net.jcip.annotations.NotThreadSafe;
 import com.sebster.poker.Deck;
 import com.sebster.poker.Hole;
 import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Cancellation;
 import com.sebster.poker.odds.CompressedHandValueDatabase;
 import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.ExpandedHandValueCache;
 import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.ParallelChunks;
 import com.sebster.util.ArrayUtils;
+import com.sebster.util.Validate;
 
 @NotThreadSafe
 public class FastHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalculator {
 
 	public static final String DB_FILENAME = "holdem_hand_value_db.lzfi.gz";
 
+	/**
+	 * The number of boards per chunk when comparing in parallel.
+	 */
+	private static final int COMPARE_CHUNK_SIZE = 1 << 15;
+
 	private final CompressedHandValueDatabase db;
 
 	/**
-	 * The uncompressed hand value arrays for up to 10 hands.
+	 * The shared cache of expanded holes, or {@code null} to keep the expanded
+	 * holes of the last calculation only.
+	 */
+	private final ExpandedHandValueCache cache;
+
+	/**
+	 * The executor for the compare workers, or {@code null} to compare on the
+	 * calling thread only.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The maximum number of threads, including the calling thread, used to
+	 * compare.
 	 */
-	private final int[][] udata = new int[10][Constants.BOARD_COUNT_52];
+	private final int parallelism;
+
+	/**
+	 * The uncompressed hand value arrays for up to 10 hands, or {@code null}
+	 * if the database contains ranks. The arrays are not allocated if a shared
+	 * cache is used.
+	 */
+	private final int[][] udata;
+
+	/**
+	 * The uncompressed rank arrays for up to 10 hands, or {@code null} if the
+	 * database contains hand values.
+	 */
+	private final short[][] rdata;
 
 	/**
 	 * The hole indexes of the uncompressed hand value arrays. This allows a
@@ -37,17 +74,78 @@ public class FastHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalcula
 	 */
 	private final int[] udataIndexes = new int[10];
 
-	private int lastExpandTime;
+	/**
+	 * The expand time of the last calculation in nanoseconds.
+	 */
+	private long lastExpandNanos;
 
 	private int lastExpandCacheHits;
 
-	private int lastCompareTime;
+	/**
+	 * The compare time of the last calculation in nanoseconds.
+	 */
+	private long lastCompareNanos;
 
 	public FastHoldemPreflopOddsCalculator(final CompressedHandValueDatabase db) {
+		this(db, null, 1);
+	}
+
+	/**
+	 * Create a calculator which splits the boards over up to the specified
+	 * number of threads when comparing, and also when expanding if the
+	 * database is in the block format. The executor can be shared between
+	 * calculators, see {@link ParallelChunks}.
+	 * 
+	 * @param db
+	 *            the hand value database
+	 * @param executor
+	 *            the executor for the compare workers, or {@code null} to
+	 *            compare on the calling thread only
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread,
+	 *            used to compare
+	 */
+	public FastHoldemPreflopOddsCalculator(final CompressedHandValueDatabase db, final ExecutorService executor, final int parallelism) {
+		this(db, null, executor, parallelism);
+	}
+
+	/**
+	 * Create a calculator which gets the expanded holes from the specified
+	 * cache, which can be shared with the calculators of other threads. The
+	 * boards are split over up to the specified number of threads when
+	 * comparing, see {@link #FastHoldemPreflopOddsCalculator(CompressedHandValueDatabase, ExecutorService, int)}.
+	 * 
+	 * @param cache
+	 *            the cache of expanded holes
+	 * @param executor
+	 *            the executor for the compare workers, or {@code null} to
+	 *            compare on the calling thread only
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread,
+	 *            used to compare
+	 */
+	public FastHoldemPreflopOddsCalculator(final ExpandedHandValueCache cache, final ExecutorService executor, final int parallelism) {
+		this(cache.getDatabase(), cache, executor, parallelism);
+	}
+
+	private FastHoldemPreflopOddsCalculator(final CompressedHandValueDatabase db, final ExpandedHandValueCache cache, final ExecutorService executor, final int parallelism) {
 		if (db == null) {
 			throw new NullPointerException("db");
 		}
+		Validate.isTrue(parallelism >= 1, "parallelism < 1");
+		Validate.isTrue(parallelism == 1 || executor != null, "executor == null");
 		this.db = db;
+		this.cache = cache;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		final int boardCount = cache == null ? Constants.BOARD_COUNT_52 : 0;
+		if (db.getEncoding() == CompressedHandValueDatabase.ENCODING_RANK) {
+			udata = null;
+			rdata = new short[10][boardCount];
+		} else {
+			udata = new int[10][boardCount];
+			rdata = null;
+		}
 		Arrays.fill(udataIndexes, -1);
 	}
 
@@ -70,14 +168,21 @@ public class FastHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalcula
 			holeIndexes[i] = holes[i].getIndex();
 		}
 
+		if (cache != null) {
+			return calculateOddsCached(holeIndexes);
+		}
+
 		final int[][] udata = this.udata;
+		final short[][] rdata = this.rdata;
 		final int[] udataIndexes = this.udataIndexes;
 		final int[][] nWaySplits = new int[numHoles][numHoles + 1];
 
-		final long t1 = System.currentTimeMillis();
+		final long t1 = System.nanoTime();
 
 		// Decompress the hands.
 		lastExpandCacheHits = 0;
+		final int[] expandHoles = new int[numHoles];
+		int numExpandHoles = 0;
 		nh: for (int i = 0; i < numHoles; i++) {
 			final int holeIndex = holeIndexes[i];
 			// Scan the current udata for the specified hole.
@@ -87,21 +192,169 @@ public class FastHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalcula
 					lastExpandCacheHits++;
 					if (i != j) {
 						// Make sure it's in the correct place.
-						ArrayUtils.swap(udata, i, j);
+						if (rdata != null) {
+							ArrayUtils.swap(rdata, i, j);
+						} else {
+							ArrayUtils.swap(udata, i, j);
+						}
 						ArrayUtils.swap(udataIndexes, i, j);
 					}
 					continue nh;
 				}
 			}
 			// No cached hand, decompress.
-			db.expand(holeIndex, udata[i]);
+			expandHoles[numExpandHoles++] = i;
 			udataIndexes[i] = holeIndex;
 		}
+		final int blockCount = db.getBlockCount();
+		if (parallelism > 1 && blockCount > 1) {
+			// Expand the blocks of all holes in parallel.
+			final int restartInterval = db.getRestartInterval();
+			ParallelChunks.run(executor, parallelism, numExpandHoles * blockCount, new ParallelChunks.Action() {
+				@Override
+				public void run(final int chunk) {
+					final int i = expandHoles[chunk / blockCount];
+					final int from = chunk % blockCount * restartInterval;
+					final int to = Math.min(from + restartInterval, Constants.BOARD_COUNT_52);
+					if (rdata != null) {
+						db.expand(holeIndexes[i], from, to, rdata[i]);
+					} else {
+						db.expand(holeIndexes[i], from, to, udata[i]);
+					}
+				}
+			});
+		} else {
+			for (int k = 0; k < numExpandHoles; k++) {
+				final int i = expandHoles[k];
+				if (rdata != null) {
+					db.expand(holeIndexes[i], rdata[i]);
+				} else {
+					db.expand(holeIndexes[i], udata[i]);
+				}
+			}
+		}
 
-		final long t2 = System.currentTimeMillis();
+		final long t2 = System.nanoTime();
 
 		// Compare.
-		nb: for (int i = 0; i < Constants.BOARD_COUNT_52; i++) {
+		compare(udata, rdata, numHoles, nWaySplits);
+
+		final long t3 = System.nanoTime();
+
+		// Record the expand and compare times.
+		lastExpandNanos = t2 - t1;
+		lastCompareNanos = t3 - t2;
+
+		return createOdds(nWaySplits);
+	}
+
+	/**
+	 * Calculate the odds of the specified holes with the expanded holes of the
+	 * shared cache.
+	 */
+	private Odds[] calculateOddsCached(final int[] holeIndexes) {
+		final int numHoles = holeIndexes.length;
+		final int[][] udata = this.udata != null ? new int[numHoles][] : null;
+		final short[][] rdata = this.rdata != null ? new short[numHoles][] : null;
+		final int[][] nWaySplits = new int[numHoles][numHoles + 1];
+		final ExpandedHandValueCache.Entry[] entries = new ExpandedHandValueCache.Entry[numHoles];
+		try {
+			final long t1 = System.nanoTime();
+
+			// Get the expanded hands, expanding the hands which are not cached.
+			lastExpandCacheHits = cache.acquire(holeIndexes, entries);
+			for (int i = 0; i < numHoles; i++) {
+				if (rdata != null) {
+					rdata[i] = entries[i].getRanks();
+				} else {
+					udata[i] = entries[i].getHandValues();
+				}
+			}
+
+			final long t2 = System.nanoTime();
+
+			// Compare.
+			compare(udata, rdata, numHoles, nWaySplits);
+
+			final long t3 = System.nanoTime();
+
+			// Record the expand and compare times.
+			lastExpandNanos = t2 - t1;
+			lastCompareNanos = t3 - t2;
+		} finally {
+			cache.release(entries);
+		}
+
+		return createOdds(nWaySplits);
+	}
+
+	/**
+	 * Count the wins and splits of the specified holes for all boards, in
+	 * parallel if configured. The cancellation of the calling thread is
+	 * checked by all threads, see {@link Cancellation}.
+	 */
+	private void compare(final int[][] udata, final short[][] rdata, final int numHoles, final int[][] nWaySplits) {
+		final Cancellation cancellation = Cancellation.getCurrent();
+		if (parallelism > 1) {
+			final int chunks = (Constants.BOARD_COUNT_52 + COMPARE_CHUNK_SIZE - 1) / COMPARE_CHUNK_SIZE;
+			ParallelChunks.run(executor, parallelism, chunks, new ParallelChunks.Task() {
+				@Override
+				public void run(final int chunk, final int[][] chunkNWaySplits) {
+					final int from = chunk * COMPARE_CHUNK_SIZE;
+					final int to = Math.min(from + COMPARE_CHUNK_SIZE, Constants.BOARD_COUNT_52);
+					compare(udata, rdata, numHoles, from, to, chunkNWaySplits, cancellation);
+				}
+			}, nWaySplits);
+		} else {
+			compare(udata, rdata, numHoles, 0, Constants.BOARD_COUNT_52, nWaySplits, cancellation);
+		}
+	}
+
+	/**
+	 * Count the wins and splits of the specified holes for the boards in the
+	 * specified range, checking the specified cancellation every
+	 * {@link Cancellation#CHECK_INTERVAL} boards.
+	 */
+	private static void compare(final int[][] udata, final short[][] rdata, final int numHoles, final int from, final int to, final int[][] nWaySplits, final Cancellation cancellation) {
+		for (int sliceFrom = from; sliceFrom < to; sliceFrom += Cancellation.CHECK_INTERVAL) {
+			if (cancellation != null) {
+				cancellation.check();
+			}
+			final int sliceTo = Math.min(sliceFrom + Cancellation.CHECK_INTERVAL, to);
+			if (rdata != null) {
+				compare(rdata, numHoles, sliceFrom, sliceTo, nWaySplits);
+			} else {
+				compare(udata, numHoles, sliceFrom, sliceTo, nWaySplits);
+			}
+		}
+	}
+
+	/**
+	 * Create the odds from the counted wins and splits.
+	 */
+	private static Odds[] createOdds(final int[][] nWaySplits) {
+		final int numHoles = nWaySplits.length;
+		final Odds[] odds = new Odds[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			final int[] nWaySplitsI = nWaySplits[i];
+			// Compute losses because they were not counted.
+			int k = Constants.getHole2BoardCount(numHoles);
+			for (int j = 1; j <= numHoles; j++) {
+				k -= nWaySplitsI[j];
+			}
+			nWaySplitsI[0] = k;
+			// Initialize the odds for this hole.
+			odds[i] = new BasicOdds(nWaySplitsI);
+		}
+		return odds;
+	}
+
+	/**
+	 * Count the wins and splits of the specified holes for the boards in the
+	 * specified range.
+	 */
+	static void compare(final int[][] udata, final int numHoles, final int from, final int to, final int[][] nWaySplits) {
+		nb: for (int i = from; i < to; i++) {
 			// First check if the board intersects any of the holes.
 			for (int j = 0; j < numHoles; j++) {
 				if (udata[j][i] < 0) {
@@ -132,31 +385,52 @@ public class FastHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalcula
 				}
 			}
 		}
+	}
 
-		final long t3 = System.currentTimeMillis();
-
-		// Record the expand and compare times.
-		lastExpandTime = (int) (t2 - t1);
-		lastCompareTime = (int) (t3 - t2);
-
-		// Create the return value.
-		final Odds[] odds = new Odds[numHoles];
-		for (int i = 0; i < numHoles; i++) {
-			final int[] nWaySplitsI = nWaySplits[i];
-			// Compute losses because they were not counted.
-			int k = Constants.getHole2BoardCount(numHoles);
-			for (int j = 1; j <= numHoles; j++) {
-				k -= nWaySplitsI[j];
+	/**
+	 * Count the wins and splits of the specified holes for the boards in the
+	 * specified range, comparing ranks instead of hand values.
+	 */
+	private static void compare(final short[][] rdata, final int numHoles, final int from, final int to, final int[][] nWaySplits) {
+		nb: for (int i = from; i < to; i++) {
+			// First check if the board intersects any of the holes.
+			for (int j = 0; j < numHoles; j++) {
+				if (rdata[j][i] < 0) {
+					// Board intersects hole, skip board.
+					continue nb;
+				}
+			}
+			// Find the maximum rank, and the number of times it occurs.
+			int max = 0, count = 0;
+			for (int j = 0; j < numHoles; j++) {
+				final int v = rdata[j][i];
+				if (v < max) {
+					// Losing hand.
+				} else if (v > max) {
+					// New winning hand.
+					max = v;
+					count = 1;
+				} else if (v == max) {
+					// Split with current winning hand.
+					count++;
+				}
+			}
+			// Count the win/split for the winning hands.
+			for (int j = 0; j < numHoles; j++) {
+				if (rdata[j][i] == max) {
+					// Count win/split.
+					nWaySplits[j][count]++;
+				}
 			}
-			nWaySplitsI[0] = k;
-			// Initialize the odds for this hole.
-			odds[i] = new BasicOdds(nWaySplitsI);
 		}
-		return odds;
 	}
 
 	public int getLastExpandTime() {
-		return lastExpandTime;
+		return (int) (lastExpandNanos / 1000000);
+	}
+
+	public long getLastExpandNanos() {
+		return lastExpandNanos;
 	}
 
 	public int getLastExpandCacheHits() {
@@ -164,7 +438,11 @@ public class FastHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalcula
 	}
 
 	public int getLastCompareTime() {
-		return lastCompareTime;
+		return (int) (lastCompareNanos / 1000000);
+	}
+
+	public long getLastCompareNanos() {
+		return lastCompareNanos;
 	}
 
 	public static void main(final String[] args) throws IOException {
@@ -179,11 +457,17 @@ public class FastHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalcula
 			dbFilename = args[1];
 		}
 
+		int threads = 1;
+		if (args.length > 2) {
+			threads = Integer.parseInt(args[2]);
+		}
+
 		final InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(dbFilename)));
 		final CompressedHandValueDatabase db = new CompressedHandValueDatabase(in);
 		in.close();
 
-		final FastHoldemPreflopOddsCalculator calculator = new FastHoldemPreflopOddsCalculator(db);
+		final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+		final FastHoldemPreflopOddsCalculator calculator = new FastHoldemPreflopOddsCalculator(db, executor, threads);
 
 		final Random random = new Random();
 		final Deck deck = new Deck(random);
@@ -233,6 +517,9 @@ public class FastHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalcula
 
 		}
 
+		if (executor != null) {
+			executor.shutdown();
+		}
 		System.out.println("avg expand=" + totalExpandTime / 100 + " avg compare=" + totalCompareTime / 100 + " avg total=" + totalTime / 100 + " ms");
 	}
 }
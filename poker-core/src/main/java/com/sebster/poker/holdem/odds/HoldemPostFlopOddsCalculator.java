@@ -0,0 +1,11 @@
+package com.sebster.poker.holdem.odds;
+
+import com.sebster.poker.Card;
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.Odds;
+
+public interface HoldemPostFlopOddsCalculator {
+
+	Odds[] calculateOdds(final Hole[] holes, final Card[] board);
+
+}
@@ -0,0 +1,303 @@
+package com.sebster.poker.holdem.odds;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import com.sebster.poker.Deck;
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Cancellation;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.MappedHandValueDatabase;
+import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.ParallelChunks;
+import com.sebster.util.Validate;
+
+/**
+ * Preflop odds calculator which compares the hand values (or ranks) of the
+ * holes directly in a {@link MappedHandValueDatabase}, so nothing needs to be
+ * expanded.
+ * 
+ * @author sebster
+ */
+@NotThreadSafe
+public class MappedHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalculator {
+
+	public static final String DB_FILENAME = "holdem_hand_value_db.bin";
+
+	/**
+	 * The number of boards per chunk when comparing in parallel.
+	 */
+	private static final int COMPARE_CHUNK_SIZE = 1 << 15;
+
+	private final MappedHandValueDatabase db;
+
+	/**
+	 * The executor for the compare workers, or {@code null} to compare on the
+	 * calling thread only.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The maximum number of threads, including the calling thread, used to
+	 * compare.
+	 */
+	private final int parallelism;
+
+	/**
+	 * The compare time of the last calculation in nanoseconds.
+	 */
+	private long lastCompareNanos;
+
+	public MappedHoldemPreflopOddsCalculator(final MappedHandValueDatabase db) {
+		this(db, null, 1);
+	}
+
+	/**
+	 * Create a calculator which splits the boards over up to the specified
+	 * number of threads when comparing. The executor can be shared between
+	 * calculators, see {@link ParallelChunks}.
+	 * 
+	 * @param db
+	 *            the hand value database
+	 * @param executor
+	 *            the executor for the compare workers, or {@code null} to
+	 *            compare on the calling thread only
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread,
+	 *            used to compare
+	 */
+	public MappedHoldemPreflopOddsCalculator(final MappedHandValueDatabase db, final ExecutorService executor, final int parallelism) {
+		if (db == null) {
+			throw new NullPointerException("db");
+		}
+		Validate.isTrue(parallelism >= 1, "parallelism < 1");
+		Validate.isTrue(parallelism == 1 || executor != null, "executor == null");
+		this.db = db;
+		this.executor = executor;
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public final Odds[] calculateOdds(final Hole... holes) {
+
+		final int numHoles = holes.length;
+		if (numHoles < 2 || numHoles > 10) {
+			throw new IllegalArgumentException("number of holes must be between 2 and 10");
+		}
+
+		// Check for duplicate cards and get the views of the holes.
+		final boolean ranks = db.getEncoding() == CompressedHandValueDatabase.ENCODING_RANK;
+		final IntBuffer[] values = ranks ? null : new IntBuffer[numHoles];
+		final ShortBuffer[] rankValues = ranks ? new ShortBuffer[numHoles] : null;
+		for (int i = 0; i < numHoles; i++) {
+			for (int j = i + 1; j < numHoles; j++) {
+				if (holes[i].intersects(holes[j])) {
+					throw new IllegalArgumentException("hole " + holes[i] + " and hole " + holes[j] + " contain common cards");
+				}
+			}
+			if (ranks) {
+				rankValues[i] = db.getRanks(holes[i].getIndex());
+			} else {
+				values[i] = db.getHandValues(holes[i].getIndex());
+			}
+		}
+
+		final int[][] nWaySplits = new int[numHoles][numHoles + 1];
+
+		final long t1 = System.nanoTime();
+
+		// Compare.
+		final Cancellation cancellation = Cancellation.getCurrent();
+		if (parallelism > 1) {
+			final int chunks = (Constants.BOARD_COUNT_52 + COMPARE_CHUNK_SIZE - 1) / COMPARE_CHUNK_SIZE;
+			ParallelChunks.run(executor, parallelism, chunks, new ParallelChunks.Task() {
+				@Override
+				public void run(final int chunk, final int[][] chunkNWaySplits) {
+					final int from = chunk * COMPARE_CHUNK_SIZE;
+					final int to = Math.min(from + COMPARE_CHUNK_SIZE, Constants.BOARD_COUNT_52);
+					compare(values, rankValues, numHoles, from, to, chunkNWaySplits, cancellation);
+				}
+			}, nWaySplits);
+		} else {
+			compare(values, rankValues, numHoles, 0, Constants.BOARD_COUNT_52, nWaySplits, cancellation);
+		}
+
+		final long t2 = System.nanoTime();
+
+		// Record the compare time.
+		lastCompareNanos = t2 - t1;
+
+		// Create the return value.
+		final Odds[] odds = new Odds[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			final int[] nWaySplitsI = nWaySplits[i];
+			// Compute losses because they were not counted.
+			int k = Constants.getHole2BoardCount(numHoles);
+			for (int j = 1; j <= numHoles; j++) {
+				k -= nWaySplitsI[j];
+			}
+			nWaySplitsI[0] = k;
+			// Initialize the odds for this hole.
+			odds[i] = new BasicOdds(nWaySplitsI);
+		}
+		return odds;
+	}
+
+	/**
+	 * Count the wins and splits of the specified holes for the boards in the
+	 * specified range, comparing the ranks if they are specified, checking the
+	 * specified cancellation every {@link Cancellation#CHECK_INTERVAL} boards.
+	 */
+	private static void compare(final IntBuffer[] values, final ShortBuffer[] rankValues, final int numHoles, final int from, final int to, final int[][] nWaySplits, final Cancellation cancellation) {
+		for (int sliceFrom = from; sliceFrom < to; sliceFrom += Cancellation.CHECK_INTERVAL) {
+			if (cancellation != null) {
+				cancellation.check();
+			}
+			final int sliceTo = Math.min(sliceFrom + Cancellation.CHECK_INTERVAL, to);
+			if (rankValues != null) {
+				compare(rankValues, numHoles, sliceFrom, sliceTo, nWaySplits);
+			} else {
+				compare(values, numHoles, sliceFrom, sliceTo, nWaySplits);
+			}
+		}
+	}
+
+	/**
+	 * Count the wins and splits of the specified holes for the boards in the
+	 * specified range.
+	 */
+	private static void compare(final IntBuffer[] values, final int numHoles, final int from, final int to, final int[][] nWaySplits) {
+		// Each value is read once, buffer reads are more expensive than
+		// array reads.
+		final int[] v = new int[numHoles];
+		nb: for (int i = from; i < to; i++) {
+			// Read the values, and check if the board intersects any of the
+			// holes.
+			for (int j = 0; j < numHoles; j++) {
+				if ((v[j] = values[j].get(i)) < 0) {
+					// Board intersects hole, skip board.
+					continue nb;
+				}
+			}
+			// Find the maximum hand value, and the number of times it occurs.
+			int max = 0, count = 0;
+			for (int j = 0; j < numHoles; j++) {
+				if (v[j] > max) {
+					// New winning hand.
+					max = v[j];
+					count = 1;
+				} else if (v[j] == max) {
+					// Split with current winning hand.
+					count++;
+				}
+			}
+			// Count the win/split for the winning hands.
+			for (int j = 0; j < numHoles; j++) {
+				if (v[j] == max) {
+					// Count win/split.
+					nWaySplits[j][count]++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count the wins and splits of the specified holes for the boards in the
+	 * specified range, comparing ranks instead of hand values.
+	 */
+	private static void compare(final ShortBuffer[] ranks, final int numHoles, final int from, final int to, final int[][] nWaySplits) {
+		// Each value is read once, buffer reads are more expensive than
+		// array reads.
+		final int[] v = new int[numHoles];
+		nb: for (int i = from; i < to; i++) {
+			// Read the values, and check if the board intersects any of the
+			// holes.
+			for (int j = 0; j < numHoles; j++) {
+				if ((v[j] = ranks[j].get(i)) < 0) {
+					// Board intersects hole, skip board.
+					continue nb;
+				}
+			}
+			// Find the maximum rank, and the number of times it occurs.
+			int max = 0, count = 0;
+			for (int j = 0; j < numHoles; j++) {
+				if (v[j] > max) {
+					// New winning hand.
+					max = v[j];
+					count = 1;
+				} else if (v[j] == max) {
+					// Split with current winning hand.
+					count++;
+				}
+			}
+			// Count the win/split for the winning hands.
+			for (int j = 0; j < numHoles; j++) {
+				if (v[j] == max) {
+					// Count win/split.
+					nWaySplits[j][count]++;
+				}
+			}
+		}
+	}
+
+	public int getLastCompareTime() {
+		return (int) (lastCompareNanos / 1000000);
+	}
+
+	public long getLastCompareNanos() {
+		return lastCompareNanos;
+	}
+
+	public static void main(final String[] args) throws IOException {
+
+		int numHoles = 2;
+		if (args.length > 0) {
+			numHoles = Integer.parseInt(args[0]);
+		}
+
+		String dbFilename = DB_FILENAME;
+		if (args.length > 1) {
+			dbFilename = args[1];
+		}
+
+		int threads = 1;
+		if (args.length > 2) {
+			threads = Integer.parseInt(args[2]);
+		}
+
+		final MappedHandValueDatabase db = MappedHandValueDatabase.load(new File(dbFilename));
+		final ExecutorService executor = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+		final MappedHoldemPreflopOddsCalculator calculator = new MappedHoldemPreflopOddsCalculator(db, executor, threads);
+
+		final Random random = new Random();
+		final Deck deck = new Deck(random);
+		long totalTime = 0;
+		for (int i = 0; i < 60; i++) {
+			final Hole[] holes = new Hole[numHoles];
+			for (int j = 0; j < numHoles; j++) {
+				holes[j] = Hole.fromDeck(deck);
+			}
+			deck.shuffle();
+			calculator.calculateOdds(holes);
+			if (i >= 10) {
+				// Skip the warmup rounds.
+				totalTime += calculator.getLastCompareTime();
+			}
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
+
+		System.out.println("avg compare=" + totalTime / 50 + " ms");
+	}
+
+}
@@ -0,0 +1,308 @@
+package com.sebster.poker.holdem.odds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.sebster.poker.BoardEvaluator;
+import com.sebster.poker.Card;
+import com.sebster.poker.CombinationTable;
+import com.sebster.poker.Deck;
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.ParallelChunks;
+import com.sebster.util.Validate;
+
+/**
+ * Post flop odds calculator which enumerates the remaining boards as card
+ * ordinals, and splits the turn cards of a flop over multiple threads. The
+ * odds are the same as those calculated by {@link PostFlopOddsCalculator},
+ * which counts every turn and river pair in both orders; this calculator
+ * enumerates each pair once and counts it twice.
+ * <p>
+ * The turn cards are the chunks of a {@link ParallelChunks} run, so the
+ * calling thread takes part in the calculation and a busy executor never
+ * blocks it.
+ * <p>
+ * If a {@link CombinationTable} is specified, the hands are evaluated with
+ * the table instead of a {@link BoardEvaluator}: the state of each board is
+ * calculated once, after which each hole takes two table loads.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public class ParallelPostFlopOddsCalculator implements HoldemPostFlopOddsCalculator {
+
+	private final ExecutorService executor;
+
+	private final int parallelism;
+
+	/**
+	 * The combination table, or {@code null} to evaluate with a
+	 * {@link BoardEvaluator}.
+	 */
+	private final CombinationTable table;
+
+	/**
+	 * Create a parallel post flop odds calculator.
+	 * 
+	 * @param executor
+	 *            the executor for the worker threads
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread,
+	 *            used for a single calculation
+	 */
+	public ParallelPostFlopOddsCalculator(final ExecutorService executor, final int parallelism) {
+		this(executor, parallelism, null);
+	}
+
+	/**
+	 * Create a parallel post flop odds calculator which evaluates the hands
+	 * with the specified combination table.
+	 * 
+	 * @param executor
+	 *            the executor for the worker threads, may be {@code null} if
+	 *            the parallelism is 1
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread,
+	 *            used for a single calculation
+	 * @param table
+	 *            the combination table, or {@code null} to evaluate with a
+	 *            {@link BoardEvaluator}
+	 */
+	public ParallelPostFlopOddsCalculator(final ExecutorService executor, final int parallelism, final CombinationTable table) {
+		Validate.isTrue(parallelism >= 1, "parallelism < 1");
+		if (executor == null && parallelism > 1) {
+			throw new NullPointerException("executor");
+		}
+		this.executor = executor;
+		this.parallelism = parallelism;
+		this.table = table;
+	}
+
+	@Override
+	public final Odds[] calculateOdds(final Hole[] holes, final Card[] board) {
+
+		final int numHoles = holes.length;
+		if (numHoles < 2 || numHoles > 10) {
+			throw new IllegalArgumentException("number of holes must be between 2 and 10");
+		}
+		if (board.length < 3 || board.length > 5) {
+			throw new IllegalArgumentException("board must consist of exactly 3-5 cards");
+		}
+
+		long deadMask = 0;
+		final long[] holeSuitRanks = new long[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			for (final Card card : holes[i]) {
+				if ((deadMask & card.getMask()) != 0) {
+					throw new IllegalArgumentException("duplicate card " + card + " in hole " + holes[i]);
+				}
+				deadMask |= card.getMask();
+			}
+			holeSuitRanks[i] = BoardEvaluator.getSuitRanks(holes[i]);
+		}
+		for (int i = 0; i < board.length; i++) {
+			if ((deadMask & board[i].getMask()) != 0) {
+				throw new IllegalArgumentException("duplicate card " + board[i] + " the on board");
+			}
+			deadMask |= board[i].getMask();
+		}
+
+		// The remaining cards as ordinals.
+		final int[] deck = new int[52 - Long.bitCount(deadMask)];
+		for (int card = 0, i = 0; card < 52; card++) {
+			if ((deadMask & 1L << card) == 0) {
+				deck[i++] = card;
+			}
+		}
+
+		final int[][] result;
+		if (table != null) {
+			final int[] holeCards = new int[numHoles * 2];
+			for (int i = 0; i < numHoles; i++) {
+				holeCards[2 * i] = holes[i].first().ordinal();
+				holeCards[2 * i + 1] = holes[i].last().ordinal();
+			}
+			result = calculateTableOdds(holeCards, board, deck);
+		} else if (board.length == 3) {
+			result = calculateFlopOdds(holeSuitRanks, board, deck);
+		} else {
+			result = new int[numHoles][numHoles + 1];
+			final int[] handValues = new int[numHoles];
+			final BoardEvaluator evaluator = new BoardEvaluator(board);
+			if (board.length == 4) {
+				for (int i = 0; i < deck.length; i++) {
+					evaluator.push(deck[i]);
+					count(evaluator, holeSuitRanks, 1, handValues, result);
+					evaluator.pop();
+				}
+			} else {
+				count(evaluator, holeSuitRanks, 1, handValues, result);
+			}
+		}
+
+		final Odds[] odds = new Odds[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			odds[i] = new BasicOdds(result[i]);
+		}
+		return odds;
+	}
+
+	private int[][] calculateFlopOdds(final long[] holeSuitRanks, final Card[] board, final int[] deck) {
+		final int numHoles = holeSuitRanks.length;
+		final int[][] result = new int[numHoles][numHoles + 1];
+		ParallelChunks.run(executor, parallelism, deck.length - 1, new ParallelChunks.Task() {
+			@Override
+			public void run(final int turn, final int[][] nWaySplits) {
+				final int[] handValues = new int[numHoles];
+				final BoardEvaluator evaluator = new BoardEvaluator(board);
+				evaluator.push(deck[turn]);
+				for (int river = turn + 1; river < deck.length; river++) {
+					evaluator.push(deck[river]);
+					count(evaluator, holeSuitRanks, 2, handValues, nWaySplits);
+					evaluator.pop();
+				}
+			}
+		}, result);
+		return result;
+	}
+
+	private int[][] calculateTableOdds(final int[] holeCards, final Card[] board, final int[] deck) {
+		final int numHoles = holeCards.length / 2;
+		final int[][] result = new int[numHoles][numHoles + 1];
+		int boardState = CombinationTable.START;
+		for (final Card card : board) {
+			boardState = table.next(boardState, card.ordinal());
+		}
+		if (board.length == 3) {
+			final int flopState = boardState;
+			ParallelChunks.run(executor, parallelism, deck.length - 1, new ParallelChunks.Task() {
+				@Override
+				public void run(final int turn, final int[][] nWaySplits) {
+					final int[] handValues = new int[numHoles];
+					final int turnState = table.next(flopState, deck[turn]);
+					for (int river = turn + 1; river < deck.length; river++) {
+						count(table, table.next(turnState, deck[river]), holeCards, 2, handValues, nWaySplits);
+					}
+				}
+			}, result);
+		} else {
+			final int[] handValues = new int[numHoles];
+			if (board.length == 4) {
+				for (int i = 0; i < deck.length; i++) {
+					count(table, table.next(boardState, deck[i]), holeCards, 1, handValues, result);
+				}
+			} else {
+				count(table, boardState, holeCards, 1, handValues, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Count the wins and splits of the holes on the board of the specified
+	 * 5-card table state with the specified weight.
+	 */
+	private static void count(final CombinationTable table, final int boardState, final int[] holeCards, final int weight, final int[] handValues, final int[][] result) {
+		final int numHoles = handValues.length;
+		int max = -1;
+		int count = 0;
+		for (int i = 0; i < numHoles; i++) {
+			final int v = table.next(table.next(boardState, holeCards[2 * i]), holeCards[2 * i + 1]);
+			handValues[i] = v;
+			if (v > max) {
+				max = v;
+				count = 1;
+			} else if (v == max) {
+				count++;
+			}
+		}
+		for (int i = 0; i < numHoles; i++) {
+			result[i][handValues[i] == max ? count : 0] += weight;
+		}
+	}
+
+	/**
+	 * Count the wins and splits of the holes on the current board of the
+	 * evaluator with the specified weight.
+	 */
+	private static void count(final BoardEvaluator evaluator, final long[] holeSuitRanks, final int weight, final int[] handValues, final int[][] result) {
+		final int numHoles = holeSuitRanks.length;
+		int max = -1;
+		int count = 0;
+		for (int i = 0; i < numHoles; i++) {
+			final int v = evaluator.getBestValue(holeSuitRanks[i]);
+			handValues[i] = v;
+			if (v > max) {
+				max = v;
+				count = 1;
+			} else if (v == max) {
+				count++;
+			}
+		}
+		for (int i = 0; i < numHoles; i++) {
+			result[i][handValues[i] == max ? count : 0] += weight;
+		}
+	}
+
+	public static void main(final String[] args) throws IOException {
+
+		int numHoles = 10;
+		if (args.length > 0) {
+			numHoles = Integer.parseInt(args[0]);
+		}
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		if (args.length > 1) {
+			threads = Integer.parseInt(args[1]);
+		}
+
+		CombinationTable table = null;
+		if (args.length > 2) {
+			table = CombinationTable.load(new File(args[2]));
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final ParallelPostFlopOddsCalculator calculator = new ParallelPostFlopOddsCalculator(executor, threads, table);
+		final PostFlopOddsCalculator reference = PostFlopOddsCalculator.getInstance();
+
+		final Random random = new Random();
+		final Deck deck = new Deck(random);
+		long totalTime = 0, totalReferenceTime = 0;
+		for (int i = 0; i < 150; i++) {
+			final Hole[] holes = new Hole[numHoles];
+			for (int j = 0; j < numHoles; j++) {
+				holes[j] = Hole.fromDeck(deck);
+			}
+			final Card[] board = new Card[] { deck.draw(), deck.draw(), deck.draw() };
+			deck.shuffle();
+
+			final long t1 = System.nanoTime();
+			final Odds[] odds = calculator.calculateOdds(holes, board);
+			final long t2 = System.nanoTime();
+			final Odds[] referenceOdds = reference.calculateOdds(holes, board);
+			final long t3 = System.nanoTime();
+
+			for (int j = 0; j < numHoles; j++) {
+				if (!odds[j].toString().equals(referenceOdds[j].toString())) {
+					System.out.println("***** ODDS INCORRECT ***** " + odds[j] + " != " + referenceOdds[j]);
+				}
+			}
+			if (i >= 50) {
+				// Skip the warmup rounds.
+				totalTime += t2 - t1;
+				totalReferenceTime += t3 - t2;
+			}
+		}
+		executor.shutdown();
+
+		System.out.println("avg parallel=" + totalTime / 100000 / 1000.0 + " ms avg reference=" + totalReferenceTime / 100000 / 1000.0 + " ms");
+	}
+
+}
@@ -2,14 +2,13 @@ package com.sebster.poker.holdem.odds;
 
 import java.util.EnumSet;
 
+import com.sebster.poker.BoardEvaluator;
 import com.sebster.poker.Card;
-import com.sebster.poker.CardSet;
-import com.sebster.poker.Combination;
 import com.sebster.poker.Hole;
 import com.sebster.poker.odds.BasicOdds;
 import com.sebster.poker.odds.Odds;
 
-public class PostFlopOddsCalculator {
+public class PostFlopOddsCalculator implements HoldemPostFlopOddsCalculator {
 
 	private static final PostFlopOddsCalculator INSTANCE = new PostFlopOddsCalculator();
 
@@ -21,6 +20,7 @@ public class PostFlopOddsCalculator {
 		// Singleton.
 	}
 
+	@Override
 	public final Odds[] calculateOdds(final Hole[] holes, final Card[] board) {
 
 		final int numHoles = holes.length;
@@ -46,10 +46,14 @@ public class PostFlopOddsCalculator {
 			}
 		}
 
-		final Card[] cards = new Card[7];
-		System.arraycopy(board, 0, cards, 0, board.length);
+		final long[] holeSuitRanks = new long[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			holeSuitRanks[i] = BoardEvaluator.getSuitRanks(holes[i]);
+		}
+		final BoardEvaluator evaluator = new BoardEvaluator(board);
+		final int[] handValues = new int[numHoles];
 		final int[][] result = new int[numHoles][numHoles + 1];
-		calculateOdds(holes, cards, deck, board.length, result);
+		calculateOdds(holeSuitRanks, evaluator, deck, handValues, result);
 		final Odds[] odds = new Odds[numHoles];
 		for (int i = 0; i < numHoles; i++) {
 			odds[i] = new BasicOdds(result[i]);
@@ -57,16 +61,13 @@ public class PostFlopOddsCalculator {
 		return odds;
 	}
 
-	private void calculateOdds(final Hole[] holes, final Card[] cards, final EnumSet<Card> deck, final int length, final int[][] result) {
-		final int numHoles = holes.length;
-		if (length == 5) {
-			int[] handValues = new int[numHoles];
+	private void calculateOdds(final long[] holeSuitRanks, final BoardEvaluator evaluator, final EnumSet<Card> deck, final int[] handValues, final int[][] result) {
+		final int numHoles = holeSuitRanks.length;
+		if (evaluator.size() == 5) {
 			int max = -1;
 			int count = 0;
 			for (int i = 0; i < numHoles; i++) {
-				cards[5] = holes[i].first();
-				cards[6] = holes[i].last();
-				handValues[i] = Combination.getBestValue(CardSet.fromCards(cards));
+				handValues[i] = evaluator.getBestValue(holeSuitRanks[i]);
 				if (handValues[i] > max) {
 					max = handValues[i];
 					count = 1;
@@ -81,10 +82,11 @@ public class PostFlopOddsCalculator {
 		}
 
 		for (final Card card : deck) {
-			cards[length] = card;
+			evaluator.push(card);
 			deck.remove(card);
-			calculateOdds(holes, cards, deck, length + 1, result);
+			calculateOdds(holeSuitRanks, evaluator, deck, handValues, result);
 			deck.add(card);
+			evaluator.pop();
 		}
 	}
 
@@ -0,0 +1,191 @@
+package com.sebster.poker.holdem.odds;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import com.sebster.io.compress.CompressLZFI;
+import com.sebster.poker.Deck;
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Cancellation;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.Odds;
+
+/**
+ * Preflop odds calculator which expands the hand values of all holes in
+ * lock-step, {@link #BLOCK_SIZE} boards at a time, and compares each block
+ * while it is still in the processor cache. The hand values are never
+ * completely expanded. Each hole needs a decoder window of
+ * {@link CompressLZFI.Decoder#getWindowSize(int, int)} values because of the
+ * back reference range of the compression. This is 4 MB instead of the 10 MB
+ * of a fully expanded hole for a database in the original format, and about
+ * twice the restart interval for a database in the block format. A KB-scale
+ * window needs a database about four times larger, see
+ * {@link CompressedHandValueDatabase#startExpand(int, CompressLZFI.Decoder)}.
+ * 
+ * @author sebster
+ */
+@NotThreadSafe
+public class StreamingHoldemPreflopOddsCalculator implements HoldemPreflopOddsCalculator {
+
+	/**
+	 * The number of boards expanded and compared at a time.
+	 */
+	public static final int BLOCK_SIZE = 4096;
+
+	private final CompressedHandValueDatabase db;
+
+	/**
+	 * The decoders for up to 10 holes, created when first needed.
+	 */
+	private final CompressLZFI.Decoder[] decoders = new CompressLZFI.Decoder[10];
+
+	private long lastExpandNanos;
+
+	private long lastCompareNanos;
+
+	public StreamingHoldemPreflopOddsCalculator(final CompressedHandValueDatabase db) {
+		if (db == null) {
+			throw new NullPointerException("db");
+		}
+		this.db = db;
+	}
+
+	@Override
+	public final Odds[] calculateOdds(final Hole... holes) {
+
+		final int numHoles = holes.length;
+		if (numHoles < 2 || numHoles > 10) {
+			throw new IllegalArgumentException("number of holes must be between 2 and 10");
+		}
+
+		// Check for duplicate cards and start expanding the holes.
+		final CompressLZFI.Decoder[] decoders = this.decoders;
+		final int[][] windows = new int[numHoles][];
+		for (int i = 0; i < numHoles; i++) {
+			for (int j = i + 1; j < numHoles; j++) {
+				if (holes[i].intersects(holes[j])) {
+					throw new IllegalArgumentException("hole " + holes[i] + " and hole " + holes[j] + " contain common cards");
+				}
+			}
+			if (decoders[i] == null) {
+				decoders[i] = new CompressLZFI.Decoder(BLOCK_SIZE, db.getRestartInterval());
+			}
+			db.startExpand(holes[i].getIndex(), decoders[i]);
+			windows[i] = decoders[i].getWindow();
+		}
+
+		final int[][] nWaySplits = new int[numHoles][numHoles + 1];
+
+		// Expand and compare a block at a time, checking the cancellation of
+		// the calling thread before each block.
+		final Cancellation cancellation = Cancellation.getCurrent();
+		long expandTime = 0, compareTime = 0;
+		for (int from = 0; from < Constants.BOARD_COUNT_52; from += BLOCK_SIZE) {
+			if (cancellation != null) {
+				cancellation.check();
+			}
+			final int count = Math.min(BLOCK_SIZE, Constants.BOARD_COUNT_52 - from);
+			final long t1 = System.nanoTime();
+			int start = 0;
+			for (int i = 0; i < numHoles; i++) {
+				// All decoders are in the same position in their window.
+				start = decoders[i].expand(count);
+			}
+			final long t2 = System.nanoTime();
+			FastHoldemPreflopOddsCalculator.compare(windows, numHoles, start, start + count, nWaySplits);
+			final long t3 = System.nanoTime();
+			expandTime += t2 - t1;
+			compareTime += t3 - t2;
+		}
+
+		// Record the expand and compare times.
+		lastExpandNanos = expandTime;
+		lastCompareNanos = compareTime;
+
+		// Create the return value.
+		final Odds[] odds = new Odds[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			final int[] nWaySplitsI = nWaySplits[i];
+			// Compute losses because they were not counted.
+			int k = Constants.getHole2BoardCount(numHoles);
+			for (int j = 1; j <= numHoles; j++) {
+				k -= nWaySplitsI[j];
+			}
+			nWaySplitsI[0] = k;
+			// Initialize the odds for this hole.
+			odds[i] = new BasicOdds(nWaySplitsI);
+		}
+		return odds;
+	}
+
+	public int getLastExpandTime() {
+		return (int) (lastExpandNanos / 1000000);
+	}
+
+	public long getLastExpandNanos() {
+		return lastExpandNanos;
+	}
+
+	public int getLastCompareTime() {
+		return (int) (lastCompareNanos / 1000000);
+	}
+
+	public long getLastCompareNanos() {
+		return lastCompareNanos;
+	}
+
+	public static void main(final String[] args) throws IOException {
+
+		int numHoles = 10;
+		if (args.length > 0) {
+			numHoles = Integer.parseInt(args[0]);
+		}
+
+		String dbFilename = FastHoldemPreflopOddsCalculator.DB_FILENAME;
+		if (args.length > 1) {
+			dbFilename = args[1];
+		}
+
+		final InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(dbFilename)));
+		final CompressedHandValueDatabase db = new CompressedHandValueDatabase(in);
+		in.close();
+
+		final StreamingHoldemPreflopOddsCalculator calculator = new StreamingHoldemPreflopOddsCalculator(db);
+		final FastHoldemPreflopOddsCalculator reference = new FastHoldemPreflopOddsCalculator(db);
+
+		final Random random = new Random();
+		final Deck deck = new Deck(random);
+		long totalTime = 0, totalReferenceTime = 0;
+		for (int i = 0; i < 60; i++) {
+			final Hole[] holes = new Hole[numHoles];
+			for (int j = 0; j < numHoles; j++) {
+				holes[j] = Hole.fromDeck(deck);
+			}
+			deck.shuffle();
+
+			final Odds[] odds = calculator.calculateOdds(holes);
+			final Odds[] referenceOdds = reference.calculateOdds(holes);
+			for (int j = 0; j < numHoles; j++) {
+				if (!odds[j].toString().equals(referenceOdds[j].toString())) {
+					System.out.println("***** ODDS INCORRECT ***** " + odds[j] + " != " + referenceOdds[j]);
+				}
+			}
+			if (i >= 10) {
+				// Skip the warmup rounds.
+				totalTime += calculator.getLastExpandTime() + calculator.getLastCompareTime();
+				totalReferenceTime += reference.getLastExpandTime() + reference.getLastCompareTime();
+			}
+		}
+
+		System.out.println("avg streaming=" + totalTime / 50 + " ms avg reference=" + totalReferenceTime / 50 + " ms");
+	}
+
+}
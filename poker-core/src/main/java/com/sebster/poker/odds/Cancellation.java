@@ -0,0 +1,147 @@
+package com.sebster.poker.odds;
+
+import java.util.concurrent.CancellationException;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Cancellation flag of a calculation, with an optional deadline. The preflop
+ * calculators check the cancellation of the calling thread, see
+ * {@link #getCurrent()}, every {@link #CHECK_INTERVAL} boards, also on their
+ * compare workers, and throw a {@link CancellationException} when it is
+ * cancelled or its deadline has passed. This frees the threads of
+ * calculations which nobody waits for anymore.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public final class Cancellation {
+
+	/**
+	 * The number of boards compared between checks.
+	 */
+	public static final int CHECK_INTERVAL = 1 << 16;
+
+	private static final ThreadLocal<Cancellation> current = new ThreadLocal<Cancellation>();
+
+	private volatile boolean cancelled;
+
+	/**
+	 * Whether the deadline is set. Once cleared, it is never set again.
+	 */
+	private volatile boolean hasDeadline;
+
+	/**
+	 * The deadline in {@link System#nanoTime()} time. It is only ever moved
+	 * later.
+	 */
+	private volatile long deadline;
+
+	/**
+	 * Create a cancellation without a deadline.
+	 */
+	public Cancellation() {
+		// No deadline.
+	}
+
+	/**
+	 * Create a cancellation with the specified deadline.
+	 * 
+	 * @param deadline
+	 *            the deadline in {@link System#nanoTime()} time
+	 */
+	public Cancellation(final long deadline) {
+		this.deadline = deadline;
+		hasDeadline = true;
+	}
+
+	/**
+	 * Create a cancellation with the same deadline as this cancellation, which
+	 * is not cancelled with it.
+	 * 
+	 * @return the copy
+	 */
+	public synchronized Cancellation copy() {
+		return hasDeadline ? new Cancellation(deadline) : new Cancellation();
+	}
+
+	/**
+	 * Move the deadline so that it is not before the deadline of the specified
+	 * cancellation, or clear it if the specified cancellation has no
+	 * deadline. This is used when another interested party joins the
+	 * calculation.
+	 * 
+	 * @param other
+	 *            the other cancellation
+	 */
+	public synchronized void extend(final Cancellation other) {
+		if (!hasDeadline) {
+			return;
+		}
+		synchronized (other) {
+			if (!other.hasDeadline) {
+				hasDeadline = false;
+			} else if (other.deadline - deadline > 0) {
+				deadline = other.deadline;
+			}
+		}
+	}
+
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Check whether the calculation is cancelled or its deadline has passed.
+	 * 
+	 * @return whether the calculation is cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled || hasDeadline && System.nanoTime() - deadline > 0;
+	}
+
+	/**
+	 * Get the time until the deadline.
+	 * 
+	 * @return the remaining time in nanoseconds, negative if the deadline has
+	 *         passed, or {@link Long#MAX_VALUE} if there is no deadline
+	 */
+	public synchronized long getRemainingNanos() {
+		return hasDeadline ? deadline - System.nanoTime() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Throw a {@link CancellationException} if the calculation is cancelled
+	 * or its deadline has passed.
+	 * 
+	 * @throws CancellationException
+	 *             if the calculation is cancelled
+	 */
+	public void check() {
+		if (cancelled) {
+			throw new CancellationException("calculation cancelled");
+		}
+		if (hasDeadline && System.nanoTime() - deadline > 0) {
+			throw new CancellationException("calculation deadline exceeded");
+		}
+	}
+
+	/**
+	 * Get the cancellation of the calculation of the current thread.
+	 * 
+	 * @return the cancellation, or {@code null} if the calculation cannot be
+	 *         cancelled
+	 */
+	public static Cancellation getCurrent() {
+		return current.get();
+	}
+
+	public static void setCurrent(final Cancellation cancellation) {
+		current.set(cancellation);
+	}
+
+	public static void clearCurrent() {
+		current.remove();
+	}
+
+}
@@ -1,17 +1,56 @@
 package com.sebster.poker.odds;
 
+import java.io.BufferedInputStream;
+import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sebster.io.compress.CompressLZFI;
+import com.sebster.poker.Combination;
+import com.sebster.util.IOUtil;
+import com.sebster.util.Validate;
 
 /**
  * In memory compressed hand value database, compressed using a custom
  * int-aligned LZF.
+ * <p>
+ * Two formats are read. The original format is, for each hole, the length of
+ * the compressed data followed by the data. The block format starts with a
+ * header of {@link #MAGIC}, {@link #VERSION}, the number of holes, the number
+ * of boards, the restart interval and (since version 2) the encoding. For each
+ * hole it then contains the length of the compressed data, the offsets of the
+ * compressed blocks, and the data. Each block of restart interval boards is
+ * compressed on its own, so it can be expanded without expanding the
+ * preceding boards, see {@link #expand(int, int, int, int[])}.
+ * <p>
+ * With {@link #ENCODING_RANK} the database contains the dense
+ * {@link Combination#getRank(int) ranks} of the hand values instead of the
+ * values themselves. Ranks compare the same as values, so calculators which
+ * only compare hand values work with either encoding, but ranks can also be
+ * expanded to short arrays, and their literals are packed two to an int.
+ * <p>
+ * The hand values of a hole can also be expanded a block at a time by a
+ * streaming decoder, see {@link #startExpand(int, CompressLZFI.Decoder)}.
+ * <p>
+ * The database is usually stored gzipped, which makes loading slow because
+ * the whole file has to be inflated on a single thread. A database file which
+ * is not gzipped is loaded much faster by {@link #load(File, ExecutorService,
+ * int)}, which maps the file and reads the holes in parallel. It can also be
+ * opened lazily by {@link #open(File, ExecutorService)}, which reads each hole
+ * when it is first used.
  * 
  * @author sebster
  * 
@@ -21,30 +60,384 @@ public final class CompressedHandValueDatabase {
 	private static final Logger logger = LoggerFactory.getLogger(CompressedHandValueDatabase.class);
 
 	/**
-	 * The compressed hand value database.
+	 * The magic number of the block format ("LZFB").
 	 */
-	private final int[][] data = new int[Constants.HOLE_COUNT][];
+	public static final int MAGIC = 0x4C5A4642;
+
+	/**
+	 * The version of the block format.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * The encoding of a database which contains hand values.
+	 */
+	public static final int ENCODING_VALUE = 0;
+
+	/**
+	 * The encoding of a database which contains the ranks of the hand values.
+	 */
+	public static final int ENCODING_RANK = 1;
+
+	/**
+	 * The compressed hand values of each hole, or {@code null} if the hole has
+	 * not been loaded yet. The holes are immutable, so they are safely
+	 * published without synchronization.
+	 */
+	private final HoleData[] holes = new HoleData[Constants.HOLE_COUNT];
+
+	/**
+	 * The mapped file regions of the holes, from which the holes are loaded
+	 * when first used, or {@code null} if all holes are loaded. A region is
+	 * released once its hole is loaded, so the mapping can be unmapped.
+	 */
+	private final ByteBuffer[] holeRegions;
+
+	/**
+	 * The locks guarding the loading of the holes, or {@code null} if all
+	 * holes are loaded.
+	 */
+	private final Object[] holeLocks;
+
+	/**
+	 * The number of loaded holes.
+	 */
+	private final AtomicInteger loadedHoleCount = new AtomicInteger();
+
+	/**
+	 * The number of boards per compressed block.
+	 */
+	private final int restartInterval;
+
+	/**
+	 * The encoding of the hand values.
+	 */
+	private final int encoding;
 
 	public CompressedHandValueDatabase(final InputStream in) throws IOException {
 		final long t1 = System.currentTimeMillis();
 		final DataInputStream dis = new DataInputStream(in);
+		final int first = dis.readInt();
+		if (first == MAGIC) {
+			final int[] header = readHeader(dis);
+			restartInterval = header[0];
+			encoding = header[1];
+			final int blockCount = getBlockCount();
+			for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+				final int length = dis.readInt();
+				holes[i] = new HoleData(readInts(dis, blockCount), readInts(dis, length));
+			}
+		} else {
+			restartInterval = Constants.BOARD_COUNT_52;
+			encoding = ENCODING_VALUE;
+			final int[] singleBlock = { 0 };
+			for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+				holes[i] = new HoleData(singleBlock, readInts(dis, i == 0 ? first : dis.readInt()));
+			}
+		}
+		holeRegions = null;
+		holeLocks = null;
+		loadedHoleCount.set(Constants.HOLE_COUNT);
+		logLoadTime(t1, Constants.HOLE_COUNT);
+	}
+
+	private CompressedHandValueDatabase(final int restartInterval, final int encoding, final ByteBuffer[] holeRegions) {
+		this.restartInterval = restartInterval;
+		this.encoding = encoding;
+		this.holeRegions = holeRegions;
+		holeLocks = new Object[Constants.HOLE_COUNT];
 		for (int i = 0; i < Constants.HOLE_COUNT; i++) {
-			final int length = dis.readInt();
-			final byte[] bytes = new byte[length * 4];
-			dis.readFully(bytes);
-			final int[] compressedBoardData = new int[length];
-			int k = 0;
-			for (int j = 0; j < length; j++) {
-				int z = bytes[k++] & 0xff;
-				z = (z << 8) | (bytes[k++] & 0xff);
-				z = (z << 8) | (bytes[k++] & 0xff);
-				z = (z << 8) | (bytes[k++] & 0xff);
-				compressedBoardData[j] = z;
+			holeLocks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Load the hand value database from the specified file on the calling
+	 * thread, see {@link #load(File, ExecutorService, int)}.
+	 * 
+	 * @param file
+	 *            the database file
+	 * @return the hand value database
+	 * @throws IOException
+	 *             if an I/O exception occurs, or if the file is not a valid
+	 *             database file
+	 */
+	public static CompressedHandValueDatabase load(final File file) throws IOException {
+		return load(file, null, 1);
+	}
+
+	/**
+	 * Load the hand value database from the specified file, in either format.
+	 * A gzipped file is read as a stream, like
+	 * {@link #CompressedHandValueDatabase(InputStream)}. Otherwise the
+	 * position of each hole in the file is found by following the lengths, and
+	 * then the holes are read from the mapped file in bulk by up to the
+	 * specified number of threads. An existing database is converted by simply
+	 * gunzipping it.
+	 * 
+	 * @param file
+	 *            the database file
+	 * @param executor
+	 *            the executor for the load workers, or {@code null} to load on
+	 *            the calling thread only
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread,
+	 *            used to load
+	 * @return the hand value database
+	 * @throws IOException
+	 *             if an I/O exception occurs, or if the file is not a valid
+	 *             database file
+	 */
+	public static CompressedHandValueDatabase load(final File file, final ExecutorService executor, final int parallelism) throws IOException {
+		Validate.isTrue(parallelism >= 1, "parallelism < 1");
+		Validate.isTrue(parallelism == 1 || executor != null, "executor == null");
+		final long t1 = System.currentTimeMillis();
+		if (isGzipFile(file)) {
+			// Gzipped, this can only be read as a stream.
+			final InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return new CompressedHandValueDatabase(in);
+			} finally {
+				in.close();
 			}
-			data[i] = compressedBoardData;
 		}
+		final CompressedHandValueDatabase db = map(file);
+		try {
+			// Read the holes in bulk, in parallel.
+			ParallelChunks.run(executor, parallelism, Constants.HOLE_COUNT, new ParallelChunks.Action() {
+				@Override
+				public void run(final int chunk) {
+					db.getHole(chunk);
+				}
+			});
+		} catch (final RuntimeException e) {
+			throw IOUtil.ioException("invalid hand value database file: " + file, e);
+		}
+		db.logLoadTime(t1, Constants.HOLE_COUNT);
+		return db;
+	}
+
+	/**
+	 * Open the hand value database in the specified file lazily. Only the
+	 * position of each hole in the file is read, and each hole is loaded when
+	 * it is first used, so the database can be used almost immediately. The
+	 * remaining holes can be loaded in the background by a prefetch task on
+	 * the specified executor, which stops when it is interrupted. The file
+	 * must not be modified while the database is in use. A gzipped file cannot
+	 * be opened lazily, so it is loaded completely.
+	 * 
+	 * @param file
+	 *            the database file
+	 * @param prefetchExecutor
+	 *            the executor for the prefetch task, or {@code null} to load
+	 *            the holes only when they are used
+	 * @return the hand value database
+	 * @throws IOException
+	 *             if an I/O exception occurs, or if the file is not a valid
+	 *             database file
+	 */
+	public static CompressedHandValueDatabase open(final File file, final ExecutorService prefetchExecutor) throws IOException {
+		final long t1 = System.currentTimeMillis();
+		if (isGzipFile(file)) {
+			logger.warn("gzipped db cannot be opened lazily, loading {}", file);
+			return load(file);
+		}
+		final CompressedHandValueDatabase db = map(file);
 		final long t2 = System.currentTimeMillis();
-		logger.info("db init in {} ms", (t2 - t1));
+		logger.info("db opened in {} ms", t2 - t1);
+		if (prefetchExecutor != null) {
+			prefetchExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					final long t3 = System.currentTimeMillis();
+					final int loaded = db.getLoadedHoleCount();
+					for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+						if (Thread.currentThread().isInterrupted()) {
+							logger.info("db prefetch interrupted");
+							return;
+						}
+						db.getHole(i);
+					}
+					db.logLoadTime(t3, Constants.HOLE_COUNT - loaded);
+				}
+			});
+		}
+		return db;
+	}
+
+	/**
+	 * Get the number of holes which have been loaded. This is less than
+	 * {@link Constants#HOLE_COUNT} only for a database which is opened lazily
+	 * and is still loading.
+	 * 
+	 * @return the number of loaded holes
+	 */
+	public int getLoadedHoleCount() {
+		return loadedHoleCount.get();
+	}
+
+	private static boolean isGzipFile(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.length() >= 2 && raf.readUnsignedShort() == 0x1f8b;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read the header of the specified database file, and map the region of
+	 * the file of each hole, without loading any holes.
+	 */
+	private static CompressedHandValueDatabase map(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			// Read the header.
+			final int first = raf.readInt();
+			final int restartInterval, encoding, blockCount;
+			if (first == MAGIC) {
+				final int[] header = readHeader(raf);
+				restartInterval = header[0];
+				encoding = header[1];
+				blockCount = (Constants.BOARD_COUNT_52 + restartInterval - 1) / restartInterval;
+			} else {
+				restartInterval = Constants.BOARD_COUNT_52;
+				encoding = ENCODING_VALUE;
+				blockCount = 0;
+				raf.seek(0);
+			}
+
+			// Find and map the region of each hole, starting with its length.
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer[] holeRegions = new ByteBuffer[Constants.HOLE_COUNT];
+			long position = raf.getFilePointer();
+			for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+				raf.seek(position);
+				final int length = raf.readInt();
+				if (length < 0) {
+					throw new IOException("invalid hand value database length " + length);
+				}
+				final long size = 4L * (1 + blockCount + length);
+				if (position + size > raf.length()) {
+					break;
+				}
+				holeRegions[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+				position += size;
+			}
+			if (position != raf.length()) {
+				throw new IOException("hand value database file has invalid length " + raf.length());
+			}
+			return new CompressedHandValueDatabase(restartInterval, encoding, holeRegions);
+		} catch (final RuntimeException e) {
+			throw IOUtil.ioException("invalid hand value database file: " + file, e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get the specified hole, and load it if it is not loaded yet.
+	 */
+	private HoleData getHole(final int index) {
+		final HoleData hole = holes[index];
+		return hole != null ? hole : loadHole(index);
+	}
+
+	private HoleData loadHole(final int index) {
+		synchronized (holeLocks[index]) {
+			if (holes[index] == null) {
+				final IntBuffer buffer = holeRegions[index].asIntBuffer();
+				final int length = buffer.get();
+				final int[] blockOffsets;
+				if (buffer.remaining() == length) {
+					// Original format, the hole is a single block.
+					blockOffsets = new int[] { 0 };
+				} else {
+					blockOffsets = new int[getBlockCount()];
+					buffer.get(blockOffsets);
+				}
+				final int[] data = new int[length];
+				buffer.get(data);
+				holes[index] = new HoleData(blockOffsets, data);
+				holeRegions[index] = null;
+				loadedHoleCount.incrementAndGet();
+			}
+			return holes[index];
+		}
+	}
+
+	/**
+	 * Read the block format header following the magic number, and return the
+	 * restart interval and the encoding.
+	 */
+	private static int[] readHeader(final DataInput in) throws IOException {
+		final int version = in.readInt();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("unsupported hand value database version " + version);
+		}
+		final int holeCount = in.readInt();
+		final int boardCount = in.readInt();
+		if (holeCount != Constants.HOLE_COUNT || boardCount != Constants.BOARD_COUNT_52) {
+			throw new IOException("invalid hand value database size " + holeCount + "x" + boardCount);
+		}
+		final int restartInterval = in.readInt();
+		if (restartInterval <= 0) {
+			throw new IOException("invalid restart interval " + restartInterval);
+		}
+		final int encoding = version >= 2 ? in.readInt() : ENCODING_VALUE;
+		if (encoding != ENCODING_VALUE && encoding != ENCODING_RANK) {
+			throw new IOException("unsupported hand value database encoding " + encoding);
+		}
+		return new int[] { restartInterval, encoding };
+	}
+
+	private static int[] readInts(final DataInputStream dis, final int length) throws IOException {
+		final byte[] bytes = new byte[length * 4];
+		dis.readFully(bytes);
+		final int[] ints = new int[length];
+		ByteBuffer.wrap(bytes).asIntBuffer().get(ints);
+		return ints;
+	}
+
+	private void logLoadTime(final long t1, final int holeCount) {
+		final long t2 = System.currentTimeMillis();
+		long size = 0;
+		for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+			size += 4L * (holes[i].data.length + holes[i].blockOffsets.length);
+		}
+		// Lazily opened databases only load part of the holes.
+		size = size * holeCount / Constants.HOLE_COUNT;
+		final double mb = size / (1024.0 * 1024.0);
+		logger.info("db init in {} ms ({} holes, {} MB at {} MB/s)", new Object[] { t2 - t1, holeCount, Math.round(mb), Math.round(mb * 1000 / Math.max(t2 - t1, 1)) });
+	}
+
+	/**
+	 * Get the number of boards per compressed block. This is
+	 * {@link Constants#BOARD_COUNT_52} for a database in the original format.
+	 * 
+	 * @return the restart interval
+	 */
+	public int getRestartInterval() {
+		return restartInterval;
+	}
+
+	/**
+	 * Get the encoding of the hand values, {@link #ENCODING_VALUE} or
+	 * {@link #ENCODING_RANK}.
+	 * 
+	 * @return the encoding
+	 */
+	public int getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Get the number of compressed blocks per hole.
+	 * 
+	 * @return the number of blocks
+	 */
+	public int getBlockCount() {
+		return (Constants.BOARD_COUNT_52 + restartInterval - 1) / restartInterval;
 	}
 
 	/**
@@ -59,7 +452,182 @@ public final class CompressedHandValueDatabase {
 	 *             if the hole index is invalid, or the udata array is too short
 	 */
 	public final void expand(final int index, final int[] udata) {
-		CompressLZFI.expand(data[index], 0, data[index].length, udata, 0);
+		// The concatenated blocks are a single compressed stream.
+		final int[] data = getHole(index).data;
+		expand(data, 0, data.length, udata, 0);
+	}
+
+	/**
+	 * Expand the compressed ranks for the specified hole index to the
+	 * specified array. The array must be at least
+	 * {@link Constants#BOARD_COUNT_52} long.
+	 * 
+	 * @param index
+	 *            the index of the hole
+	 * @param udata
+	 *            the array to contain the uncompressed ranks
+	 * @throws IllegalStateException
+	 *             if the encoding is not {@link #ENCODING_RANK}
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the hole index is invalid, or the udata array is too short
+	 */
+	public final void expand(final int index, final short[] udata) {
+		checkRankEncoding();
+		final int[] data = getHole(index).data;
+		CompressLZFI.expand16(data, 0, data.length, udata, 0);
+	}
+
+	/**
+	 * Expand the compressed data of the specified range of boards for the
+	 * specified hole index to the same range of the specified array. Only the
+	 * blocks containing the range are expanded, and different ranges of the
+	 * same array can be expanded concurrently. Blocks which are only partly in
+	 * the range are expanded to a temporary array, so ranges should preferably
+	 * be aligned to the restart interval.
+	 * 
+	 * @param index
+	 *            the index of the hole
+	 * @param fromBoard
+	 *            the first board to expand (inclusive)
+	 * @param toBoard
+	 *            the last board to expand (exclusive)
+	 * @param udata
+	 *            the array to contain the uncompressed data
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the hole index is invalid, or the udata array is too short
+	 */
+	public final void expand(final int index, final int fromBoard, final int toBoard, final int[] udata) {
+		Validate.isTrue(0 <= fromBoard && fromBoard <= toBoard && toBoard <= Constants.BOARD_COUNT_52, "invalid board range");
+		final HoleData hole = getHole(index);
+		final int[] data = hole.data;
+		final int[] offsets = hole.blockOffsets;
+		int[] block = null;
+		for (int b = fromBoard / restartInterval; b * restartInterval < toBoard; b++) {
+			final int blockFrom = b * restartInterval;
+			final int blockTo = Math.min(blockFrom + restartInterval, Constants.BOARD_COUNT_52);
+			final int inPos = offsets[b];
+			final int inLen = (b + 1 < offsets.length ? offsets[b + 1] : data.length) - inPos;
+			if (blockFrom >= fromBoard && blockTo <= toBoard) {
+				expand(data, inPos, inLen, udata, blockFrom);
+			} else {
+				// Expand the partial block and copy the requested part.
+				if (block == null) {
+					block = new int[restartInterval];
+				}
+				expand(data, inPos, inLen, block, 0);
+				final int from = Math.max(fromBoard, blockFrom), to = Math.min(toBoard, blockTo);
+				System.arraycopy(block, from - blockFrom, udata, from, to - from);
+			}
+		}
+	}
+
+	/**
+	 * Expand the compressed ranks of the specified range of boards for the
+	 * specified hole index to the same range of the specified array, see
+	 * {@link #expand(int, int, int, int[])}.
+	 * 
+	 * @param index
+	 *            the index of the hole
+	 * @param fromBoard
+	 *            the first board to expand (inclusive)
+	 * @param toBoard
+	 *            the last board to expand (exclusive)
+	 * @param udata
+	 *            the array to contain the uncompressed ranks
+	 * @throws IllegalStateException
+	 *             if the encoding is not {@link #ENCODING_RANK}
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the hole index is invalid, or the udata array is too short
+	 */
+	public final void expand(final int index, final int fromBoard, final int toBoard, final short[] udata) {
+		checkRankEncoding();
+		Validate.isTrue(0 <= fromBoard && fromBoard <= toBoard && toBoard <= Constants.BOARD_COUNT_52, "invalid board range");
+		final HoleData hole = getHole(index);
+		final int[] data = hole.data;
+		final int[] offsets = hole.blockOffsets;
+		short[] block = null;
+		for (int b = fromBoard / restartInterval; b * restartInterval < toBoard; b++) {
+			final int blockFrom = b * restartInterval;
+			final int blockTo = Math.min(blockFrom + restartInterval, Constants.BOARD_COUNT_52);
+			final int inPos = offsets[b];
+			final int inLen = (b + 1 < offsets.length ? offsets[b + 1] : data.length) - inPos;
+			if (blockFrom >= fromBoard && blockTo <= toBoard) {
+				CompressLZFI.expand16(data, inPos, inLen, udata, blockFrom);
+			} else {
+				// Expand the partial block and copy the requested part.
+				if (block == null) {
+					block = new short[restartInterval];
+				}
+				CompressLZFI.expand16(data, inPos, inLen, block, 0);
+				final int from = Math.max(fromBoard, blockFrom), to = Math.min(toBoard, blockTo);
+				System.arraycopy(block, from - blockFrom, udata, from, to - from);
+			}
+		}
+	}
+
+	private void expand(final int[] data, final int inPos, final int inLen, final int[] udata, final int outPos) {
+		if (encoding == ENCODING_RANK) {
+			CompressLZFI.expand16(data, inPos, inLen, udata, outPos);
+		} else {
+			CompressLZFI.expand(data, inPos, inLen, udata, outPos);
+		}
+	}
+
+	private void checkRankEncoding() {
+		if (encoding != ENCODING_RANK) {
+			throw new IllegalStateException("hand values are not encoded as ranks");
+		}
+	}
+
+	/**
+	 * Start a streaming expand of the compressed data for the specified hole
+	 * index with the specified decoder. The data is then expanded a block at a
+	 * time with {@link CompressLZFI.Decoder#expand(int)}. The decoder window
+	 * only needs to span the restart interval, see
+	 * {@link CompressLZFI.Decoder#Decoder(int, int)}.
+	 * <p>
+	 * The window is a trade-off against the database size. At the default
+	 * restart interval of 2^19 boards, and in the original format, the window
+	 * is about 4 MB per hole instead of the 10 MB of an expanded hole. A
+	 * KB-scale window needs a restart interval of about 2^14 boards, which
+	 * makes the database about four times larger.
+	 * 
+	 * @param index
+	 *            the index of the hole
+	 * @param decoder
+	 *            the decoder
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the hole index is invalid
+	 */
+	public final void startExpand(final int index, final CompressLZFI.Decoder decoder) {
+		final int[] data = getHole(index).data;
+		if (encoding == ENCODING_RANK) {
+			decoder.reset16(data, 0, data.length);
+		} else {
+			decoder.reset(data, 0, data.length);
+		}
+	}
+
+	/**
+	 * The compressed hand values of a hole.
+	 */
+	private static final class HoleData {
+
+		/**
+		 * The offsets of the compressed blocks.
+		 */
+		private final int[] blockOffsets;
+
+		/**
+		 * The compressed data.
+		 */
+		private final int[] data;
+
+		public HoleData(final int[] blockOffsets, final int[] data) {
+			this.blockOffsets = blockOffsets;
+			this.data = data;
+		}
+
 	}
 
 }
@@ -0,0 +1,423 @@
+package com.sebster.poker.odds;
+
+import java.util.concurrent.ExecutorService;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import com.sebster.util.Validate;
+
+/**
+ * Cache of expanded hand value arrays, shared by the calculators of all
+ * threads, so a popular hole is only expanded once. The cache holds at most
+ * the specified number of bytes of expanded arrays. When it is full, the
+ * entry of the least frequently used hole is evicted. The use counts of all
+ * holes are kept, also of the holes which are not cached, and are halved every
+ * {@link #AGING_PERIOD} uses, so holes which are no longer popular are evicted
+ * eventually.
+ * <p>
+ * Entries are reference counted: an entry is pinned from
+ * {@link #acquire(int[], Entry[])} until {@link #release(Entry[])}, and pinned
+ * entries are never evicted. The cache may temporarily exceed its size if all
+ * entries are pinned. The arrays are kept on the heap, because comparing is
+ * much faster on arrays than on buffers, see
+ * {@link com.sebster.poker.holdem.odds.MappedHoldemPreflopOddsCalculator}.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public final class ExpandedHandValueCache {
+
+	/**
+	 * The number of uses after which the use counts are halved.
+	 */
+	public static final int AGING_PERIOD = 1 << 14;
+
+	/**
+	 * An expanded hand value array. Depending on the encoding of the database,
+	 * it contains either the hand values or the ranks of a hole.
+	 */
+	public static final class Entry {
+
+		private final int index;
+
+		@GuardedBy("this")
+		private int[] values;
+
+		@GuardedBy("this")
+		private short[] ranks;
+
+		@GuardedBy("this")
+		private boolean expanded;
+
+		@GuardedBy("this")
+		private boolean failed;
+
+		/**
+		 * The number of times the entry is acquired and not yet released.
+		 */
+		@GuardedBy("ExpandedHandValueCache.this")
+		private int refCount;
+
+		private Entry(final int index) {
+			this.index = index;
+		}
+
+		/**
+		 * Get the index of the hole.
+		 * 
+		 * @return the index of the hole
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * Get the expanded hand values of the hole. The array must not be
+		 * modified, and must not be used after the entry is released.
+		 * 
+		 * @return the hand values
+		 * @throws IllegalStateException
+		 *             if the database contains ranks
+		 */
+		public synchronized int[] getHandValues() {
+			if (values == null) {
+				throw new IllegalStateException("hand values are encoded as ranks");
+			}
+			return values;
+		}
+
+		/**
+		 * Get the expanded ranks of the hole, see {@link #getHandValues()}.
+		 * 
+		 * @return the ranks
+		 * @throws IllegalStateException
+		 *             if the database contains hand values
+		 */
+		public synchronized short[] getRanks() {
+			if (ranks == null) {
+				throw new IllegalStateException("hand values are not encoded as ranks");
+			}
+			return ranks;
+		}
+
+		private synchronized void setExpanded(final int[] values, final short[] ranks) {
+			this.values = values;
+			this.ranks = ranks;
+			expanded = true;
+			notifyAll();
+		}
+
+		private synchronized void setFailed() {
+			failed = true;
+			notifyAll();
+		}
+
+		/**
+		 * Wait until the entry is expanded by the thread which created it.
+		 */
+		private synchronized void await() throws InterruptedException {
+			while (!expanded) {
+				if (failed) {
+					throw new IllegalStateException("expand of hole " + index + " failed");
+				}
+				wait();
+			}
+		}
+
+	}
+
+	private final CompressedHandValueDatabase db;
+
+	/**
+	 * The executor for the expand workers, or {@code null} to expand on the
+	 * calling thread only.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * The maximum number of threads, including the calling thread, used to
+	 * expand.
+	 */
+	private final int parallelism;
+
+	/**
+	 * The maximum size of the cache in bytes.
+	 */
+	private final long maxSize;
+
+	/**
+	 * The size of an entry in bytes.
+	 */
+	private final long entrySize;
+
+	@GuardedBy("this")
+	private final Entry[] entries = new Entry[Constants.HOLE_COUNT];
+
+	/**
+	 * The (aged) use counts of the holes.
+	 */
+	@GuardedBy("this")
+	private final int[] frequencies = new int[Constants.HOLE_COUNT];
+
+	@GuardedBy("this")
+	private int usesSinceAging;
+
+	@GuardedBy("this")
+	private long size;
+
+	@GuardedBy("this")
+	private long hitCount;
+
+	@GuardedBy("this")
+	private long missCount;
+
+	@GuardedBy("this")
+	private long evictionCount;
+
+	public ExpandedHandValueCache(final CompressedHandValueDatabase db, final long maxSize) {
+		this(db, maxSize, null, 1);
+	}
+
+	/**
+	 * Create a cache which expands the blocks of missing holes over up to the
+	 * specified number of threads if the database is in the block format. The
+	 * executor can be shared, see {@link ParallelChunks}.
+	 * 
+	 * @param db
+	 *            the hand value database
+	 * @param maxSize
+	 *            the maximum size of the cache in bytes
+	 * @param executor
+	 *            the executor for the expand workers, or {@code null} to expand
+	 *            on the calling thread only
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread,
+	 *            used to expand
+	 */
+	public ExpandedHandValueCache(final CompressedHandValueDatabase db, final long maxSize, final ExecutorService executor, final int parallelism) {
+		if (db == null) {
+			throw new NullPointerException("db");
+		}
+		Validate.isTrue(maxSize >= 0, "maxSize < 0");
+		Validate.isTrue(parallelism >= 1, "parallelism < 1");
+		Validate.isTrue(parallelism == 1 || executor != null, "executor == null");
+		this.db = db;
+		this.maxSize = maxSize;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		entrySize = (long) Constants.BOARD_COUNT_52 * (db.getEncoding() == CompressedHandValueDatabase.ENCODING_RANK ? 2 : 4);
+	}
+
+	public CompressedHandValueDatabase getDatabase() {
+		return db;
+	}
+
+	/**
+	 * Acquire the entries of the specified holes, and expand the holes which
+	 * are not cached. The entries are pinned until they are released with
+	 * {@link #release(Entry[])}, also if an exception is thrown.
+	 * 
+	 * @param indexes
+	 *            the indexes of the holes
+	 * @param entries
+	 *            the array to contain the entries of the holes, at least as
+	 *            long as the indexes array
+	 * @return the number of holes which were cached
+	 * @throws IllegalStateException
+	 *             if expanding a hole failed, or the calling thread is
+	 *             interrupted while waiting for another thread to expand a
+	 *             hole
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if a hole index is invalid, or the entries array is too
+	 *             short
+	 */
+	public int acquire(final int[] indexes, final Entry[] entries) {
+		final Entry[] expandEntries = new Entry[indexes.length];
+		int numExpandEntries = 0, hits = 0;
+		synchronized (this) {
+			for (int i = 0; i < indexes.length; i++) {
+				final int index = indexes[i];
+				Entry entry = this.entries[index];
+				if (entry == null) {
+					entry = new Entry(index);
+					this.entries[index] = entry;
+					size += entrySize;
+					missCount++;
+					expandEntries[numExpandEntries++] = entry;
+				} else {
+					hitCount++;
+					hits++;
+				}
+				entry.refCount++;
+				entries[i] = entry;
+				frequencies[index]++;
+				if (++usesSinceAging == AGING_PERIOD) {
+					for (int j = 0; j < Constants.HOLE_COUNT; j++) {
+						frequencies[j] >>= 1;
+					}
+					usesSinceAging = 0;
+				}
+			}
+			evict();
+		}
+
+		try {
+			// Expand the new entries, other threads wait for them.
+			expand(expandEntries, numExpandEntries);
+			for (int i = 0; i < indexes.length; i++) {
+				entries[i].await();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for expand", e);
+		}
+		return hits;
+	}
+
+	private void expand(final Entry[] expandEntries, final int numExpandEntries) {
+		final boolean rank = db.getEncoding() == CompressedHandValueDatabase.ENCODING_RANK;
+		final int[][] values = new int[numExpandEntries][];
+		final short[][] ranks = new short[numExpandEntries][];
+		boolean expanded = false;
+		try {
+			for (int k = 0; k < numExpandEntries; k++) {
+				if (rank) {
+					ranks[k] = new short[Constants.BOARD_COUNT_52];
+				} else {
+					values[k] = new int[Constants.BOARD_COUNT_52];
+				}
+			}
+			final int blockCount = db.getBlockCount();
+			if (parallelism > 1 && blockCount > 1 && numExpandEntries > 0) {
+				// Expand the blocks of all new entries in parallel.
+				final int restartInterval = db.getRestartInterval();
+				ParallelChunks.run(executor, parallelism, numExpandEntries * blockCount, new ParallelChunks.Action() {
+					@Override
+					public void run(final int chunk) {
+						final int k = chunk / blockCount;
+						final int from = chunk % blockCount * restartInterval;
+						final int to = Math.min(from + restartInterval, Constants.BOARD_COUNT_52);
+						if (rank) {
+							db.expand(expandEntries[k].index, from, to, ranks[k]);
+						} else {
+							db.expand(expandEntries[k].index, from, to, values[k]);
+						}
+					}
+				});
+			} else {
+				for (int k = 0; k < numExpandEntries; k++) {
+					if (rank) {
+						db.expand(expandEntries[k].index, ranks[k]);
+					} else {
+						db.expand(expandEntries[k].index, values[k]);
+					}
+				}
+			}
+			expanded = true;
+		} finally {
+			if (!expanded) {
+				remove(expandEntries, numExpandEntries);
+			}
+		}
+		for (int k = 0; k < numExpandEntries; k++) {
+			expandEntries[k].setExpanded(values[k], ranks[k]);
+		}
+	}
+
+	/**
+	 * Remove the specified entries which could not be expanded, and wake up
+	 * the threads waiting for them.
+	 */
+	private void remove(final Entry[] failedEntries, final int numFailedEntries) {
+		synchronized (this) {
+			for (int k = 0; k < numFailedEntries; k++) {
+				final Entry entry = failedEntries[k];
+				if (entries[entry.index] == entry) {
+					entries[entry.index] = null;
+					size -= entrySize;
+				}
+			}
+		}
+		for (int k = 0; k < numFailedEntries; k++) {
+			failedEntries[k].setFailed();
+		}
+	}
+
+	/**
+	 * Release the specified entries, and set them to {@code null}. Entries
+	 * which are {@code null} are skipped, so all entries passed to
+	 * {@link #acquire(int[], Entry[])} can be released, also if it failed.
+	 * 
+	 * @param entries
+	 *            the entries to release
+	 */
+	public synchronized void release(final Entry[] entries) {
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i] != null) {
+				entries[i].refCount--;
+				entries[i] = null;
+			}
+		}
+		evict();
+	}
+
+	/**
+	 * Evict the least frequently used entries which are not pinned until the
+	 * cache is no larger than its maximum size.
+	 */
+	@GuardedBy("this")
+	private void evict() {
+		while (size > maxSize) {
+			int victim = -1;
+			for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+				if (entries[i] != null && entries[i].refCount == 0 && (victim < 0 || frequencies[i] < frequencies[victim])) {
+					victim = i;
+				}
+			}
+			if (victim < 0) {
+				// All entries are pinned.
+				return;
+			}
+			entries[victim] = null;
+			size -= entrySize;
+			evictionCount++;
+		}
+	}
+
+	/**
+	 * Get the size of the cached entries in bytes.
+	 * 
+	 * @return the size of the cache
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/**
+	 * Get the fraction of acquired holes which were cached.
+	 * 
+	 * @return the hit ratio, or 0 if no holes were acquired
+	 */
+	public synchronized double getHitRatio() {
+		final long count = hitCount + missCount;
+		return count == 0 ? 0 : (double) hitCount / count;
+	}
+
+}
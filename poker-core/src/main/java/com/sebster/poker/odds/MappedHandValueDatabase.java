@@ -0,0 +1,216 @@
+package com.sebster.poker.odds;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sebster.util.IOUtil;
+
+/**
+ * Uncompressed hand value database, loaded by memory mapping the database
+ * file. The hand values of a hole are read directly from the mapped file, so
+ * nothing needs to be expanded, and JVMs running on the same machine share the
+ * database through the page cache. This needs enough memory to keep the
+ * database in the page cache: about 13 GB for hand values, or 6.5 GB for
+ * ranks.
+ * <p>
+ * The database file starts with a header of {@link #MAGIC}, {@link #VERSION},
+ * the number of holes, the number of boards and the encoding, see
+ * {@link CompressedHandValueDatabase#ENCODING_VALUE} and
+ * {@link CompressedHandValueDatabase#ENCODING_RANK}. The header is followed by
+ * the hand values (ints) or ranks (shorts) of every board for each hole, in
+ * the same order as in the {@link CompressedHandValueDatabase}. The database
+ * file is generated by the <code>GenerateHandValueDB</code> tool in the
+ * poker-dev-support project.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public final class MappedHandValueDatabase {
+
+	private static final Logger logger = LoggerFactory.getLogger(MappedHandValueDatabase.class);
+
+	/**
+	 * The magic number at the start of the database file ("HVDB").
+	 */
+	public static final int MAGIC = 0x48564442;
+
+	/**
+	 * The version of the database file format.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The size of the database file header in bytes.
+	 */
+	public static final int HEADER_SIZE = 20;
+
+	/**
+	 * The encoding of the hand values.
+	 */
+	private final int encoding;
+
+	/**
+	 * The hand values of each hole, or {@code null} if the database contains
+	 * ranks.
+	 */
+	private final IntBuffer[] values;
+
+	/**
+	 * The ranks of each hole, or {@code null} if the database contains hand
+	 * values.
+	 */
+	private final ShortBuffer[] ranks;
+
+	private MappedHandValueDatabase(final int encoding, final IntBuffer[] values, final ShortBuffer[] ranks) {
+		this.encoding = encoding;
+		this.values = values;
+		this.ranks = ranks;
+	}
+
+	/**
+	 * Check if the specified file is a mapped hand value database file, by
+	 * checking the magic number.
+	 * 
+	 * @param file
+	 *            the file
+	 * @return whether the file is a mapped hand value database file
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public static boolean isDatabaseFile(final File file) throws IOException {
+		if (file.length() < HEADER_SIZE) {
+			return false;
+		}
+		final DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			return in.readInt() == MAGIC;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Load the hand value database by memory mapping the specified database
+	 * file.
+	 * 
+	 * @param file
+	 *            the database file
+	 * @return the hand value database
+	 * @throws IOException
+	 *             if an I/O exception occurs, or if the file is not a valid
+	 *             database file
+	 */
+	public static MappedHandValueDatabase load(final File file) throws IOException {
+		final long t1 = System.currentTimeMillis();
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(HEADER_SIZE, channel.size()));
+			if (header.capacity() < HEADER_SIZE || header.getInt(0) != MAGIC) {
+				throw new IOException("not a hand value database file: " + file);
+			}
+			if (header.getInt(4) != VERSION) {
+				throw new IOException("unsupported hand value database version: " + header.getInt(4));
+			}
+			if (header.getInt(8) != Constants.HOLE_COUNT || header.getInt(12) != Constants.BOARD_COUNT_52) {
+				throw new IOException("invalid hand value database size: " + header.getInt(8) + "x" + header.getInt(12));
+			}
+			final int encoding = header.getInt(16);
+			final int valueSize;
+			if (encoding == CompressedHandValueDatabase.ENCODING_VALUE) {
+				valueSize = 4;
+			} else if (encoding == CompressedHandValueDatabase.ENCODING_RANK) {
+				valueSize = 2;
+			} else {
+				throw new IOException("unsupported hand value database encoding: " + encoding);
+			}
+			final long holeSize = (long) Constants.BOARD_COUNT_52 * valueSize;
+			if (channel.size() != HEADER_SIZE + Constants.HOLE_COUNT * holeSize) {
+				throw new IOException("hand value database file has invalid length: " + channel.size());
+			}
+
+			// Map each hole separately, a single mapping is limited to 2 GB.
+			final IntBuffer[] values = valueSize == 4 ? new IntBuffer[Constants.HOLE_COUNT] : null;
+			final ShortBuffer[] ranks = valueSize == 2 ? new ShortBuffer[Constants.HOLE_COUNT] : null;
+			for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+				final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + i * holeSize, holeSize);
+				if (values != null) {
+					values[i] = buffer.asIntBuffer();
+				} else {
+					ranks[i] = buffer.asShortBuffer();
+				}
+			}
+			final MappedHandValueDatabase db = new MappedHandValueDatabase(encoding, values, ranks);
+			final long t2 = System.currentTimeMillis();
+			logger.info("hand value database mapped in {} ms", t2 - t1);
+			return db;
+		} catch (final RuntimeException e) {
+			throw IOUtil.ioException("invalid hand value database file: " + file, e);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Get the encoding of the hand values,
+	 * {@link CompressedHandValueDatabase#ENCODING_VALUE} or
+	 * {@link CompressedHandValueDatabase#ENCODING_RANK}.
+	 * 
+	 * @return the encoding
+	 */
+	public int getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Get a read-only view of the hand values of the specified hole for all
+	 * boards. Values are read with absolute gets, the view is not shared so
+	 * its position may be changed.
+	 * 
+	 * @param index
+	 *            the index of the hole
+	 * @return the hand values of the hole
+	 * @throws IllegalStateException
+	 *             if the database contains ranks
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the hole index is invalid
+	 */
+	public IntBuffer getHandValues(final int index) {
+		if (values == null) {
+			throw new IllegalStateException("hand values are encoded as ranks");
+		}
+		return values[index].duplicate();
+	}
+
+	/**
+	 * Get a read-only view of the ranks of the specified hole for all boards,
+	 * see {@link #getHandValues(int)}.
+	 * 
+	 * @param index
+	 *            the index of the hole
+	 * @return the ranks of the hole
+	 * @throws IllegalStateException
+	 *             if the database contains hand values
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the hole index is invalid
+	 */
+	public ShortBuffer getRanks(final int index) {
+		if (ranks == null) {
+			throw new IllegalStateException("hand values are not encoded as ranks");
+		}
+		return ranks[index].duplicate();
+	}
+
+}
@@ -0,0 +1,414 @@
+package com.sebster.poker.odds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.zip.CRC32;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sebster.util.IOUtil;
+import com.sebster.util.Validate;
+
+/**
+ * Persistent store of odds results, in an append-only memory mapped file. The
+ * results are keyed by the indexes of the holes, which should be normalized
+ * so that equivalent matchups share a record. The store is reloaded when it
+ * is opened, so the results survive restarts and the store grows into a
+ * table of precomputed results. When the file reaches its maximum size, new
+ * results are no longer stored. The file is locked while the store is open,
+ * so two processes cannot append to it at the same time.
+ * <p>
+ * The file starts with a header of {@link #MAGIC}, {@link #VERSION} and the
+ * end offset of the records, which is updated after each record is written,
+ * so a partially written record is ignored. Each record contains the number
+ * of holes, the number of n-way split counts per hole, the hole indexes, the
+ * n-way split counts of each hole and the CRC-32 of the preceding ints, all
+ * as ints. The records are loaded up to the first record with an invalid
+ * checksum, so a record which was only partially written to disk is
+ * discarded. The index of the records is an open addressing hash table of
+ * record offsets, the keys are compared in the mapped file.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public final class OddsStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(OddsStore.class);
+
+	/**
+	 * The magic number at the start of the store file ("ODDS").
+	 */
+	public static final int MAGIC = 0x4f444453;
+
+	/**
+	 * The version of the store file format.
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * The size of the store file header in bytes.
+	 */
+	public static final int HEADER_SIZE = 12;
+
+	/**
+	 * The maximum number of holes of a result.
+	 */
+	private static final int MAX_HOLES = 64;
+
+	private final File file;
+
+	/**
+	 * The store file, which is kept open to hold the lock.
+	 */
+	private final RandomAccessFile raf;
+
+	private final FileLock lock;
+
+	@GuardedBy("this")
+	private final MappedByteBuffer buffer;
+
+	/**
+	 * The end offset of the records.
+	 */
+	@GuardedBy("this")
+	private int end;
+
+	/**
+	 * The record offsets, zero for an empty slot.
+	 */
+	@GuardedBy("this")
+	private int[] index;
+
+	@GuardedBy("this")
+	private int size;
+
+	@GuardedBy("this")
+	private boolean full;
+
+	@GuardedBy("this")
+	private boolean closed;
+
+	private OddsStore(final File file, final RandomAccessFile raf, final FileLock lock, final MappedByteBuffer buffer) {
+		this.file = file;
+		this.raf = raf;
+		this.lock = lock;
+		this.buffer = buffer;
+		index = new int[16];
+	}
+
+	/**
+	 * Open the specified store file, or create it if it does not exist, and
+	 * load the index of its records. The file is locked until the store is
+	 * closed, see {@link #close()}.
+	 * 
+	 * @param file
+	 *            the store file
+	 * @param maxSize
+	 *            the maximum size of the store file in bytes
+	 * @return the store
+	 * @throws IOException
+	 *             if an I/O exception occurs, if the file is locked by another
+	 *             store, or if the file is not a valid store file
+	 */
+	public static OddsStore open(final File file, final int maxSize) throws IOException {
+		Validate.isTrue(maxSize >= HEADER_SIZE, "maxSize < HEADER_SIZE");
+		final long t1 = System.currentTimeMillis();
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		boolean opened = false;
+		try {
+			FileLock lock;
+			try {
+				lock = raf.getChannel().tryLock();
+			} catch (final OverlappingFileLockException e) {
+				// Locked by another store in this process.
+				lock = null;
+			}
+			if (lock == null) {
+				throw new IOException("odds store file is in use: " + file);
+			}
+			final boolean created = raf.length() == 0;
+			if (!created) {
+				// Check the header before the file is extended.
+				if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+					throw new IOException("not an odds store file: " + file);
+				}
+				final int version = raf.readInt();
+				if (version != VERSION) {
+					throw new IOException("unsupported odds store version: " + version);
+				}
+			}
+			// The file is never shrunk, a larger existing file is mapped
+			// completely.
+			final long length = Math.max(raf.length(), maxSize);
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("odds store file too large: " + length);
+			}
+			raf.setLength(length);
+			final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			if (created) {
+				buffer.putInt(0, MAGIC);
+				buffer.putInt(4, VERSION);
+				buffer.putInt(8, HEADER_SIZE);
+			}
+			final OddsStore store = new OddsStore(file, raf, lock, buffer);
+			store.load();
+			final long t2 = System.currentTimeMillis();
+			logger.info("odds store {} opened in {} ms, {} records", new Object[] { file, t2 - t1, store.getSize() });
+			opened = true;
+			return store;
+		} catch (final RuntimeException e) {
+			throw IOUtil.ioException("invalid odds store file: " + file, e);
+		} finally {
+			if (!opened) {
+				// Also releases the lock.
+				raf.close();
+			}
+		}
+	}
+
+	/**
+	 * Index the records of the file, up to the first invalid record.
+	 */
+	private synchronized void load() throws IOException {
+		final int headerEnd = buffer.getInt(8);
+		if (headerEnd < HEADER_SIZE || headerEnd > buffer.capacity()) {
+			throw new IOException("invalid odds store end offset: " + headerEnd);
+		}
+		end = HEADER_SIZE;
+		while (end < headerEnd) {
+			final int length = getRecordLength(end);
+			if (length < 0 || end + length > headerEnd || buffer.getInt(end + length - 4) != checksum(end, length - 4)) {
+				logger.warn("odds store {} truncated at invalid record at offset {}", file, end);
+				buffer.putInt(8, end);
+				break;
+			}
+			index(end);
+			end += length;
+		}
+	}
+
+	/**
+	 * Get the length of the record at the specified offset in bytes, or -1 if
+	 * it is invalid.
+	 */
+	@GuardedBy("this")
+	private int getRecordLength(final int offset) {
+		if (offset + 8 > buffer.capacity()) {
+			return -1;
+		}
+		final int holes = buffer.getInt(offset), counts = buffer.getInt(offset + 4);
+		if (holes < 1 || holes > MAX_HOLES || counts < 1 || counts > MAX_HOLES + 1) {
+			return -1;
+		}
+		return 4 * (3 + holes + holes * counts);
+	}
+
+	/**
+	 * Get the CRC-32 of the specified number of bytes at the specified
+	 * offset.
+	 */
+	@GuardedBy("this")
+	private int checksum(final int offset, final int length) {
+		final CRC32 crc = new CRC32();
+		for (int pos = offset; pos < offset + length; pos++) {
+			crc.update(buffer.get(pos));
+		}
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Get the stored odds of the specified hole indexes.
+	 * 
+	 * @param holeIndexes
+	 *            the hole indexes
+	 * @return the odds in the order of the hole indexes, or {@code null} if
+	 *         they are not stored
+	 */
+	public synchronized Odds[] get(final int[] holeIndexes) {
+		final int offset = index[find(holeIndexes)];
+		if (offset == 0) {
+			return null;
+		}
+		final int holes = holeIndexes.length, counts = buffer.getInt(offset + 4);
+		final Odds[] odds = new Odds[holes];
+		int pos = offset + 4 * (2 + holes);
+		for (int i = 0; i < holes; i++) {
+			final int[] nWaySplits = new int[counts];
+			for (int n = 0; n < counts; n++, pos += 4) {
+				nWaySplits[n] = buffer.getInt(pos);
+			}
+			odds[i] = new BasicOdds(nWaySplits);
+		}
+		return odds;
+	}
+
+	/**
+	 * Append the odds of the specified hole indexes, unless they are already
+	 * stored or the store is full.
+	 * 
+	 * @param holeIndexes
+	 *            the hole indexes
+	 * @param odds
+	 *            the odds in the order of the hole indexes, with the same
+	 *            number of n-way splits
+	 * @return whether the odds were appended
+	 */
+	public synchronized boolean put(final int[] holeIndexes, final Odds[] odds) {
+		final int holes = holeIndexes.length;
+		Validate.isTrue(holes > 0 && holes <= MAX_HOLES, "invalid number of holes");
+		Validate.isTrue(odds.length == holes, "odds.length != holeIndexes.length");
+		final int counts = odds[0].getMaxN() + 1;
+		for (final Odds o : odds) {
+			Validate.isTrue(o.getMaxN() + 1 == counts, "odds have different numbers of n-way splits");
+		}
+		if (closed || index[find(holeIndexes)] != 0) {
+			return false;
+		}
+		final int length = 4 * (3 + holes + holes * counts);
+		if (end + length > buffer.capacity()) {
+			if (!full) {
+				logger.warn("odds store {} is full, {} records", file, size);
+				full = true;
+			}
+			return false;
+		}
+		int pos = end;
+		buffer.putInt(pos, holes);
+		buffer.putInt(pos + 4, counts);
+		pos += 8;
+		for (final int holeIndex : holeIndexes) {
+			buffer.putInt(pos, holeIndex);
+			pos += 4;
+		}
+		for (final Odds o : odds) {
+			for (int n = 0; n < counts; n++, pos += 4) {
+				buffer.putInt(pos, o.getNWaySplits(n));
+			}
+		}
+		buffer.putInt(pos, checksum(end, pos - end));
+		pos += 4;
+		// Commit the record.
+		buffer.putInt(8, pos);
+		index(end);
+		end = pos;
+		return true;
+	}
+
+	/**
+	 * Add the record at the specified offset to the index, growing the index
+	 * if it is more than half full.
+	 */
+	@GuardedBy("this")
+	private void index(final int offset) {
+		if (2 * (size + 1) > index.length) {
+			final int[] oldIndex = index;
+			index = new int[2 * oldIndex.length];
+			for (final int oldOffset : oldIndex) {
+				if (oldOffset != 0) {
+					index[find(getKey(oldOffset))] = oldOffset;
+				}
+			}
+		}
+		index[find(getKey(offset))] = offset;
+		size++;
+	}
+
+	@GuardedBy("this")
+	private int[] getKey(final int offset) {
+		final int[] key = new int[buffer.getInt(offset)];
+		for (int i = 0; i < key.length; i++) {
+			key[i] = buffer.getInt(offset + 4 * (2 + i));
+		}
+		return key;
+	}
+
+	/**
+	 * Find the slot of the specified key with linear probing, which is either
+	 * the slot of its record or an empty slot.
+	 */
+	@GuardedBy("this")
+	private int find(final int[] key) {
+		int hash = 0;
+		for (final int k : key) {
+			hash = (hash + k) * 0x9e3779b9;
+		}
+		final int mask = index.length - 1;
+		for (int slot = (hash ^ hash >>> 16) & mask;; slot = slot + 1 & mask) {
+			final int offset = index[slot];
+			if (offset == 0 || matches(offset, key)) {
+				return slot;
+			}
+		}
+	}
+
+	@GuardedBy("this")
+	private boolean matches(final int offset, final int[] key) {
+		if (buffer.getInt(offset) != key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (buffer.getInt(offset + 4 * (2 + i)) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of stored results.
+	 * 
+	 * @return the number of records
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Get the size of the records in bytes, including the header.
+	 * 
+	 * @return the used size of the file
+	 */
+	public synchronized int getUsedSize() {
+		return end;
+	}
+
+	/**
+	 * Write the appended records to the file.
+	 */
+	public synchronized void flush() {
+		if (!closed) {
+			buffer.force();
+		}
+	}
+
+	/**
+	 * Write the appended records to the file, and release the lock on the
+	 * file. Results are no longer stored after the store is closed, but the
+	 * stored results can still be read.
+	 * 
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		buffer.force();
+		closed = true;
+		try {
+			lock.release();
+		} finally {
+			raf.close();
+		}
+	}
+
+}
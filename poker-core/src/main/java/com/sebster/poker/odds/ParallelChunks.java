@@ -0,0 +1,212 @@
+package com.sebster.poker.odds;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the chunks of an n-way splits count on the calling thread and up to
+ * <code>parallelism - 1</code> worker threads. Each thread takes the next
+ * chunk from a shared counter and counts into its own n-way splits array, and
+ * the arrays are added together at the end.
+ * <p>
+ * Workers which could not be started because the executor is busy are
+ * cancelled when the calling thread has done all the chunks, so a saturated
+ * executor never blocks a calculation, and the executor can be shared with
+ * the callers.
+ * 
+ * @author sebster
+ */
+public final class ParallelChunks {
+
+	/**
+	 * A task which is split in chunks.
+	 */
+	public interface Task {
+
+		/**
+		 * Count the n-way splits of the specified chunk. This is called
+		 * concurrently for different chunks, each thread with its own n-way
+		 * splits array.
+		 * 
+		 * @param chunk
+		 *            the chunk
+		 * @param nWaySplits
+		 *            the n-way splits array of the calling thread
+		 */
+		void run(int chunk, int[][] nWaySplits);
+
+	}
+
+	/**
+	 * A task which is split in chunks, and does not count anything.
+	 */
+	public interface Action {
+
+		/**
+		 * Run the specified chunk. This is called concurrently for different
+		 * chunks.
+		 * 
+		 * @param chunk
+		 *            the chunk
+		 */
+		void run(int chunk);
+
+	}
+
+	private static final int[][] NO_COUNTS = new int[0][];
+
+	private ParallelChunks() {
+		// Utility class.
+	}
+
+	/**
+	 * Run the chunks of the specified task, and add the n-way splits counts to
+	 * the specified n-way splits array.
+	 * 
+	 * @param executor
+	 *            the executor for the worker threads
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread
+	 * @param chunks
+	 *            the number of chunks
+	 * @param task
+	 *            the task
+	 * @param nWaySplits
+	 *            the n-way splits array to add the counts to
+	 * @throws IllegalStateException
+	 *             if the calling thread is interrupted while waiting for the
+	 *             workers
+	 */
+	public static void run(final ExecutorService executor, final int parallelism, final int chunks, final Task task, final int[][] nWaySplits) {
+		if (task == null) {
+			throw new NullPointerException("task");
+		}
+		final AtomicInteger nextChunk = new AtomicInteger();
+		final int workerCount = Math.min(parallelism, chunks) - 1;
+		final List<Worker> workers = new ArrayList<Worker>(Math.max(workerCount, 0));
+		final List<Future<int[][]>> futures = new ArrayList<Future<int[][]>>(Math.max(workerCount, 0));
+		try {
+			for (int i = 0; i < workerCount; i++) {
+				final Worker worker = new Worker(task, chunks, nextChunk, nWaySplits);
+				futures.add(executor.submit(worker));
+				workers.add(worker);
+			}
+		} catch (final RejectedExecutionException e) {
+			// Executor is full, continue with the workers we have.
+		}
+
+		boolean done = false;
+		try {
+			add(nWaySplits, new Worker(task, chunks, nextChunk, nWaySplits).call());
+			for (int k = 0; k < futures.size(); k++) {
+				if (workers.get(k).started.compareAndSet(false, true)) {
+					// Worker never started, all chunks have been taken.
+					futures.get(k).cancel(false);
+					continue;
+				}
+				add(nWaySplits, futures.get(k).get());
+			}
+			done = true;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("interrupted while waiting for workers", e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			if (!done) {
+				// Stop the workers after their current chunk.
+				nextChunk.set(chunks);
+				for (final Future<int[][]> future : futures) {
+					future.cancel(false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Run the chunks of the specified action, see
+	 * {@link #run(ExecutorService, int, int, Task, int[][])}.
+	 * 
+	 * @param executor
+	 *            the executor for the worker threads
+	 * @param parallelism
+	 *            the maximum number of threads, including the calling thread
+	 * @param chunks
+	 *            the number of chunks
+	 * @param action
+	 *            the action
+	 * @throws IllegalStateException
+	 *             if the calling thread is interrupted while waiting for the
+	 *             workers
+	 */
+	public static void run(final ExecutorService executor, final int parallelism, final int chunks, final Action action) {
+		if (action == null) {
+			throw new NullPointerException("action");
+		}
+		run(executor, parallelism, chunks, new Task() {
+			@Override
+			public void run(final int chunk, final int[][] nWaySplits) {
+				action.run(chunk);
+			}
+		}, NO_COUNTS);
+	}
+
+	private static void add(final int[][] nWaySplits, final int[][] counts) {
+		for (int i = 0; i < nWaySplits.length; i++) {
+			for (int j = 0; j < nWaySplits[i].length; j++) {
+				nWaySplits[i][j] += counts[i][j];
+			}
+		}
+	}
+
+	private static final class Worker implements Callable<int[][]> {
+
+		private final Task task;
+
+		private final int chunks;
+
+		private final AtomicInteger nextChunk;
+
+		private final int[][] counts;
+
+		/**
+		 * Set by the worker when it starts, or by the calling thread when it
+		 * no longer needs the worker.
+		 */
+		private final AtomicBoolean started = new AtomicBoolean();
+
+		public Worker(final Task task, final int chunks, final AtomicInteger nextChunk, final int[][] nWaySplits) {
+			this.task = task;
+			this.chunks = chunks;
+			this.nextChunk = nextChunk;
+			counts = new int[nWaySplits.length][];
+			for (int i = 0; i < nWaySplits.length; i++) {
+				counts[i] = new int[nWaySplits[i].length];
+			}
+		}
+
+		@Override
+		public int[][] call() {
+			if (!started.compareAndSet(false, true)) {
+				return null;
+			}
+			int chunk;
+			while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+				task.run(chunk, counts);
+			}
+			return counts;
+		}
+
+	}
+
+}
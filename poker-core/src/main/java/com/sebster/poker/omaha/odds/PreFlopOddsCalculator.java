@@ -12,10 +12,13 @@ import com.sebster.poker.Deck;
 import com.sebster.poker.Hole;
 import com.sebster.poker.Hole4;
 import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Cancellation;
 import com.sebster.poker.odds.CompressedHandValueDatabase;
 import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.ExpandedHandValueCache;
 import com.sebster.poker.odds.Odds;
 import com.sebster.util.ArrayUtils;
+import com.sebster.util.Validate;
 
 public class PreFlopOddsCalculator {
 
@@ -23,11 +26,17 @@ public class PreFlopOddsCalculator {
 
 	private final CompressedHandValueDatabase db;
 
+	/**
+	 * The shared cache of expanded two card holes, or {@code null} to keep the
+	 * expanded holes of the last calculation only.
+	 */
+	private final ExpandedHandValueCache cache;
+
 	/**
 	 * The uncompressed hand value arrays for up to 6 omaha hands, which is 36
-	 * two card hands.
+	 * two card hands, or {@code null} if a shared cache is used.
 	 */
-	private final int[][] udata = new int[36][Constants.BOARD_COUNT_52];
+	private final int[][] udata;
 
 	/**
 	 * The hole indexes of the uncompressed hand value arrays. This allows a
@@ -36,20 +45,43 @@ public class PreFlopOddsCalculator {
 	 */
 	private final int[] udataIndexes = new int[36];
 
-	private int lastExpandTime;
+	/**
+	 * The expand time of the last calculation in nanoseconds.
+	 */
+	private long lastExpandNanos;
 
 	private int lastExpandCacheHits;
 
-	private int lastCompareTime;
+	/**
+	 * The compare time of the last calculation in nanoseconds.
+	 */
+	private long lastCompareNanos;
 
 	public PreFlopOddsCalculator(final CompressedHandValueDatabase db) {
 		if (db == null) {
 			throw new NullPointerException("db");
 		}
 		this.db = db;
+		cache = null;
+		udata = new int[36][Constants.BOARD_COUNT_52];
 		Arrays.fill(udataIndexes, -1);
 	}
 
+	/**
+	 * Create a calculator which gets the expanded two card holes from the
+	 * specified cache, which can be shared with the calculators of other
+	 * threads. The database of the cache must contain hand values.
+	 * 
+	 * @param cache
+	 *            the cache of expanded holes
+	 */
+	public PreFlopOddsCalculator(final ExpandedHandValueCache cache) {
+		Validate.isTrue(cache.getDatabase().getEncoding() == CompressedHandValueDatabase.ENCODING_VALUE, "hand values are encoded as ranks");
+		this.db = cache.getDatabase();
+		this.cache = cache;
+		udata = null;
+	}
+
 	public final Odds[] calculateOdds(final Hole4[] holes) {
 
 		final int numHoles = holes.length;
@@ -73,10 +105,14 @@ public class PreFlopOddsCalculator {
 			}
 		}
 
+		if (cache != null) {
+			return calculateOddsCached(numHoles, holeIndexes);
+		}
+
 		final int[][] udata = this.udata;
 		final int[][] nWaySplits = new int[numHoles][numHoles + 1];
 
-		final long t1 = System.currentTimeMillis();
+		final long t1 = System.nanoTime();
 
 		// Decompress the hands.
 		lastExpandCacheHits = 0;
@@ -100,18 +136,100 @@ public class PreFlopOddsCalculator {
 			udataIndexes[i] = holeIndex;
 		}
 
-		final long t2 = System.currentTimeMillis();
+		final long t2 = System.nanoTime();
 
 		// Compare.
+		compare(udata, numHoles, nWaySplits);
+		final long t3 = System.nanoTime();
+
+		lastExpandNanos = t2 - t1;
+		lastCompareNanos = t3 - t2;
+
+		return createOdds(nWaySplits);
+	}
+
+	/**
+	 * Calculate the odds of the specified omaha holes with the expanded two
+	 * card holes of the shared cache.
+	 */
+	private Odds[] calculateOddsCached(final int numHoles, final int[] holeIndexes) {
+		final int num2Holes = holeIndexes.length;
+		final int[][] udata = new int[num2Holes][];
+		final int[][] nWaySplits = new int[numHoles][numHoles + 1];
+		final ExpandedHandValueCache.Entry[] entries = new ExpandedHandValueCache.Entry[num2Holes];
+		try {
+			final long t1 = System.nanoTime();
+
+			// Get the expanded hands, expanding the hands which are not cached.
+			lastExpandCacheHits = cache.acquire(holeIndexes, entries);
+			for (int i = 0; i < num2Holes; i++) {
+				udata[i] = entries[i].getHandValues();
+			}
+
+			final long t2 = System.nanoTime();
+
+			// Compare.
+			compare(udata, numHoles, nWaySplits);
+			final long t3 = System.nanoTime();
+
+			lastExpandNanos = t2 - t1;
+			lastCompareNanos = t3 - t2;
+		} finally {
+			cache.release(entries);
+		}
+
+		return createOdds(nWaySplits);
+	}
+
+	/**
+	 * Create the odds from the counted wins and splits.
+	 */
+	private static Odds[] createOdds(final int[][] nWaySplits) {
+		final int numHoles = nWaySplits.length;
+		final Odds[] odds = new Odds[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			final int[] nWaySplitsI = nWaySplits[i];
+			int k = Constants.getHole4BoardCount(numHoles);
+			for (int j = 1; j <= numHoles; j++) {
+				k -= nWaySplitsI[j];
+			}
+			nWaySplitsI[0] = k;
+			odds[i] = new BasicOdds(nWaySplitsI);
+		}
+		return odds;
+	}
+
+	/**
+	 * Count the wins and splits of the specified omaha holes for all boards,
+	 * checking the cancellation of the calling thread every
+	 * {@link Cancellation#CHECK_INTERVAL} boards.
+	 */
+	private static void compare(final int[][] udata, final int numHoles, final int[][] nWaySplits) {
+		final Cancellation cancellation = Cancellation.getCurrent();
+		for (int from = 0; from < Constants.BOARD_COUNT_52; from += Cancellation.CHECK_INTERVAL) {
+			if (cancellation != null) {
+				cancellation.check();
+			}
+			compare(udata, numHoles, from, Math.min(from + Cancellation.CHECK_INTERVAL, Constants.BOARD_COUNT_52), nWaySplits);
+		}
+	}
+
+	/**
+	 * Count the wins and splits of the specified omaha holes for the boards in
+	 * the specified range. The two card holes of each omaha hole are at 6
+	 * consecutive indexes in the udata array.
+	 */
+	static void compare(final int[][] udata, final int numHoles, final int from, final int to, final int[][] nWaySplits) {
+		final int num2Holes = numHoles * 6;
 		final int[] max2 = new int[numHoles];
-		nb: for (int i = 0; i < Constants.BOARD_COUNT_52; i++) {
+		nb: for (int i = from; i < to; i++) {
 			for (int j = 0; j < num2Holes; j++) {
 				if (udata[j][i] < 0) {
 					continue nb;
 				}
 			}
 			int max = 0, count = 0;
-			l = 0;
+			int l = 0;
 			for (int j = 0; j < numHoles; j++) {
 				int maxv = 0;
 				for (int k = 0; k < 6; k++) {
@@ -138,27 +256,14 @@ public class PreFlopOddsCalculator {
 				}
 			}
 		}
-		final long t3 = System.currentTimeMillis();
-
-		lastExpandTime = (int) (t2 - t1);
-		lastCompareTime = (int) (t3 - t2);
-
-		// Create return value.
-		final Odds[] odds = new Odds[numHoles];
-		for (int i = 0; i < numHoles; i++) {
-			final int[] nWaySplitsI = nWaySplits[i];
-			int k = Constants.getHole4BoardCount(numHoles);
-			for (int j = 1; j <= numHoles; j++) {
-				k -= nWaySplitsI[j];
-			}
-			nWaySplitsI[0] = k;
-			odds[i] = new BasicOdds(nWaySplitsI);
-		}
-		return odds;
 	}
 
 	public int getLastExpandTime() {
-		return lastExpandTime;
+		return (int) (lastExpandNanos / 1000000);
+	}
+
+	public long getLastExpandNanos() {
+		return lastExpandNanos;
 	}
 
 	public int getLastExpandCacheHits() {
@@ -166,7 +271,11 @@ public class PreFlopOddsCalculator {
 	}
 
 	public int getLastCompareTime() {
-		return lastCompareTime;
+		return (int) (lastCompareNanos / 1000000);
+	}
+
+	public long getLastCompareNanos() {
+		return lastCompareNanos;
 	}
 
 	public static void main(final String[] args) throws IOException {
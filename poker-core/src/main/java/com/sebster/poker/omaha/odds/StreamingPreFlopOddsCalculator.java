@@ -0,0 +1,190 @@
+package com.sebster.poker.omaha.odds;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import com.sebster.io.compress.CompressLZFI;
+import com.sebster.poker.Deck;
+import com.sebster.poker.Hole;
+import com.sebster.poker.Hole4;
+import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Cancellation;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.Odds;
+
+/**
+ * Omaha preflop odds calculator which expands the hand values of all two card
+ * holes in lock-step, {@link #BLOCK_SIZE} boards at a time, and compares each
+ * block while it is still in the processor cache. The hand values are never
+ * completely expanded, see
+ * {@link com.sebster.poker.holdem.odds.StreamingHoldemPreflopOddsCalculator}.
+ * 
+ * @author sebster
+ */
+@NotThreadSafe
+public class StreamingPreFlopOddsCalculator {
+
+	/**
+	 * The number of boards expanded and compared at a time. This is smaller
+	 * than for hold'em because there are up to 36 two card holes.
+	 */
+	public static final int BLOCK_SIZE = 1024;
+
+	private final CompressedHandValueDatabase db;
+
+	/**
+	 * The decoders for up to 36 two card holes, created when first needed.
+	 */
+	private final CompressLZFI.Decoder[] decoders = new CompressLZFI.Decoder[36];
+
+	private long lastExpandNanos;
+
+	private long lastCompareNanos;
+
+	public StreamingPreFlopOddsCalculator(final CompressedHandValueDatabase db) {
+		if (db == null) {
+			throw new NullPointerException("db");
+		}
+		this.db = db;
+	}
+
+	public final Odds[] calculateOdds(final Hole4[] holes) {
+
+		final int numHoles = holes.length;
+		if (numHoles < 2 || numHoles > 6) {
+			throw new IllegalArgumentException("number of holes must be between 2 and 6");
+		}
+
+		// Check for duplicate cards and start expanding the two card holes.
+		final CompressLZFI.Decoder[] decoders = this.decoders;
+		final int num2Holes = numHoles * 6;
+		final int[][] windows = new int[num2Holes][];
+		int l = 0;
+		for (int i = 0; i < numHoles; i++) {
+			for (int j = i + 1; j < numHoles; j++) {
+				if (holes[i].intersects(holes[j])) {
+					throw new IllegalArgumentException("hole " + holes[i] + " and hole " + holes[j] + " contain common cards");
+				}
+			}
+			final Hole[] twoCardHoles = holes[i].getAll2CardHoles();
+			for (int j = 0; j < 6; j++) {
+				if (decoders[l] == null) {
+					decoders[l] = new CompressLZFI.Decoder(BLOCK_SIZE, db.getRestartInterval());
+				}
+				db.startExpand(twoCardHoles[j].getIndex(), decoders[l]);
+				windows[l] = decoders[l].getWindow();
+				l++;
+			}
+		}
+
+		final int[][] nWaySplits = new int[numHoles][numHoles + 1];
+
+		// Expand and compare a block at a time, checking the cancellation of
+		// the calling thread before each block.
+		final Cancellation cancellation = Cancellation.getCurrent();
+		long expandTime = 0, compareTime = 0;
+		for (int from = 0; from < Constants.BOARD_COUNT_52; from += BLOCK_SIZE) {
+			if (cancellation != null) {
+				cancellation.check();
+			}
+			final int count = Math.min(BLOCK_SIZE, Constants.BOARD_COUNT_52 - from);
+			final long t1 = System.nanoTime();
+			int start = 0;
+			for (int i = 0; i < num2Holes; i++) {
+				// All decoders are in the same position in their window.
+				start = decoders[i].expand(count);
+			}
+			final long t2 = System.nanoTime();
+			PreFlopOddsCalculator.compare(windows, numHoles, start, start + count, nWaySplits);
+			final long t3 = System.nanoTime();
+			expandTime += t2 - t1;
+			compareTime += t3 - t2;
+		}
+
+		lastExpandNanos = expandTime;
+		lastCompareNanos = compareTime;
+
+		// Create return value.
+		final Odds[] odds = new Odds[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			final int[] nWaySplitsI = nWaySplits[i];
+			int k = Constants.getHole4BoardCount(numHoles);
+			for (int j = 1; j <= numHoles; j++) {
+				k -= nWaySplitsI[j];
+			}
+			nWaySplitsI[0] = k;
+			odds[i] = new BasicOdds(nWaySplitsI);
+		}
+		return odds;
+	}
+
+	public int getLastExpandTime() {
+		return (int) (lastExpandNanos / 1000000);
+	}
+
+	public long getLastExpandNanos() {
+		return lastExpandNanos;
+	}
+
+	public int getLastCompareTime() {
+		return (int) (lastCompareNanos / 1000000);
+	}
+
+	public long getLastCompareNanos() {
+		return lastCompareNanos;
+	}
+
+	public static void main(final String[] args) throws IOException {
+
+		int numHoles = 6;
+		if (args.length > 0) {
+			numHoles = Integer.parseInt(args[0]);
+		}
+
+		String dbFilename = PreFlopOddsCalculator.DB_FILENAME;
+		if (args.length > 1) {
+			dbFilename = args[1];
+		}
+
+		final InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(dbFilename)));
+		final CompressedHandValueDatabase db = new CompressedHandValueDatabase(in);
+		in.close();
+
+		final StreamingPreFlopOddsCalculator calculator = new StreamingPreFlopOddsCalculator(db);
+		final PreFlopOddsCalculator reference = new PreFlopOddsCalculator(db);
+
+		final Random random = new Random(0);
+		final Deck deck = new Deck(random);
+		long totalTime = 0, totalReferenceTime = 0;
+		for (int i = 0; i < 60; i++) {
+			final Hole4[] holes = new Hole4[numHoles];
+			for (int j = 0; j < numHoles; j++) {
+				holes[j] = Hole4.fromDeck(deck);
+			}
+			deck.shuffle();
+
+			final Odds[] odds = calculator.calculateOdds(holes);
+			final Odds[] referenceOdds = reference.calculateOdds(holes);
+			for (int j = 0; j < numHoles; j++) {
+				if (!odds[j].toString().equals(referenceOdds[j].toString())) {
+					System.out.println("***** ODDS INCORRECT ***** " + odds[j] + " != " + referenceOdds[j]);
+				}
+			}
+			if (i >= 10) {
+				// Skip the warmup rounds.
+				totalTime += calculator.getLastExpandTime() + calculator.getLastCompareTime();
+				totalReferenceTime += reference.getLastExpandTime() + reference.getLastCompareTime();
+			}
+		}
+
+		System.out.println("avg streaming=" + totalTime / 50 + " ms avg reference=" + totalReferenceTime / 50 + " ms");
+	}
+
+}
@@ -51,6 +51,33 @@ public final class IOUtil {
 		return i1 << 32 ^ i2 & 0xffffffffL;
 	}
 
+	/**
+	 * Read an unsigned varint: 7 bits per byte, least significant group
+	 * first, with the high bit set on all but the last byte. A varint has at
+	 * most five bytes, and the fifth byte holds the 4 high bits.
+	 */
+	public static int readVarInt(final InputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 28; shift += 7) {
+			final int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (b & 0x7f) << shift;
+			if (b < 0x80) {
+				return value;
+			}
+		}
+		final int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		if (b > 0x0f) {
+			throw new IOException("varint too long");
+		}
+		return value | b << 28;
+	}
+
 	public static void writeInt2(final OutputStream out, final int value) throws IOException {
 		writeInt(out, value, 2);
 	}
@@ -70,6 +97,19 @@ public final class IOUtil {
 		}
 	}
 
+	/**
+	 * Write an unsigned varint, see {@link #readVarInt(InputStream)}. Values
+	 * below 128 take one byte, negative values take five.
+	 */
+	public static void writeVarInt(final OutputStream out, final int value) throws IOException {
+		int remaining = value;
+		while ((remaining & ~0x7f) != 0) {
+			out.write(remaining & 0x7f | 0x80);
+			remaining >>>= 7;
+		}
+		out.write(remaining);
+	}
+
 	public static void writeZeros(final OutputStream out, final int length) throws IOException {
 		int bytesRemaining = length;
 		while (bytesRemaining > 0) {
@@ -0,0 +1,312 @@
+package com.sebster.util.collections;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import com.sebster.util.Validate;
+
+/**
+ * Concurrent cache with a bound on the total weight of its values. Lookups
+ * do not lock, only insertions are serialized.
+ * <p>
+ * The cache keeps an approximate access frequency of recently requested keys
+ * in a count-min sketch, also of keys which are not cached. A new entry is
+ * only admitted if it is requested more often than each of the entries it
+ * would evict, so a burst of one-off keys does not flush the popular entries,
+ * and a rejected entry does not evict anything. The eviction candidates are
+ * picked in insertion order, but entries which were read since they were last
+ * passed over get a second chance (the CLOCK algorithm). The frequencies are
+ * halved periodically, so keys which are no longer popular are evicted
+ * eventually.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public final class FrequencyCache<K, V> {
+
+	/**
+	 * The number of counters per key in the frequency sketch.
+	 */
+	private static final int SKETCH_DEPTH = 4;
+
+	private static final int[] SKETCH_SEEDS = { 0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+
+	private static final class Node<V> {
+
+		private final V value;
+
+		private final int weight;
+
+		/**
+		 * Whether the entry was read since it was inserted or last passed over
+		 * for eviction.
+		 */
+		private volatile boolean referenced;
+
+		private Node(final V value, final int weight) {
+			this.value = value;
+			this.weight = weight;
+		}
+
+	}
+
+	private final long maxWeight;
+
+	private final ConcurrentHashMap<K, Node<V>> map;
+
+	/**
+	 * The keys of the entries in insertion order, the head is the next
+	 * eviction candidate.
+	 */
+	@GuardedBy("this")
+	private final ArrayDeque<K> clock = new ArrayDeque<K>();
+
+	@GuardedBy("this")
+	private long weight;
+
+	/**
+	 * The count-min frequency sketch. The counters are incremented without
+	 * locking, a lost increment only makes the estimate slightly lower.
+	 */
+	private final int[] sketch;
+
+	private final int sketchMask;
+
+	/**
+	 * The number of sketch increments after which the counters are halved.
+	 */
+	private final int sketchSamplePeriod;
+
+	private final AtomicLong sketchSamples = new AtomicLong();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private final AtomicLong rejectionCount = new AtomicLong();
+
+	/**
+	 * Create a cache of at most the specified total weight.
+	 * 
+	 * @param maxWeight
+	 *            the maximum total weight of the values
+	 * @param expectedSize
+	 *            the expected number of entries, used to size the map and the
+	 *            frequency sketch
+	 */
+	public FrequencyCache(final long maxWeight, final int expectedSize) {
+		Validate.isTrue(maxWeight >= 0, "maxWeight < 0");
+		Validate.isTrue(expectedSize > 0, "expectedSize <= 0");
+		this.maxWeight = maxWeight;
+		map = new ConcurrentHashMap<K, Node<V>>(expectedSize);
+		final int sketchSize = Integer.highestOneBit(Math.min(expectedSize, 1 << 24) * 4 - 1) << 1;
+		sketch = new int[sketchSize];
+		sketchMask = sketchSize - 1;
+		sketchSamplePeriod = 10 * sketchSize;
+	}
+
+	/**
+	 * Get the value of the specified key, and count the request in the
+	 * frequency sketch.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the value, or {@code null} if the key is not cached
+	 */
+	public V get(final K key) {
+		final int hash = key.hashCode();
+		increment(hash);
+		final Node<V> node = map.get(key);
+		if (node == null) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		if (!node.referenced) {
+			node.referenced = true;
+		}
+		hitCount.incrementAndGet();
+		return node.value;
+	}
+
+	/**
+	 * Get the value of the specified key without counting the request, e.g.,
+	 * to repeat a lookup which was already counted.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the value, or {@code null} if the key is not cached
+	 */
+	public V peek(final K key) {
+		final Node<V> node = map.get(key);
+		return node != null ? node.value : null;
+	}
+
+	/**
+	 * Offer a value to the cache. If the cache becomes too heavy, the eviction
+	 * candidates are selected first, and the new entry is rejected if it is
+	 * requested less often than any of them. Otherwise the candidates are
+	 * evicted and the new entry is admitted.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @param valueWeight
+	 *            the weight of the value
+	 * @return whether the value was admitted
+	 */
+	public synchronized boolean put(final K key, final V value, final int valueWeight) {
+		if (key == null || value == null) {
+			throw new NullPointerException(key == null ? "key" : "value");
+		}
+		Validate.isTrue(valueWeight >= 0, "valueWeight < 0");
+		if (valueWeight > maxWeight) {
+			rejectionCount.incrementAndGet();
+			return false;
+		}
+		final Node<V> old = map.get(key);
+		final long oldWeight = old != null ? old.weight : 0;
+		// A replaced entry is admitted without comparing frequencies.
+		final int frequency = old != null ? Integer.MAX_VALUE : frequency(key.hashCode());
+		final List<K> victims = new ArrayList<K>();
+		long freed = 0;
+		while (weight - oldWeight + valueWeight - freed > maxWeight) {
+			final K victim = clock.pollFirst();
+			if (victim.equals(key)) {
+				// The replaced entry is not a candidate.
+				clock.addLast(victim);
+				continue;
+			}
+			final Node<V> victimNode = map.get(victim);
+			if (victimNode.referenced) {
+				// Second chance.
+				victimNode.referenced = false;
+				clock.addLast(victim);
+				continue;
+			}
+			victims.add(victim);
+			freed += victimNode.weight;
+			if (frequency <= frequency(victim.hashCode())) {
+				// The new entry is less popular, reject it and restore the
+				// candidates in their original order.
+				for (int i = victims.size() - 1; i >= 0; i--) {
+					clock.addFirst(victims.get(i));
+				}
+				rejectionCount.incrementAndGet();
+				return false;
+			}
+		}
+		for (final K victim : victims) {
+			map.remove(victim);
+		}
+		evictionCount.addAndGet(victims.size());
+		map.put(key, new Node<V>(value, valueWeight));
+		if (old == null) {
+			clock.addLast(key);
+		}
+		weight += valueWeight - oldWeight - freed;
+		return true;
+	}
+
+	/**
+	 * Increment the counters of the specified hash in the frequency sketch,
+	 * and halve all counters at the end of each sample period.
+	 */
+	private void increment(final int hash) {
+		for (int i = 0; i < SKETCH_DEPTH; i++) {
+			sketch[index(hash, i)]++;
+		}
+		if (sketchSamples.incrementAndGet() % sketchSamplePeriod == 0) {
+			for (int i = 0; i < sketch.length; i++) {
+				sketch[i] >>= 1;
+			}
+		}
+	}
+
+	/**
+	 * Get the estimated frequency of the specified hash, the minimum of its
+	 * counters.
+	 */
+	private int frequency(final int hash) {
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < SKETCH_DEPTH; i++) {
+			frequency = Math.min(frequency, sketch[index(hash, i)]);
+		}
+		return frequency;
+	}
+
+	private int index(final int hash, final int i) {
+		int h = (hash ^ SKETCH_SEEDS[i]) * 0x9e3779b9;
+		h ^= h >>> 16;
+		return h & sketchMask;
+	}
+
+	/**
+	 * Get the number of cached entries.
+	 * 
+	 * @return the number of entries
+	 */
+	public int getSize() {
+		return map.size();
+	}
+
+	/**
+	 * Get the total weight of the cached values.
+	 * 
+	 * @return the weight
+	 */
+	public synchronized long getWeight() {
+		return weight;
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Get the number of entries evicted to make room for more popular
+	 * entries.
+	 * 
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	/**
+	 * Get the number of values which were not admitted, because they were
+	 * less popular than an eviction candidate or too heavy.
+	 * 
+	 * @return the number of rejections
+	 */
+	public long getRejectionCount() {
+		return rejectionCount.get();
+	}
+
+	/**
+	 * Get the fraction of requests which were cached.
+	 * 
+	 * @return the hit ratio, or 0 if nothing was requested
+	 */
+	public double getHitRatio() {
+		final long hits = hitCount.get(), count = hits + missCount.get();
+		return count == 0 ? 0 : (double) hits / count;
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.sebster.poker;
+
+import static junit.framework.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BoardEvaluatorTest {
+
+	@Test
+	public void testBestValue() {
+		final BoardEvaluator evaluator = new BoardEvaluator(CardSet.fromString("Js,Ah,2s").toArray(new Card[0]));
+		final Hole hole = Hole.fromString("Qs,3s");
+		evaluator.push(Card.TEN_SPADES);
+		assertEquals(Combination.getBestValue(CardSet.fromString("Js,Ah,2s,Ts,Qs,3s")), evaluator.getBestValue(hole));
+		evaluator.push(Card.TEN_CLUBS);
+		assertEquals(Combination.getBestValue(CardSet.fromString("Js,Ah,2s,Ts,Tc,Qs,3s")), evaluator.getBestValue(hole));
+		evaluator.pop();
+		evaluator.push(Card.KING_SPADES);
+		assertEquals(Combination.getBestValue(CardSet.fromString("Js,Ah,2s,Ts,Ks,Qs,3s")), evaluator.getBestValue(hole));
+		assertEquals(5, evaluator.size());
+	}
+
+	@Test
+	public void testBestValueRandomRunouts() {
+		final Random random = new Random(0);
+		for (int i = 0; i < 10000; i++) {
+			final Deck deck = new Deck(random);
+			final Hole hole = Hole.fromDeck(deck);
+			final long holeSuitRanks = BoardEvaluator.getSuitRanks(hole);
+			final Card[] cards = new Card[7];
+			cards[0] = hole.getFirst();
+			cards[1] = hole.getSecond();
+			final BoardEvaluator evaluator = new BoardEvaluator();
+			for (int j = 2; j < 7; j++) {
+				cards[j] = deck.draw();
+				evaluator.push(cards[j]);
+				if (j >= 4) {
+					final Card[] hand = new Card[j + 1];
+					System.arraycopy(cards, 0, hand, 0, j + 1);
+					assertEquals(Combination.getBestValue(CardSet.fromCards(hand)), evaluator.getBestValue(holeSuitRanks));
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.sebster.poker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class CombinationTableTest {
+
+	/**
+	 * The deck of the test table: twos to sevens and aces, so it has wheels,
+	 * straights, flushes and straight flushes.
+	 */
+	private static final long DECK = (1L << 24) - 1 | 0xfL << 48;
+
+	private static int[] cards;
+
+	private static CombinationTable table;
+
+	@BeforeClass
+	public static void generate() throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final int states = CombinationTableGenerator.generate(DECK, new DataOutputStream(bytes));
+		table = new CombinationTable(ByteBuffer.wrap(bytes.toByteArray()).asIntBuffer());
+		Assert.assertEquals(states, table.getStateCount());
+		cards = new int[Long.bitCount(DECK)];
+		for (int card = 0, i = 0; card < 52; card++) {
+			if ((DECK & 1L << card) != 0) {
+				cards[i++] = card;
+			}
+		}
+	}
+
+	@Test
+	public void testSevenCardHands() {
+		final int n = cards.length;
+		int count = 0;
+		for (int i1 = 0; i1 < n; i1++) {
+			for (int i2 = i1 + 1; i2 < n; i2++) {
+				for (int i3 = i2 + 1; i3 < n; i3++) {
+					for (int i4 = i3 + 1; i4 < n; i4++) {
+						for (int i5 = i4 + 1; i5 < n; i5++) {
+							for (int i6 = i5 + 1; i6 < n; i6++) {
+								for (int i7 = i6 + 1; i7 < n; i7++) {
+									final long mask = 1L << cards[i1] | 1L << cards[i2] | 1L << cards[i3] | 1L << cards[i4] | 1L << cards[i5] | 1L << cards[i6] | 1L << cards[i7];
+									final int expected = Combination.getBestValue(mask);
+									Assert.assertEquals(expected, table.getBestValue(mask));
+									// The state machine does not depend on the card order.
+									Assert.assertEquals(expected, table.getBestValue(cards[i7], cards[i3], cards[i5], cards[i1], cards[i6], cards[i2], cards[i4]));
+									count++;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		Assert.assertEquals(1184040, count);
+	}
+
+	@Test
+	public void testFiveAndSixCardHands() {
+		final int n = cards.length;
+		for (int i1 = 0; i1 < n; i1++) {
+			for (int i2 = i1 + 1; i2 < n; i2++) {
+				for (int i3 = i2 + 1; i3 < n; i3++) {
+					for (int i4 = i3 + 1; i4 < n; i4++) {
+						for (int i5 = i4 + 1; i5 < n; i5++) {
+							final long mask = 1L << cards[i1] | 1L << cards[i2] | 1L << cards[i3] | 1L << cards[i4] | 1L << cards[i5];
+							Assert.assertEquals(Combination.getBestValue(mask), table.getBestValue(mask));
+							for (int i6 = i5 + 1; i6 < n; i6++) {
+								final long mask6 = mask | 1L << cards[i6];
+								Assert.assertEquals(Combination.getBestValue(mask6), table.getBestValue(mask6));
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testCardsOutsideDeck() {
+		Assert.assertEquals(0, table.next(CombinationTable.START, Card.EIGHT_CLUBS.ordinal()));
+		final int state = table.next(CombinationTable.START, Card.ACE_SPADES.ordinal());
+		Assert.assertEquals(0, table.next(state, Card.ACE_SPADES.ordinal()));
+	}
+
+}
@@ -3,6 +3,8 @@ package com.sebster.poker;
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertTrue;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 
 public class CombinationTest {
@@ -82,4 +84,109 @@ public class CombinationTest {
 		assertEquals(0, Combination.getStraightFlushValue(cards2));
 	}
 
+	@Test
+	public void testBestValueFromMask() {
+		final String[] hands = { "Js,Ah,2d,8s,Qc,Tc,3d", "Js,Ah,8s,2c,Tc,Td,9d", "Qs,Jh,Qh,2c,Tc,Td,9d", "Ks,5h,2s,Tc,Td,Th,3d", "Js,Ah,8s,Qc,Tc,Td,9d", "Js,Ah,8S,Qs,2s,3s,9s", "Ad,Js,Jh,Jd,Tc,Th,9d", "8d,Js,Jh,Td,Tc,Th,Ad", "8d,Js,Jh,Jd,2c,2h,2d", "8d,Js,Jh,Jd,Tc,Jc,9d", "Js,As,8s,Qs,Ts,Tc,9s", "Ah,2c,3d,4s,5h,Kc,Kd", "Ah,2h,3h,4h,5h,6d,7c", "Ah,2h,3h,4h,5h", "Ah,Kh,Qh,Jh,Th,9h,8h", "2c,2d,2h,2s,3c", "7c,7d,5h,5s,3c,3d" };
+		for (final String hand : hands) {
+			final CardSet cards = CardSet.fromString(hand);
+			assertEquals(hand, Combination.getBestValue(cards), Combination.getBestValue(cards.getMask()));
+		}
+	}
+
+	@Test
+	public void testBestValueFromMaskAllFiveCardSets() {
+		final Card[] cards = new Card[5];
+		for (int i0 = 0; i0 < 52; i0++) {
+			cards[0] = Card.values()[i0];
+			for (int i1 = i0 + 1; i1 < 52; i1++) {
+				cards[1] = Card.values()[i1];
+				for (int i2 = i1 + 1; i2 < 52; i2++) {
+					cards[2] = Card.values()[i2];
+					for (int i3 = i2 + 1; i3 < 52; i3++) {
+						cards[3] = Card.values()[i3];
+						for (int i4 = i3 + 1; i4 < 52; i4++) {
+							cards[4] = Card.values()[i4];
+							final CardSet cardSet = new CardSet(cards.clone());
+							assertEquals(Combination.getBestValue(cardSet), Combination.getBestValue(cardSet.getMask()));
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testBestValueFromMaskAllSevenCardSets() {
+		final Card[] values = Card.values();
+		final Card[] cards = new Card[7];
+		int count = 0;
+		for (int i0 = 0; i0 < 52; i0++) {
+			cards[0] = values[i0];
+			final long m0 = values[i0].getMask();
+			for (int i1 = i0 + 1; i1 < 52; i1++) {
+				cards[1] = values[i1];
+				final long m1 = m0 | values[i1].getMask();
+				for (int i2 = i1 + 1; i2 < 52; i2++) {
+					cards[2] = values[i2];
+					final long m2 = m1 | values[i2].getMask();
+					for (int i3 = i2 + 1; i3 < 52; i3++) {
+						cards[3] = values[i3];
+						final long m3 = m2 | values[i3].getMask();
+						for (int i4 = i3 + 1; i4 < 52; i4++) {
+							cards[4] = values[i4];
+							final long m4 = m3 | values[i4].getMask();
+							for (int i5 = i4 + 1; i5 < 52; i5++) {
+								cards[5] = values[i5];
+								final long m5 = m4 | values[i5].getMask();
+								for (int i6 = i5 + 1; i6 < 52; i6++) {
+									cards[6] = values[i6];
+									final int expected = Combination.getBestValue(new CardSet(cards.clone()));
+									final int actual = Combination.getBestValue(m5 | values[i6].getMask());
+									if (expected != actual) {
+										assertEquals(Arrays.toString(cards), expected, actual);
+									}
+									count++;
+								}
+							}
+						}
+					}
+				}
+			}
+		}
+		assertEquals(133784560, count);
+	}
+
+	@Test
+	public void testRanks() {
+		assertEquals(-1, Combination.getRank(-1));
+		assertEquals(-1, Combination.getValue(-1));
+		for (int rank = 0; rank < Combination.RANK_COUNT; rank++) {
+			assertEquals(rank, Combination.getRank(Combination.getValue(rank)));
+			if (rank > 0) {
+				assertTrue(Combination.getValue(rank - 1) < Combination.getValue(rank));
+			}
+		}
+		assertEquals(Combination.HIGH_CARD | 0x75432, Combination.getValue(0));
+		assertEquals(Combination.STRAIGHT_FLUSH | Rank.ACE.getValue(), Combination.getValue(Combination.RANK_COUNT - 1));
+	}
+
+	@Test
+	public void testRanksAllFiveCardSets() {
+		final boolean[] found = new boolean[Combination.RANK_COUNT];
+		for (long i0 = 1; i0 < 1L << 52; i0 <<= 1) {
+			for (long i1 = i0 << 1; i1 < 1L << 52; i1 <<= 1) {
+				for (long i2 = i1 << 1; i2 < 1L << 52; i2 <<= 1) {
+					for (long i3 = i2 << 1; i3 < 1L << 52; i3 <<= 1) {
+						for (long i4 = i3 << 1; i4 < 1L << 52; i4 <<= 1) {
+							found[Combination.getRank(Combination.getBestValue(i0 | i1 | i2 | i3 | i4))] = true;
+						}
+					}
+				}
+			}
+		}
+		for (int rank = 0; rank < Combination.RANK_COUNT; rank++) {
+			assertTrue("rank " + rank, found[rank]);
+		}
+	}
+
 }
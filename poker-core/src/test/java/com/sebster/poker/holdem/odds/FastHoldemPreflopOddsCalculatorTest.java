@@ -0,0 +1,135 @@
+package com.sebster.poker.holdem.odds;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.Cancellation;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.ExpandedHandValueCache;
+import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.TestHandValueDatabase;
+
+public class FastHoldemPreflopOddsCalculatorTest {
+
+	private static final Hole[] HOLES = { Hole.fromString("As,Kh"), Hole.fromString("Qc,Qd"), Hole.fromString("7s,6s"), Hole.fromString("2c,3d"), Hole.fromString("Jh,Th"), Hole.fromString("Ad,5c") };
+
+	private static CompressedHandValueDatabase db;
+
+	private static CompressedHandValueDatabase blockDb;
+
+	private static CompressedHandValueDatabase rankDb;
+
+	@BeforeClass
+	public static void createDatabase() throws IOException {
+		db = TestHandValueDatabase.create(HOLES);
+		blockDb = TestHandValueDatabase.createBlocks(1 << 14, HOLES);
+		rankDb = TestHandValueDatabase.createBlocks(1 << 14, CompressedHandValueDatabase.ENCODING_RANK, HOLES);
+	}
+
+	@Test
+	public void testTwoPlayerOdds() {
+		final Odds[] odds = new FastHoldemPreflopOddsCalculator(db).calculateOdds(HOLES[0], HOLES[1]);
+		final Odds expected = TwoPlayerPreFlopOddsDB.getInstance().getOdds(HOLES[0], HOLES[1]);
+		Assert.assertEquals(expected.getWins(), odds[0].getWins());
+		Assert.assertEquals(expected.getSplits(), odds[0].getSplits());
+		Assert.assertEquals(expected.getLosses(), odds[0].getLosses());
+	}
+
+	@Test
+	public void testParallelCompare() {
+		assertParallelSameOdds(db);
+	}
+
+	@Test
+	public void testParallelExpand() {
+		assertParallelSameOdds(blockDb);
+	}
+
+	@Test
+	public void testRanks() {
+		assertParallelSameOdds(rankDb);
+		final Odds[] expected = new FastHoldemPreflopOddsCalculator(db).calculateOdds(HOLES);
+		final Odds[] actual = new FastHoldemPreflopOddsCalculator(rankDb).calculateOdds(HOLES);
+		for (int i = 0; i < HOLES.length; i++) {
+			for (int k = 0; k <= HOLES.length; k++) {
+				Assert.assertEquals(expected[i].getNWaySplits(k), actual[i].getNWaySplits(k));
+			}
+		}
+	}
+
+	@Test
+	public void testSharedCache() {
+		final ExpandedHandValueCache cache = new ExpandedHandValueCache(rankDb, 8L * 2 * Constants.BOARD_COUNT_52);
+		final FastHoldemPreflopOddsCalculator calculator = new FastHoldemPreflopOddsCalculator(db);
+		final FastHoldemPreflopOddsCalculator cachedCalculator1 = new FastHoldemPreflopOddsCalculator(cache, null, 1);
+		final FastHoldemPreflopOddsCalculator cachedCalculator2 = new FastHoldemPreflopOddsCalculator(cache, null, 1);
+		final Odds[] expected = calculator.calculateOdds(HOLES);
+		final Odds[] actual1 = cachedCalculator1.calculateOdds(HOLES);
+		Assert.assertEquals(0, cachedCalculator1.getLastExpandCacheHits());
+		final Odds[] actual2 = cachedCalculator2.calculateOdds(HOLES[5], HOLES[4], HOLES[3], HOLES[2], HOLES[1], HOLES[0]);
+		Assert.assertEquals(HOLES.length, cachedCalculator2.getLastExpandCacheHits());
+		for (int i = 0; i < HOLES.length; i++) {
+			for (int k = 0; k <= HOLES.length; k++) {
+				Assert.assertEquals(expected[i].getNWaySplits(k), actual1[i].getNWaySplits(k));
+				Assert.assertEquals(expected[i].getNWaySplits(k), actual2[HOLES.length - 1 - i].getNWaySplits(k));
+			}
+		}
+		Assert.assertEquals(0.5, cache.getHitRatio(), 0);
+	}
+
+	@Test
+	public void testCancelled() {
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		final Cancellation cancellation = new Cancellation();
+		cancellation.cancel();
+		Cancellation.setCurrent(cancellation);
+		try {
+			new FastHoldemPreflopOddsCalculator(db).calculateOdds(HOLES);
+			Assert.fail("calculation not cancelled");
+		} catch (final CancellationException e) {
+			// Expected.
+		}
+		try {
+			new FastHoldemPreflopOddsCalculator(db, executor, 4).calculateOdds(HOLES);
+			Assert.fail("parallel calculation not cancelled");
+		} catch (final CancellationException e) {
+			// Expected.
+		} finally {
+			Cancellation.clearCurrent();
+			executor.shutdown();
+		}
+		// Not cancelled without a cancellation.
+		Assert.assertEquals(HOLES.length, new FastHoldemPreflopOddsCalculator(db).calculateOdds(HOLES).length);
+	}
+
+	private static void assertParallelSameOdds(final CompressedHandValueDatabase parallelDb) {
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			final FastHoldemPreflopOddsCalculator calculator = new FastHoldemPreflopOddsCalculator(db);
+			final FastHoldemPreflopOddsCalculator parallelCalculator = new FastHoldemPreflopOddsCalculator(parallelDb, executor, 4);
+			for (int n = 2; n <= HOLES.length; n++) {
+				final Hole[] holes = new Hole[n];
+				System.arraycopy(HOLES, 0, holes, 0, n);
+				final Odds[] expected = calculator.calculateOdds(holes);
+				final Odds[] actual = parallelCalculator.calculateOdds(holes);
+				for (int i = 0; i < n; i++) {
+					Assert.assertEquals(Constants.getHole2BoardCount(n), actual[i].getTotal());
+					for (int k = 0; k <= n; k++) {
+						Assert.assertEquals(expected[i].getNWaySplits(k), actual[i].getNWaySplits(k));
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.sebster.poker.holdem.odds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.MappedHandValueDatabase;
+import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.TestHandValueDatabase;
+
+public class MappedHoldemPreflopOddsCalculatorTest {
+
+	private static final Hole[] HOLES = { Hole.fromString("As,Kh"), Hole.fromString("Qc,Qd"), Hole.fromString("7s,6s"), Hole.fromString("2c,3d"), Hole.fromString("Jh,Th"), Hole.fromString("Ad,5c") };
+
+	private static CompressedHandValueDatabase db;
+
+	private static File valueFile;
+
+	private static File rankFile;
+
+	@BeforeClass
+	public static void createDatabases() throws IOException {
+		db = TestHandValueDatabase.create(HOLES);
+		valueFile = File.createTempFile("hand_value_db", ".bin");
+		TestHandValueDatabase.createMappedDatabaseFile(valueFile, CompressedHandValueDatabase.ENCODING_VALUE, HOLES);
+		rankFile = File.createTempFile("hand_value_db", ".bin");
+		TestHandValueDatabase.createMappedDatabaseFile(rankFile, CompressedHandValueDatabase.ENCODING_RANK, HOLES);
+	}
+
+	@AfterClass
+	public static void deleteDatabases() {
+		valueFile.delete();
+		rankFile.delete();
+	}
+
+	@Test
+	public void testValues() throws IOException {
+		Assert.assertTrue(MappedHandValueDatabase.isDatabaseFile(valueFile));
+		final MappedHandValueDatabase mappedDb = MappedHandValueDatabase.load(valueFile);
+		Assert.assertEquals(CompressedHandValueDatabase.ENCODING_VALUE, mappedDb.getEncoding());
+		assertSameOddsAsFastCalculator(new MappedHoldemPreflopOddsCalculator(mappedDb));
+	}
+
+	@Test
+	public void testRanks() throws IOException {
+		final MappedHandValueDatabase mappedDb = MappedHandValueDatabase.load(rankFile);
+		Assert.assertEquals(CompressedHandValueDatabase.ENCODING_RANK, mappedDb.getEncoding());
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			assertSameOddsAsFastCalculator(new MappedHoldemPreflopOddsCalculator(mappedDb, executor, 4));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotADatabaseFile() throws IOException {
+		final File file = File.createTempFile("hand_value_db", ".bin");
+		try {
+			Assert.assertFalse(MappedHandValueDatabase.isDatabaseFile(file));
+			MappedHandValueDatabase.load(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void assertSameOddsAsFastCalculator(final MappedHoldemPreflopOddsCalculator mappedCalculator) {
+		final FastHoldemPreflopOddsCalculator calculator = new FastHoldemPreflopOddsCalculator(db);
+		for (int n = 2; n <= HOLES.length; n++) {
+			final Hole[] holes = new Hole[n];
+			System.arraycopy(HOLES, HOLES.length - n, holes, 0, n);
+			final Odds[] expected = calculator.calculateOdds(holes);
+			final Odds[] actual = mappedCalculator.calculateOdds(holes);
+			for (int i = 0; i < n; i++) {
+				for (int k = 0; k <= n; k++) {
+					Assert.assertEquals(expected[i].getNWaySplits(k), actual[i].getNWaySplits(k));
+				}
+			}
+		}
+	}
+
+}
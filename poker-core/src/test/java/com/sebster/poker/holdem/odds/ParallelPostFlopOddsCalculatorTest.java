@@ -0,0 +1,57 @@
+package com.sebster.poker.holdem.odds;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sebster.poker.Card;
+import com.sebster.poker.Deck;
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.Odds;
+
+public class ParallelPostFlopOddsCalculatorTest {
+
+	@Test
+	public void testSameOddsAsPostFlopOddsCalculator() {
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			final ParallelPostFlopOddsCalculator calculator = new ParallelPostFlopOddsCalculator(executor, 4);
+			final Random random = new Random(0);
+			for (int i = 0; i < 30; i++) {
+				final Deck deck = new Deck(random);
+				final Hole[] holes = new Hole[2 + i % 9];
+				for (int j = 0; j < holes.length; j++) {
+					holes[j] = Hole.fromDeck(deck);
+				}
+				final Card[] board = new Card[3 + i % 3];
+				for (int j = 0; j < board.length; j++) {
+					board[j] = deck.draw();
+				}
+				final Odds[] expected = PostFlopOddsCalculator.getInstance().calculateOdds(holes, board);
+				final Odds[] actual = calculator.calculateOdds(holes, board);
+				Assert.assertEquals(expected.length, actual.length);
+				for (int j = 0; j < holes.length; j++) {
+					for (int n = 0; n <= holes.length; n++) {
+						Assert.assertEquals(expected[j].getNWaySplits(n), actual[j].getNWaySplits(n));
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateCard() {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			new ParallelPostFlopOddsCalculator(executor, 2).calculateOdds(new Hole[] { Hole.fromString("As,Ks"), Hole.fromString("Qs,Js") }, new Card[] { Card.ACE_SPADES, Card.TWO_CLUBS, Card.THREE_CLUBS });
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package com.sebster.poker.holdem.odds;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.TestHandValueDatabase;
+
+public class StreamingHoldemPreflopOddsCalculatorTest {
+
+	private static final Hole[] HOLES = { Hole.fromString("As,Kh"), Hole.fromString("Qc,Qd"), Hole.fromString("7s,6s"), Hole.fromString("2c,3d"), Hole.fromString("Jh,Th"), Hole.fromString("Ad,5c") };
+
+	private static CompressedHandValueDatabase db;
+
+	private static CompressedHandValueDatabase blockDb;
+
+	private static CompressedHandValueDatabase rankDb;
+
+	@BeforeClass
+	public static void createDatabase() throws IOException {
+		db = TestHandValueDatabase.create(HOLES);
+		blockDb = TestHandValueDatabase.createBlocks(1 << 14, HOLES);
+		rankDb = TestHandValueDatabase.createBlocks(1 << 14, CompressedHandValueDatabase.ENCODING_RANK, HOLES);
+	}
+
+	@Test
+	public void testSameOddsAsFastCalculator() {
+		assertSameOddsAsFastCalculator(db);
+	}
+
+	@Test
+	public void testBlockFormatSameOddsAsFastCalculator() {
+		assertSameOddsAsFastCalculator(blockDb);
+	}
+
+	@Test
+	public void testRanksSameOddsAsFastCalculator() {
+		assertSameOddsAsFastCalculator(rankDb);
+	}
+
+	private static void assertSameOddsAsFastCalculator(final CompressedHandValueDatabase streamingDb) {
+		final FastHoldemPreflopOddsCalculator calculator = new FastHoldemPreflopOddsCalculator(db);
+		final StreamingHoldemPreflopOddsCalculator streamingCalculator = new StreamingHoldemPreflopOddsCalculator(streamingDb);
+		for (int n = 2; n <= HOLES.length; n++) {
+			final Hole[] holes = new Hole[n];
+			System.arraycopy(HOLES, HOLES.length - n, holes, 0, n);
+			final Odds[] expected = calculator.calculateOdds(holes);
+			final Odds[] actual = streamingCalculator.calculateOdds(holes);
+			for (int i = 0; i < n; i++) {
+				for (int k = 0; k <= n; k++) {
+					Assert.assertEquals(expected[i].getNWaySplits(k), actual[i].getNWaySplits(k));
+				}
+			}
+		}
+	}
+
+}
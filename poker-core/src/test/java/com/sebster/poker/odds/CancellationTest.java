@@ -0,0 +1,52 @@
+package com.sebster.poker.odds;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CancellationTest {
+
+	@Test
+	public void testCancel() {
+		final Cancellation cancellation = new Cancellation();
+		Assert.assertFalse(cancellation.isCancelled());
+		cancellation.check();
+		final Cancellation copy = cancellation.copy();
+		cancellation.cancel();
+		Assert.assertTrue(cancellation.isCancelled());
+		Assert.assertFalse(copy.isCancelled());
+		try {
+			cancellation.check();
+			Assert.fail("not cancelled");
+		} catch (final CancellationException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void testDeadline() {
+		final long now = System.nanoTime();
+		final Cancellation expired = new Cancellation(now - 1);
+		Assert.assertTrue(expired.isCancelled());
+		Assert.assertTrue(expired.copy().isCancelled());
+		final Cancellation later = new Cancellation(now + TimeUnit.HOURS.toNanos(1));
+		Assert.assertFalse(later.isCancelled());
+		Assert.assertTrue(expired.getRemainingNanos() < 0);
+		Assert.assertTrue(later.getRemainingNanos() > 0);
+		Assert.assertEquals(Long.MAX_VALUE, new Cancellation().getRemainingNanos());
+
+		// Extending moves the deadline later, never earlier.
+		later.extend(expired);
+		Assert.assertFalse(later.isCancelled());
+		expired.extend(later);
+		Assert.assertFalse(expired.isCancelled());
+
+		// Extending with a cancellation without deadline clears the deadline.
+		final Cancellation expired2 = new Cancellation(now - 1);
+		expired2.extend(new Cancellation());
+		Assert.assertFalse(expired2.isCancelled());
+	}
+
+}
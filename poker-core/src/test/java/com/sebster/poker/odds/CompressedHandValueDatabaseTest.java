@@ -0,0 +1,211 @@
+package com.sebster.poker.odds;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sebster.io.compress.CompressLZFI;
+import com.sebster.poker.Combination;
+import com.sebster.poker.Hole;
+
+public class CompressedHandValueDatabaseTest {
+
+	private static final Hole HOLE = Hole.fromString("As,Kh");
+
+	private static final int RESTART_INTERVAL = 1 << 14;
+
+	private static int[] values;
+
+	private static CompressedHandValueDatabase db;
+
+	private static CompressedHandValueDatabase blockDb;
+
+	private static CompressedHandValueDatabase rankDb;
+
+	@BeforeClass
+	public static void createDatabases() throws IOException {
+		values = TestHandValueDatabase.getHandValues(HOLE);
+		db = TestHandValueDatabase.create(HOLE);
+		blockDb = TestHandValueDatabase.createBlocks(RESTART_INTERVAL, HOLE);
+		rankDb = TestHandValueDatabase.createBlocks(RESTART_INTERVAL, CompressedHandValueDatabase.ENCODING_RANK, HOLE);
+	}
+
+	@Test
+	public void testRestartInterval() {
+		Assert.assertEquals(Constants.BOARD_COUNT_52, db.getRestartInterval());
+		Assert.assertEquals(1, db.getBlockCount());
+		Assert.assertEquals(RESTART_INTERVAL, blockDb.getRestartInterval());
+		Assert.assertEquals((Constants.BOARD_COUNT_52 + RESTART_INTERVAL - 1) / RESTART_INTERVAL, blockDb.getBlockCount());
+	}
+
+	@Test
+	public void testExpand() {
+		final int[] udata = new int[Constants.BOARD_COUNT_52];
+		db.expand(HOLE.getIndex(), udata);
+		Assert.assertArrayEquals(values, udata);
+		Arrays.fill(udata, 0);
+		blockDb.expand(HOLE.getIndex(), udata);
+		Assert.assertArrayEquals(values, udata);
+	}
+
+	@Test
+	public void testExpandRange() {
+		final int[][] ranges = { { 0, Constants.BOARD_COUNT_52 }, { 0, RESTART_INTERVAL }, { 3 * RESTART_INTERVAL, 5 * RESTART_INTERVAL }, { 12345, 12345 }, { 12345, 98765 }, { Constants.BOARD_COUNT_52 - 100, Constants.BOARD_COUNT_52 } };
+		for (final int[] range : ranges) {
+			for (final CompressedHandValueDatabase database : new CompressedHandValueDatabase[] { db, blockDb }) {
+				final int[] udata = new int[Constants.BOARD_COUNT_52];
+				database.expand(HOLE.getIndex(), range[0], range[1], udata);
+				for (int i = 0; i < Constants.BOARD_COUNT_52; i++) {
+					Assert.assertEquals(i >= range[0] && i < range[1] ? values[i] : 0, udata[i]);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testExpandRanks() {
+		Assert.assertEquals(CompressedHandValueDatabase.ENCODING_VALUE, blockDb.getEncoding());
+		Assert.assertEquals(CompressedHandValueDatabase.ENCODING_RANK, rankDb.getEncoding());
+		final int[] udata = new int[Constants.BOARD_COUNT_52];
+		final short[] rdata = new short[Constants.BOARD_COUNT_52];
+		final short[] rangeData = new short[Constants.BOARD_COUNT_52];
+		rankDb.expand(HOLE.getIndex(), udata);
+		rankDb.expand(HOLE.getIndex(), rdata);
+		rankDb.expand(HOLE.getIndex(), 12345, 98765, rangeData);
+		for (int i = 0; i < Constants.BOARD_COUNT_52; i++) {
+			final int rank = Combination.getRank(values[i]);
+			Assert.assertEquals(rank, udata[i]);
+			Assert.assertEquals(rank, rdata[i]);
+			Assert.assertEquals(i >= 12345 && i < 98765 ? rank : 0, rangeData[i]);
+		}
+	}
+
+	@Test
+	public void testRanksCompressSmaller() {
+		final int[][] valueBlocks = TestHandValueDatabase.getBlockCompressedHandValues(HOLE, RESTART_INTERVAL, CompressedHandValueDatabase.ENCODING_VALUE);
+		final int[][] rankBlocks = TestHandValueDatabase.getBlockCompressedHandValues(HOLE, RESTART_INTERVAL, CompressedHandValueDatabase.ENCODING_RANK);
+		Assert.assertTrue(rankBlocks[1].length < valueBlocks[1].length);
+	}
+
+	@Test
+	public void testStartExpand() {
+		for (final CompressedHandValueDatabase database : new CompressedHandValueDatabase[] { db, blockDb }) {
+			final CompressLZFI.Decoder decoder = new CompressLZFI.Decoder(4096, database.getRestartInterval());
+			database.startExpand(HOLE.getIndex(), decoder);
+			for (int from = 0; from < Constants.BOARD_COUNT_52; from += 4096) {
+				final int count = Math.min(4096, Constants.BOARD_COUNT_52 - from);
+				final int start = decoder.expand(count);
+				for (int i = 0; i < count; i++) {
+					Assert.assertEquals(values[from + i], decoder.getWindow()[start + i]);
+				}
+			}
+		}
+		// The window spans the restart interval of the block database only.
+		Assert.assertEquals(1 << 15, CompressLZFI.Decoder.getWindowSize(4096, RESTART_INTERVAL));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testExpandValuesToShorts() {
+		blockDb.expand(HOLE.getIndex(), new short[Constants.BOARD_COUNT_52]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testExpandInvalidRange() {
+		blockDb.expand(HOLE.getIndex(), 10, 5, new int[Constants.BOARD_COUNT_52]);
+	}
+
+	@Test
+	public void testLoadFile() throws IOException {
+		final byte[][] databases = { TestHandValueDatabase.createDatabaseBytes(HOLE), TestHandValueDatabase.createBlockDatabaseBytes(RESTART_INTERVAL, CompressedHandValueDatabase.ENCODING_VALUE, HOLE) };
+		final ExecutorService executor = Executors.newFixedThreadPool(3);
+		final File file = File.createTempFile("hand_value_db", ".lzfb");
+		try {
+			for (final byte[] bytes : databases) {
+				for (final boolean gzip : new boolean[] { false, true }) {
+					final OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file);
+					out.write(bytes);
+					out.close();
+					final CompressedHandValueDatabase expected = new CompressedHandValueDatabase(new ByteArrayInputStream(bytes));
+					assertSameDatabase(expected, CompressedHandValueDatabase.load(file));
+					assertSameDatabase(expected, CompressedHandValueDatabase.load(file, executor, 4));
+				}
+			}
+		} finally {
+			executor.shutdown();
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testOpenLazily() throws IOException, InterruptedException {
+		final byte[] bytes = TestHandValueDatabase.createBlockDatabaseBytes(RESTART_INTERVAL, CompressedHandValueDatabase.ENCODING_RANK, HOLE);
+		final File file = File.createTempFile("hand_value_db", ".lzfb");
+		try {
+			final OutputStream out = new FileOutputStream(file);
+			out.write(bytes);
+			out.close();
+			final CompressedHandValueDatabase expected = new CompressedHandValueDatabase(new ByteArrayInputStream(bytes));
+
+			// Holes are loaded when first used.
+			final CompressedHandValueDatabase lazyDb = CompressedHandValueDatabase.open(file, null);
+			Assert.assertEquals(0, lazyDb.getLoadedHoleCount());
+			assertSameDatabase(expected, lazyDb);
+			Assert.assertEquals(3, lazyDb.getLoadedHoleCount());
+
+			// The prefetch task loads all holes.
+			final ExecutorService executor = Executors.newSingleThreadExecutor();
+			final CompressedHandValueDatabase prefetchDb = CompressedHandValueDatabase.open(file, executor);
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+			Assert.assertEquals(Constants.HOLE_COUNT, prefetchDb.getLoadedHoleCount());
+			assertSameDatabase(expected, prefetchDb);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testLoadTruncatedFile() throws IOException {
+		final byte[] bytes = TestHandValueDatabase.createBlockDatabaseBytes(RESTART_INTERVAL, CompressedHandValueDatabase.ENCODING_VALUE, HOLE);
+		final File file = File.createTempFile("hand_value_db", ".lzfb");
+		try {
+			final OutputStream out = new FileOutputStream(file);
+			out.write(bytes, 0, bytes.length - 4);
+			out.close();
+			CompressedHandValueDatabase.load(file);
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnsupportedVersion() throws IOException {
+		final byte[] bytes = TestHandValueDatabase.createBlockDatabaseBytes(RESTART_INTERVAL, CompressedHandValueDatabase.ENCODING_VALUE);
+		bytes[7] = CompressedHandValueDatabase.VERSION + 1;
+		new CompressedHandValueDatabase(new ByteArrayInputStream(bytes));
+	}
+
+	private static void assertSameDatabase(final CompressedHandValueDatabase expected, final CompressedHandValueDatabase actual) {
+		Assert.assertEquals(expected.getRestartInterval(), actual.getRestartInterval());
+		Assert.assertEquals(expected.getEncoding(), actual.getEncoding());
+		final int[] expectedData = new int[Constants.BOARD_COUNT_52];
+		final int[] actualData = new int[Constants.BOARD_COUNT_52];
+		for (final int index : new int[] { 0, HOLE.getIndex(), Constants.HOLE_COUNT - 1 }) {
+			expected.expand(index, 12345, Constants.BOARD_COUNT_52, expectedData);
+			actual.expand(index, 12345, Constants.BOARD_COUNT_52, actualData);
+			Assert.assertArrayEquals(expectedData, actualData);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.sebster.poker.odds;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sebster.poker.Hole;
+
+public class ExpandedHandValueCacheTest {
+
+	private static final Hole[] HOLES = { Hole.fromString("As,Kh"), Hole.fromString("Qc,Qd"), Hole.fromString("7s,6s") };
+
+	private static final long ENTRY_SIZE = 4L * Constants.BOARD_COUNT_52;
+
+	private static CompressedHandValueDatabase db;
+
+	private static int[][] values;
+
+	@BeforeClass
+	public static void createDatabase() throws IOException {
+		db = TestHandValueDatabase.createBlocks(1 << 18, HOLES);
+		values = new int[HOLES.length][];
+		for (int i = 0; i < HOLES.length; i++) {
+			values[i] = TestHandValueDatabase.getHandValues(HOLES[i]);
+		}
+	}
+
+	@Test
+	public void testHitsAndEviction() {
+		final ExpandedHandValueCache cache = new ExpandedHandValueCache(db, 2 * ENTRY_SIZE);
+		final ExpandedHandValueCache.Entry[] entries = new ExpandedHandValueCache.Entry[1];
+
+		// Use hole 0 twice and hole 1 once.
+		Assert.assertEquals(0, acquireAndCheck(cache, 0, entries));
+		cache.release(entries);
+		Assert.assertNull(entries[0]);
+		Assert.assertEquals(1, acquireAndCheck(cache, 0, entries));
+		cache.release(entries);
+		Assert.assertEquals(0, acquireAndCheck(cache, 1, entries));
+		cache.release(entries);
+		Assert.assertEquals(2 * ENTRY_SIZE, cache.getSize());
+
+		// Hole 1 is used least, so it is evicted for hole 2.
+		Assert.assertEquals(0, acquireAndCheck(cache, 2, entries));
+		cache.release(entries);
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals(2 * ENTRY_SIZE, cache.getSize());
+		Assert.assertEquals(1, acquireAndCheck(cache, 0, entries));
+		cache.release(entries);
+		Assert.assertEquals(0, acquireAndCheck(cache, 1, entries));
+		cache.release(entries);
+
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(4, cache.getMissCount());
+		Assert.assertEquals(2.0 / 6, cache.getHitRatio(), 1e-9);
+	}
+
+	@Test
+	public void testPinnedEntriesAreNotEvicted() {
+		final ExpandedHandValueCache cache = new ExpandedHandValueCache(db, 0);
+		final ExpandedHandValueCache.Entry[] entries = new ExpandedHandValueCache.Entry[HOLES.length];
+		final int[] indexes = new int[HOLES.length];
+		for (int i = 0; i < HOLES.length; i++) {
+			indexes[i] = HOLES[i].getIndex();
+		}
+		Assert.assertEquals(0, cache.acquire(indexes, entries));
+		Assert.assertEquals(HOLES.length * ENTRY_SIZE, cache.getSize());
+		for (int i = 0; i < HOLES.length; i++) {
+			Assert.assertArrayEquals(values[i], entries[i].getHandValues());
+		}
+		cache.release(entries);
+		Assert.assertEquals(0, cache.getSize());
+		Assert.assertEquals(HOLES.length, cache.getEvictionCount());
+	}
+
+	@Test
+	public void testConcurrentAcquireExpandsOnce() throws Exception {
+		final ExpandedHandValueCache cache = new ExpandedHandValueCache(db, HOLES.length * ENTRY_SIZE);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						final ExpandedHandValueCache.Entry[] entries = new ExpandedHandValueCache.Entry[1];
+						try {
+							return acquireAndCheck(cache, 0, entries);
+						} finally {
+							cache.release(entries);
+						}
+					}
+				}));
+			}
+			for (final Future<Integer> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(7, cache.getHitCount());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testRanksOfHandValues() {
+		final ExpandedHandValueCache cache = new ExpandedHandValueCache(db, ENTRY_SIZE);
+		final ExpandedHandValueCache.Entry[] entries = new ExpandedHandValueCache.Entry[1];
+		try {
+			cache.acquire(new int[] { HOLES[0].getIndex() }, entries);
+			entries[0].getRanks();
+		} finally {
+			cache.release(entries);
+		}
+	}
+
+	private static int acquireAndCheck(final ExpandedHandValueCache cache, final int hole, final ExpandedHandValueCache.Entry[] entries) {
+		final int hits = cache.acquire(new int[] { HOLES[hole].getIndex() }, entries);
+		Assert.assertEquals(HOLES[hole].getIndex(), entries[0].getIndex());
+		Assert.assertArrayEquals(values[hole], entries[0].getHandValues());
+		return hits;
+	}
+
+}
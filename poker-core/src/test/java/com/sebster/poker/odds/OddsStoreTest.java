@@ -0,0 +1,157 @@
+package com.sebster.poker.odds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OddsStoreTest {
+
+	private static final int[] KEY = { 3, 1000, 17 };
+
+	private static final Odds[] ODDS = { new BasicOdds(new int[] { 5, 4, 3, 2 }), new BasicOdds(new int[] { 1, 2, 3, 4 }), new BasicOdds(new int[] { 9, 8, 0, 2 }) };
+
+	@Test
+	public void testPutGetReopen() throws IOException {
+		final File file = File.createTempFile("odds", ".store");
+		try {
+			file.delete();
+			final OddsStore store = OddsStore.open(file, 1 << 16);
+			Assert.assertNull(store.get(KEY));
+			Assert.assertTrue(store.put(KEY, ODDS));
+			Assert.assertFalse(store.put(KEY, ODDS));
+			for (int i = 0; i < 100; i++) {
+				Assert.assertTrue(store.put(new int[] { i, i + 1 }, new Odds[] { ODDS[0], ODDS[1] }));
+			}
+			Assert.assertArrayEquals(ODDS, store.get(KEY));
+			Assert.assertNull(store.get(new int[] { 3, 1000 }));
+			store.close();
+			Assert.assertFalse(store.put(new int[] { 1, 2 }, new Odds[] { ODDS[0], ODDS[1] }));
+
+			final OddsStore reopened = OddsStore.open(file, 1 << 16);
+			Assert.assertEquals(101, reopened.getSize());
+			Assert.assertEquals(store.getUsedSize(), reopened.getUsedSize());
+			Assert.assertArrayEquals(ODDS, reopened.get(KEY));
+			Assert.assertArrayEquals(new Odds[] { ODDS[0], ODDS[1] }, reopened.get(new int[] { 42, 43 }));
+			reopened.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testFull() throws IOException {
+		final File file = File.createTempFile("odds", ".store");
+		try {
+			file.delete();
+			// Room for the header and one record of 3 holes.
+			final OddsStore store = OddsStore.open(file, OddsStore.HEADER_SIZE + 4 * (3 + 3 + 3 * 4));
+			Assert.assertTrue(store.put(KEY, ODDS));
+			Assert.assertFalse(store.put(new int[] { 1, 2, 3 }, ODDS));
+			Assert.assertEquals(1, store.getSize());
+			store.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testInvalidRecordIgnored() throws IOException {
+		final File file = File.createTempFile("odds", ".store");
+		try {
+			file.delete();
+			final OddsStore store = OddsStore.open(file, 1 << 12);
+			store.put(KEY, ODDS);
+			final int end = store.getUsedSize();
+			store.close();
+
+			// Commit a record with an invalid number of holes.
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(end);
+				raf.writeInt(-1);
+				raf.seek(8);
+				raf.writeInt(end + 100);
+			} finally {
+				raf.close();
+			}
+
+			final OddsStore reopened = OddsStore.open(file, 1 << 12);
+			Assert.assertEquals(1, reopened.getSize());
+			Assert.assertEquals(end, reopened.getUsedSize());
+			Assert.assertArrayEquals(ODDS, reopened.get(KEY));
+			reopened.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testChecksum() throws IOException {
+		final File file = File.createTempFile("odds", ".store");
+		try {
+			file.delete();
+			final OddsStore store = OddsStore.open(file, 1 << 12);
+			store.put(KEY, ODDS);
+			final int end = store.getUsedSize();
+			store.put(new int[] { 1, 2 }, new Odds[] { ODDS[0], ODDS[1] });
+			store.close();
+
+			// Corrupt an n-way split count of the second record.
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.seek(end + 4 * (2 + 2 + 1));
+				raf.writeInt(12345);
+			} finally {
+				raf.close();
+			}
+
+			final OddsStore reopened = OddsStore.open(file, 1 << 12);
+			Assert.assertEquals(1, reopened.getSize());
+			Assert.assertEquals(end, reopened.getUsedSize());
+			Assert.assertArrayEquals(ODDS, reopened.get(KEY));
+			Assert.assertNull(reopened.get(new int[] { 1, 2 }));
+			reopened.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testLocked() throws IOException {
+		final File file = File.createTempFile("odds", ".store");
+		try {
+			file.delete();
+			final OddsStore store = OddsStore.open(file, 1 << 12);
+			try {
+				OddsStore.open(file, 1 << 12);
+				Assert.fail("store opened twice");
+			} catch (final IOException e) {
+				// Expected.
+			}
+			store.close();
+			OddsStore.open(file, 1 << 12).close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAStore() throws IOException {
+		final File file = File.createTempFile("odds", ".store");
+		try {
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				raf.writeInt(0x12345678);
+			} finally {
+				raf.close();
+			}
+			OddsStore.open(file, 1 << 12);
+		} finally {
+			file.delete();
+		}
+	}
+
+}
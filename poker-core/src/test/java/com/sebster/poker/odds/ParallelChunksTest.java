@@ -0,0 +1,106 @@
+package com.sebster.poker.odds;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelChunksTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(3);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testCounts() {
+		final int[][] nWaySplits = new int[2][3];
+		ParallelChunks.run(executor, 4, 1000, new ParallelChunks.Task() {
+			@Override
+			public void run(final int chunk, final int[][] counts) {
+				counts[chunk & 1][chunk % 3]++;
+			}
+		}, nWaySplits);
+		int total = 0;
+		for (final int[] counts : nWaySplits) {
+			for (final int count : counts) {
+				total += count;
+			}
+		}
+		Assert.assertEquals(1000, total);
+		Assert.assertEquals(167, nWaySplits[0][0]);
+	}
+
+	@Test
+	public void testAction() {
+		final AtomicIntegerArray runs = new AtomicIntegerArray(1000);
+		ParallelChunks.run(executor, 4, runs.length(), new ParallelChunks.Action() {
+			@Override
+			public void run(final int chunk) {
+				runs.incrementAndGet(chunk);
+			}
+		});
+		for (int i = 0; i < runs.length(); i++) {
+			Assert.assertEquals(1, runs.get(i));
+		}
+	}
+
+	@Test
+	public void testNoExecutor() {
+		final AtomicInteger runs = new AtomicInteger();
+		ParallelChunks.run(null, 1, 10, new ParallelChunks.Action() {
+			@Override
+			public void run(final int chunk) {
+				runs.incrementAndGet();
+			}
+		});
+		Assert.assertEquals(10, runs.get());
+	}
+
+	@Test
+	public void testFailureStopsWorkers() throws InterruptedException {
+		final Thread caller = Thread.currentThread();
+		final CountDownLatch started = new CountDownLatch(1);
+		final AtomicInteger runs = new AtomicInteger();
+		try {
+			ParallelChunks.run(executor, 2, 1000000, new ParallelChunks.Action() {
+				@Override
+				public void run(final int chunk) {
+					runs.incrementAndGet();
+					if (Thread.currentThread() != caller) {
+						started.countDown();
+						return;
+					}
+					// The calling thread fails when the worker is running.
+					try {
+						Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+					} catch (final InterruptedException e) {
+						throw new IllegalStateException(e);
+					}
+					throw new IllegalArgumentException("failed");
+				}
+			});
+			Assert.fail();
+		} catch (final IllegalArgumentException e) {
+			// Expected.
+		}
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		Assert.assertTrue(runs.get() < 1000000);
+	}
+
+}
@@ -0,0 +1,222 @@
+package com.sebster.poker.odds;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.sebster.io.compress.CompressLZFI;
+import com.sebster.poker.Combination;
+import com.sebster.poker.Hole;
+
+/**
+ * Builds hold'em hand value databases in memory for tests. Only the holes
+ * needed by a test are computed, the other holes have empty compressed data.
+ */
+public final class TestHandValueDatabase {
+
+	private static final Map<Integer, int[]> COMPRESSED = new HashMap<Integer, int[]>();
+
+	private static final Map<String, int[][]> BLOCK_COMPRESSED = new HashMap<String, int[][]>();
+
+	private TestHandValueDatabase() {
+		// Utility class.
+	}
+
+	/**
+	 * Get the hand values of the specified hole for all boards, in the same
+	 * order and with the same -1 values for intersecting boards as the hand
+	 * value database.
+	 */
+	public static int[] getHandValues(final Hole hole) {
+		final long holeMask = hole.getMask();
+		final int[] values = new int[Constants.BOARD_COUNT_52];
+		int k = 0;
+		for (int c0 = 0; c0 < 52; c0++) {
+			for (int c1 = c0 + 1; c1 < 52; c1++) {
+				for (int c2 = c1 + 1; c2 < 52; c2++) {
+					for (int c3 = c2 + 1; c3 < 52; c3++) {
+						for (int c4 = c3 + 1; c4 < 52; c4++) {
+							final long board = 1L << c0 | 1L << c1 | 1L << c2 | 1L << c3 | 1L << c4;
+							values[k++] = (board & holeMask) != 0 ? -1 : Combination.getBestValue(board | holeMask);
+						}
+					}
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Get the LZFI compressed hand values of the specified hole.
+	 */
+	public static synchronized int[] getCompressedHandValues(final Hole hole) {
+		int[] compressed = COMPRESSED.get(hole.getIndex());
+		if (compressed == null) {
+			final int[] values = getHandValues(hole);
+			final int[] buffer = new int[values.length];
+			final int length = CompressLZFI.compress(values, values.length, buffer, 0);
+			compressed = new int[length];
+			System.arraycopy(buffer, 0, compressed, 0, length);
+			COMPRESSED.put(hole.getIndex(), compressed);
+		}
+		return compressed;
+	}
+
+	/**
+	 * Get the LZFI compressed hand values of the specified hole in blocks of
+	 * the specified restart interval and with the specified encoding. The
+	 * first array contains the block offsets, the second the compressed data.
+	 */
+	public static synchronized int[][] getBlockCompressedHandValues(final Hole hole, final int restartInterval, final int encoding) {
+		final String key = hole.getIndex() + "/" + restartInterval + "/" + encoding;
+		int[][] compressed = BLOCK_COMPRESSED.get(key);
+		if (compressed == null) {
+			final int[] values = getHandValues(hole);
+			final int blockCount = (values.length + restartInterval - 1) / restartInterval;
+			final int[] blockOffsets = new int[blockCount];
+			final int[] buffer = new int[values.length + 2 * blockCount];
+			final int length;
+			if (encoding == CompressedHandValueDatabase.ENCODING_RANK) {
+				for (int i = 0; i < values.length; i++) {
+					values[i] = Combination.getRank(values[i]);
+				}
+				length = CompressLZFI.compressBlocks16(values, values.length, restartInterval, buffer, 0, blockOffsets);
+			} else {
+				length = CompressLZFI.compressBlocks(values, values.length, restartInterval, buffer, 0, blockOffsets);
+			}
+			final int[] data = new int[length];
+			System.arraycopy(buffer, 0, data, 0, length);
+			compressed = new int[][] { blockOffsets, data };
+			BLOCK_COMPRESSED.put(key, compressed);
+		}
+		return compressed;
+	}
+
+	/**
+	 * Get the hand value database stream, as read by
+	 * {@link CompressedHandValueDatabase#CompressedHandValueDatabase(java.io.InputStream)},
+	 * with data for the specified holes only.
+	 */
+	public static byte[] createDatabaseBytes(final Hole... holes) throws IOException {
+		final int[][] data = new int[Constants.HOLE_COUNT][];
+		for (final Hole hole : holes) {
+			data[hole.getIndex()] = getCompressedHandValues(hole);
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+			if (data[i] == null) {
+				out.writeInt(0);
+			} else {
+				out.writeInt(data[i].length);
+				for (final int value : data[i]) {
+					out.writeInt(value);
+				}
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Get the block format hand value database stream with the specified
+	 * restart interval and encoding, with data for the specified holes only.
+	 */
+	public static byte[] createBlockDatabaseBytes(final int restartInterval, final int encoding, final Hole... holes) throws IOException {
+		final int[][][] data = new int[Constants.HOLE_COUNT][][];
+		for (final Hole hole : holes) {
+			data[hole.getIndex()] = getBlockCompressedHandValues(hole, restartInterval, encoding);
+		}
+		final int blockCount = (Constants.BOARD_COUNT_52 + restartInterval - 1) / restartInterval;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(CompressedHandValueDatabase.MAGIC);
+		out.writeInt(CompressedHandValueDatabase.VERSION);
+		out.writeInt(Constants.HOLE_COUNT);
+		out.writeInt(Constants.BOARD_COUNT_52);
+		out.writeInt(restartInterval);
+		out.writeInt(encoding);
+		for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+			if (data[i] == null) {
+				out.writeInt(0);
+				for (int j = 0; j < blockCount; j++) {
+					out.writeInt(0);
+				}
+			} else {
+				out.writeInt(data[i][1].length);
+				for (final int offset : data[i][0]) {
+					out.writeInt(offset);
+				}
+				for (final int value : data[i][1]) {
+					out.writeInt(value);
+				}
+			}
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Create a hand value database with data for the specified holes only.
+	 */
+	public static CompressedHandValueDatabase create(final Hole... holes) throws IOException {
+		return new CompressedHandValueDatabase(new ByteArrayInputStream(createDatabaseBytes(holes)));
+	}
+
+	/**
+	 * Create a block format hand value database with the specified restart
+	 * interval, with data for the specified holes only.
+	 */
+	public static CompressedHandValueDatabase createBlocks(final int restartInterval, final Hole... holes) throws IOException {
+		return createBlocks(restartInterval, CompressedHandValueDatabase.ENCODING_VALUE, holes);
+	}
+
+	/**
+	 * Create a block format hand value database with the specified restart
+	 * interval and encoding, with data for the specified holes only.
+	 */
+	public static CompressedHandValueDatabase createBlocks(final int restartInterval, final int encoding, final Hole... holes) throws IOException {
+		return new CompressedHandValueDatabase(new ByteArrayInputStream(createBlockDatabaseBytes(restartInterval, encoding, holes)));
+	}
+
+	/**
+	 * Create a mapped hand value database file with the specified encoding,
+	 * with data for the specified holes only. The file is written sparsely,
+	 * so the boards of the other holes take no disk space and read as 0.
+	 */
+	public static void createMappedDatabaseFile(final File file, final int encoding, final Hole... holes) throws IOException {
+		final int valueSize = encoding == CompressedHandValueDatabase.ENCODING_RANK ? 2 : 4;
+		final long holeSize = (long) Constants.BOARD_COUNT_52 * valueSize;
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(MappedHandValueDatabase.HEADER_SIZE + Constants.HOLE_COUNT * holeSize);
+			raf.writeInt(MappedHandValueDatabase.MAGIC);
+			raf.writeInt(MappedHandValueDatabase.VERSION);
+			raf.writeInt(Constants.HOLE_COUNT);
+			raf.writeInt(Constants.BOARD_COUNT_52);
+			raf.writeInt(encoding);
+			for (final Hole hole : holes) {
+				final int[] values = getHandValues(hole);
+				final ByteBuffer buffer = ByteBuffer.allocate((int) holeSize);
+				for (final int value : values) {
+					if (valueSize == 2) {
+						buffer.putShort((short) Combination.getRank(value));
+					} else {
+						buffer.putInt(value);
+					}
+				}
+				buffer.flip();
+				raf.getChannel().write(buffer, MappedHandValueDatabase.HEADER_SIZE + hole.getIndex() * holeSize);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+}
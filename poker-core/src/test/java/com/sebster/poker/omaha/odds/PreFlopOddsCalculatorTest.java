@@ -0,0 +1,42 @@
+package com.sebster.poker.omaha.odds;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sebster.poker.Hole;
+import com.sebster.poker.Hole4;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.ExpandedHandValueCache;
+import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.TestHandValueDatabase;
+
+public class PreFlopOddsCalculatorTest {
+
+	@Test
+	public void testSharedCache() throws IOException {
+		// The calculator only compares values, so a hold'em database will do.
+		final Hole4[] holes = { Hole4.fromString("As,Kh,Qc,Qd"), Hole4.fromString("7s,6s,2c,3d") };
+		final Hole[] twoCardHoles = new Hole[12];
+		System.arraycopy(holes[0].getAll2CardHoles(), 0, twoCardHoles, 0, 6);
+		System.arraycopy(holes[1].getAll2CardHoles(), 0, twoCardHoles, 6, 6);
+		final CompressedHandValueDatabase db = TestHandValueDatabase.create(twoCardHoles);
+
+		final ExpandedHandValueCache cache = new ExpandedHandValueCache(db, 12L * 4 * Constants.BOARD_COUNT_52);
+		final PreFlopOddsCalculator cachedCalculator = new PreFlopOddsCalculator(cache);
+		final Odds[] expected = new PreFlopOddsCalculator(db).calculateOdds(holes);
+		final Odds[] actual = cachedCalculator.calculateOdds(holes);
+		Assert.assertEquals(0, cachedCalculator.getLastExpandCacheHits());
+		final Odds[] cached = new PreFlopOddsCalculator(cache).calculateOdds(holes);
+		Assert.assertEquals(12, cache.getHitCount());
+		for (int i = 0; i < holes.length; i++) {
+			for (int k = 0; k <= holes.length; k++) {
+				Assert.assertEquals(expected[i].getNWaySplits(k), actual[i].getNWaySplits(k));
+				Assert.assertEquals(expected[i].getNWaySplits(k), cached[i].getNWaySplits(k));
+			}
+		}
+	}
+
+}
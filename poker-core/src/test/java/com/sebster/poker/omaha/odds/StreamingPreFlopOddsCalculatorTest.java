@@ -0,0 +1,34 @@
+package com.sebster.poker.omaha.odds;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sebster.poker.Hole;
+import com.sebster.poker.Hole4;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.TestHandValueDatabase;
+
+public class StreamingPreFlopOddsCalculatorTest {
+
+	@Test
+	public void testSameOddsAsPreFlopOddsCalculator() throws IOException {
+		// The calculators only compare values, so a hold'em database will do.
+		final Hole4[] holes = { Hole4.fromString("As,Kh,Qc,Qd"), Hole4.fromString("7s,6s,2c,3d") };
+		final Hole[] twoCardHoles = new Hole[12];
+		System.arraycopy(holes[0].getAll2CardHoles(), 0, twoCardHoles, 0, 6);
+		System.arraycopy(holes[1].getAll2CardHoles(), 0, twoCardHoles, 6, 6);
+		final CompressedHandValueDatabase db = TestHandValueDatabase.create(twoCardHoles);
+
+		final Odds[] expected = new PreFlopOddsCalculator(db).calculateOdds(holes);
+		final Odds[] actual = new StreamingPreFlopOddsCalculator(db).calculateOdds(holes);
+		for (int i = 0; i < holes.length; i++) {
+			for (int k = 0; k <= holes.length; k++) {
+				Assert.assertEquals(expected[i].getNWaySplits(k), actual[i].getNWaySplits(k));
+			}
+		}
+	}
+
+}
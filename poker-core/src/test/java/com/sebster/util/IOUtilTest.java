@@ -0,0 +1,55 @@
+package com.sebster.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IOUtilTest {
+
+	@Test
+	public void testVarInt() throws IOException {
+		final int[] values = { 0, 1, 127, 128, 300, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (final int value : values) {
+			IOUtil.writeVarInt(out, value);
+		}
+		final ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		for (final int value : values) {
+			Assert.assertEquals(value, IOUtil.readVarInt(in));
+		}
+		Assert.assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testVarIntLength() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		IOUtil.writeVarInt(out, 127);
+		Assert.assertEquals(1, out.size());
+		IOUtil.writeVarInt(out, 300);
+		Assert.assertArrayEquals(new byte[] { 127, (byte) 0xac, 0x02 }, out.toByteArray());
+		out.reset();
+		IOUtil.writeVarInt(out, -1);
+		Assert.assertEquals(5, out.size());
+	}
+
+	@Test(expected = EOFException.class)
+	public void testVarIntTruncated() throws IOException {
+		IOUtil.readVarInt(new ByteArrayInputStream(new byte[] { (byte) 0x80 }));
+	}
+
+	@Test(expected = IOException.class)
+	public void testVarIntTooLong() throws IOException {
+		IOUtil.readVarInt(new ByteArrayInputStream(new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0 }));
+	}
+
+	@Test(expected = IOException.class)
+	public void testVarIntOverflow() throws IOException {
+		// The fifth byte has more than the 4 high bits of an int.
+		IOUtil.readVarInt(new ByteArrayInputStream(new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x10 }));
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.sebster.util.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrequencyCacheTest {
+
+	@Test
+	public void testGetPut() {
+		final FrequencyCache<String, String> cache = new FrequencyCache<String, String>(10, 4);
+		Assert.assertNull(cache.get("a"));
+		Assert.assertTrue(cache.put("a", "1", 2));
+		Assert.assertEquals("1", cache.get("a"));
+		Assert.assertTrue(cache.put("a", "2", 3));
+		Assert.assertEquals("2", cache.get("a"));
+		Assert.assertEquals(1, cache.getSize());
+		Assert.assertEquals(3, cache.getWeight());
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+		// Peeks are not counted.
+		Assert.assertEquals("2", cache.peek("a"));
+		Assert.assertNull(cache.peek("b"));
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertEquals(1, cache.getMissCount());
+	}
+
+	@Test
+	public void testWeightBound() {
+		final FrequencyCache<Integer, String> cache = new FrequencyCache<Integer, String>(10, 4);
+		for (int i = 0; i < 100; i++) {
+			cache.get(i);
+			cache.put(i, "v" + i, 3);
+			Assert.assertTrue(cache.getWeight() <= 10);
+		}
+		Assert.assertEquals(3, cache.getSize());
+		Assert.assertEquals(97, cache.getEvictionCount() + cache.getRejectionCount());
+		// A popular key is admitted.
+		for (int j = 0; j < 10; j++) {
+			cache.get(100);
+		}
+		Assert.assertTrue(cache.put(100, "v100", 3));
+		Assert.assertEquals("v100", cache.get(100));
+		Assert.assertFalse(cache.put(101, "too heavy", 11));
+	}
+
+	@Test
+	public void testAdmission() {
+		final FrequencyCache<Integer, String> cache = new FrequencyCache<Integer, String>(4, 4);
+		// Make the first keys popular.
+		for (int i = 0; i < 4; i++) {
+			for (int j = 0; j < 10; j++) {
+				cache.get(i);
+			}
+			cache.put(i, "hot" + i, 1);
+		}
+		// One-off keys do not flush the popular keys.
+		for (int i = 4; i < 100; i++) {
+			if (cache.get(i) == null) {
+				cache.put(i, "cold" + i, 1);
+			}
+		}
+		for (int i = 0; i < 4; i++) {
+			Assert.assertEquals("hot" + i, cache.get(i));
+		}
+		Assert.assertEquals(0, cache.getEvictionCount());
+		Assert.assertEquals(96, cache.getRejectionCount());
+	}
+
+	@Test
+	public void testRejectWithoutEvicting() {
+		final FrequencyCache<Integer, String> cache = new FrequencyCache<Integer, String>(4, 4);
+		cache.get(0);
+		cache.put(0, "cold", 2);
+		for (int j = 0; j < 10; j++) {
+			cache.get(1);
+		}
+		cache.put(1, "hot", 2);
+		// The new entry needs both entries evicted, and is more popular than
+		// the first but less popular than the second.
+		for (int j = 0; j < 5; j++) {
+			cache.get(2);
+		}
+		Assert.assertFalse(cache.put(2, "warm", 4));
+		Assert.assertEquals(0, cache.getEvictionCount());
+		Assert.assertEquals(1, cache.getRejectionCount());
+		Assert.assertEquals(2, cache.getSize());
+		Assert.assertEquals(4, cache.getWeight());
+		Assert.assertEquals("cold", cache.get(0));
+		Assert.assertEquals("hot", cache.get(1));
+		Assert.assertNull(cache.get(2));
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final FrequencyCache<Integer, String> cache = new FrequencyCache<Integer, String>(50, 64);
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int t = 0; t < 4; t++) {
+				final int seed = t;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						final Random random = new Random(seed);
+						for (int i = 0; i < 100000; i++) {
+							// Skewed keys, so some are popular.
+							final int key = random.nextInt(1 + random.nextInt(200));
+							final String value = cache.get(key);
+							if (value == null) {
+								cache.put(key, "v" + key, 1);
+							} else {
+								Assert.assertEquals("v" + key, value);
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (final Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		Assert.assertTrue(cache.getWeight() <= 50);
+		Assert.assertEquals(cache.getWeight(), cache.getSize());
+		Assert.assertEquals(400000, cache.getHitCount() + cache.getMissCount());
+	}
+
+}
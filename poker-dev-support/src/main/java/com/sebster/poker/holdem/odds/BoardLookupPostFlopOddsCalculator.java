@@ -0,0 +1,251 @@
+package com.sebster.poker.holdem.odds;
+
+import java.util.Random;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.sebster.poker.Card;
+import com.sebster.poker.Combination;
+import com.sebster.poker.Deck;
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.Odds;
+
+/**
+ * Post flop odds calculator which looks up the value of every 5-card
+ * combination in a table of all 5-card boards. The value of a 7-card hand is
+ * the maximum over its 21 5-card subsets. The table is indexed by the colex
+ * index of the board, which is the sum of <code>C(c[i], i + 1)</code> over the
+ * sorted card ordinals <code>c[0] < ... < c[4]</code>, so it can be computed
+ * with 5 table lookups.
+ * <p>
+ * The odds are the same as those calculated by {@link PostFlopOddsCalculator},
+ * which counts every turn and river pair in both orders; this calculator
+ * enumerates each pair once and counts it twice.
+ * <p>
+ * This is a benchmark, run {@link #main(String[])}. For 10 holes on a random
+ * flop it is five to ten times slower than {@link PostFlopOddsCalculator}
+ * with the bit mask evaluator. The 21 random loads into the 10 MB table cost
+ * more than evaluating the hands directly, so the web services do not use it.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public class BoardLookupPostFlopOddsCalculator implements HoldemPostFlopOddsCalculator {
+
+	private static final BoardLookupPostFlopOddsCalculator INSTANCE = new BoardLookupPostFlopOddsCalculator();
+
+	/**
+	 * The combination values of all 5-card boards, by colex index.
+	 */
+	private final int[] HAND_VALUES = new int[Constants.BOARD_COUNT_52];
+
+	/**
+	 * The indexes of the 21 5-card subsets of 7 cards.
+	 */
+	private final int[][] COMBINATIONS = {
+			{ 2, 3, 4, 5, 6}, {1, 3, 4, 5, 6}, {1, 2, 4, 5, 6}, {1, 2, 3, 5, 6}, {1, 2, 3, 4, 6}, {1, 2, 3, 4, 5},
+			{ 0, 3, 4, 5, 6}, {0, 2, 4, 5, 6}, {0, 2, 3, 5, 6}, {0, 2, 3, 4, 6}, {0, 2, 3, 4, 5},
+			{ 0, 1, 4, 5, 6}, {0, 1, 3, 5, 6}, {0, 1, 3, 4, 6}, {0, 1, 3, 4, 5},
+			{ 0, 1, 2, 5, 6}, {0, 1, 2, 4, 6}, {0, 1, 2, 4, 5},
+			{ 0, 1, 2, 3, 6}, {0, 1, 2, 3, 5},
+			{ 0, 1, 2, 3, 4},
+	};
+
+	/**
+	 * The binomial coefficients <code>C(n, k + 1)</code> as
+	 * <code>COLEX[k][n]</code>, for the colex index.
+	 */
+	private final int[][] COLEX = new int[5][52];
+
+	public static BoardLookupPostFlopOddsCalculator getInstance() {
+		return INSTANCE;
+	}
+
+	private BoardLookupPostFlopOddsCalculator() {
+		// Singleton.
+		for (int n = 0; n < 52; n++) {
+			long c = 1;
+			for (int k = 0; k < 5; k++) {
+				// c = C(n, k + 1)
+				c = c * (n - k) / (k + 1);
+				COLEX[k][n] = (int) c;
+			}
+		}
+		for (int c4 = 4; c4 < 52; c4++) {
+			for (int c3 = 3; c3 < c4; c3++) {
+				for (int c2 = 2; c2 < c3; c2++) {
+					for (int c1 = 1; c1 < c2; c1++) {
+						for (int c0 = 0; c0 < c1; c0++) {
+							final long mask = 1L << c0 | 1L << c1 | 1L << c2 | 1L << c3 | 1L << c4;
+							HAND_VALUES[getIndex(c0, c1, c2, c3, c4)] = Combination.getBestValue(mask);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the colex index of the 5-card board with the specified sorted card
+	 * ordinals.
+	 */
+	private int getIndex(final int c0, final int c1, final int c2, final int c3, final int c4) {
+		final int[][] colex = COLEX;
+		return colex[0][c0] + colex[1][c1] + colex[2][c2] + colex[3][c3] + colex[4][c4];
+	}
+
+	/**
+	 * Get the value of the 7-card hand with the specified sorted card
+	 * ordinals.
+	 */
+	private int getHandValue(final int[] hand) {
+		final int[] handValues = HAND_VALUES;
+		int max = 0;
+		for (final int[] c : COMBINATIONS) {
+			final int v = handValues[getIndex(hand[c[0]], hand[c[1]], hand[c[2]], hand[c[3]], hand[c[4]])];
+			if (v > max) {
+				max = v;
+			}
+		}
+		return max;
+	}
+
+	@Override
+	public final Odds[] calculateOdds(final Hole[] holes, final Card[] board) {
+
+		final int numHoles = holes.length;
+		if (numHoles < 2 || numHoles > 10) {
+			throw new IllegalArgumentException("number of holes must be between 2 and 10");
+		}
+		if (board.length < 3 || board.length > 5) {
+			throw new IllegalArgumentException("board must consist of exactly 3-5 cards");
+		}
+
+		long deadMask = 0;
+		final int[][] holeCards = new int[numHoles][2];
+		for (int i = 0; i < numHoles; i++) {
+			int k = 0;
+			for (final Card card : holes[i]) {
+				if ((deadMask & card.getMask()) != 0) {
+					throw new IllegalArgumentException("duplicate card " + card + " in hole " + holes[i]);
+				}
+				deadMask |= card.getMask();
+				holeCards[i][k++] = card.ordinal();
+			}
+		}
+		long boardMask = 0;
+		for (int i = 0; i < board.length; i++) {
+			if ((deadMask & board[i].getMask()) != 0) {
+				throw new IllegalArgumentException("duplicate card " + board[i] + " the on board");
+			}
+			deadMask |= board[i].getMask();
+			boardMask |= board[i].getMask();
+		}
+
+		// The remaining cards as ordinals.
+		final int[] deck = new int[52 - Long.bitCount(deadMask)];
+		for (int card = 0, i = 0; card < 52; card++) {
+			if ((deadMask & 1L << card) == 0) {
+				deck[i++] = card;
+			}
+		}
+
+		final int[][] result = new int[numHoles][numHoles + 1];
+		final int[] handValues = new int[numHoles];
+		final int[] hand = new int[7];
+		if (board.length == 3) {
+			for (int i = 0; i < deck.length; i++) {
+				for (int j = i + 1; j < deck.length; j++) {
+					count(boardMask | 1L << deck[i] | 1L << deck[j], holeCards, 2, hand, handValues, result);
+				}
+			}
+		} else if (board.length == 4) {
+			for (int i = 0; i < deck.length; i++) {
+				count(boardMask | 1L << deck[i], holeCards, 1, hand, handValues, result);
+			}
+		} else {
+			count(boardMask, holeCards, 1, hand, handValues, result);
+		}
+
+		final Odds[] odds = new Odds[numHoles];
+		for (int i = 0; i < numHoles; i++) {
+			odds[i] = new BasicOdds(result[i]);
+		}
+		return odds;
+	}
+
+	/**
+	 * Count the wins and splits of the holes on the specified 5-card board with
+	 * the specified weight.
+	 */
+	private void count(final long boardMask, final int[][] holeCards, final int weight, final int[] hand, final int[] handValues, final int[][] result) {
+		final int numHoles = holeCards.length;
+		int max = -1;
+		int count = 0;
+		for (int i = 0; i < numHoles; i++) {
+			// Merge the sorted board and the hole into a sorted hand.
+			final long handMask = boardMask | 1L << holeCards[i][0] | 1L << holeCards[i][1];
+			long mask = handMask;
+			for (int k = 0; k < 7; k++) {
+				hand[k] = Long.numberOfTrailingZeros(mask);
+				mask &= mask - 1;
+			}
+			final int v = getHandValue(hand);
+			handValues[i] = v;
+			if (v > max) {
+				max = v;
+				count = 1;
+			} else if (v == max) {
+				count++;
+			}
+		}
+		for (int i = 0; i < numHoles; i++) {
+			result[i][handValues[i] == max ? count : 0] += weight;
+		}
+	}
+
+	public static void main(final String[] args) {
+
+		int numHoles = 10;
+		if (args.length > 0) {
+			numHoles = Integer.parseInt(args[0]);
+		}
+
+		final BoardLookupPostFlopOddsCalculator calculator = BoardLookupPostFlopOddsCalculator.getInstance();
+		final PostFlopOddsCalculator reference = PostFlopOddsCalculator.getInstance();
+
+		final Random random = new Random();
+		final Deck deck = new Deck(random);
+		long totalTime = 0, totalReferenceTime = 0;
+		for (int i = 0; i < 150; i++) {
+			final Hole[] holes = new Hole[numHoles];
+			for (int j = 0; j < numHoles; j++) {
+				holes[j] = Hole.fromDeck(deck);
+			}
+			final Card[] board = new Card[] { deck.draw(), deck.draw(), deck.draw() };
+			deck.shuffle();
+
+			final long t1 = System.nanoTime();
+			final Odds[] odds = calculator.calculateOdds(holes, board);
+			final long t2 = System.nanoTime();
+			final Odds[] referenceOdds = reference.calculateOdds(holes, board);
+			final long t3 = System.nanoTime();
+
+			for (int j = 0; j < numHoles; j++) {
+				if (!odds[j].toString().equals(referenceOdds[j].toString())) {
+					System.out.println("***** ODDS INCORRECT ***** " + odds[j] + " != " + referenceOdds[j]);
+				}
+			}
+			if (i >= 50) {
+				// Skip the warmup rounds.
+				totalTime += t2 - t1;
+				totalReferenceTime += t3 - t2;
+			}
+		}
+
+		System.out.println("avg board lookup=" + totalTime / 100000 / 1000.0 + " ms avg reference=" + totalReferenceTime / 100000 / 1000.0 + " ms");
+	}
+
+}
@@ -13,6 +13,9 @@ import com.sebster.poker.Card;
 import com.sebster.poker.CardSet;
 import com.sebster.poker.Combination;
 import com.sebster.poker.Hole;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Constants;
+import com.sebster.poker.odds.MappedHandValueDatabase;
 
 public class GenerateHandValueDB {
 
@@ -31,15 +34,32 @@ public class GenerateHandValueDB {
 	 * total of 12.8 GB of data. By default the DB will be saved to
 	 * "holdem_hand_values.bin.gz", but if an argument is given, that will be
 	 * used as the filename instead.
+	 * <p>
+	 * If the second argument is "mapped" or "mapped-rank", the DB is saved
+	 * uncompressed in the format of {@link MappedHandValueDatabase}, with the
+	 * hand values as ints or their ranks as shorts respectively.
 	 * 
 	 * @param args
-	 *            the output filename
+	 *            the output filename and the format
 	 * @throws IOException
 	 *             if an I/O exception occurs
 	 */
 	public static void main(final String[] args) throws IOException {
 		final String fileName = args.length == 0 ? DEFAULT_FILENAME : args[0];
-		final DataOutputStream dos = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(fileName))));
+		final String format = args.length < 2 ? "gz" : args[1];
+		final boolean mapped = format.startsWith("mapped");
+		final boolean ranks = "mapped-rank".equals(format);
+		final DataOutputStream dos;
+		if (mapped) {
+			dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+			dos.writeInt(MappedHandValueDatabase.MAGIC);
+			dos.writeInt(MappedHandValueDatabase.VERSION);
+			dos.writeInt(Constants.HOLE_COUNT);
+			dos.writeInt(Constants.BOARD_COUNT_52);
+			dos.writeInt(ranks ? CompressedHandValueDatabase.ENCODING_RANK : CompressedHandValueDatabase.ENCODING_VALUE);
+		} else {
+			dos = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(fileName))));
+		}
 		final Card[] cards = new Card[7];
 		final long t0 = System.currentTimeMillis();
 		for (int i = 0; i < 52; i++) { // hand 1
@@ -59,7 +79,13 @@ public class GenerateHandValueDB {
 								cards[5] = Card.values()[n];
 								for (int o = n + 1; o < 52; o++) { // board 5
 									cards[6] = Card.values()[o];
-									dos.writeInt(Combination.getBestValue(CardSet.fromCards(cards)));
+									final boolean intersects = k == i || k == j || l == i || l == j || m == i || m == j || n == i || n == j || o == i || o == j;
+									final int value = intersects ? -1 : Combination.getBestValue(CardSet.fromCards(cards));
+									if (ranks) {
+										dos.writeShort(Combination.getRank(value));
+									} else {
+										dos.writeInt(value);
+									}
 								}
 							}
 						}
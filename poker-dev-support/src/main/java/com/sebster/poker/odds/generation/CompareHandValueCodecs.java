@@ -0,0 +1,126 @@
+package com.sebster.poker.odds.generation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.sebster.io.compress.CompressLZFI;
+import com.sebster.poker.Combination;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Constants;
+
+public class CompareHandValueCodecs {
+
+	private static final String DEFAULT_INPUT_FILENAME = "holdem_hand_value_db.lzfi.gz";
+
+	private static final int DEFAULT_SAMPLE_COUNT = 20;
+
+	private static final int DEFAULT_RESTART_INTERVAL = 1 << 19;
+
+	/**
+	 * The number of times each sampled hole is expanded with each codec.
+	 */
+	private static final int ROUNDS = 5;
+
+	/**
+	 * Compare the compressed size and the expand throughput of the
+	 * {@link CompressLZFI} and {@link CompressPacked} codecs on the hand values
+	 * and ranks of a random sample of holes. The first argument is the filename
+	 * of a hand value database, the second argument is the number of holes to
+	 * sample, and the third argument is the restart interval. The default
+	 * input filename is "holdem_hand_value_db.lzfi.gz", the default number of
+	 * holes is 20, and the default restart interval is 524288.
+	 * 
+	 * @param args
+	 *            the input filename, the number of holes and the restart
+	 *            interval
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public static void main(final String[] args) throws IOException {
+
+		String input = DEFAULT_INPUT_FILENAME;
+		if (args.length > 0) {
+			input = args[0];
+		}
+
+		int sampleCount = DEFAULT_SAMPLE_COUNT;
+		if (args.length > 1) {
+			sampleCount = Integer.parseInt(args[1]);
+		}
+
+		int restartInterval = DEFAULT_RESTART_INTERVAL;
+		if (args.length > 2) {
+			restartInterval = Integer.parseInt(args[2]);
+		}
+
+		final CompressedHandValueDatabase db = CompressedHandValueDatabase.load(new File(input));
+
+		final int blockCount = (Constants.BOARD_COUNT_52 + restartInterval - 1) / restartInterval;
+		final int[] values = new int[Constants.BOARD_COUNT_52];
+		final int[] ranks = new int[Constants.BOARD_COUNT_52];
+		final int[] compressed = new int[CompressPacked.getMaxCompressedLength(Constants.BOARD_COUNT_52) + 2 * blockCount];
+		final int[] blockOffsets = new int[blockCount];
+		final int[] udata = new int[Constants.BOARD_COUNT_52];
+		final short[] rdata = new short[Constants.BOARD_COUNT_52];
+
+		// Compressed sizes in ints and expand times in ns, for LZFI values,
+		// LZFI ranks, packed values and packed ranks.
+		final String[] names = { "lzfi values", "lzfi ranks", "packed values", "packed ranks" };
+		final long[] sizes = new long[names.length];
+		final long[] times = new long[names.length];
+
+		final Random random = new Random(42);
+		for (int s = 0; s < sampleCount; s++) {
+			final int index = random.nextInt(Constants.HOLE_COUNT);
+			db.expand(index, values);
+			if (db.getEncoding() == CompressedHandValueDatabase.ENCODING_RANK) {
+				for (int i = 0; i < Constants.BOARD_COUNT_52; i++) {
+					values[i] = Combination.getValue(values[i]);
+				}
+			}
+			for (int i = 0; i < Constants.BOARD_COUNT_52; i++) {
+				ranks[i] = Combination.getRank(values[i]);
+			}
+			for (int c = 0; c < names.length; c++) {
+				final boolean packed = c >= 2, rank = (c & 1) == 1;
+				final int[] data = rank ? ranks : values;
+				final int length;
+				if (packed) {
+					length = CompressPacked.compressBlocks(data, data.length, restartInterval, compressed, 0, blockOffsets);
+				} else if (rank) {
+					length = CompressLZFI.compressBlocks16(data, data.length, restartInterval, compressed, 0, blockOffsets);
+				} else {
+					length = CompressLZFI.compressBlocks(data, data.length, restartInterval, compressed, 0, blockOffsets);
+				}
+				sizes[c] += length;
+				for (int r = 0; r < ROUNDS; r++) {
+					final long t1 = System.nanoTime();
+					if (packed && rank) {
+						CompressPacked.expand(compressed, 0, length, rdata, 0);
+					} else if (packed) {
+						CompressPacked.expand(compressed, 0, length, udata, 0);
+					} else if (rank) {
+						CompressLZFI.expand16(compressed, 0, length, rdata, 0);
+					} else {
+						CompressLZFI.expand(compressed, 0, length, udata, 0);
+					}
+					final long t2 = System.nanoTime();
+					if (r > 0) {
+						// Skip the warmup round.
+						times[c] += t2 - t1;
+					}
+				}
+			}
+		}
+
+		final long expandCount = (long) sampleCount * (ROUNDS - 1);
+		for (int c = 0; c < names.length; c++) {
+			final double sizePerHole = sizes[c] * 4.0 / sampleCount / 1024;
+			final double timePerHole = times[c] / 1e6 / expandCount;
+			final double boardsPerSecond = Constants.BOARD_COUNT_52 / timePerHole / 1e3;
+			System.out.printf("%-14s %8.1f KB/hole (%4.1f bits/board) %6.2f ms/hole %7.1f Mboards/s%n", names[c], sizePerHole, sizes[c] * 32.0 / sampleCount / Constants.BOARD_COUNT_52, timePerHole, boardsPerSecond);
+		}
+	}
+
+}
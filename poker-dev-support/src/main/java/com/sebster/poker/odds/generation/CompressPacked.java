@@ -0,0 +1,283 @@
+package com.sebster.poker.odds.generation;
+
+import java.util.Arrays;
+
+import com.sebster.io.compress.CompressLZFI;
+import com.sebster.util.Validate;
+
+/**
+ * Bit packing codec for arrays of integers, in blocks of {@link #BLOCK_SIZE}
+ * integers. Each block is stored either with a frame of reference, as the
+ * differences from the minimum of the block packed in as few bits as
+ * possible, or with a dictionary, as the sorted distinct values of the block
+ * (themselves stored with a frame of reference) followed by the packed
+ * indexes of the values in the dictionary, whichever is smaller.
+ * <p>
+ * Decoding has no dependencies between the values of a block, and the blocks
+ * are independent. This codec is only used by {@link CompareHandValueCodecs}.
+ * On hand value data it is about nine times larger and five times slower to
+ * expand than {@link CompressLZFI}, which copies long runs with back
+ * references instead of unpacking every value.
+ * <p>
+ * A block starts with a header int containing the block length minus one (7
+ * bits), the number of bits per packed value (6 bits), the number of bits per
+ * dictionary value (6 bits) and the dictionary size (8 bits, zero for a frame
+ * of reference block). The header is followed by the minimum, the packed
+ * dictionary if any, and the packed values. Packed values are stored low bits
+ * first, and each packed sequence starts at an int boundary.
+ * 
+ * @author sebster
+ */
+final class CompressPacked {
+
+	/**
+	 * The number of integers per block.
+	 */
+	public static final int BLOCK_SIZE = 128;
+
+	/**
+	 * Private constructor to avoid instantiation.
+	 */
+	private CompressPacked() {
+		// Utility class.
+	}
+
+	/**
+	 * Get the maximum compressed size of the specified number of integers.
+	 * 
+	 * @param inLen
+	 *            the number of integers
+	 * @return the maximum compressed size
+	 */
+	public static int getMaxCompressedLength(final int inLen) {
+		// Header and minimum, and at most 32 bits per value.
+		return (inLen + BLOCK_SIZE - 1) / BLOCK_SIZE * 2 + inLen;
+	}
+
+	/**
+	 * Compress an array of integers.
+	 * 
+	 * @param in
+	 *            the input array to compress
+	 * @param inPos
+	 *            the input position to start compressing from
+	 * @param inLen
+	 *            the number of integers to compress
+	 * @param out
+	 *            the output array, see {@link #getMaxCompressedLength(int)}
+	 * @param outPos
+	 *            the destination index to which to compress
+	 * @return the compressed size
+	 */
+	public static int compress(final int[] in, final int inPos, final int inLen, final int[] out, final int outPos) {
+		final int[] sorted = new int[BLOCK_SIZE];
+		final int[] packed = new int[BLOCK_SIZE];
+		int pos = outPos;
+		for (int from = inPos, end = inPos + inLen; from < end; from += BLOCK_SIZE) {
+			final int len = Math.min(BLOCK_SIZE, end - from);
+
+			// Find the distinct values.
+			System.arraycopy(in, from, sorted, 0, len);
+			Arrays.sort(sorted, 0, len);
+			int dictSize = 1;
+			for (int i = 1; i < len; i++) {
+				if (sorted[i] != sorted[dictSize - 1]) {
+					sorted[dictSize++] = sorted[i];
+				}
+			}
+			final int min = sorted[0];
+			final int forBits = bits(sorted[dictSize - 1] - min);
+			final int indexBits = bits(dictSize - 1);
+
+			// Use the dictionary if it is smaller.
+			final boolean dict = ints(dictSize, forBits) + ints(len, indexBits) < ints(len, forBits);
+			out[pos++] = len - 1 | (dict ? indexBits : forBits) << 7 | (dict ? forBits : 0) << 13 | (dict ? dictSize : 0) << 19;
+			out[pos++] = min;
+			if (dict) {
+				for (int i = 0; i < dictSize; i++) {
+					packed[i] = sorted[i] - min;
+				}
+				pos = pack(packed, dictSize, forBits, out, pos);
+				for (int i = 0; i < len; i++) {
+					packed[i] = Arrays.binarySearch(sorted, 0, dictSize, in[from + i]);
+				}
+				pos = pack(packed, len, indexBits, out, pos);
+			} else {
+				for (int i = 0; i < len; i++) {
+					packed[i] = in[from + i] - min;
+				}
+				pos = pack(packed, len, forBits, out, pos);
+			}
+		}
+		return pos - outPos;
+	}
+
+	/**
+	 * Compress an array of integers in independently compressed blocks of the
+	 * specified size, see {@link CompressLZFI#compressBlocks(int[], int, int,
+	 * int[], int, int[])}. The concatenated blocks are also a valid compressed
+	 * stream of the entire input.
+	 * 
+	 * @param in
+	 *            the input array to compress
+	 * @param inLen
+	 *            the number of integers to compress
+	 * @param blockSize
+	 *            the number of integers per block
+	 * @param out
+	 *            the output array
+	 * @param outPos
+	 *            the destination index to which to compress
+	 * @param blockOffsets
+	 *            the array to contain the offset of each compressed block
+	 *            relative to <code>outPos</code>, must be at least
+	 *            <code>ceil(inLen / blockSize)</code> long
+	 * @return the compressed size
+	 */
+	public static int compressBlocks(final int[] in, final int inLen, final int blockSize, final int[] out, final int outPos, final int[] blockOffsets) {
+		Validate.isTrue(blockSize > 0, "blockSize <= 0");
+		int pos = outPos;
+		for (int b = 0, from = 0; from < inLen; b++, from += blockSize) {
+			blockOffsets[b] = pos - outPos;
+			pos += compress(in, from, Math.min(blockSize, inLen - from), out, pos);
+		}
+		return pos - outPos;
+	}
+
+	/**
+	 * Get the number of bits needed for the specified unsigned value.
+	 */
+	private static int bits(final int value) {
+		return 32 - Integer.numberOfLeadingZeros(value);
+	}
+
+	/**
+	 * Get the number of ints needed for the specified number of packed values.
+	 */
+	private static int ints(final int count, final int bits) {
+		return (count * bits + 31) >>> 5;
+	}
+
+	private static int pack(final int[] values, final int count, final int bits, final int[] out, int outPos) {
+		long buffer = 0;
+		int buffered = 0;
+		for (int i = 0; i < count; i++) {
+			buffer |= (values[i] & 0xffffffffL) << buffered;
+			buffered += bits;
+			if (buffered >= 32) {
+				out[outPos++] = (int) buffer;
+				buffer >>>= 32;
+				buffered -= 32;
+			}
+		}
+		if (buffered > 0) {
+			out[outPos++] = (int) buffer;
+		}
+		return outPos;
+	}
+
+	/**
+	 * Decompress an array of integers from the source to the destination array.
+	 * 
+	 * @param in
+	 *            the input array to decompress
+	 * @param inPos
+	 *            the input position to start decompressing from
+	 * @param inLen
+	 *            the number of integers to decompress
+	 * @param out
+	 *            the output array
+	 * @param outPos
+	 *            the destination index to which to decompress
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the compressed input is invalid
+	 */
+	public static void expand(final int[] in, int inPos, final int inLen, final int[] out, int outPos) {
+		final int inEnd = inPos + inLen;
+		final int[] dict = new int[BLOCK_SIZE];
+		while (inPos < inEnd) {
+			final int header = in[inPos++];
+			final int len = (header & 0x7f) + 1;
+			final int bits = header >>> 7 & 0x3f;
+			final int dictSize = header >>> 19 & 0xff;
+			final int min = in[inPos++];
+			if (dictSize == 0) {
+				inPos = unpack(in, inPos, len, bits, min, out, outPos);
+			} else {
+				inPos = unpack(in, inPos, dictSize, header >>> 13 & 0x3f, min, dict, 0);
+				inPos = unpack(in, inPos, len, bits, 0, out, outPos);
+				for (int i = outPos, end = outPos + len; i < end; i++) {
+					out[i] = dict[out[i]];
+				}
+			}
+			outPos += len;
+		}
+	}
+
+	/**
+	 * Decompress an array of 16-bit integers from the source to the
+	 * destination array, see {@link #expand(int[], int, int, int[], int)}.
+	 * 
+	 * @param in
+	 *            the input array to decompress
+	 * @param inPos
+	 *            the input position to start decompressing from
+	 * @param inLen
+	 *            the number of integers to decompress
+	 * @param out
+	 *            the output array
+	 * @param outPos
+	 *            the destination index to which to decompress
+	 * @throws ArrayIndexOutOfBoundsException
+	 *             if the compressed input is invalid
+	 */
+	public static void expand(final int[] in, int inPos, final int inLen, final short[] out, int outPos) {
+		final int inEnd = inPos + inLen;
+		final int[] block = new int[BLOCK_SIZE];
+		final int[] dict = new int[BLOCK_SIZE];
+		while (inPos < inEnd) {
+			final int header = in[inPos++];
+			final int len = (header & 0x7f) + 1;
+			final int bits = header >>> 7 & 0x3f;
+			final int dictSize = header >>> 19 & 0xff;
+			final int min = in[inPos++];
+			if (dictSize == 0) {
+				inPos = unpack(in, inPos, len, bits, min, block, 0);
+				for (int i = 0; i < len; i++) {
+					out[outPos + i] = (short) block[i];
+				}
+			} else {
+				inPos = unpack(in, inPos, dictSize, header >>> 13 & 0x3f, min, dict, 0);
+				inPos = unpack(in, inPos, len, bits, 0, block, 0);
+				for (int i = 0; i < len; i++) {
+					out[outPos + i] = (short) dict[block[i]];
+				}
+			}
+			outPos += len;
+		}
+	}
+
+	/**
+	 * Unpack the specified number of values and add the specified base.
+	 */
+	private static int unpack(final int[] in, int inPos, final int count, final int bits, final int base, final int[] out, final int outPos) {
+		if (bits == 0) {
+			Arrays.fill(out, outPos, outPos + count, base);
+			return inPos;
+		}
+		final long mask = (1L << bits) - 1;
+		long buffer = 0;
+		int buffered = 0;
+		for (int i = outPos, end = outPos + count; i < end; i++) {
+			if (buffered < bits) {
+				buffer |= (in[inPos++] & 0xffffffffL) << buffered;
+				buffered += 32;
+			}
+			out[i] = base + (int) (buffer & mask);
+			buffer >>>= bits;
+			buffered -= bits;
+		}
+		return inPos;
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.sebster.poker.odds.generation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sebster.io.compress.CompressLZFI;
+import com.sebster.poker.Combination;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.Constants;
+
+public class ConvertHandValueDatabase {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConvertHandValueDatabase.class);
+
+	private static final String DEFAULT_INPUT_FILENAME = "holdem_hand_value_db.lzfi.gz";
+
+	private static final String DEFAULT_OUTPUT_FILENAME = "holdem_hand_value_db.lzfb.gz";
+
+	private static final int DEFAULT_RESTART_INTERVAL = 1 << 19;
+
+	/**
+	 * Convert a compressed hand value database to the block format of
+	 * {@link CompressedHandValueDatabase}, which restarts the compression every
+	 * restart interval boards. The first argument is the input filename of the
+	 * gzipped compressed hand value database, the second argument is the
+	 * filename of the gzipped block format output database, and the third
+	 * argument is the restart interval. The default input filename is
+	 * "holdem_hand_value_db.lzfi.gz", the default output filename is
+	 * "holdem_hand_value_db.lzfb.gz", and the default restart interval is
+	 * 524288. Smaller intervals allow more parallelism when expanding, but
+	 * compress less well because back references cannot cross block
+	 * boundaries. If the fourth argument is "rank", the hand values are
+	 * converted to their 16-bit ranks, see
+	 * {@link CompressedHandValueDatabase#ENCODING_RANK}.
+	 * 
+	 * @param args
+	 *            the input and output filenames, the restart interval, and
+	 *            the encoding
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public static void main(final String[] args) throws IOException {
+
+		String input = DEFAULT_INPUT_FILENAME;
+		if (args.length > 0) {
+			input = args[0];
+		}
+
+		String output = DEFAULT_OUTPUT_FILENAME;
+		if (args.length > 1) {
+			output = args[1];
+		}
+
+		int restartInterval = DEFAULT_RESTART_INTERVAL;
+		if (args.length > 2) {
+			restartInterval = Integer.parseInt(args[2]);
+		}
+
+		int encoding = CompressedHandValueDatabase.ENCODING_VALUE;
+		if (args.length > 3 && "rank".equals(args[3])) {
+			encoding = CompressedHandValueDatabase.ENCODING_RANK;
+		}
+
+		final InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(input)));
+		final CompressedHandValueDatabase db = new CompressedHandValueDatabase(in);
+		in.close();
+
+		final DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(output))));
+		out.writeInt(CompressedHandValueDatabase.MAGIC);
+		out.writeInt(CompressedHandValueDatabase.VERSION);
+		out.writeInt(Constants.HOLE_COUNT);
+		out.writeInt(Constants.BOARD_COUNT_52);
+		out.writeInt(restartInterval);
+		out.writeInt(encoding);
+
+		final int blockCount = (Constants.BOARD_COUNT_52 + restartInterval - 1) / restartInterval;
+		final int[] data = new int[Constants.BOARD_COUNT_52];
+		final int[] dataCompressed = new int[Constants.BOARD_COUNT_52 + 2 * blockCount];
+		final int[] blockOffsets = new int[blockCount];
+		final int[] dataVerify = new int[Constants.BOARD_COUNT_52];
+		for (int i = 0; i < Constants.HOLE_COUNT; i++) {
+
+			// Compress.
+			db.expand(i, data);
+			if (db.getEncoding() == CompressedHandValueDatabase.ENCODING_RANK) {
+				for (int j = 0; j < Constants.BOARD_COUNT_52; j++) {
+					data[j] = Combination.getValue(data[j]);
+				}
+			}
+			final long t1 = System.currentTimeMillis();
+			final int length;
+			if (encoding == CompressedHandValueDatabase.ENCODING_RANK) {
+				for (int j = 0; j < Constants.BOARD_COUNT_52; j++) {
+					data[j] = Combination.getRank(data[j]);
+				}
+				length = CompressLZFI.compressBlocks16(data, data.length, restartInterval, dataCompressed, 0, blockOffsets);
+			} else {
+				length = CompressLZFI.compressBlocks(data, data.length, restartInterval, dataCompressed, 0, blockOffsets);
+			}
+			final long t2 = System.currentTimeMillis();
+
+			// Save.
+			out.writeInt(length);
+			for (int j = 0; j < blockCount; j++) {
+				out.writeInt(blockOffsets[j]);
+			}
+			for (int j = 0; j < length; j++) {
+				out.writeInt(dataCompressed[j]);
+			}
+
+			// Verify, block by block in reverse order.
+			for (int j = blockCount - 1; j >= 0; j--) {
+				final int inPos = blockOffsets[j];
+				final int inLen = (j + 1 < blockCount ? blockOffsets[j + 1] : length) - inPos;
+				if (encoding == CompressedHandValueDatabase.ENCODING_RANK) {
+					CompressLZFI.expand16(dataCompressed, inPos, inLen, dataVerify, j * restartInterval);
+				} else {
+					CompressLZFI.expand(dataCompressed, inPos, inLen, dataVerify, j * restartInterval);
+				}
+			}
+			for (int j = 0; j < Constants.BOARD_COUNT_52; j++) {
+				if (data[j] != dataVerify[j]) {
+					throw new IllegalStateException("error at " + j + ": " + data[j] + " != " + dataVerify[j]);
+				}
+			}
+			logger.info("hand={} converted length={} compress time={}", new Object[] { i, length, (t2 - t1) / 1000.0 });
+		}
+		out.close();
+	}
+
+}
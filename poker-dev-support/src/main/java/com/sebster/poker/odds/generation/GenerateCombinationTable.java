@@ -0,0 +1,123 @@
+package com.sebster.poker.odds.generation;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sebster.poker.Combination;
+import com.sebster.poker.CombinationTable;
+import com.sebster.poker.CombinationTableGenerator;
+
+/**
+ * Generator for the {@link CombinationTable} file, see
+ * {@link CombinationTableGenerator}.
+ * 
+ * @author sebster
+ */
+public class GenerateCombinationTable {
+
+	private static final Logger logger = LoggerFactory.getLogger(GenerateCombinationTable.class);
+
+	private static final int VERIFY_COUNT = 10000000;
+
+	/**
+	 * Generate the combination table. The first argument is the output
+	 * filename, the default output filename is "combination_table.bin". After
+	 * generation the table is loaded and verified against
+	 * {@link Combination#getBestValue(long)} using random hands.
+	 * 
+	 * @param args
+	 *            the output filename
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public static void main(final String[] args) throws IOException {
+
+		String output = CombinationTable.DEFAULT_FILENAME;
+		if (args.length > 0) {
+			output = args[0];
+		}
+
+		final long t1 = System.currentTimeMillis();
+		final int states = generate(output);
+		final long t2 = System.currentTimeMillis();
+		logger.info("generated {} states in {} ms", states, t2 - t1);
+
+		verify(CombinationTable.load(new File(output)));
+	}
+
+	private static int generate(final String output) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(output), 1 << 16));
+		final int states;
+		try {
+			out.writeInt(CombinationTable.MAGIC);
+			out.writeInt(CombinationTable.VERSION);
+			out.writeInt(0);
+			states = CombinationTableGenerator.generate(CombinationTableGenerator.ALL_CARDS, out);
+		} finally {
+			out.close();
+		}
+
+		// Patch the number of states in the header.
+		final RandomAccessFile raf = new RandomAccessFile(output, "rw");
+		try {
+			raf.seek(8);
+			raf.writeInt(states);
+		} finally {
+			raf.close();
+		}
+		return states;
+	}
+
+	private static void verify(final CombinationTable table) {
+		final Random random = new Random(0);
+		final int[] cards = new int[52];
+		for (int i = 0; i < 52; i++) {
+			cards[i] = i;
+		}
+		final long[] masks = new long[VERIFY_COUNT];
+		for (int i = 0; i < VERIFY_COUNT; i++) {
+			final int size = i % 8 < 2 ? 5 + i % 8 : 7;
+			long mask = 0;
+			for (int j = 0; j < size; j++) {
+				final int k = j + random.nextInt(52 - j);
+				final int tmp = cards[j];
+				cards[j] = cards[k];
+				cards[k] = tmp;
+				mask |= 1L << cards[j];
+			}
+			masks[i] = mask;
+		}
+
+		long checksum1 = 0;
+		final long t1 = System.currentTimeMillis();
+		for (int i = 0; i < VERIFY_COUNT; i++) {
+			checksum1 += Combination.getBestValue(masks[i]);
+		}
+		final long t2 = System.currentTimeMillis();
+		long checksum2 = 0;
+		for (int i = 0; i < VERIFY_COUNT; i++) {
+			checksum2 += table.getBestValue(masks[i]);
+		}
+		final long t3 = System.currentTimeMillis();
+		logger.info("evaluated {} hands: bit mask evaluator={} ms, table={} ms", new Object[] { VERIFY_COUNT, t2 - t1, t3 - t2 });
+
+		if (checksum1 != checksum2) {
+			throw new IllegalStateException("verification failed: checksum " + checksum1 + " != " + checksum2);
+		}
+		for (int i = 0; i < VERIFY_COUNT; i++) {
+			if (table.getBestValue(masks[i]) != Combination.getBestValue(masks[i])) {
+				throw new IllegalStateException("verification failed for mask " + Long.toHexString(masks[i]));
+			}
+		}
+		logger.info("verified {} hands", VERIFY_COUNT);
+	}
+
+}
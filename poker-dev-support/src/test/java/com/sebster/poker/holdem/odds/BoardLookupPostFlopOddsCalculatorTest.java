@@ -0,0 +1,39 @@
+package com.sebster.poker.holdem.odds;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sebster.poker.Card;
+import com.sebster.poker.Deck;
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.Odds;
+
+public class BoardLookupPostFlopOddsCalculatorTest {
+
+	@Test
+	public void testSameOddsAsPostFlopOddsCalculator() {
+		final Random random = new Random(0);
+		for (int i = 0; i < 30; i++) {
+			final Deck deck = new Deck(random);
+			final Hole[] holes = new Hole[2 + i % 9];
+			for (int j = 0; j < holes.length; j++) {
+				holes[j] = Hole.fromDeck(deck);
+			}
+			final Card[] board = new Card[3 + i % 3];
+			for (int j = 0; j < board.length; j++) {
+				board[j] = deck.draw();
+			}
+			final Odds[] expected = PostFlopOddsCalculator.getInstance().calculateOdds(holes, board);
+			final Odds[] actual = BoardLookupPostFlopOddsCalculator.getInstance().calculateOdds(holes, board);
+			Assert.assertEquals(expected.length, actual.length);
+			for (int j = 0; j < holes.length; j++) {
+				for (int n = 0; n <= holes.length; n++) {
+					Assert.assertEquals(expected[j].getNWaySplits(n), actual[j].getNWaySplits(n));
+				}
+			}
+		}
+	}
+
+}
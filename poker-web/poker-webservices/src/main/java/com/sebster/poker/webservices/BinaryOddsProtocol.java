@@ -0,0 +1,313 @@
+package com.sebster.poker.webservices;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sebster.poker.Card;
+import com.sebster.poker.CardSet;
+import com.sebster.poker.Hole;
+import com.sebster.poker.Hole4;
+import com.sebster.poker.odds.Odds;
+import com.sebster.util.IOUtil;
+import com.sebster.util.Validate;
+
+/**
+ * Compact binary alternative to the JSON-RPC protocol, for server to server
+ * callers. A request with the {@link #CONTENT_TYPE} content type is handled
+ * by this protocol instead of JSON-RPC. All numbers are unsigned varints, see
+ * {@link IOUtil#readVarInt(InputStream)}.
+ * <p>
+ * The request is the game ({@link #GAME_HOLDEM} or {@link #GAME_OMAHA}), the
+ * number of matchups, and for each matchup the number of holes, the hole
+ * indexes, the board length and the card indexes (the ordinals of
+ * {@link Card}). A request with more than one matchup and no boards is
+ * calculated as a batch, see {@link HoldemWebServices#calculateOddsBatch}.
+ * <p>
+ * The response has the same content type, and is the number of matchups,
+ * and for each matchup the number of odds and for each odds the maximum n and
+ * the n-way split counts for n = 0 to the maximum n, see
+ * {@link Odds#getNWaySplits(int)}. Errors are returned as an HTTP error
+ * status with a text message: 400 for invalid requests, 503 with a
+ * Retry-After header if the server is overloaded or the deadline passed, and
+ * 500 for other failures.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+final class BinaryOddsProtocol {
+
+	private static final Logger logger = LoggerFactory.getLogger(BinaryOddsProtocol.class);
+
+	static final String CONTENT_TYPE = "application/x-poker-odds";
+
+	static final int GAME_HOLDEM = 0;
+
+	static final int GAME_OMAHA = 1;
+
+	/**
+	 * The maximum numbers of holes which can be dealt with a full board.
+	 */
+	private static final int MAX_HOLDEM_HOLES = 23;
+
+	private static final int MAX_OMAHA_HOLES = 11;
+
+	/**
+	 * The maximum numbers of holes of the preflop calculators.
+	 */
+	private static final int MAX_HOLDEM_PREFLOP_HOLES = 10;
+
+	private static final int MAX_OMAHA_PREFLOP_HOLES = 6;
+
+	private static final int MAX_BOARD_LENGTH = 5;
+
+	/**
+	 * The maximum size of a request in bytes, more than a full batch of the
+	 * largest matchups.
+	 */
+	private static final int MAX_REQUEST_SIZE = 64 * 1024;
+
+	/**
+	 * The request attribute in which the request body is kept, so the request
+	 * can be handled again when its calculation was deferred, see
+	 * {@link RequestContext.Mode#PROBE}.
+	 */
+	private static final String ATTRIBUTE_BODY = BinaryOddsProtocol.class.getName() + ".body";
+
+	private static final Card[] CARDS = Card.values();
+
+	/**
+	 * The hold'em services, or {@code null} if hold'em is disabled.
+	 */
+	private final HoldemWebServices holdem;
+
+	/**
+	 * The omaha services, or {@code null} if omaha is disabled.
+	 */
+	private final OmahaWebServices omaha;
+
+	public BinaryOddsProtocol(final HoldemWebServices holdem, final OmahaWebServices omaha) {
+		this.holdem = holdem;
+		this.omaha = omaha;
+	}
+
+	/**
+	 * Check whether the specified request uses this protocol.
+	 * 
+	 * @param request
+	 *            the request
+	 * @return whether the request has the binary content type
+	 */
+	public static boolean accepts(final HttpServletRequest request) {
+		final String contentType = request.getContentType();
+		return contentType != null && contentType.startsWith(CONTENT_TYPE);
+	}
+
+	/**
+	 * Handle the specified request and write the response.
+	 * 
+	 * @param request
+	 *            the request
+	 * @param response
+	 *            the response
+	 * @throws IOException
+	 *             if the response cannot be written
+	 */
+	public void service(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		if (!"POST".equals(request.getMethod())) {
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+			return;
+		}
+		final byte[] body;
+		try {
+			byte[] requestBody = (byte[]) request.getAttribute(ATTRIBUTE_BODY);
+			if (requestBody == null) {
+				requestBody = readBody(request.getInputStream());
+				request.setAttribute(ATTRIBUTE_BODY, requestBody);
+			}
+			body = calculate(new ByteArrayInputStream(requestBody));
+		} catch (final EOFException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "truncated request");
+			return;
+		} catch (final IOException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		} catch (final IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		} catch (final UnsupportedOperationException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "unsupported request");
+			return;
+		} catch (final OverloadedException e) {
+			response.setIntHeader("Retry-After", e.getRetryAfter());
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+			return;
+		} catch (final CancellationException e) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+			return;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "interrupted");
+			return;
+		} catch (final ExecutionException e) {
+			logger.error("calculation failed", e.getCause());
+			response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "calculation failed");
+			return;
+		}
+		response.setContentType(CONTENT_TYPE);
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+	}
+
+	/**
+	 * Read a request from the specified input stream, calculate the odds and
+	 * encode the response.
+	 */
+	private byte[] calculate(final InputStream in) throws IOException, InterruptedException, ExecutionException {
+		final int game = IOUtil.readVarInt(in);
+		final int matchups = IOUtil.readVarInt(in);
+		Validate.isTrue(matchups > 0 && matchups <= OddsResultCache.MAX_BATCH_SIZE, "invalid number of matchups: " + matchups);
+		final Card[][] boards = new Card[matchups][];
+		boolean preflop = true;
+		final Odds[][] odds;
+		if (game == GAME_HOLDEM) {
+			final Hole[][] holes = new Hole[matchups][];
+			final int lastIndex = Hole.lastHole().getIndex();
+			for (int i = 0; i < matchups; i++) {
+				holes[i] = new Hole[readLength(in, 2, MAX_HOLDEM_HOLES, "holes")];
+				for (int j = 0; j < holes[i].length; j++) {
+					holes[i][j] = Hole.fromIndex(readIndex(in, lastIndex, "hole"));
+				}
+				boards[i] = readBoard(in);
+				validate(holes[i], boards[i], MAX_HOLDEM_PREFLOP_HOLES);
+				preflop &= boards[i].length == 0;
+			}
+			Validate.isTrue(holdem != null, "hold'em is disabled");
+			if (matchups > 1 && preflop) {
+				odds = holdem.calculateOddsBatch(holes);
+			} else {
+				odds = new Odds[matchups][];
+				for (int i = 0; i < matchups; i++) {
+					odds[i] = holdem.calculateOdds(holes[i], boards[i]);
+				}
+			}
+		} else if (game == GAME_OMAHA) {
+			final Hole4[][] holes = new Hole4[matchups][];
+			final int lastIndex = Hole4.lastHole4().getIndex();
+			for (int i = 0; i < matchups; i++) {
+				holes[i] = new Hole4[readLength(in, 2, MAX_OMAHA_HOLES, "holes")];
+				for (int j = 0; j < holes[i].length; j++) {
+					holes[i][j] = Hole4.fromIndex(readIndex(in, lastIndex, "hole"));
+				}
+				boards[i] = readBoard(in);
+				validate(holes[i], boards[i], MAX_OMAHA_PREFLOP_HOLES);
+				preflop &= boards[i].length == 0;
+			}
+			Validate.isTrue(omaha != null, "omaha is disabled");
+			if (matchups > 1 && preflop) {
+				odds = omaha.calculateOddsBatch(holes);
+			} else {
+				odds = new Odds[matchups][];
+				for (int i = 0; i < matchups; i++) {
+					odds[i] = omaha.calculateOdds(holes[i], boards[i]);
+				}
+			}
+		} else {
+			throw new IllegalArgumentException("invalid game: " + game);
+		}
+		return encode(odds);
+	}
+
+	/**
+	 * Check that the calculators accept the specified matchup, so an invalid
+	 * matchup is answered with 400 instead of failing on the executor.
+	 */
+	static void validate(final CardSet[] holes, final Card[] board, final int maxPreflopHoles) {
+		Validate.isTrue(board.length > 0 || holes.length <= maxPreflopHoles, "invalid number of preflop holes: " + holes.length);
+		Validate.isTrue(board.length == 0 || board.length >= 3, "invalid number of board cards: " + board.length);
+		final EnumSet<Card> cards = EnumSet.noneOf(Card.class);
+		for (final CardSet hole : holes) {
+			for (final Card card : hole) {
+				Validate.isTrue(cards.add(card), "duplicate card: " + card);
+			}
+		}
+		for (final Card card : board) {
+			Validate.isTrue(cards.add(card), "duplicate card: " + card);
+		}
+	}
+
+	private static byte[] readBody(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+			if (out.size() > MAX_REQUEST_SIZE) {
+				throw new IOException("request too large");
+			}
+		}
+		return out.toByteArray();
+	}
+
+	private static Card[] readBoard(final InputStream in) throws IOException {
+		final Card[] board = new Card[readLength(in, 0, MAX_BOARD_LENGTH, "board cards")];
+		for (int i = 0; i < board.length; i++) {
+			board[i] = CARDS[readIndex(in, CARDS.length - 1, "card")];
+		}
+		return board;
+	}
+
+	private static int readLength(final InputStream in, final int min, final int max, final String name) throws IOException {
+		final int length = IOUtil.readVarInt(in);
+		Validate.isTrue(length >= min && length <= max, "invalid number of " + name + ": " + length);
+		return length;
+	}
+
+	private static int readIndex(final InputStream in, final int lastIndex, final String name) throws IOException {
+		final int index = IOUtil.readVarInt(in);
+		Validate.isTrue(index >= 0 && index <= lastIndex, "invalid " + name + " index: " + index);
+		return index;
+	}
+
+	/**
+	 * Encode the odds of the matchups in the response format.
+	 * 
+	 * @param odds
+	 *            the odds of the matchups
+	 * @return the response body
+	 */
+	static byte[] encode(final Odds[][] odds) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(16 * odds.length);
+		try {
+			IOUtil.writeVarInt(out, odds.length);
+			for (final Odds[] matchupOdds : odds) {
+				IOUtil.writeVarInt(out, matchupOdds.length);
+				for (final Odds o : matchupOdds) {
+					final int maxN = o.getMaxN();
+					IOUtil.writeVarInt(out, maxN);
+					for (int n = 0; n <= maxN; n++) {
+						IOUtil.writeVarInt(out, o.getNWaySplits(n));
+					}
+				}
+			}
+		} catch (final IOException e) {
+			// Cannot happen.
+			throw new IllegalStateException(e);
+		}
+		return out.toByteArray();
+	}
+
+}
@@ -0,0 +1,24 @@
+package com.sebster.poker.webservices;
+
+/**
+ * Thrown when a request which is probed on a container thread needs a
+ * calculation, see {@link RequestContext.Mode#PROBE}. The request is then
+ * handled again on the executor. The exception has no stack trace, it is
+ * thrown for every request which is not answered from the cache.
+ * 
+ * @author sebster
+ */
+final class CalculationDeferredException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public CalculationDeferredException() {
+		super("calculation deferred to the executor");
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace() {
+		return this;
+	}
+
+}
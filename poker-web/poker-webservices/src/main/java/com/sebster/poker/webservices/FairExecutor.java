@@ -0,0 +1,419 @@
+package com.sebster.poker.webservices;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.GuardedBy;
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sebster.util.Validate;
+
+/**
+ * Fixed size thread pool which schedules the tasks of its clients fairly.
+ * Each client has its own queue, and the workers take the next task from the
+ * clients with queued tasks in round robin order, so a client which queues
+ * many tasks does not starve the other clients. The number of threads a
+ * client may use at the same time can be capped.
+ * <p>
+ * A client may only fill its fair share of the queue, the maximum queue size
+ * divided by the number of clients with queued tasks plus one. The extra
+ * share is kept free for a client which has nothing queued yet, so a client
+ * which floods the executor can not lock the other clients out.
+ * <p>
+ * The executor also does cost based admission control: each client may have
+ * requests with at most a maximum total cost in progress, see
+ * {@link #acquire(String, int)}. A request is always admitted if the client
+ * has nothing else in progress, so an expensive request is not rejected
+ * forever.
+ * <p>
+ * Rejected tasks and requests get an {@link OverloadedException} with an
+ * estimate of the time until the backlog is processed, based on the average
+ * task duration.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+final class FairExecutor extends AbstractExecutorService {
+
+	private static final Logger logger = LoggerFactory.getLogger(FairExecutor.class);
+
+	/**
+	 * The client of tasks which are not submitted for a request.
+	 */
+	static final String DEFAULT_CLIENT_ID = "";
+
+	private static final class Client {
+
+		private final String id;
+
+		private final ArrayDeque<Runnable> tasks = new ArrayDeque<Runnable>();
+
+		/**
+		 * The number of tasks of the client which are running.
+		 */
+		private int running;
+
+		/**
+		 * The total cost of the admitted requests in progress.
+		 */
+		private int cost;
+
+		/**
+		 * Whether the client is in the round robin queue.
+		 */
+		private boolean ready;
+
+		private Client(final String id) {
+			this.id = id;
+		}
+
+	}
+
+	private final int maxQueueSize;
+
+	private final int maxClientThreads;
+
+	private final int maxClientCost;
+
+	private final List<Thread> workers;
+
+	@GuardedBy("this")
+	private final Map<String, Client> clients = new HashMap<String, Client>();
+
+	/**
+	 * The clients with queued tasks which may run another task, in round robin
+	 * order.
+	 */
+	@GuardedBy("this")
+	private final ArrayDeque<Client> ready = new ArrayDeque<Client>();
+
+	@GuardedBy("this")
+	private int queueSize;
+
+	/**
+	 * The number of clients with queued tasks.
+	 */
+	@GuardedBy("this")
+	private int queuingClients;
+
+	@GuardedBy("this")
+	private int running;
+
+	@GuardedBy("this")
+	private int liveWorkers;
+
+	@GuardedBy("this")
+	private boolean shutdown;
+
+	/**
+	 * The moving average of the task duration in nanoseconds.
+	 */
+	@GuardedBy("this")
+	private long averageTaskTime;
+
+	@GuardedBy("this")
+	private long rejectionCount;
+
+	/**
+	 * Create a fair executor.
+	 * 
+	 * @param threads
+	 *            the number of threads
+	 * @param maxQueueSize
+	 *            the maximum number of queued tasks of all clients, each
+	 *            client may queue its fair share
+	 * @param maxClientThreads
+	 *            the maximum number of threads used by a client, or 0 for no
+	 *            limit
+	 * @param maxClientCost
+	 *            the maximum total cost of the requests in progress of a
+	 *            client, or 0 for no limit
+	 */
+	public FairExecutor(final int threads, final int maxQueueSize, final int maxClientThreads, final int maxClientCost) {
+		Validate.isTrue(threads > 0, "threads <= 0");
+		Validate.isTrue(maxQueueSize >= 0, "maxQueueSize < 0");
+		Validate.isTrue(maxClientThreads >= 0, "maxClientThreads < 0");
+		Validate.isTrue(maxClientCost >= 0, "maxClientCost < 0");
+		this.maxQueueSize = maxQueueSize;
+		this.maxClientThreads = maxClientThreads > 0 ? maxClientThreads : threads;
+		this.maxClientCost = maxClientCost > 0 ? maxClientCost : Integer.MAX_VALUE;
+		final ThreadFactory threadFactory = Executors.defaultThreadFactory();
+		final Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				work();
+			}
+		};
+		workers = new ArrayList<Thread>(threads);
+		for (int i = 0; i < threads; i++) {
+			workers.add(threadFactory.newThread(worker));
+		}
+		liveWorkers = threads;
+		for (final Thread thread : workers) {
+			thread.start();
+		}
+	}
+
+	/**
+	 * Execute the specified task for the client of the request handled by the
+	 * current thread, see {@link RequestContext#getCurrentClientId()}.
+	 */
+	@Override
+	public void execute(final Runnable task) {
+		execute(RequestContext.getCurrentClientId(), task);
+	}
+
+	/**
+	 * Execute the specified task for the specified client.
+	 * 
+	 * @param clientId
+	 *            the client id
+	 * @param task
+	 *            the task
+	 * @throws OverloadedException
+	 *             if the queue or the client's share of it is full, or the
+	 *             executor is shut down
+	 */
+	public synchronized void execute(final String clientId, final Runnable task) {
+		if (task == null) {
+			throw new NullPointerException("task");
+		}
+		if (shutdown) {
+			throw reject("executor is shut down");
+		}
+		// Tasks which idle threads can take do not count.
+		if (queueSize >= maxQueueSize + workers.size() - running) {
+			throw reject("queue is full");
+		}
+		final Client client = getClient(clientId);
+		final int clients = client.tasks.isEmpty() ? queuingClients + 1 : queuingClients;
+		if (client.tasks.size() >= Math.max(maxQueueSize / (clients + 1), 1)) {
+			throw reject("client queue is full");
+		}
+		client.tasks.addLast(task);
+		if (client.tasks.size() == 1) {
+			queuingClients++;
+		}
+		queueSize++;
+		if (!client.ready && client.running < maxClientThreads) {
+			client.ready = true;
+			ready.addLast(client);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Admit a request of the specified cost for the specified client, which
+	 * must be released with {@link #release(String, int)} when it is done.
+	 * 
+	 * @param clientId
+	 *            the client id
+	 * @param cost
+	 *            the estimated cost of the request
+	 * @throws OverloadedException
+	 *             if the client already has too much in progress
+	 */
+	public synchronized void acquire(final String clientId, final int cost) {
+		Validate.isTrue(cost >= 0, "cost < 0");
+		final Client client = getClient(clientId);
+		if (client.cost > 0 && client.cost + cost > maxClientCost) {
+			removeIfIdle(client);
+			throw reject("too many requests in progress");
+		}
+		client.cost += cost;
+	}
+
+	/**
+	 * Release a request admitted with {@link #acquire(String, int)}.
+	 * 
+	 * @param clientId
+	 *            the client id
+	 * @param cost
+	 *            the cost of the request
+	 */
+	public synchronized void release(final String clientId, final int cost) {
+		final Client client = clients.get(clientId != null ? clientId : DEFAULT_CLIENT_ID);
+		if (client == null || client.cost < cost) {
+			throw new IllegalStateException("cost not acquired: " + cost);
+		}
+		client.cost -= cost;
+		removeIfIdle(client);
+	}
+
+	@GuardedBy("this")
+	private Client getClient(final String clientId) {
+		final String id = clientId != null ? clientId : DEFAULT_CLIENT_ID;
+		Client client = clients.get(id);
+		if (client == null) {
+			client = new Client(id);
+			clients.put(id, client);
+		}
+		return client;
+	}
+
+	@GuardedBy("this")
+	private void removeIfIdle(final Client client) {
+		if (client.tasks.isEmpty() && client.running == 0 && client.cost == 0) {
+			clients.remove(client.id);
+		}
+	}
+
+	@GuardedBy("this")
+	private OverloadedException reject(final String message) {
+		rejectionCount++;
+		// The time to process the backlog at the average task duration.
+		final long backlog = (queueSize + running) * averageTaskTime / workers.size();
+		final int retryAfter = (int) Math.max(1, Math.min(TimeUnit.NANOSECONDS.toSeconds(backlog) + 1, 3600));
+		return new OverloadedException(message + ", retry after " + retryAfter + " s", retryAfter);
+	}
+
+	private void work() {
+		try {
+			while (true) {
+				final Client client;
+				final Runnable task;
+				synchronized (this) {
+					while (ready.isEmpty() && !(shutdown && queueSize == 0)) {
+						wait();
+					}
+					if (ready.isEmpty()) {
+						return;
+					}
+					client = ready.pollFirst();
+					task = client.tasks.pollFirst();
+					queueSize--;
+					if (client.tasks.isEmpty()) {
+						queuingClients--;
+					}
+					client.running++;
+					running++;
+					if (!client.tasks.isEmpty() && client.running < maxClientThreads) {
+						// Back of the line.
+						ready.addLast(client);
+					} else {
+						client.ready = false;
+					}
+				}
+				final long t1 = System.nanoTime();
+				try {
+					task.run();
+				} catch (final RuntimeException e) {
+					logger.error("task failed", e);
+				} catch (final Error e) {
+					logger.error("task failed", e);
+				} finally {
+					final long t2 = System.nanoTime();
+					synchronized (this) {
+						averageTaskTime += (t2 - t1 - averageTaskTime) / 8;
+						client.running--;
+						running--;
+						if (!client.ready && !client.tasks.isEmpty()) {
+							client.ready = true;
+							ready.addLast(client);
+							notifyAll();
+						}
+						removeIfIdle(client);
+						if (shutdown && queueSize == 0) {
+							notifyAll();
+						}
+					}
+				}
+			}
+		} catch (final InterruptedException e) {
+			// Shut down now.
+		} finally {
+			synchronized (this) {
+				liveWorkers--;
+				notifyAll();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		shutdown = true;
+		notifyAll();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		final List<Runnable> tasks = new ArrayList<Runnable>();
+		synchronized (this) {
+			shutdown = true;
+			for (final Client client : clients.values()) {
+				tasks.addAll(client.tasks);
+				client.tasks.clear();
+				client.ready = false;
+			}
+			ready.clear();
+			queueSize = 0;
+			queuingClients = 0;
+			notifyAll();
+		}
+		for (final Thread thread : workers) {
+			thread.interrupt();
+		}
+		return tasks;
+	}
+
+	@Override
+	public synchronized boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public synchronized boolean isTerminated() {
+		return shutdown && liveWorkers == 0;
+	}
+
+	@Override
+	public synchronized boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!isTerminated()) {
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return false;
+			}
+			TimeUnit.NANOSECONDS.timedWait(this, remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * Get the number of queued tasks of all clients.
+	 * 
+	 * @return the queue size
+	 */
+	public synchronized int getQueueSize() {
+		return queueSize;
+	}
+
+	/**
+	 * Get the number of clients with queued, running or admitted work.
+	 * 
+	 * @return the number of active clients
+	 */
+	public synchronized int getClientCount() {
+		return clients.size();
+	}
+
+	/**
+	 * Get the number of rejected tasks and requests.
+	 * 
+	 * @return the number of rejections
+	 */
+	public synchronized long getRejectionCount() {
+		return rejectionCount;
+	}
+
+}
@@ -1,26 +1,30 @@
 package com.sebster.poker.webservices;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.collections.map.LRUMap;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sebster.poker.Card;
 import com.sebster.poker.Hole;
-import com.sebster.poker.holdem.odds.PostFlopOddsCalculator;
+import com.sebster.poker.Holes;
 import com.sebster.poker.holdem.odds.FastHoldemPreflopOddsCalculator;
+import com.sebster.poker.holdem.odds.HoldemPostFlopOddsCalculator;
+import com.sebster.poker.holdem.odds.MappedHoldemPreflopOddsCalculator;
+import com.sebster.poker.holdem.odds.StreamingHoldemPreflopOddsCalculator;
 import com.sebster.poker.holdem.odds.TwoPlayerPreFlopOddsDB;
 import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.ExpandedHandValueCache;
+import com.sebster.poker.odds.MappedHandValueDatabase;
 import com.sebster.poker.odds.Odds;
 import com.sebster.poker.odds.TwoPlayerOdds;
+import com.sebster.util.Validate;
 import com.sebster.util.arrays.ObjectArrayWrapper;
 
 public class HoldemWebServices {
@@ -29,28 +33,195 @@ public class HoldemWebServices {
 
 	private final CompressedHandValueDatabase db;
 
+	private final MappedHandValueDatabase mappedDb;
+
+	/**
+	 * The cache of expanded holes shared by the calculators of all threads,
+	 * or {@code null} if each calculator only keeps its last holes.
+	 */
+	private final ExpandedHandValueCache expandCache;
+
 	private final ExecutorService executor;
 
+	private final HoldemPostFlopOddsCalculator postFlopCalculator;
+
+	private final ExecutorService compareExecutor;
+
+	private final int compareParallelism;
+
 	private final ThreadLocal<FastHoldemPreflopOddsCalculator> calculator = new ThreadLocal<FastHoldemPreflopOddsCalculator>();
 
-	private final LRUMap cache;
+	private final ThreadLocal<MappedHoldemPreflopOddsCalculator> mappedCalculator = new ThreadLocal<MappedHoldemPreflopOddsCalculator>();
+
+	/**
+	 * The streaming calculators of the threads, or {@code null} if the holes
+	 * are expanded completely, see {@link WebServicesOptions#setStreaming}.
+	 */
+	private final ThreadLocal<StreamingHoldemPreflopOddsCalculator> streamingCalculator;
+
+	private final OddsResultCache<ObjectArrayWrapper<Hole>> cache;
+
+	private final Metrics metrics;
 
 	public HoldemWebServices(final String dbPath, final int cacheSize, final ExecutorService exector) throws IOException {
+		this(dbPath, cacheSize, exector, new WebServicesOptions());
+	}
 
-		// Initialize compressed hand value db.
-		InputStream in = null;
-		try {
-			in = new GZIPInputStream(new FileInputStream(dbPath));
-			db = new CompressedHandValueDatabase(in);
-		} finally {
-			IOUtils.closeQuietly(in);
+	/**
+	 * Create the hold'em web services with the specified options, see
+	 * {@link WebServicesOptions}.
+	 */
+	public HoldemWebServices(final String dbPath, final int cacheSize, final ExecutorService exector, final WebServicesOptions options) throws IOException {
+		final ExecutorService prefetchExecutor = options.getPrefetchExecutor();
+		final ExecutorService compareExecutor = options.getWorkerExecutor();
+		final int compareParallelism = options.getWorkerParallelism();
+
+		// Initialize the mapped or compressed hand value db.
+		final long t1 = System.nanoTime();
+		if (MappedHandValueDatabase.isDatabaseFile(new File(dbPath))) {
+			db = null;
+			mappedDb = MappedHandValueDatabase.load(new File(dbPath));
+		} else if (prefetchExecutor != null) {
+			db = CompressedHandValueDatabase.open(new File(dbPath), prefetchExecutor);
+			mappedDb = null;
+		} else {
+			db = CompressedHandValueDatabase.load(new File(dbPath), compareExecutor, compareParallelism);
+			mappedDb = null;
 		}
+		final long dbLoadNanos = System.nanoTime() - t1;
 
 		// Initialize task thread pool.
 		this.executor = exector;
 
-		// Initialize the cache.
-		cache = new LRUMap(cacheSize);
+		// Initialize the post flop calculator.
+		this.postFlopCalculator = options.getPostFlopCalculator();
+
+		// Initialize the compare workers of the preflop calculators.
+		this.compareExecutor = compareExecutor;
+		this.compareParallelism = compareParallelism;
+
+		// Initialize the streaming calculators, which do not use the shared
+		// cache of expanded holes.
+		if (db != null && options.isStreaming()) {
+			streamingCalculator = new ThreadLocal<StreamingHoldemPreflopOddsCalculator>();
+		} else {
+			streamingCalculator = null;
+		}
+
+		// Initialize the shared cache of expanded holes.
+		if (db != null && streamingCalculator == null && options.getExpandCacheSize() > 0) {
+			expandCache = new ExpandedHandValueCache(db, options.getExpandCacheSize(), compareExecutor, compareParallelism);
+		} else {
+			expandCache = null;
+		}
+
+		// Initialize the cache, which holds at most cacheSize odds.
+		cache = new OddsResultCache<ObjectArrayWrapper<Hole>>(cacheSize, options.getResultStore());
+
+		// Initialize the metrics.
+		this.metrics = options.getMetrics() != null ? options.getMetrics() : new Metrics();
+		registerMetrics(dbLoadNanos);
+	}
+
+	private void registerMetrics(final long dbLoadNanos) {
+		final String labels = Metrics.labels("service", "holdem");
+		cache.register(metrics, labels);
+		metrics.register("poker_db_load_seconds", labels, new Metrics.Gauge() {
+			@Override
+			public double getValue() {
+				return dbLoadNanos / 1e9;
+			}
+		});
+		if (db != null) {
+			metrics.register("poker_db_loaded_holes", labels, new Metrics.Gauge() {
+				@Override
+				public double getValue() {
+					return db.getLoadedHoleCount();
+				}
+			});
+		}
+		if (expandCache != null) {
+			metrics.register("poker_expand_cache_hit_ratio", labels, new Metrics.Gauge() {
+				@Override
+				public double getValue() {
+					return expandCache.getHitRatio();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Get the hit ratio of the shared cache of expanded holes.
+	 * 
+	 * @return the hit ratio, or 0 if there is no shared cache
+	 */
+	public double getExpandCacheHitRatio() {
+		return expandCache != null ? expandCache.getHitRatio() : 0;
+	}
+
+	/**
+	 * Get the number of preflop results found in the result cache.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getCacheHitCount() {
+		return cache.getHitCount();
+	}
+
+	/**
+	 * Get the number of preflop results which were not cached.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getCacheMissCount() {
+		return cache.getMissCount();
+	}
+
+	/**
+	 * Get the number of results evicted from the result cache.
+	 * 
+	 * @return the number of evictions
+	 */
+	public long getCacheEvictionCount() {
+		return cache.getEvictionCount();
+	}
+
+	/**
+	 * Get the number of preflop requests which waited for the calculation of
+	 * an identical request.
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	public long getCacheCoalescedCount() {
+		return cache.getCoalescedCount();
+	}
+
+	/**
+	 * Get the number of preflop results found in the persistent result store.
+	 * 
+	 * @return the number of store hits
+	 */
+	public long getStoreHitCount() {
+		return cache.getStoreHitCount();
+	}
+
+	/**
+	 * Get the number of preflop calculations which were dropped or aborted
+	 * because their deadline had passed.
+	 * 
+	 * @return the number of cancelled calculations
+	 */
+	public long getCacheCancelledCount() {
+		return cache.getCancelledCount();
+	}
+
+	/**
+	 * Get the hit ratio of the result cache.
+	 * 
+	 * @return the hit ratio, or 0 if nothing was requested
+	 */
+	public double getCacheHitRatio() {
+		return cache.getHitRatio();
 	}
 
 	public Odds[] calculateOdds(final Hole[] holes) throws InterruptedException, ExecutionException {
@@ -58,50 +229,207 @@ public class HoldemWebServices {
 	}
 
 	public Odds[] calculateOdds(final Hole[] holes, final Card[] board) throws InterruptedException, ExecutionException {
+		final long t1 = System.nanoTime();
+		try {
+			return calculateOddsUntimed(holes, board);
+		} finally {
+			// A deferred request is timed when it is handled again.
+			if (!RequestContext.isCurrentDeferred()) {
+				final int boardLength = board != null ? board.length : 0;
+				metrics.getHistogram("poker_request_duration_seconds", Metrics.labels("service", "holdem", "players", holes.length, "street", Metrics.getStreet(boardLength))).record(System.nanoTime() - t1);
+			}
+		}
+	}
+
+	private Odds[] calculateOddsUntimed(final Hole[] holes, final Card[] board) throws InterruptedException, ExecutionException {
 		if (board == null || board.length == 0) {
 			if (holes.length == 2) {
-				final long t1 = System.currentTimeMillis();
-				final TwoPlayerOdds odds = TwoPlayerPreFlopOddsDB.getInstance().getOdds(holes[0], holes[1]);
-				final long t2 = System.currentTimeMillis();
+				return getTwoPlayerOdds(holes);
+			}
+			// Normalize the holes, so requests which only differ in the order
+			// of the holes or by a permutation of the suits share a cache
+			// entry. The cached odds are in normalized order.
+			final Hole[] normalizedHoles = holes.clone();
+			final int[] indexes = Holes.normalize(normalizedHoles);
+			final ObjectArrayWrapper<Hole> key = new ObjectArrayWrapper<Hole>(normalizedHoles);
+			Odds[] result = cache.get(key);
+			if (result != null) {
 				if (logger.isDebugEnabled()) {
-					logger.debug("2 player odds calculated in {} ms", t2 - t1);
+					logger.debug("{} player odds result found in cache", holes.length);
 				}
-				return new Odds[] { odds, odds.reverse() };
-			}
-			final ObjectArrayWrapper<Hole> key = new ObjectArrayWrapper<Hole>(holes);
-			synchronized (cache) {
-				final Odds[] result = (Odds[]) cache.get(key);
-				if (result != null) {
-					if (logger.isDebugEnabled()) {
-						logger.debug("{} player odds result found in cache", holes.length);
-					}
-					return result;
+			} else {
+				final int cost = RequestContext.getCost(holes.length, 0);
+				RequestContext.acquire(cost);
+				try {
+					result = cache.calculate(key, getIndexes(normalizedHoles), new OddsCalculatorCallable(normalizedHoles), executor);
+				} finally {
+					RequestContext.release(cost);
 				}
 			}
-			final Odds[] result = executor.submit(new OddsCalculatorCallable(holes)).get();
-			synchronized (cache) {
-				cache.put(key, result);
-			}
-			return result;
+			return denormalize(result, indexes);
 		} else {
-			return PostFlopOddsCalculator.getInstance().calculateOdds(holes, board);
+			final int cost = RequestContext.getCost(holes.length, board.length);
+			RequestContext.acquire(cost);
+			try {
+				return postFlopCalculator.calculateOdds(holes, board);
+			} finally {
+				RequestContext.release(cost);
+			}
 		}
 	}
 
+	/**
+	 * Calculate the preflop odds of a batch of matchups, and return them in
+	 * one response. The matchups which are not cached are calculated back to
+	 * back in one task, ordered so that consecutive matchups share holes, see
+	 * {@link OddsResultCache#getBatchOrder(int[][])}. The calculator then
+	 * expands each shared hole only once. The matchups are calculated on the
+	 * holes of the request rather than the normalized holes, because the
+	 * normalization can map a shared hole to different suits in different
+	 * matchups.
+	 * 
+	 * @param holes
+	 *            the holes of the matchups
+	 * @return the odds of the matchups
+	 */
+	public Odds[][] calculateOddsBatch(final Hole[][] holes) throws InterruptedException, ExecutionException {
+		Validate.isTrue(holes.length <= OddsResultCache.MAX_BATCH_SIZE, "more than " + OddsResultCache.MAX_BATCH_SIZE + " matchups");
+		final long t1 = System.nanoTime();
+		try {
+			return calculateOddsBatchUntimed(holes);
+		} finally {
+			if (!RequestContext.isCurrentDeferred()) {
+				metrics.getHistogram("poker_batch_duration_seconds", Metrics.labels("service", "holdem")).record(System.nanoTime() - t1);
+			}
+		}
+	}
+
+	private Odds[][] calculateOddsBatchUntimed(final Hole[][] holes) throws InterruptedException, ExecutionException {
+		final int[][] holeIndexes = new int[holes.length][];
+		for (int i = 0; i < holes.length; i++) {
+			holeIndexes[i] = getIndexes(holes[i]);
+		}
+		final Odds[][] odds = new Odds[holes.length][];
+		final int[][] indexes = new int[holes.length][];
+		final List<Integer> calculated = new ArrayList<Integer>();
+		final List<ObjectArrayWrapper<Hole>> keys = new ArrayList<ObjectArrayWrapper<Hole>>();
+		final List<int[]> storeKeys = new ArrayList<int[]>();
+		final List<OddsCalculatorCallable> callables = new ArrayList<OddsCalculatorCallable>();
+		int cost = 0;
+		for (final int i : OddsResultCache.getBatchOrder(holeIndexes)) {
+			if (holes[i].length == 2) {
+				odds[i] = getTwoPlayerOdds(holes[i]);
+				continue;
+			}
+			final Hole[] normalizedHoles = holes[i].clone();
+			indexes[i] = Holes.normalize(normalizedHoles);
+			final ObjectArrayWrapper<Hole> key = new ObjectArrayWrapper<Hole>(normalizedHoles);
+			final Odds[] result = cache.get(key);
+			if (result != null) {
+				odds[i] = denormalize(result, indexes[i]);
+			} else {
+				calculated.add(i);
+				keys.add(key);
+				storeKeys.add(getIndexes(normalizedHoles));
+				callables.add(new OddsCalculatorCallable(holes[i], indexes[i]));
+				cost += RequestContext.getCost(holes[i].length, 0);
+			}
+		}
+		if (!calculated.isEmpty()) {
+			RequestContext.acquire(cost);
+			try {
+				final Odds[][] results = cache.calculateBatch(keys, storeKeys, callables, executor);
+				for (int k = 0; k < results.length; k++) {
+					final int i = calculated.get(k);
+					odds[i] = denormalize(results[k], indexes[i]);
+				}
+			} finally {
+				RequestContext.release(cost);
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("batch of {} matchups, {} calculated", holes.length, calculated.size());
+		}
+		return odds;
+	}
+
+	private static Odds[] getTwoPlayerOdds(final Hole[] holes) {
+		final long t1 = System.currentTimeMillis();
+		final TwoPlayerOdds odds = TwoPlayerPreFlopOddsDB.getInstance().getOdds(holes[0], holes[1]);
+		final long t2 = System.currentTimeMillis();
+		if (logger.isDebugEnabled()) {
+			logger.debug("2 player odds calculated in {} ms", t2 - t1);
+		}
+		return new Odds[] { odds, odds.reverse() };
+	}
+
+	private static int[] getIndexes(final Hole[] holes) {
+		final int[] indexes = new int[holes.length];
+		for (int i = 0; i < holes.length; i++) {
+			indexes[i] = holes[i].getIndex();
+		}
+		return indexes;
+	}
+
+	/**
+	 * Map the odds of the normalized holes back to the order of the holes of
+	 * the request, see {@link Holes#normalize(Hole[])}.
+	 */
+	static Odds[] denormalize(final Odds[] normalizedOdds, final int[] indexes) {
+		final Odds[] odds = new Odds[normalizedOdds.length];
+		for (int i = 0; i < odds.length; i++) {
+			odds[indexes[i]] = normalizedOdds[i];
+		}
+		return odds;
+	}
+
+	/**
+	 * Map the odds of the holes of a request to the order of the normalized
+	 * holes, the inverse of {@link #denormalize(Odds[], int[])}.
+	 */
+	static Odds[] normalize(final Odds[] odds, final int[] indexes) {
+		final Odds[] normalizedOdds = new Odds[odds.length];
+		for (int i = 0; i < odds.length; i++) {
+			normalizedOdds[i] = odds[indexes[i]];
+		}
+		return normalizedOdds;
+	}
+
 	private class OddsCalculatorCallable implements Callable<Odds[]> {
 
 		private final Hole[] holes;
 
+		/**
+		 * The normalization of the holes, or {@code null} if the holes are
+		 * normalized. The odds are returned in the order of the normalized
+		 * holes.
+		 */
+		private final int[] indexes;
+
 		public OddsCalculatorCallable(final Hole[] holes) {
+			this(holes, null);
+		}
+
+		public OddsCalculatorCallable(final Hole[] holes, final int[] indexes) {
 			this.holes = holes;
+			this.indexes = indexes;
 		}
 
 		@Override
 		public Odds[] call() throws Exception {
+			final Odds[] odds = mappedDb != null ? callMapped() : streamingCalculator != null ? callStreaming() : callCompressed();
+			return indexes != null ? normalize(odds, indexes) : odds;
+		}
+
+		private Odds[] callCompressed() {
 			final long t1 = System.currentTimeMillis();
 			FastHoldemPreflopOddsCalculator calculator = HoldemWebServices.this.calculator.get();
 			if (calculator == null) {
-				calculator = new FastHoldemPreflopOddsCalculator(db);
+				if (expandCache != null) {
+					calculator = new FastHoldemPreflopOddsCalculator(expandCache, compareExecutor, compareParallelism);
+				} else {
+					calculator = new FastHoldemPreflopOddsCalculator(db, compareExecutor, compareParallelism);
+				}
 				HoldemWebServices.this.calculator.set(calculator);
 			}
 			final Odds[] odds = calculator.calculateOdds(holes);
@@ -109,6 +437,43 @@ public class HoldemWebServices {
 			if (logger.isDebugEnabled()) {
 				logger.debug("{} player odds calculated in {} ms, expand in {} ms, expand cache hits {}, compare in {} ms", new Object[] { holes.length, t2 - t1, calculator.getLastExpandTime(), calculator.getLastExpandCacheHits(), calculator.getLastCompareTime() });
 			}
+			final String labels = Metrics.labels("service", "holdem", "players", holes.length);
+			metrics.getHistogram("poker_expand_duration_seconds", labels).record(calculator.getLastExpandNanos());
+			metrics.getHistogram("poker_compare_duration_seconds", labels).record(calculator.getLastCompareNanos());
+			return odds;
+		}
+
+		private Odds[] callStreaming() {
+			final long t1 = System.currentTimeMillis();
+			StreamingHoldemPreflopOddsCalculator calculator = streamingCalculator.get();
+			if (calculator == null) {
+				calculator = new StreamingHoldemPreflopOddsCalculator(db);
+				streamingCalculator.set(calculator);
+			}
+			final Odds[] odds = calculator.calculateOdds(holes);
+			final long t2 = System.currentTimeMillis();
+			if (logger.isDebugEnabled()) {
+				logger.debug("{} player odds calculated in {} ms, streaming expand in {} ms, compare in {} ms", new Object[] { holes.length, t2 - t1, calculator.getLastExpandTime(), calculator.getLastCompareTime() });
+			}
+			final String labels = Metrics.labels("service", "holdem", "players", holes.length);
+			metrics.getHistogram("poker_expand_duration_seconds", labels).record(calculator.getLastExpandNanos());
+			metrics.getHistogram("poker_compare_duration_seconds", labels).record(calculator.getLastCompareNanos());
+			return odds;
+		}
+
+		private Odds[] callMapped() {
+			final long t1 = System.currentTimeMillis();
+			MappedHoldemPreflopOddsCalculator calculator = mappedCalculator.get();
+			if (calculator == null) {
+				calculator = new MappedHoldemPreflopOddsCalculator(mappedDb, compareExecutor, compareParallelism);
+				mappedCalculator.set(calculator);
+			}
+			final Odds[] odds = calculator.calculateOdds(holes);
+			final long t2 = System.currentTimeMillis();
+			if (logger.isDebugEnabled()) {
+				logger.debug("{} player odds calculated in {} ms, compare in {} ms", new Object[] { holes.length, t2 - t1, calculator.getLastCompareTime() });
+			}
+			metrics.getHistogram("poker_compare_duration_seconds", Metrics.labels("service", "holdem", "players", holes.length)).record(calculator.getLastCompareNanos());
 			return odds;
 		}
 
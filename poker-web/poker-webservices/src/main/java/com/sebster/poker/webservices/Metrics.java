@@ -0,0 +1,367 @@
+package com.sebster.poker.webservices;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * In-process registry of the metrics of the web services: timing histograms,
+ * which are recorded by the services, and counters and gauges, which are read
+ * when the metrics are written. Each metric has a name and a (possibly empty)
+ * label string of the form <code>key="value",...</code>. The metrics are
+ * written in the Prometheus text format, in which the names of the counters
+ * get the <code>_total</code> suffix, or as JSON.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+public final class Metrics {
+
+	/**
+	 * A value which is read when the metrics are written.
+	 */
+	public interface Gauge {
+
+		double getValue();
+
+	}
+
+	/**
+	 * A count which only increases, and is read when the metrics are written.
+	 */
+	public interface Counter {
+
+		long getCount();
+
+	}
+
+	/**
+	 * A histogram of durations, with power of two buckets from 1 microsecond
+	 * (2^10 ns) to 1 minute (2^36 ns).
+	 */
+	@ThreadSafe
+	public static final class Histogram {
+
+		private static final int MIN_SHIFT = 10;
+
+		private static final int BUCKETS = 27;
+
+		private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS + 1);
+
+		private final AtomicLong count = new AtomicLong();
+
+		private final AtomicLong sum = new AtomicLong();
+
+		/**
+		 * Record the specified duration.
+		 * 
+		 * @param nanos
+		 *            the duration in nanoseconds
+		 */
+		public void record(final long nanos) {
+			final long value = Math.max(nanos, 0);
+			// The bucket with the smallest upper bound 2^(MIN_SHIFT + i) >= value.
+			final int bits = 64 - Long.numberOfLeadingZeros(Math.max(value - 1, 0));
+			buckets.incrementAndGet(Math.min(Math.max(bits - MIN_SHIFT, 0), BUCKETS));
+			count.incrementAndGet();
+			sum.addAndGet(value);
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		/**
+		 * Get the sum of the recorded durations.
+		 * 
+		 * @return the sum in nanoseconds
+		 */
+		public long getSum() {
+			return sum.get();
+		}
+
+		/**
+		 * Get the upper bound of the specified bucket.
+		 * 
+		 * @return the upper bound in nanoseconds, or {@link Long#MAX_VALUE}
+		 *         for the overflow bucket
+		 */
+		private static long getUpperBound(final int bucket) {
+			return bucket < BUCKETS ? 1L << MIN_SHIFT + bucket : Long.MAX_VALUE;
+		}
+
+	}
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Histogram>> histograms = new ConcurrentHashMap<String, ConcurrentMap<String, Histogram>>();
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Gauge>> gauges = new ConcurrentHashMap<String, ConcurrentMap<String, Gauge>>();
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Counter>> counters = new ConcurrentHashMap<String, ConcurrentMap<String, Counter>>();
+
+	/**
+	 * Get the histogram with the specified name and labels, and create it if
+	 * it does not exist.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param labels
+	 *            the labels
+	 * @return the histogram
+	 */
+	public Histogram getHistogram(final String name, final String labels) {
+		ConcurrentMap<String, Histogram> series = histograms.get(name);
+		if (series == null) {
+			final ConcurrentMap<String, Histogram> newSeries = new ConcurrentHashMap<String, Histogram>();
+			series = histograms.putIfAbsent(name, newSeries);
+			if (series == null) {
+				series = newSeries;
+			}
+		}
+		Histogram histogram = series.get(labels);
+		if (histogram == null) {
+			final Histogram newHistogram = new Histogram();
+			histogram = series.putIfAbsent(labels, newHistogram);
+			if (histogram == null) {
+				histogram = newHistogram;
+			}
+		}
+		return histogram;
+	}
+
+	/**
+	 * Register a gauge with the specified name and labels, replacing the gauge
+	 * which was registered with the same name and labels.
+	 * 
+	 * @param name
+	 *            the name
+	 * @param labels
+	 *            the labels
+	 * @param gauge
+	 *            the gauge
+	 */
+	public void register(final String name, final String labels, final Gauge gauge) {
+		if (gauge == null) {
+			throw new NullPointerException("gauge");
+		}
+		put(gauges, name, labels, gauge);
+	}
+
+	/**
+	 * Register a counter with the specified name and labels, replacing the
+	 * counter which was registered with the same name and labels.
+	 * 
+	 * @param name
+	 *            the name, without the <code>_total</code> suffix
+	 * @param labels
+	 *            the labels
+	 * @param counter
+	 *            the counter
+	 */
+	public void register(final String name, final String labels, final Counter counter) {
+		if (counter == null) {
+			throw new NullPointerException("counter");
+		}
+		put(counters, name, labels, counter);
+	}
+
+	private static <T> void put(final ConcurrentMap<String, ConcurrentMap<String, T>> metrics, final String name, final String labels, final T metric) {
+		ConcurrentMap<String, T> series = metrics.get(name);
+		if (series == null) {
+			final ConcurrentMap<String, T> newSeries = new ConcurrentHashMap<String, T>();
+			series = metrics.putIfAbsent(name, newSeries);
+			if (series == null) {
+				series = newSeries;
+			}
+		}
+		series.put(labels, metric);
+	}
+
+	/**
+	 * Create a label string from the specified keys and values.
+	 * 
+	 * @param keysAndValues
+	 *            the keys and values, alternating
+	 * @return the label string
+	 */
+	public static String labels(final Object... keysAndValues) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(keysAndValues[i]).append("=\"").append(keysAndValues[i + 1]).append('"');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Get the name of the street of a board of the specified length, for use
+	 * as a label.
+	 * 
+	 * @param boardLength
+	 *            the number of board cards
+	 * @return the street
+	 */
+	public static String getStreet(final int boardLength) {
+		switch (boardLength) {
+		case 0:
+			return "preflop";
+		case 3:
+			return "flop";
+		case 4:
+			return "turn";
+		case 5:
+			return "river";
+		default:
+			return String.valueOf(boardLength);
+		}
+	}
+
+	/**
+	 * Write the metrics in the Prometheus text format. Durations are written
+	 * in seconds.
+	 * 
+	 * @param out
+	 *            the writer
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public void writeText(final Writer out) throws IOException {
+		for (final Map.Entry<String, Map<String, Counter>> metric : sorted(counters).entrySet()) {
+			final String name = metric.getKey() + "_total";
+			out.write("# TYPE " + name + " counter\n");
+			for (final Map.Entry<String, Counter> series : metric.getValue().entrySet()) {
+				out.write(name + braces(series.getKey()) + " " + series.getValue().getCount() + "\n");
+			}
+		}
+		for (final Map.Entry<String, Map<String, Gauge>> metric : sorted(gauges).entrySet()) {
+			final String name = metric.getKey();
+			out.write("# TYPE " + name + " gauge\n");
+			for (final Map.Entry<String, Gauge> series : metric.getValue().entrySet()) {
+				out.write(name + braces(series.getKey()) + " " + format(series.getValue().getValue()) + "\n");
+			}
+		}
+		for (final Map.Entry<String, Map<String, Histogram>> metric : sorted(histograms).entrySet()) {
+			final String name = metric.getKey();
+			out.write("# TYPE " + name + " histogram\n");
+			for (final Map.Entry<String, Histogram> series : metric.getValue().entrySet()) {
+				final String labels = series.getKey();
+				final Histogram histogram = series.getValue();
+				final String prefix = labels.length() > 0 ? labels + "," : "";
+				long cumulative = 0;
+				for (int i = 0; i <= Histogram.BUCKETS; i++) {
+					cumulative += histogram.buckets.get(i);
+					final long bound = Histogram.getUpperBound(i);
+					final String le = bound == Long.MAX_VALUE ? "+Inf" : format(bound / 1e9);
+					out.write(name + "_bucket{" + prefix + "le=\"" + le + "\"} " + cumulative + "\n");
+				}
+				out.write(name + "_sum" + braces(labels) + " " + format(histogram.getSum() / 1e9) + "\n");
+				out.write(name + "_count" + braces(labels) + " " + histogram.getCount() + "\n");
+			}
+		}
+	}
+
+	/**
+	 * Write the metrics as a JSON object with the counters, gauges and
+	 * histograms by name. Each series has its labels, and a value or the
+	 * count, sum and cumulative bucket counts. Durations are written in
+	 * nanoseconds.
+	 * 
+	 * @param out
+	 *            the writer
+	 * @throws IOException
+	 *             if an I/O exception occurs
+	 */
+	public void writeJson(final Writer out) throws IOException {
+		try {
+			final JSONObject json = new JSONObject();
+			final JSONObject countersJson = new JSONObject();
+			for (final Map.Entry<String, Map<String, Counter>> metric : sorted(counters).entrySet()) {
+				final JSONArray seriesJson = new JSONArray();
+				for (final Map.Entry<String, Counter> series : metric.getValue().entrySet()) {
+					final JSONObject value = new JSONObject();
+					value.put("labels", series.getKey());
+					value.put("value", series.getValue().getCount());
+					seriesJson.put(value);
+				}
+				countersJson.put(metric.getKey(), seriesJson);
+			}
+			json.put("counters", countersJson);
+			final JSONObject gaugesJson = new JSONObject();
+			for (final Map.Entry<String, Map<String, Gauge>> metric : sorted(gauges).entrySet()) {
+				final JSONArray seriesJson = new JSONArray();
+				for (final Map.Entry<String, Gauge> series : metric.getValue().entrySet()) {
+					final JSONObject value = new JSONObject();
+					value.put("labels", series.getKey());
+					value.put("value", series.getValue().getValue());
+					seriesJson.put(value);
+				}
+				gaugesJson.put(metric.getKey(), seriesJson);
+			}
+			json.put("gauges", gaugesJson);
+			final JSONObject histogramsJson = new JSONObject();
+			for (final Map.Entry<String, Map<String, Histogram>> metric : sorted(histograms).entrySet()) {
+				final JSONArray seriesJson = new JSONArray();
+				for (final Map.Entry<String, Histogram> series : metric.getValue().entrySet()) {
+					final Histogram histogram = series.getValue();
+					final JSONObject value = new JSONObject();
+					value.put("labels", series.getKey());
+					value.put("count", histogram.getCount());
+					value.put("sum", histogram.getSum());
+					final JSONArray bucketsJson = new JSONArray();
+					long cumulative = 0;
+					for (int i = 0; i <= Histogram.BUCKETS; i++) {
+						cumulative += histogram.buckets.get(i);
+						final JSONObject bucket = new JSONObject();
+						final long bound = Histogram.getUpperBound(i);
+						bucket.put("le", bound == Long.MAX_VALUE ? "+Inf" : String.valueOf(bound));
+						bucket.put("count", cumulative);
+						bucketsJson.put(bucket);
+					}
+					value.put("buckets", bucketsJson);
+					seriesJson.put(value);
+				}
+				histogramsJson.put(metric.getKey(), seriesJson);
+			}
+			json.put("histograms", histogramsJson);
+			out.write(json.toString());
+		} catch (final JSONException e) {
+			// Cannot happen, the values are finite.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get a snapshot of the specified metrics, sorted by name and labels.
+	 */
+	private static <T> Map<String, Map<String, T>> sorted(final ConcurrentMap<String, ConcurrentMap<String, T>> metrics) {
+		final Map<String, Map<String, T>> sorted = new TreeMap<String, Map<String, T>>();
+		for (final Map.Entry<String, ConcurrentMap<String, T>> metric : metrics.entrySet()) {
+			sorted.put(metric.getKey(), new TreeMap<String, T>(metric.getValue()));
+		}
+		return sorted;
+	}
+
+	private static String braces(final String labels) {
+		return labels.length() > 0 ? "{" + labels + "}" : "";
+	}
+
+	private static String format(final double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return String.valueOf((long) value);
+		}
+		return String.valueOf(value);
+	}
+
+}
@@ -16,6 +16,9 @@ public class NoStackTraceErrorTransformer implements ExceptionTransformer {
 			result.put("code", JSONRPCResult.CODE_REMOTE_EXCEPTION);
 			result.put("msg", throwable.getMessage());
 			result.put("name", throwable.getClass().getName());
+			if (throwable instanceof OverloadedException) {
+				result.put("retryAfter", ((OverloadedException) throwable).getRetryAfter());
+			}
 			return result;
 		} catch (final JSONException e) {
 			// Cannot happen.
@@ -0,0 +1,518 @@
+package com.sebster.poker.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jcip.annotations.ThreadSafe;
+
+import com.sebster.poker.odds.Cancellation;
+import com.sebster.poker.odds.Odds;
+import com.sebster.poker.odds.OddsStore;
+import com.sebster.util.Validate;
+import com.sebster.util.collections.FrequencyCache;
+
+/**
+ * Cache of preflop odds results, weighted by the number of holes, see
+ * {@link FrequencyCache}. Concurrent requests for a result which is being
+ * calculated wait for the same calculation, so a burst of requests for a
+ * popular matchup does not fill the executor queue with duplicate work. If a
+ * persistent {@link OddsStore} is configured, results which are not cached
+ * are looked up in the store before they are calculated, and calculated
+ * results are appended to the store.
+ * 
+ * @author sebster
+ */
+@ThreadSafe
+final class OddsResultCache<K> {
+
+	/**
+	 * The maximum number of matchups of a batch request.
+	 */
+	static final int MAX_BATCH_SIZE = 256;
+
+	private final FrequencyCache<K, Odds[]> cache;
+
+	/**
+	 * The persistent store, or {@code null} if results are not persisted.
+	 */
+	private final OddsStore store;
+
+	/**
+	 * The calculations in progress by key.
+	 */
+	private final ConcurrentHashMap<K, Calculation> calculations = new ConcurrentHashMap<K, Calculation>();
+
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	private final AtomicLong storeHitCount = new AtomicLong();
+
+	private final AtomicLong cancelledCount = new AtomicLong();
+
+	/**
+	 * A calculation of a result, which caches the result and removes itself
+	 * from the calculations in progress when it is done. The calculation has
+	 * the latest deadline of the requests which wait for it. If the deadline
+	 * has passed when the calculation is taken from the executor queue, it is
+	 * dropped, and if it passes while calculating, the calculator aborts, see
+	 * {@link Cancellation}.
+	 */
+	private final class Calculation extends FutureTask<Odds[]> {
+
+		private final K key;
+
+		private final int[] storeKey;
+
+		private final Cancellation cancellation;
+
+		public Calculation(final K key, final int[] storeKey, final Callable<Odds[]> callable, final Cancellation cancellation) {
+			super(callable);
+			this.key = key;
+			this.storeKey = storeKey;
+			this.cancellation = cancellation;
+		}
+
+		@Override
+		public void run() {
+			if (cancellation.isCancelled()) {
+				// Nobody waits for the result anymore.
+				cancelledCount.incrementAndGet();
+				cancel(false);
+				return;
+			}
+			Cancellation.setCurrent(cancellation);
+			try {
+				super.run();
+			} finally {
+				Cancellation.clearCurrent();
+			}
+		}
+
+		private void fail(final Throwable t) {
+			setException(t);
+		}
+
+		@Override
+		protected void done() {
+			try {
+				if (!isCancelled()) {
+					final Odds[] result = get();
+					cache.put(key, result, result.length);
+					if (store != null) {
+						store.put(storeKey, result);
+					}
+				}
+			} catch (final ExecutionException e) {
+				// Not cached, the waiting requests get the exception.
+				if (e.getCause() instanceof CancellationException) {
+					cancelledCount.incrementAndGet();
+				}
+			} catch (final InterruptedException e) {
+				// Cannot happen, the calculation is done.
+				Thread.currentThread().interrupt();
+			} finally {
+				calculations.remove(key, this);
+			}
+		}
+
+	}
+
+	/**
+	 * Create a result cache which holds at most the specified number of odds.
+	 * 
+	 * @param maxOdds
+	 *            the maximum number of odds
+	 */
+	public OddsResultCache(final int maxOdds) {
+		this(maxOdds, null);
+	}
+
+	/**
+	 * Create a result cache which holds at most the specified number of odds,
+	 * backed by the specified persistent store.
+	 * 
+	 * @param maxOdds
+	 *            the maximum number of odds
+	 * @param store
+	 *            the persistent store, or {@code null} to not persist results
+	 */
+	public OddsResultCache(final int maxOdds, final OddsStore store) {
+		cache = new FrequencyCache<K, Odds[]>(maxOdds, Math.max(maxOdds / 4, 1));
+		this.store = store;
+	}
+
+	/**
+	 * Get the cached result of the specified key. A request which is handled
+	 * inline was already probed, see {@link RequestContext.Mode#PROBE}, so its
+	 * lookups are not counted again.
+	 * 
+	 * @param key
+	 *            the key
+	 * @return the result, or {@code null} if it is not cached
+	 */
+	public Odds[] get(final K key) {
+		return RequestContext.isCurrentInline() ? cache.peek(key) : cache.get(key);
+	}
+
+	/**
+	 * Calculate the result of the specified key on the specified executor, or
+	 * wait for the calculation in progress of the same key. The result is
+	 * cached when the calculation is done. If the result is in the persistent
+	 * store, it is not calculated. If the request is handled on an executor
+	 * thread, see {@link RequestContext#isInline()}, the calculation runs on
+	 * the calling thread.
+	 * 
+	 * @param key
+	 *            the key
+	 * @param storeKey
+	 *            the key of the result in the persistent store, the indexes of
+	 *            the holes
+	 * @param callable
+	 *            the calculation of the result
+	 * @param executor
+	 *            the executor to calculate on
+	 * @return the result
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting, the
+	 *             calculation continues for the other requests
+	 * @throws ExecutionException
+	 *             if the calculation failed
+	 * @throws RejectedExecutionException
+	 *             if the executor is saturated
+	 * @throws CancellationException
+	 *             if the deadline of the request or the calculation passed
+	 */
+	public Odds[] calculate(final K key, final int[] storeKey, final Callable<Odds[]> callable, final ExecutorService executor) throws InterruptedException, ExecutionException {
+		final Odds[] result = getStored(key, storeKey);
+		if (result != null) {
+			return result;
+		}
+		final Cancellation cancellation = RequestContext.getCurrentCancellation();
+		final Calculation calculation = new Calculation(key, storeKey, callable, cancellation.copy());
+		final Calculation current = register(calculation);
+		if (current == calculation) {
+			execute(Collections.singletonList(calculation), executor);
+		}
+		return getResult(current, cancellation);
+	}
+
+	/**
+	 * Calculate the results of the specified keys in one task on the
+	 * specified executor, in the order of the keys. The results of keys which
+	 * are stored are not calculated, and keys which are being calculated wait
+	 * for the calculation in progress, see
+	 * {@link #calculate(Object, int[], Callable, ExecutorService)}. The keys
+	 * should be ordered so that consecutive calculations share holes, see
+	 * {@link #getBatchOrder(int[][])}, so the calculator of the executor thread
+	 * can reuse the expanded holes of the previous calculation.
+	 * 
+	 * @param keys
+	 *            the keys
+	 * @param storeKeys
+	 *            the keys of the results in the persistent store
+	 * @param callables
+	 *            the calculations of the results
+	 * @param executor
+	 *            the executor to calculate on
+	 * @return the results in the order of the keys
+	 * @throws InterruptedException
+	 *             if the calling thread is interrupted while waiting, the
+	 *             calculations continue for the other requests
+	 * @throws ExecutionException
+	 *             if a calculation failed
+	 * @throws RejectedExecutionException
+	 *             if the executor is saturated
+	 * @throws CancellationException
+	 *             if the deadline of the request or the calculation passed
+	 */
+	public Odds[][] calculateBatch(final List<K> keys, final List<int[]> storeKeys, final List<? extends Callable<Odds[]>> callables, final ExecutorService executor) throws InterruptedException, ExecutionException {
+		final int size = keys.size();
+		Validate.isTrue(storeKeys.size() == size && callables.size() == size, "keys, storeKeys and callables have different sizes");
+		final Odds[][] results = new Odds[size][];
+		final List<Calculation> waiting = new ArrayList<Calculation>(size);
+		final List<Calculation> batch = new ArrayList<Calculation>(size);
+		final Cancellation cancellation = RequestContext.getCurrentCancellation();
+		for (int i = 0; i < size; i++) {
+			final K key = keys.get(i);
+			results[i] = getStored(key, storeKeys.get(i));
+			if (results[i] != null) {
+				waiting.add(null);
+				continue;
+			}
+			final Calculation calculation = new Calculation(key, storeKeys.get(i), callables.get(i), cancellation.copy());
+			final Calculation current = register(calculation);
+			if (current == calculation) {
+				batch.add(calculation);
+			}
+			waiting.add(current);
+		}
+		if (!batch.isEmpty()) {
+			execute(batch, executor);
+		}
+		for (int i = 0; i < size; i++) {
+			if (results[i] == null) {
+				results[i] = getResult(waiting.get(i), cancellation);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Wait for the result of the specified calculation until the deadline of
+	 * the specified cancellation of the waiting request, which can be earlier
+	 * than the deadline of the calculation. If the calculation was rejected
+	 * by the executor or aborted at its deadline, the rejection or
+	 * cancellation is thrown as is, also to the coalesced requests.
+	 */
+	private Odds[] getResult(final Calculation calculation, final Cancellation cancellation) throws InterruptedException, ExecutionException {
+		try {
+			final long remaining = cancellation.getRemainingNanos();
+			if (remaining == Long.MAX_VALUE) {
+				return calculation.get();
+			}
+			return calculation.get(remaining, TimeUnit.NANOSECONDS);
+		} catch (final TimeoutException e) {
+			// The calculation continues for the other requests.
+			throw new CancellationException("request deadline exceeded");
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof RejectedExecutionException) {
+				throw (RejectedExecutionException) e.getCause();
+			}
+			if (e.getCause() instanceof CancellationException) {
+				throw (CancellationException) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Get the result of the specified key from the persistent store, and
+	 * cache it.
+	 */
+	private Odds[] getStored(final K key, final int[] storeKey) {
+		if (store == null) {
+			return null;
+		}
+		final Odds[] result = store.get(storeKey);
+		if (result != null) {
+			storeHitCount.incrementAndGet();
+			cache.put(key, result, result.length);
+		}
+		return result;
+	}
+
+	/**
+	 * Register the specified calculation, unless a calculation of the same key
+	 * is in progress, in which case its deadline is extended to the deadline
+	 * of the specified calculation. A calculation in progress whose deadline
+	 * has passed is replaced, it is dropped or aborted.
+	 * 
+	 * @return the registered calculation, or the calculation in progress
+	 */
+	private Calculation register(final Calculation calculation) {
+		while (true) {
+			final Calculation current = calculations.putIfAbsent(calculation.key, calculation);
+			if (current == null) {
+				return calculation;
+			}
+			if (!current.cancellation.isCancelled()) {
+				current.cancellation.extend(calculation.cancellation);
+				coalescedCount.incrementAndGet();
+				return current;
+			}
+			if (calculations.replace(calculation.key, current, calculation)) {
+				return calculation;
+			}
+		}
+	}
+
+	/**
+	 * Run the specified registered calculations back to back on the executor,
+	 * or on the calling thread if the request is handled on an executor
+	 * thread, see {@link RequestContext#isInline()}.
+	 */
+	private void execute(final List<Calculation> batch, final ExecutorService executor) {
+		final Runnable task;
+		if (batch.size() == 1) {
+			task = batch.get(0);
+		} else {
+			task = new Runnable() {
+				@Override
+				public void run() {
+					for (final Calculation calculation : batch) {
+						calculation.run();
+					}
+				}
+			};
+		}
+		try {
+			if (RequestContext.isCurrentInline()) {
+				// Already on an executor thread.
+				task.run();
+			} else {
+				executor.execute(task);
+			}
+		} catch (final RejectedExecutionException e) {
+			// Fail the requests which are already waiting.
+			for (final Calculation calculation : batch) {
+				calculation.fail(e);
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Get an order of the specified matchups in which consecutive matchups
+	 * share as many holes as possible. The order is built greedily, each next
+	 * matchup is the remaining matchup which shares the most holes with the
+	 * previous one.
+	 * 
+	 * @param holeIndexes
+	 *            the hole indexes of the matchups
+	 * @return the indexes of the matchups in the order to calculate them
+	 */
+	static int[] getBatchOrder(final int[][] holeIndexes) {
+		final int size = holeIndexes.length;
+		final int[] order = new int[size];
+		final boolean[] ordered = new boolean[size];
+		for (int k = 0; k < size; k++) {
+			int next = -1, nextShared = -1;
+			for (int i = 0; i < size; i++) {
+				if (!ordered[i]) {
+					final int shared = k == 0 ? 0 : getSharedCount(holeIndexes[order[k - 1]], holeIndexes[i]);
+					if (shared > nextShared) {
+						next = i;
+						nextShared = shared;
+					}
+				}
+			}
+			order[k] = next;
+			ordered[next] = true;
+		}
+		return order;
+	}
+
+	private static int getSharedCount(final int[] holeIndexes1, final int[] holeIndexes2) {
+		int count = 0;
+		for (final int holeIndex1 : holeIndexes1) {
+			for (final int holeIndex2 : holeIndexes2) {
+				if (holeIndex1 == holeIndex2) {
+					count++;
+					break;
+				}
+			}
+		}
+		return count;
+	}
+
+	public long getHitCount() {
+		return cache.getHitCount();
+	}
+
+	public long getMissCount() {
+		return cache.getMissCount();
+	}
+
+	public long getEvictionCount() {
+		return cache.getEvictionCount();
+	}
+
+	/**
+	 * Get the number of requests which waited for the calculation of another
+	 * request.
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Get the number of results which were not cached, but found in the
+	 * persistent store.
+	 * 
+	 * @return the number of store hits
+	 */
+	public long getStoreHitCount() {
+		return storeHitCount.get();
+	}
+
+	/**
+	 * Get the number of calculations which were dropped from the executor
+	 * queue or aborted, because their deadline had passed.
+	 * 
+	 * @return the number of cancelled calculations
+	 */
+	public long getCancelledCount() {
+		return cancelledCount.get();
+	}
+
+	public double getHitRatio() {
+		return cache.getHitRatio();
+	}
+
+	/**
+	 * Register the counters and the hit ratio of this cache with the
+	 * specified labels.
+	 * 
+	 * @param metrics
+	 *            the metrics
+	 * @param labels
+	 *            the labels
+	 */
+	public void register(final Metrics metrics, final String labels) {
+		metrics.register("poker_result_cache_hits", labels, new Metrics.Counter() {
+			@Override
+			public long getCount() {
+				return getHitCount();
+			}
+		});
+		metrics.register("poker_result_cache_misses", labels, new Metrics.Counter() {
+			@Override
+			public long getCount() {
+				return getMissCount();
+			}
+		});
+		metrics.register("poker_result_cache_evictions", labels, new Metrics.Counter() {
+			@Override
+			public long getCount() {
+				return getEvictionCount();
+			}
+		});
+		metrics.register("poker_result_cache_hit_ratio", labels, new Metrics.Gauge() {
+			@Override
+			public double getValue() {
+				return getHitRatio();
+			}
+		});
+		metrics.register("poker_result_cache_coalesced", labels, new Metrics.Counter() {
+			@Override
+			public long getCount() {
+				return getCoalescedCount();
+			}
+		});
+		metrics.register("poker_result_store_hits", labels, new Metrics.Counter() {
+			@Override
+			public long getCount() {
+				return getStoreHitCount();
+			}
+		});
+		metrics.register("poker_calculations_cancelled", labels, new Metrics.Counter() {
+			@Override
+			public long getCount() {
+				return getCancelledCount();
+			}
+		});
+	}
+
+}
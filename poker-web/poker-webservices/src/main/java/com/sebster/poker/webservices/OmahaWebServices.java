@@ -1,23 +1,24 @@
 package com.sebster.poker.webservices;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.zip.GZIPInputStream;
 
-import org.apache.commons.collections.map.LRUMap;
-import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sebster.poker.Card;
 import com.sebster.poker.Hole4;
 import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.ExpandedHandValueCache;
 import com.sebster.poker.odds.Odds;
 import com.sebster.poker.omaha.odds.PreFlopOddsCalculator;
+import com.sebster.poker.omaha.odds.StreamingPreFlopOddsCalculator;
+import com.sebster.util.Validate;
 import com.sebster.util.arrays.ObjectArrayWrapper;
 
 public class OmahaWebServices {
@@ -26,28 +27,169 @@ public class OmahaWebServices {
 
 	private final CompressedHandValueDatabase db;
 
+	/**
+	 * The cache of expanded two card holes shared by the calculators of all
+	 * threads, or {@code null} if each calculator only keeps its last holes.
+	 */
+	private final ExpandedHandValueCache expandCache;
+
 	private final ExecutorService executor;
 
 	private final ThreadLocal<PreFlopOddsCalculator> calculator = new ThreadLocal<PreFlopOddsCalculator>();
 
-	private final LRUMap cache;
+	/**
+	 * The streaming calculators of the threads, or {@code null} if the two
+	 * card holes are expanded completely, see
+	 * {@link WebServicesOptions#setStreaming}.
+	 */
+	private final ThreadLocal<StreamingPreFlopOddsCalculator> streamingCalculator;
+
+	private final OddsResultCache<ObjectArrayWrapper<Hole4>> cache;
+
+	private final Metrics metrics;
 
 	public OmahaWebServices(final String dbPath, final int cacheSize, final ExecutorService exector) throws IOException {
+		this(dbPath, cacheSize, exector, new WebServicesOptions());
+	}
+
+	/**
+	 * Create the omaha web services with the specified options, see
+	 * {@link WebServicesOptions}. The post flop calculator is not used.
+	 */
+	public OmahaWebServices(final String dbPath, final int cacheSize, final ExecutorService exector, final WebServicesOptions options) throws IOException {
+		final ExecutorService prefetchExecutor = options.getPrefetchExecutor();
+		final ExecutorService loadExecutor = options.getWorkerExecutor();
+		final int loadParallelism = options.getWorkerParallelism();
 
 		// Initialize compressed hand value db.
-		InputStream in = null;
-		try {
-			in = new GZIPInputStream(new FileInputStream(dbPath));
-			db = new CompressedHandValueDatabase(in);
-		} finally {
-			IOUtils.closeQuietly(in);
+		final long t1 = System.nanoTime();
+		if (prefetchExecutor != null) {
+			db = CompressedHandValueDatabase.open(new File(dbPath), prefetchExecutor);
+		} else {
+			db = CompressedHandValueDatabase.load(new File(dbPath), loadExecutor, loadParallelism);
+		}
+		final long dbLoadNanos = System.nanoTime() - t1;
+
+		// Initialize the streaming calculators, which do not use the shared
+		// cache of expanded holes.
+		streamingCalculator = options.isStreaming() ? new ThreadLocal<StreamingPreFlopOddsCalculator>() : null;
+
+		// Initialize the shared cache of expanded holes. The omaha
+		// calculator compares hand values only.
+		if (streamingCalculator == null && options.getExpandCacheSize() > 0 && db.getEncoding() == CompressedHandValueDatabase.ENCODING_VALUE) {
+			expandCache = new ExpandedHandValueCache(db, options.getExpandCacheSize(), loadExecutor, loadParallelism);
+		} else {
+			expandCache = null;
 		}
 
 		// Initialize task thread pool.
 		this.executor = exector;
 
-		// Initialize the cache.
-		cache = new LRUMap(cacheSize);
+		// Initialize the cache, which holds at most cacheSize odds.
+		cache = new OddsResultCache<ObjectArrayWrapper<Hole4>>(cacheSize, options.getResultStore());
+
+		// Initialize the metrics.
+		this.metrics = options.getMetrics() != null ? options.getMetrics() : new Metrics();
+		registerMetrics(dbLoadNanos);
+	}
+
+	private void registerMetrics(final long dbLoadNanos) {
+		final String labels = Metrics.labels("service", "omaha");
+		cache.register(metrics, labels);
+		metrics.register("poker_db_load_seconds", labels, new Metrics.Gauge() {
+			@Override
+			public double getValue() {
+				return dbLoadNanos / 1e9;
+			}
+		});
+		metrics.register("poker_db_loaded_holes", labels, new Metrics.Gauge() {
+			@Override
+			public double getValue() {
+				return db.getLoadedHoleCount();
+			}
+		});
+		if (expandCache != null) {
+			metrics.register("poker_expand_cache_hit_ratio", labels, new Metrics.Gauge() {
+				@Override
+				public double getValue() {
+					return expandCache.getHitRatio();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Get the hit ratio of the shared cache of expanded two card holes.
+	 * 
+	 * @return the hit ratio, or 0 if there is no shared cache
+	 */
+	public double getExpandCacheHitRatio() {
+		return expandCache != null ? expandCache.getHitRatio() : 0;
+	}
+
+	/**
+	 * Get the number of preflop results found in the result cache.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getCacheHitCount() {
+		return cache.getHitCount();
+	}
+
+	/**
+	 * Get the number of preflop results which were not cached.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getCacheMissCount() {
+		return cache.getMissCount();
+	}
+
+	/**
+	 * Get the number of results evicted from the result cache.
+	 * 
+	 * @return the number of evictions
+	 */
+	public long getCacheEvictionCount() {
+		return cache.getEvictionCount();
+	}
+
+	/**
+	 * Get the number of preflop requests which waited for the calculation of
+	 * an identical request.
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	public long getCacheCoalescedCount() {
+		return cache.getCoalescedCount();
+	}
+
+	/**
+	 * Get the number of preflop results found in the persistent result store.
+	 * 
+	 * @return the number of store hits
+	 */
+	public long getStoreHitCount() {
+		return cache.getStoreHitCount();
+	}
+
+	/**
+	 * Get the number of preflop calculations which were dropped or aborted
+	 * because their deadline had passed.
+	 * 
+	 * @return the number of cancelled calculations
+	 */
+	public long getCacheCancelledCount() {
+		return cache.getCancelledCount();
+	}
+
+	/**
+	 * Get the hit ratio of the result cache.
+	 * 
+	 * @return the hit ratio, or 0 if nothing was requested
+	 */
+	public double getCacheHitRatio() {
+		return cache.getHitRatio();
 	}
 
 	public Odds[] calculateOdds(final Hole4[] holes) throws InterruptedException, ExecutionException {
@@ -55,22 +197,35 @@ public class OmahaWebServices {
 	}
 
 	public Odds[] calculateOdds(final Hole4[] holes, final Card[] board) throws InterruptedException, ExecutionException {
+		final long t1 = System.nanoTime();
+		try {
+			return calculateOddsUntimed(holes, board);
+		} finally {
+			// A deferred request is timed when it is handled again.
+			if (!RequestContext.isCurrentDeferred()) {
+				final int boardLength = board != null ? board.length : 0;
+				metrics.getHistogram("poker_request_duration_seconds", Metrics.labels("service", "omaha", "players", holes.length, "street", Metrics.getStreet(boardLength))).record(System.nanoTime() - t1);
+			}
+		}
+	}
+
+	private Odds[] calculateOddsUntimed(final Hole4[] holes, final Card[] board) throws InterruptedException, ExecutionException {
 		if (board == null || board.length == 0) {
 			final ObjectArrayWrapper<Hole4> key = new ObjectArrayWrapper<Hole4>(holes);
-			synchronized (cache) {
-				final Odds[] result = (Odds[]) cache.get(key);
-				if (result != null) {
-					if (logger.isDebugEnabled()) {
-						logger.debug("{} player odds result found in cache", holes.length);
-					}
-					return result;
+			final Odds[] result = cache.get(key);
+			if (result != null) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("{} player odds result found in cache", holes.length);
 				}
+				return result;
 			}
-			final Odds[] result = executor.submit(new OddsCalculatorCallable(holes)).get();
-			synchronized (cache) {
-				cache.put(key, result);
+			final int cost = RequestContext.getCost(holes.length, 0);
+			RequestContext.acquire(cost);
+			try {
+				return cache.calculate(key, getIndexes(holes), new OddsCalculatorCallable(holes), executor);
+			} finally {
+				RequestContext.release(cost);
 			}
-			return result;
 		} else {
 			throw new UnsupportedOperationException();
 			// return PostFlopOddsCalculator.getInstance().calculateOdds(holes,
@@ -78,6 +233,76 @@ public class OmahaWebServices {
 		}
 	}
 
+	/**
+	 * Calculate the preflop odds of a batch of matchups, and return them in
+	 * one response. The matchups which are not cached are calculated back to
+	 * back in one task, ordered so that consecutive matchups share holes, see
+	 * {@link OddsResultCache#getBatchOrder(int[][])}. The calculator then
+	 * expands the two card holes of each shared hole only once.
+	 * 
+	 * @param holes
+	 *            the holes of the matchups
+	 * @return the odds of the matchups
+	 */
+	public Odds[][] calculateOddsBatch(final Hole4[][] holes) throws InterruptedException, ExecutionException {
+		Validate.isTrue(holes.length <= OddsResultCache.MAX_BATCH_SIZE, "more than " + OddsResultCache.MAX_BATCH_SIZE + " matchups");
+		final long t1 = System.nanoTime();
+		try {
+			return calculateOddsBatchUntimed(holes);
+		} finally {
+			if (!RequestContext.isCurrentDeferred()) {
+				metrics.getHistogram("poker_batch_duration_seconds", Metrics.labels("service", "omaha")).record(System.nanoTime() - t1);
+			}
+		}
+	}
+
+	private Odds[][] calculateOddsBatchUntimed(final Hole4[][] holes) throws InterruptedException, ExecutionException {
+		final int[][] holeIndexes = new int[holes.length][];
+		for (int i = 0; i < holes.length; i++) {
+			holeIndexes[i] = getIndexes(holes[i]);
+		}
+		final Odds[][] odds = new Odds[holes.length][];
+		final List<Integer> calculated = new ArrayList<Integer>();
+		final List<ObjectArrayWrapper<Hole4>> keys = new ArrayList<ObjectArrayWrapper<Hole4>>();
+		final List<int[]> storeKeys = new ArrayList<int[]>();
+		final List<OddsCalculatorCallable> callables = new ArrayList<OddsCalculatorCallable>();
+		int cost = 0;
+		for (final int i : OddsResultCache.getBatchOrder(holeIndexes)) {
+			final ObjectArrayWrapper<Hole4> key = new ObjectArrayWrapper<Hole4>(holes[i]);
+			odds[i] = cache.get(key);
+			if (odds[i] == null) {
+				calculated.add(i);
+				keys.add(key);
+				storeKeys.add(holeIndexes[i]);
+				callables.add(new OddsCalculatorCallable(holes[i]));
+				cost += RequestContext.getCost(holes[i].length, 0);
+			}
+		}
+		if (!calculated.isEmpty()) {
+			RequestContext.acquire(cost);
+			try {
+				final Odds[][] results = cache.calculateBatch(keys, storeKeys, callables, executor);
+				for (int k = 0; k < results.length; k++) {
+					odds[calculated.get(k)] = results[k];
+				}
+			} finally {
+				RequestContext.release(cost);
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("batch of {} matchups, {} calculated", holes.length, calculated.size());
+		}
+		return odds;
+	}
+
+	private static int[] getIndexes(final Hole4[] holes) {
+		final int[] indexes = new int[holes.length];
+		for (int i = 0; i < holes.length; i++) {
+			indexes[i] = holes[i].getIndex();
+		}
+		return indexes;
+	}
+
 	private class OddsCalculatorCallable implements Callable<Odds[]> {
 
 		private final Hole4[] holes;
@@ -88,10 +313,32 @@ public class OmahaWebServices {
 
 		@Override
 		public Odds[] call() throws Exception {
+			return streamingCalculator != null ? callStreaming() : callExpanded();
+		}
+
+		private Odds[] callStreaming() {
+			final long t1 = System.currentTimeMillis();
+			StreamingPreFlopOddsCalculator calculator = streamingCalculator.get();
+			if (calculator == null) {
+				calculator = new StreamingPreFlopOddsCalculator(db);
+				streamingCalculator.set(calculator);
+			}
+			final Odds[] odds = calculator.calculateOdds(holes);
+			final long t2 = System.currentTimeMillis();
+			if (logger.isDebugEnabled()) {
+				logger.debug("{} player odds calculated in {} ms, streaming expand in {} ms, compare in {} ms", new Object[] { holes.length, t2 - t1, calculator.getLastExpandTime(), calculator.getLastCompareTime() });
+			}
+			final String labels = Metrics.labels("service", "omaha", "players", holes.length);
+			metrics.getHistogram("poker_expand_duration_seconds", labels).record(calculator.getLastExpandNanos());
+			metrics.getHistogram("poker_compare_duration_seconds", labels).record(calculator.getLastCompareNanos());
+			return odds;
+		}
+
+		private Odds[] callExpanded() {
 			final long t1 = System.currentTimeMillis();
 			PreFlopOddsCalculator calculator = OmahaWebServices.this.calculator.get();
 			if (calculator == null) {
-				calculator = new PreFlopOddsCalculator(db);
+				calculator = expandCache != null ? new PreFlopOddsCalculator(expandCache) : new PreFlopOddsCalculator(db);
 				OmahaWebServices.this.calculator.set(calculator);
 			}
 			final Odds[] odds = calculator.calculateOdds(holes);
@@ -99,6 +346,9 @@ public class OmahaWebServices {
 			if (logger.isDebugEnabled()) {
 				logger.debug("{} player odds calculated in {} ms, expand in {} ms, expand cache hits {}, compare in {} ms", new Object[] { holes.length, t2 - t1, calculator.getLastExpandTime(), calculator.getLastExpandCacheHits(), calculator.getLastCompareTime() });
 			}
+			final String labels = Metrics.labels("service", "omaha", "players", holes.length);
+			metrics.getHistogram("poker_expand_duration_seconds", labels).record(calculator.getLastExpandNanos());
+			metrics.getHistogram("poker_compare_duration_seconds", labels).record(calculator.getLastCompareNanos());
 			return odds;
 		}
 
@@ -0,0 +1,32 @@
+package com.sebster.poker.webservices;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when a request is rejected because the server or the client's share
+ * of it is saturated. The client should retry the request after the
+ * specified number of seconds.
+ * 
+ * @author sebster
+ */
+public class OverloadedException extends RejectedExecutionException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int retryAfter;
+
+	public OverloadedException(final String message, final int retryAfter) {
+		super(message);
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * Get the number of seconds after which the request should be retried.
+	 * 
+	 * @return the retry delay in seconds
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+}
@@ -1,20 +1,59 @@
 package com.sebster.poker.webservices;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
 
+import org.jabsorb.ExceptionTransformer;
 import org.jabsorb.JSONRPCBridge;
+import org.jabsorb.JSONRPCResult;
 import org.jabsorb.JSONRPCServlet;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sebster.poker.CombinationTable;
+import com.sebster.poker.holdem.odds.HoldemPostFlopOddsCalculator;
+import com.sebster.poker.holdem.odds.ParallelPostFlopOddsCalculator;
+import com.sebster.poker.holdem.odds.PostFlopOddsCalculator;
+import com.sebster.poker.odds.Cancellation;
+import com.sebster.poker.odds.OddsStore;
 
 public class PokerWebServicesServlet extends JSONRPCServlet {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final Logger logger = LoggerFactory.getLogger(PokerWebServicesServlet.class);
+
+	/* Request header with the timeout of the request in milliseconds */
+	private static final String HEADER_REQUEST_TIMEOUT = "X-Request-Timeout";
+
+	/* Servlet path of the metrics endpoint */
+	private static final String PATH_METRICS = "/metrics";
+
+	/* Time in seconds to wait for the queued and running calculations on destroy */
+	private static final int SHUTDOWN_TIMEOUT = 60;
+
+	/* Request attribute in which jabsorb keeps the JSON-RPC request, so the request can be handled again */
+	private static final String ATTRIBUTE_JSON_RPC_REQUEST = "_jabsorb_beenHere";
+
+	/* Transformer of the exceptions of the calls to JSON-RPC errors */
+	private static final ExceptionTransformer ERROR_TRANSFORMER = new NoStackTraceErrorTransformer();
+
 	/* Service keys used for exporting */
 	private static final String SERVICE_KEY_HOLDEM = "holdem";
 	private static final String SERVICE_KEY_OMAHA = "omaha";
@@ -25,6 +64,19 @@ public class PokerWebServicesServlet extends JSONRPCServlet {
 	private static final String PARAM_EXECUTOR_THREADS = "executorThreads";
 	private static final String PARAM_EXECUTOR_QUEUE_SIZE = "executorQueueSize";
 	private static final String PARAM_CACHE_SIZE = "cacheSize";
+	private static final String PARAM_HOLDEM_POSTFLOP_THREADS = "holdem.postFlopThreads";
+	private static final String PARAM_HOLDEM_COMPARE_THREADS = "holdem.compareThreads";
+	private static final String PARAM_HOLDEM_COMBINATION_TABLE_LOCATION = "holdem.combinationTableLocation";
+	private static final String PARAM_LAZY_LOAD = "lazyLoad";
+	private static final String PARAM_EXPAND_CACHE_SIZE = "expandCacheSize";
+	private static final String PARAM_STREAMING = "streaming";
+	private static final String PARAM_HOLDEM_RESULT_STORE_LOCATION = "holdem.resultStoreLocation";
+	private static final String PARAM_OMAHA_RESULT_STORE_LOCATION = "omaha.resultStoreLocation";
+	private static final String PARAM_RESULT_STORE_SIZE = "resultStoreSize";
+	private static final String PARAM_ASYNC = "async";
+	private static final String PARAM_CLIENT_THREADS = "clientThreads";
+	private static final String PARAM_CLIENT_MAX_COST = "clientMaxCost";
+	private static final String PARAM_REQUEST_TIMEOUT = "requestTimeout";
 
 	/* System property names */
 	private static final String PROPERTY_HOLDEM_DISABLE = "com.sebster.poker.webservices.holdem.disable";
@@ -34,15 +86,65 @@ public class PokerWebServicesServlet extends JSONRPCServlet {
 	private static final String PROPERTY_EXECUTOR_THREADS = "com.sebster.poker.webservices.executorThreads";
 	private static final String PROPERTY_EXECUTOR_QUEUE_SIZE = "com.sebster.poker.webservices.executorQueueSize";
 	private static final String PROPERTY_CACHE_SIZE = "com.sebster.poker.webservices.cacheSize";
+	private static final String PROPERTY_HOLDEM_POSTFLOP_THREADS = "com.sebster.poker.webservices.holdem.postFlopThreads";
+	private static final String PROPERTY_HOLDEM_COMPARE_THREADS = "com.sebster.poker.webservices.holdem.compareThreads";
+	private static final String PROPERTY_HOLDEM_COMBINATION_TABLE_LOCATION = "com.sebster.poker.webservices.holdem.combinationTableLocation";
+	private static final String PROPERTY_LAZY_LOAD = "com.sebster.poker.webservices.lazyLoad";
+	private static final String PROPERTY_EXPAND_CACHE_SIZE = "com.sebster.poker.webservices.expandCacheSize";
+	private static final String PROPERTY_STREAMING = "com.sebster.poker.webservices.streaming";
+	private static final String PROPERTY_HOLDEM_RESULT_STORE_LOCATION = "com.sebster.poker.webservices.holdem.resultStoreLocation";
+	private static final String PROPERTY_OMAHA_RESULT_STORE_LOCATION = "com.sebster.poker.webservices.omaha.resultStoreLocation";
+	private static final String PROPERTY_RESULT_STORE_SIZE = "com.sebster.poker.webservices.resultStoreSize";
+	private static final String PROPERTY_ASYNC = "com.sebster.poker.webservices.async";
+	private static final String PROPERTY_CLIENT_THREADS = "com.sebster.poker.webservices.clientThreads";
+	private static final String PROPERTY_CLIENT_MAX_COST = "com.sebster.poker.webservices.clientMaxCost";
+	private static final String PROPERTY_REQUEST_TIMEOUT = "com.sebster.poker.webservices.requestTimeout";
 
 	/* Default values */
 	public static final int DEFAULT_THREADS = 2;
 	public static final int DEFAULT_QUEUE_SIZE = 50;
-	public static final int DEFAULT_CACHE_SIZE = 2048;
+	/** The maximum number of odds in each result cache, a result holds one odds per hole. */
+	public static final int DEFAULT_CACHE_SIZE = 8192;
+	/** Zero selects the single threaded post flop calculator. */
+	public static final int DEFAULT_POSTFLOP_THREADS = 0;
+	/** One compares the preflop boards on the executor thread only. */
+	public static final int DEFAULT_COMPARE_THREADS = 1;
+	/** The size of the shared cache of expanded holes in MB, zero disables it. */
+	public static final int DEFAULT_EXPAND_CACHE_SIZE = 0;
+	/** The maximum size of each persistent result store in MB. */
+	public static final int DEFAULT_RESULT_STORE_SIZE = 64;
+	/** The maximum number of executor threads used by a client, zero for all threads. */
+	public static final int DEFAULT_CLIENT_THREADS = 0;
+	/** The maximum total cost (players times streets) of the calculations in progress of a client per executor thread, half a 10-way preflop. */
+	public static final int DEFAULT_CLIENT_MAX_COST_PER_THREAD = 20;
+	/** The maximum time in ms a request may queue and calculate, zero for no limit. */
+	public static final int DEFAULT_REQUEST_TIMEOUT = 30000;
 
-	/** Executor */
+	/** Executor, which schedules the requests of the clients fairly */
 	// FIXME How do I make the Servlet stateless?
-	private transient ExecutorService executorService;
+	private transient FairExecutor executorService;
+
+	/** Worker executor for the parallel post flop and compare calculations */
+	private transient ExecutorService workerExecutorService;
+
+	/** Executor for loading lazily opened hand value databases in the background */
+	private transient ExecutorService prefetchExecutorService;
+
+	/** Persistent stores of the preflop results, null if not configured */
+	private transient OddsStore holdemResultStore;
+	private transient OddsStore omahaResultStore;
+
+	/** Whether requests are handled asynchronously on the executor */
+	private transient boolean async;
+
+	/** The maximum request timeout in ms, zero for no limit */
+	private transient int requestTimeout;
+
+	/** Metrics of the executor and the web services */
+	private transient Metrics metrics;
+
+	/** Handler of the requests in the binary format */
+	private transient BinaryOddsProtocol binaryProtocol;
 
 	@Override
 	public void init(final ServletConfig config) throws ServletException {
@@ -97,34 +199,487 @@ public class PokerWebServicesServlet extends JSONRPCServlet {
 			cacheSize = Integer.parseInt(cacheSizeParam);
 		}
 
-		executorService = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(queueSize));
+		int postFlopThreads = DEFAULT_POSTFLOP_THREADS;
+		String postFlopThreadsParam = System.getProperty(PROPERTY_HOLDEM_POSTFLOP_THREADS);
+		if (postFlopThreadsParam == null) {
+			postFlopThreadsParam = config.getInitParameter(PARAM_HOLDEM_POSTFLOP_THREADS);
+		}
+		if (postFlopThreadsParam != null) {
+			postFlopThreads = Integer.parseInt(postFlopThreadsParam);
+		}
+
+		int compareThreads = DEFAULT_COMPARE_THREADS;
+		String compareThreadsParam = System.getProperty(PROPERTY_HOLDEM_COMPARE_THREADS);
+		if (compareThreadsParam == null) {
+			compareThreadsParam = config.getInitParameter(PARAM_HOLDEM_COMPARE_THREADS);
+		}
+		if (compareThreadsParam != null) {
+			compareThreads = Integer.parseInt(compareThreadsParam);
+		}
+
+		String combinationTablePath = System.getProperty(PROPERTY_HOLDEM_COMBINATION_TABLE_LOCATION);
+		if (combinationTablePath == null) {
+			combinationTablePath = config.getInitParameter(PARAM_HOLDEM_COMBINATION_TABLE_LOCATION);
+		}
+
+		String lazyLoadParam = System.getProperty(PROPERTY_LAZY_LOAD);
+		if (lazyLoadParam == null) {
+			lazyLoadParam = config.getInitParameter(PARAM_LAZY_LOAD);
+		}
+		final boolean lazyLoad = Boolean.valueOf(lazyLoadParam);
+
+		int expandCacheSize = DEFAULT_EXPAND_CACHE_SIZE;
+		String expandCacheSizeParam = System.getProperty(PROPERTY_EXPAND_CACHE_SIZE);
+		if (expandCacheSizeParam == null) {
+			expandCacheSizeParam = config.getInitParameter(PARAM_EXPAND_CACHE_SIZE);
+		}
+		if (expandCacheSizeParam != null) {
+			expandCacheSize = Integer.parseInt(expandCacheSizeParam);
+		}
+
+		String streamingParam = System.getProperty(PROPERTY_STREAMING);
+		if (streamingParam == null) {
+			streamingParam = config.getInitParameter(PARAM_STREAMING);
+		}
+		final boolean streaming = Boolean.valueOf(streamingParam);
+
+		String holdemResultStorePath = System.getProperty(PROPERTY_HOLDEM_RESULT_STORE_LOCATION);
+		if (holdemResultStorePath == null) {
+			holdemResultStorePath = config.getInitParameter(PARAM_HOLDEM_RESULT_STORE_LOCATION);
+		}
+
+		String omahaResultStorePath = System.getProperty(PROPERTY_OMAHA_RESULT_STORE_LOCATION);
+		if (omahaResultStorePath == null) {
+			omahaResultStorePath = config.getInitParameter(PARAM_OMAHA_RESULT_STORE_LOCATION);
+		}
+
+		int resultStoreSize = DEFAULT_RESULT_STORE_SIZE;
+		String resultStoreSizeParam = System.getProperty(PROPERTY_RESULT_STORE_SIZE);
+		if (resultStoreSizeParam == null) {
+			resultStoreSizeParam = config.getInitParameter(PARAM_RESULT_STORE_SIZE);
+		}
+		if (resultStoreSizeParam != null) {
+			resultStoreSize = Integer.parseInt(resultStoreSizeParam);
+		}
+
+		String asyncParam = System.getProperty(PROPERTY_ASYNC);
+		if (asyncParam == null) {
+			asyncParam = config.getInitParameter(PARAM_ASYNC);
+		}
+		async = asyncParam == null || Boolean.valueOf(asyncParam);
+
+		int clientThreads = DEFAULT_CLIENT_THREADS;
+		String clientThreadsParam = System.getProperty(PROPERTY_CLIENT_THREADS);
+		if (clientThreadsParam == null) {
+			clientThreadsParam = config.getInitParameter(PARAM_CLIENT_THREADS);
+		}
+		if (clientThreadsParam != null) {
+			clientThreads = Integer.parseInt(clientThreadsParam);
+		}
+
+		// By default a client can not keep all threads busy with large
+		// calculations.
+		int clientMaxCost = threads * DEFAULT_CLIENT_MAX_COST_PER_THREAD;
+		String clientMaxCostParam = System.getProperty(PROPERTY_CLIENT_MAX_COST);
+		if (clientMaxCostParam == null) {
+			clientMaxCostParam = config.getInitParameter(PARAM_CLIENT_MAX_COST);
+		}
+		if (clientMaxCostParam != null) {
+			clientMaxCost = Integer.parseInt(clientMaxCostParam);
+		}
+
+		requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+		String requestTimeoutParam = System.getProperty(PROPERTY_REQUEST_TIMEOUT);
+		if (requestTimeoutParam == null) {
+			requestTimeoutParam = config.getInitParameter(PARAM_REQUEST_TIMEOUT);
+		}
+		if (requestTimeoutParam != null) {
+			requestTimeout = Integer.parseInt(requestTimeoutParam);
+		}
+
+		try {
+			if (holdemEnable && holdemResultStorePath != null) {
+				holdemResultStore = OddsStore.open(new File(holdemResultStorePath), resultStoreSize * 1024 * 1024);
+			}
+			if (omahaEnable && omahaResultStorePath != null) {
+				omahaResultStore = OddsStore.open(new File(omahaResultStorePath), resultStoreSize * 1024 * 1024);
+			}
+		} catch (final IOException e) {
+			// Release the lock of the store which was opened.
+			closeResultStore(holdemResultStore);
+			holdemResultStore = null;
+			throw new ServletException(e);
+		}
+
+		executorService = new FairExecutor(threads, queueSize, clientThreads, clientMaxCost);
+
+		metrics = new Metrics();
+		registerMetrics();
+
+		if (postFlopThreads > 0 || compareThreads > 1) {
+			workerExecutorService = Executors.newFixedThreadPool(Math.max(postFlopThreads, compareThreads));
+		}
+
+		if (lazyLoad) {
+			prefetchExecutorService = Executors.newSingleThreadExecutor();
+		}
+
+		final HoldemPostFlopOddsCalculator postFlopCalculator;
+		if (holdemEnable && combinationTablePath != null) {
+			// Evaluate the post flop hands with the combination table.
+			try {
+				postFlopCalculator = new ParallelPostFlopOddsCalculator(workerExecutorService, Math.max(postFlopThreads, 1), CombinationTable.load(new File(combinationTablePath)));
+			} catch (final IOException e) {
+				throw new ServletException(e);
+			}
+		} else if (postFlopThreads > 0) {
+			postFlopCalculator = new ParallelPostFlopOddsCalculator(workerExecutorService, postFlopThreads);
+		} else {
+			postFlopCalculator = PostFlopOddsCalculator.getInstance();
+		}
+
+		final WebServicesOptions options = new WebServicesOptions();
+		options.setPostFlopCalculator(postFlopCalculator);
+		options.setWorkerExecutor(workerExecutorService, Math.max(compareThreads, 1));
+		options.setPrefetchExecutor(prefetchExecutorService);
+		options.setExpandCacheSize(expandCacheSize * 1024L * 1024L);
+		options.setStreaming(streaming);
+		options.setMetrics(metrics);
 
 		// Register our web service.
 		try {
 			final JSONRPCBridge bridge = JSONRPCBridge.getGlobalBridge();
+			HoldemWebServices holdemWebServices = null;
 			if (holdemEnable) {
-				bridge.registerObject(SERVICE_KEY_HOLDEM, new HoldemWebServices(holdemDbPath, cacheSize, executorService));
+				options.setResultStore(holdemResultStore);
+				holdemWebServices = new HoldemWebServices(holdemDbPath, cacheSize, executorService, options);
+				bridge.registerObject(SERVICE_KEY_HOLDEM, holdemWebServices);
 			}
+			OmahaWebServices omahaWebServices = null;
 			if (omahaEnable) {
-				bridge.registerObject(SERVICE_KEY_OMAHA, new OmahaWebServices(omahaDbPath, cacheSize, executorService));
+				options.setResultStore(omahaResultStore);
+				omahaWebServices = new OmahaWebServices(omahaDbPath, cacheSize, executorService, options);
+				bridge.registerObject(SERVICE_KEY_OMAHA, omahaWebServices);
 			}
+			binaryProtocol = new BinaryOddsProtocol(holdemWebServices, omahaWebServices);
 			bridge.registerSerializer(new HoleSerializer());
 			bridge.registerSerializer(new Hole4Serializer());
 			bridge.registerSerializer(new OddsSerializer());
 			bridge.registerSerializer(new CardSerializer());
-			bridge.setExceptionTransformer(new NoStackTraceErrorTransformer());
+			bridge.setExceptionTransformer(ERROR_TRANSFORMER);
 		} catch (final Exception e) {
 			throw new ServletException(e);
 		}
 	}
 
+	private void registerMetrics() {
+		final FairExecutor executor = executorService;
+		metrics.register("poker_executor_queue_size", "", new Metrics.Gauge() {
+			@Override
+			public double getValue() {
+				return executor.getQueueSize();
+			}
+		});
+		metrics.register("poker_executor_clients", "", new Metrics.Gauge() {
+			@Override
+			public double getValue() {
+				return executor.getClientCount();
+			}
+		});
+		metrics.register("poker_executor_rejections", "", new Metrics.Counter() {
+			@Override
+			public long getCount() {
+				return executor.getRejectionCount();
+			}
+		});
+	}
+
+	/**
+	 * Handle the request. If async is enabled and supported by the container,
+	 * the request is first handled on the container thread, which answers it
+	 * if it needs no calculation, e.g., if the results are cached, see
+	 * {@link RequestContext.Mode#PROBE}. Otherwise the request is handled
+	 * again on the executor and the container thread is released, instead of
+	 * blocking until the calculation is done. The calculations of the request
+	 * then run inline on the executor thread, see
+	 * {@link RequestContext#isInline()}. The executor schedules the requests
+	 * of the clients, identified by their remote address, fairly, see
+	 * {@link FairExecutor}.
+	 * <p>
+	 * Each request has a deadline, see {@link #getCancellation}. A request
+	 * which is still queued at its deadline is dropped, and its calculations
+	 * are aborted, see {@link Cancellation}.
+	 * <p>
+	 * If the executor is saturated or the deadline passed, a JSON-RPC request
+	 * gets a JSON-RPC error, the same as when a calculation of the call is
+	 * rejected or aborted, see {@link NoStackTraceErrorTransformer}, and a
+	 * binary request gets 503 Service Unavailable. A rejection has a
+	 * Retry-After header.
+	 * <p>
+	 * A GET of /metrics is answered directly with the metrics, see
+	 * {@link #writeMetrics}. A request with the binary content type is
+	 * handled by the {@link BinaryOddsProtocol} instead of JSON-RPC.
+	 */
+	@Override
+	public void service(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		if (PATH_METRICS.equals(request.getServletPath())) {
+			if (!"GET".equals(request.getMethod())) {
+				response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+				return;
+			}
+			writeMetrics(request, response);
+			return;
+		}
+		final String clientId = request.getRemoteAddr();
+		final Cancellation cancellation = getCancellation(request);
+		if (!async || !request.isAsyncSupported()) {
+			RequestContext.set(new RequestContext(RequestContext.Mode.BLOCKING, clientId, executorService, cancellation));
+			try {
+				dispatch(request, response);
+			} finally {
+				RequestContext.clear();
+			}
+			return;
+		}
+		if (!probe(request, response, clientId, cancellation)) {
+			return;
+		}
+		final AsyncContext asyncContext = request.startAsync();
+		// The executor queue bounds the waiting time.
+		asyncContext.setTimeout(0);
+		final long queued = System.nanoTime();
+		try {
+			executorService.execute(clientId, new Runnable() {
+				@Override
+				public void run() {
+					RequestContext.set(new RequestContext(RequestContext.Mode.INLINE, clientId, executorService, cancellation));
+					try {
+						metrics.getHistogram("poker_queue_wait_seconds", "").record(System.nanoTime() - queued);
+						if (cancellation.isCancelled()) {
+							// The client has given up.
+							sendRejection(request, response, new CancellationException("request deadline exceeded"));
+						} else {
+							dispatch(request, response);
+						}
+					} catch (final IOException e) {
+						logger.debug("failed to write response", e);
+					} catch (final RuntimeException e) {
+						logger.error("failed to handle request", e);
+					} finally {
+						RequestContext.clear();
+						asyncContext.complete();
+					}
+				}
+			});
+		} catch (final OverloadedException e) {
+			try {
+				sendRejection(request, response, e);
+			} finally {
+				asyncContext.complete();
+			}
+		}
+	}
+
+	/**
+	 * Handle the specified request on the container thread, unless it needs
+	 * a calculation. The response is buffered, and discarded if a calculation
+	 * was deferred.
+	 * 
+	 * @return whether a calculation was deferred, and the request must be
+	 *         handled again on the executor
+	 */
+	private boolean probe(final HttpServletRequest request, final HttpServletResponse response, final String clientId, final Cancellation cancellation) throws IOException {
+		final BufferedResponse bufferedResponse = new BufferedResponse(response);
+		final RequestContext context = new RequestContext(RequestContext.Mode.PROBE, clientId, executorService, cancellation);
+		RequestContext.set(context);
+		try {
+			dispatch(request, bufferedResponse);
+		} catch (final CalculationDeferredException e) {
+			// JSON-RPC returns it as an error, which is discarded too.
+		} finally {
+			RequestContext.clear();
+		}
+		if (context.isDeferred()) {
+			// Nothing has been written yet, only the headers are set.
+			response.reset();
+			return true;
+		}
+		bufferedResponse.commit();
+		return false;
+	}
+
+	/**
+	 * Send the rejection of a request which was not handled, because the
+	 * executor is saturated or the deadline of the request passed.
+	 */
+	private static void sendRejection(final HttpServletRequest request, final HttpServletResponse response, final RuntimeException e) throws IOException {
+		if (e instanceof OverloadedException) {
+			response.setIntHeader("Retry-After", ((OverloadedException) e).getRetryAfter());
+		}
+		if (BinaryOddsProtocol.accepts(request)) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
+			return;
+		}
+		// The request was parsed by the probe, see probe().
+		Object id = null;
+		final String json = (String) request.getAttribute(ATTRIBUTE_JSON_RPC_REQUEST);
+		if (json != null) {
+			try {
+				id = new JSONObject(json).opt("id");
+			} catch (final JSONException ex) {
+				// No id.
+			}
+		}
+		final byte[] body = new JSONRPCResult(JSONRPCResult.CODE_REMOTE_EXCEPTION, id, ERROR_TRANSFORMER.transform(e)).toString().getBytes("UTF-8");
+		response.setContentType("application/json;charset=utf-8");
+		response.setContentLength(body.length);
+		response.getOutputStream().write(body);
+	}
+
+	private void dispatch(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		if (BinaryOddsProtocol.accepts(request)) {
+			binaryProtocol.service(request, response);
+		} else {
+			super.service(request, response);
+		}
+	}
+
+	/**
+	 * Write the metrics in the Prometheus text format, or as JSON if the
+	 * format parameter is json or the client accepts JSON, see
+	 * {@link Metrics}.
+	 */
+	private void writeMetrics(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+		final String accept = request.getHeader("Accept");
+		final boolean json = "json".equals(request.getParameter("format")) || accept != null && accept.startsWith("application/json");
+		response.setContentType(json ? "application/json" : "text/plain; version=0.0.4");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		final Writer out = response.getWriter();
+		if (json) {
+			metrics.writeJson(out);
+		} else {
+			metrics.writeText(out);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Get the cancellation with the deadline of the specified request. The
+	 * timeout is the configured request timeout, or the timeout in the
+	 * X-Request-Timeout header if that is shorter.
+	 */
+	private Cancellation getCancellation(final HttpServletRequest request) {
+		long timeout = requestTimeout;
+		final String timeoutHeader = request.getHeader(HEADER_REQUEST_TIMEOUT);
+		if (timeoutHeader != null) {
+			try {
+				final long clientTimeout = Long.parseLong(timeoutHeader.trim());
+				if (clientTimeout > 0 && (timeout == 0 || clientTimeout < timeout)) {
+					timeout = clientTimeout;
+				}
+			} catch (final NumberFormatException e) {
+				// Ignore the invalid header.
+			}
+		}
+		if (timeout == 0) {
+			return new Cancellation();
+		}
+		return new Cancellation(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout));
+	}
+
 	@Override
 	public void destroy() {
+		// Let the calculations in progress finish, so their results are
+		// stored before the stores are closed.
 		if (executorService != null) {
 			executorService.shutdown();
+			awaitTermination(executorService);
 		}
 		executorService = null;
+		if (workerExecutorService != null) {
+			workerExecutorService.shutdown();
+			awaitTermination(workerExecutorService);
+		}
+		workerExecutorService = null;
+		if (prefetchExecutorService != null) {
+			prefetchExecutorService.shutdownNow();
+		}
+		prefetchExecutorService = null;
+		closeResultStore(holdemResultStore);
+		holdemResultStore = null;
+		closeResultStore(omahaResultStore);
+		omahaResultStore = null;
+		metrics = null;
+		binaryProtocol = null;
 		super.destroy();
 	}
 
+	private static void awaitTermination(final ExecutorService executor) {
+		try {
+			if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+				logger.warn("calculations still running after {} s, interrupting", SHUTDOWN_TIMEOUT);
+				executor.shutdownNow();
+			}
+		} catch (final InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void closeResultStore(final OddsStore store) {
+		if (store != null) {
+			try {
+				store.close();
+			} catch (final IOException e) {
+				logger.error("failed to close result store", e);
+			}
+		}
+	}
+
+	/**
+	 * Response which buffers the body written to its output stream, so it can
+	 * be discarded.
+	 */
+	private static final class BufferedResponse extends HttpServletResponseWrapper {
+
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		private ServletOutputStream out;
+
+		public BufferedResponse(final HttpServletResponse response) {
+			super(response);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			if (out == null) {
+				out = new ServletOutputStream() {
+					@Override
+					public void write(final int b) {
+						buffer.write(b);
+					}
+
+					@Override
+					public void write(final byte[] b, final int off, final int len) {
+						buffer.write(b, off, len);
+					}
+				};
+			}
+			return out;
+		}
+
+		/**
+		 * Write the buffered body to the response.
+		 */
+		public void commit() throws IOException {
+			if (out != null) {
+				final ServletOutputStream responseOut = getResponse().getOutputStream();
+				buffer.writeTo(responseOut);
+				responseOut.flush();
+			}
+		}
+
+	}
+
 }
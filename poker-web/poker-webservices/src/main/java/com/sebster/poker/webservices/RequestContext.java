@@ -0,0 +1,233 @@
+package com.sebster.poker.webservices;
+
+import com.sebster.poker.odds.Cancellation;
+
+/**
+ * The context of the web service request handled by the current thread.
+ * 
+ * @author sebster
+ */
+final class RequestContext {
+
+	/**
+	 * How a request is handled.
+	 */
+	enum Mode {
+
+		/**
+		 * On a container thread, which waits for the calculations on the
+		 * executor.
+		 */
+		BLOCKING,
+
+		/**
+		 * On a container thread, which only answers the request if it needs no
+		 * calculation, e.g., if the results are cached. A calculation is not
+		 * admitted, see {@link RequestContext#acquire(int)}, but deferred, and
+		 * the request is then handled again {@link #INLINE}.
+		 */
+		PROBE,
+
+		/**
+		 * On a calculation executor thread, after the request was probed, see
+		 * {@link RequestContext#isInline()}.
+		 */
+		INLINE
+
+	}
+
+	private static final ThreadLocal<RequestContext> current = new ThreadLocal<RequestContext>();
+
+	private final Mode mode;
+
+	private final String clientId;
+
+	/**
+	 * The executor which admits the requests of the client, or {@code null}
+	 * if requests are not admitted.
+	 */
+	private final FairExecutor executor;
+
+	/**
+	 * The cancellation with the deadline of the request.
+	 */
+	private final Cancellation cancellation;
+
+	/**
+	 * Whether a calculation of the probed request was deferred. Only accessed
+	 * by the thread handling the request.
+	 */
+	private boolean deferred;
+
+	RequestContext(final Mode mode, final String clientId, final FairExecutor executor, final Cancellation cancellation) {
+		if (mode == null) {
+			throw new NullPointerException("mode");
+		}
+		if (clientId == null) {
+			throw new NullPointerException("clientId");
+		}
+		if (cancellation == null) {
+			throw new NullPointerException("cancellation");
+		}
+		this.mode = mode;
+		this.clientId = clientId;
+		this.executor = executor;
+		this.cancellation = cancellation;
+	}
+
+	/**
+	 * Get the context of the request handled by the current thread.
+	 * 
+	 * @return the request context, or {@code null} if the current thread is
+	 *         not handling a request
+	 */
+	static RequestContext get() {
+		return current.get();
+	}
+
+	static void set(final RequestContext context) {
+		current.set(context);
+	}
+
+	static void clear() {
+		current.remove();
+	}
+
+	/**
+	 * Whether the request is already handled on a calculation executor
+	 * thread, so calculations must run inline instead of being submitted to
+	 * the executor and waited for.
+	 * 
+	 * @return whether calculations run inline
+	 */
+	boolean isInline() {
+		return mode == Mode.INLINE;
+	}
+
+	/**
+	 * Whether a calculation of the request was deferred, because the request
+	 * is probed on a container thread, see {@link Mode#PROBE}.
+	 * 
+	 * @return whether a calculation was deferred
+	 */
+	boolean isDeferred() {
+		return deferred;
+	}
+
+	/**
+	 * Get the id of the client of the request, its remote address.
+	 * 
+	 * @return the client id
+	 */
+	String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Get the cancellation of the request, which expires at the deadline of
+	 * the request.
+	 * 
+	 * @return the cancellation
+	 */
+	Cancellation getCancellation() {
+		return cancellation;
+	}
+
+	/**
+	 * Whether the request handled by the current thread runs calculations
+	 * inline, see {@link #isInline()}.
+	 * 
+	 * @return whether calculations run inline
+	 */
+	static boolean isCurrentInline() {
+		final RequestContext context = current.get();
+		return context != null && context.mode == Mode.INLINE;
+	}
+
+	/**
+	 * Whether a calculation of the request handled by the current thread was
+	 * deferred, see {@link #isDeferred()}.
+	 * 
+	 * @return whether a calculation was deferred
+	 */
+	static boolean isCurrentDeferred() {
+		final RequestContext context = current.get();
+		return context != null && context.deferred;
+	}
+
+	/**
+	 * Get the id of the client of the request handled by the current thread.
+	 * 
+	 * @return the client id, or {@link FairExecutor#DEFAULT_CLIENT_ID} if the
+	 *         current thread is not handling a request
+	 */
+	static String getCurrentClientId() {
+		final RequestContext context = current.get();
+		return context != null ? context.clientId : FairExecutor.DEFAULT_CLIENT_ID;
+	}
+
+	/**
+	 * Get the cancellation of the request handled by the current thread.
+	 * 
+	 * @return the cancellation, or a cancellation without a deadline if the
+	 *         current thread is not handling a request
+	 */
+	static Cancellation getCurrentCancellation() {
+		final RequestContext context = current.get();
+		return context != null ? context.cancellation : new Cancellation();
+	}
+
+	/**
+	 * Get the estimated cost of a calculation: the number of players times
+	 * the number of streets still to be dealt, counting the river as one.
+	 * 
+	 * @param players
+	 *            the number of players
+	 * @param boardLength
+	 *            the number of board cards
+	 * @return the cost
+	 */
+	static int getCost(final int players, final int boardLength) {
+		final int streets = boardLength == 0 ? 4 : boardLength == 3 ? 3 : boardLength == 4 ? 2 : 1;
+		return players * streets;
+	}
+
+	/**
+	 * Admit a calculation of the specified cost for the client of the request
+	 * handled by the current thread, see
+	 * {@link FairExecutor#acquire(String, int)}. Each admitted calculation
+	 * must be released with {@link #release(int)} on the same thread. Nothing
+	 * is admitted if the current thread is not handling a request.
+	 * 
+	 * @param cost
+	 *            the cost of the calculation
+	 * @throws OverloadedException
+	 *             if the client already has too much in progress
+	 * @throws CalculationDeferredException
+	 *             if the request is probed, see {@link Mode#PROBE}
+	 */
+	static void acquire(final int cost) {
+		final RequestContext context = current.get();
+		if (context != null && context.mode == Mode.PROBE) {
+			context.deferred = true;
+			throw new CalculationDeferredException();
+		}
+		if (context != null && context.executor != null) {
+			context.executor.acquire(context.clientId, cost);
+		}
+	}
+
+	/**
+	 * Release a calculation admitted with {@link #acquire(int)}.
+	 * 
+	 * @param cost
+	 *            the cost of the calculation
+	 */
+	static void release(final int cost) {
+		final RequestContext context = current.get();
+		if (context != null && context.executor != null) {
+			context.executor.release(context.clientId, cost);
+		}
+	}
+
+}
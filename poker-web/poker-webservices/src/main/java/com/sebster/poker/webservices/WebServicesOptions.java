@@ -0,0 +1,153 @@
+package com.sebster.poker.webservices;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import com.sebster.io.compress.CompressLZFI;
+import com.sebster.poker.holdem.odds.HoldemPostFlopOddsCalculator;
+import com.sebster.poker.holdem.odds.PostFlopOddsCalculator;
+import com.sebster.poker.holdem.odds.StreamingHoldemPreflopOddsCalculator;
+import com.sebster.poker.odds.CompressedHandValueDatabase;
+import com.sebster.poker.odds.ExpandedHandValueCache;
+import com.sebster.poker.odds.OddsStore;
+import com.sebster.poker.omaha.odds.StreamingPreFlopOddsCalculator;
+import com.sebster.util.Validate;
+
+/**
+ * The optional settings of the {@link HoldemWebServices} and the
+ * {@link OmahaWebServices}. The services read the options when they are
+ * created, so the same options can be changed and used again for the other
+ * services.
+ * 
+ * @author sebster
+ */
+@NotThreadSafe
+public class WebServicesOptions {
+
+	private HoldemPostFlopOddsCalculator postFlopCalculator = PostFlopOddsCalculator.getInstance();
+
+	private ExecutorService workerExecutor;
+
+	private int workerParallelism = 1;
+
+	private ExecutorService prefetchExecutor;
+
+	private long expandCacheSize;
+
+	private OddsStore resultStore;
+
+	private Metrics metrics;
+
+	private boolean streaming;
+
+	public HoldemPostFlopOddsCalculator getPostFlopCalculator() {
+		return postFlopCalculator;
+	}
+
+	/**
+	 * Set the post flop calculator of the hold'em services. The default is
+	 * the single threaded {@link PostFlopOddsCalculator}.
+	 */
+	public void setPostFlopCalculator(final HoldemPostFlopOddsCalculator postFlopCalculator) {
+		if (postFlopCalculator == null) {
+			throw new NullPointerException("postFlopCalculator");
+		}
+		this.postFlopCalculator = postFlopCalculator;
+	}
+
+	public ExecutorService getWorkerExecutor() {
+		return workerExecutor;
+	}
+
+	public int getWorkerParallelism() {
+		return workerParallelism;
+	}
+
+	/**
+	 * Set the executor on which the preflop boards are compared and the hand
+	 * value database is loaded, using at most the specified number of tasks.
+	 * The default is no executor, everything runs on the calling thread.
+	 */
+	public void setWorkerExecutor(final ExecutorService workerExecutor, final int workerParallelism) {
+		Validate.isTrue(workerParallelism >= 1, "invalid worker parallelism: " + workerParallelism);
+		this.workerExecutor = workerExecutor;
+		this.workerParallelism = workerParallelism;
+	}
+
+	public ExecutorService getPrefetchExecutor() {
+		return prefetchExecutor;
+	}
+
+	/**
+	 * Set the prefetch executor. If a prefetch executor is set, the hand
+	 * value database is opened lazily and the holes are loaded in the
+	 * background on the prefetch executor, see
+	 * {@link CompressedHandValueDatabase#open(File, ExecutorService)}.
+	 * Otherwise the database is loaded completely when the services are
+	 * created.
+	 */
+	public void setPrefetchExecutor(final ExecutorService prefetchExecutor) {
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	public long getExpandCacheSize() {
+		return expandCacheSize;
+	}
+
+	/**
+	 * Set the size of the shared cache of expanded holes. If the size is
+	 * positive, the preflop calculators of all threads share an
+	 * {@link ExpandedHandValueCache} of at most that many bytes. The default
+	 * is zero, each calculator only keeps its last holes.
+	 */
+	public void setExpandCacheSize(final long expandCacheSize) {
+		this.expandCacheSize = expandCacheSize;
+	}
+
+	public OddsStore getResultStore() {
+		return resultStore;
+	}
+
+	/**
+	 * Set the result store. If a result store is set, the preflop results are
+	 * persisted in the store, keyed by the normalized holes.
+	 */
+	public void setResultStore(final OddsStore resultStore) {
+		this.resultStore = resultStore;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the metrics. The request latencies, calculation timings, cache
+	 * counters and database load time are recorded in the metrics, or in
+	 * private metrics if none are set.
+	 */
+	public void setMetrics(final Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	/**
+	 * Set whether the preflop odds are calculated by the streaming
+	 * calculators, which expand the holes a block at a time instead of
+	 * completely, see {@link StreamingHoldemPreflopOddsCalculator} and
+	 * {@link StreamingPreFlopOddsCalculator}. They need less memory per
+	 * thread, but a window spanning the restart interval of the hand value
+	 * database per hole, see
+	 * {@link CompressedHandValueDatabase#startExpand(int, CompressLZFI.Decoder)}.
+	 * The shared cache of expanded holes is not used, and a mapped hold'em
+	 * database is not streamed. The default is {@code false}.
+	 */
+	public void setStreaming(final boolean streaming) {
+		this.streaming = streaming;
+	}
+
+}
@@ -0,0 +1,182 @@
+package com.sebster.poker.webservices;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sebster.poker.Card;
+import com.sebster.poker.Hole;
+import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Odds;
+import com.sebster.util.IOUtil;
+
+public class BinaryOddsProtocolTest {
+
+	private static final Card[] PREFLOP = new Card[0];
+
+	private static final Card[] FLOP = { Card.TWO_CLUBS, Card.SEVEN_DIAMONDS, Card.KING_HEARTS };
+
+	@Test
+	public void testValidate() {
+		BinaryOddsProtocol.validate(holes(10), PREFLOP, 10);
+		BinaryOddsProtocol.validate(holes(11), FLOP, 10);
+		assertInvalid(holes(11), PREFLOP);
+		assertInvalid(holes(2), new Card[] { Card.TWO_CLUBS, Card.SEVEN_DIAMONDS });
+	}
+
+	@Test
+	public void testValidateDuplicateCards() {
+		assertInvalid(new Hole[] { Hole.fromString("As,Ks"), Hole.fromString("Ah,As") }, PREFLOP);
+		assertInvalid(new Hole[] { Hole.fromString("As,Ks"), Hole.fromString("2c,Qd") }, FLOP);
+	}
+
+	@Test
+	public void testEncode() throws IOException {
+		final Odds[][] odds = {
+				{ new BasicOdds(new int[] { 10, 20 }), new BasicOdds(new int[] { 20, 10 }) },
+				{ new BasicOdds(new int[] { 300, 200, 100 }), new BasicOdds(new int[] { 150, 300, 150 }), new BasicOdds(new int[] { 500, 1000000, 100 }) } };
+		final InputStream in = new ByteArrayInputStream(BinaryOddsProtocol.encode(odds));
+		Assert.assertEquals(odds.length, IOUtil.readVarInt(in));
+		for (final Odds[] matchupOdds : odds) {
+			Assert.assertEquals(matchupOdds.length, IOUtil.readVarInt(in));
+			for (final Odds o : matchupOdds) {
+				final int maxN = IOUtil.readVarInt(in);
+				Assert.assertEquals(o.getMaxN(), maxN);
+				for (int n = 0; n <= maxN; n++) {
+					Assert.assertEquals(o.getNWaySplits(n), IOUtil.readVarInt(in));
+				}
+			}
+		}
+		Assert.assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testTruncatedRequest() throws IOException {
+		final Hole[] holes = holes(2);
+		// The second hole is missing.
+		assertBadRequest(request(BinaryOddsProtocol.GAME_HOLDEM, 1, 2, holes[0].getIndex()), "truncated request");
+	}
+
+	@Test
+	public void testInvalidHoleIndex() throws IOException {
+		final int index = Hole.lastHole().getIndex() + 1;
+		assertBadRequest(request(BinaryOddsProtocol.GAME_HOLDEM, 1, 2, 0, index, 0), "invalid hole index: " + index);
+	}
+
+	/**
+	 * Get the specified number of holes without common cards, and without the
+	 * cards of the flop.
+	 */
+	private static Hole[] holes(final int count) {
+		final List<Card> cards = new ArrayList<Card>(Arrays.asList(Card.values()));
+		cards.removeAll(Arrays.asList(FLOP));
+		final Hole[] holes = new Hole[count];
+		for (int i = 0; i < count; i++) {
+			holes[i] = Hole.getInstance(cards.get(2 * i), cards.get(2 * i + 1));
+		}
+		return holes;
+	}
+
+	private static void assertInvalid(final Hole[] holes, final Card[] board) {
+		try {
+			BinaryOddsProtocol.validate(holes, board, 10);
+			Assert.fail("matchup not rejected");
+		} catch (final IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	/**
+	 * Encode the specified numbers as a request body.
+	 */
+	private static byte[] request(final int... values) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (final int value : values) {
+			IOUtil.writeVarInt(out, value);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Post the specified request body to a protocol without services, and
+	 * check that it is rejected before it is dispatched.
+	 */
+	private static void assertBadRequest(final byte[] body, final String message) throws IOException {
+		final Map<String, Object> error = new HashMap<String, Object>();
+		new BinaryOddsProtocol(null, null).service(stubRequest(body), stubResponse(error));
+		Assert.assertEquals(HttpServletResponse.SC_BAD_REQUEST, error.get("status"));
+		Assert.assertEquals(message, error.get("message"));
+	}
+
+	/**
+	 * Create a POST request with the specified body. Other methods are not
+	 * supported.
+	 */
+	private static HttpServletRequest stubRequest(final byte[] body) {
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		final InputStream in = new ByteArrayInputStream(body);
+		return stub(HttpServletRequest.class, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				final String name = method.getName();
+				if (name.equals("getMethod")) {
+					return "POST";
+				} else if (name.equals("getContentType")) {
+					return BinaryOddsProtocol.CONTENT_TYPE;
+				} else if (name.equals("getAttribute")) {
+					return attributes.get(args[0]);
+				} else if (name.equals("setAttribute")) {
+					return attributes.put((String) args[0], args[1]);
+				} else if (name.equals("getInputStream")) {
+					return new ServletInputStream() {
+						@Override
+						public int read() throws IOException {
+							return in.read();
+						}
+					};
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	/**
+	 * Create a response which records the status and message of an error in
+	 * the specified map. Other methods are not supported.
+	 */
+	private static HttpServletResponse stubResponse(final Map<String, Object> error) {
+		return stub(HttpServletResponse.class, new InvocationHandler() {
+			@Override
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				final String name = method.getName();
+				if (name.equals("sendError")) {
+					error.put("status", args[0]);
+					error.put("message", args.length > 1 ? args[1] : null);
+					return null;
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		});
+	}
+
+	private static <T> T stub(final Class<T> type, final InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+
+}
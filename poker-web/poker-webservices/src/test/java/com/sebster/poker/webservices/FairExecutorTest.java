@@ -0,0 +1,199 @@
+package com.sebster.poker.webservices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FairExecutorTest {
+
+	private FairExecutor executor;
+
+	@After
+	public void tearDown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRoundRobin() throws Exception {
+		executor = new FairExecutor(1, 20, 0, 0);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = block("x", release);
+		blocked.await();
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(5);
+		for (final String name : new String[] { "a1", "a2", "a3" }) {
+			executor.execute("a", new Record(order, name, done));
+		}
+		for (final String name : new String[] { "b1", "b2" }) {
+			executor.execute("b", new Record(order, name, done));
+		}
+		release.countDown();
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		// The clients take turns, however many tasks they queued.
+		Assert.assertEquals(Arrays.asList("a1", "b1", "a2", "b2", "a3"), order);
+	}
+
+	@Test
+	public void testClientThreadCap() throws Exception {
+		executor = new FairExecutor(2, 20, 1, 0);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger started = new AtomicInteger();
+		final CountDownLatch first = new CountDownLatch(1);
+		for (int i = 0; i < 2; i++) {
+			executor.execute("a", new Runnable() {
+				@Override
+				public void run() {
+					started.incrementAndGet();
+					first.countDown();
+					await(release);
+				}
+			});
+		}
+		first.await();
+		// The other client gets the second thread.
+		final CountDownLatch other = new CountDownLatch(1);
+		executor.execute("b", new Runnable() {
+			@Override
+			public void run() {
+				other.countDown();
+			}
+		});
+		Assert.assertTrue(other.await(10, TimeUnit.SECONDS));
+		Assert.assertEquals(1, started.get());
+		Assert.assertEquals(1, executor.getQueueSize());
+		release.countDown();
+	}
+
+	@Test
+	public void testClientQueueShare() throws Exception {
+		executor = new FairExecutor(1, 8, 0, 0);
+		final CountDownLatch release = new CountDownLatch(1);
+		block("x", release).await();
+		// A single client may fill half the queue.
+		Assert.assertEquals(4, fill("a"));
+		// The shares shrink as more clients queue.
+		Assert.assertEquals(2, fill("b"));
+		// Until the queue is full.
+		Assert.assertEquals(2, fill("c"));
+		Assert.assertEquals(0, fill("d"));
+		Assert.assertEquals(4, executor.getRejectionCount());
+		release.countDown();
+	}
+
+	@Test
+	public void testAdmission() {
+		executor = new FairExecutor(1, 20, 0, 40);
+		executor.acquire("a", 30);
+		try {
+			executor.acquire("a", 20);
+			Assert.fail("request admitted");
+		} catch (final OverloadedException e) {
+			// Expected.
+		}
+		// The other clients are not affected.
+		executor.acquire("b", 20);
+		// A request is always admitted if the client has nothing in progress.
+		executor.acquire("c", 100);
+		executor.release("a", 30);
+		executor.acquire("a", 20);
+		Assert.assertEquals(1, executor.getRejectionCount());
+		executor.release("a", 20);
+		executor.release("b", 20);
+		executor.release("c", 100);
+		Assert.assertEquals(0, executor.getClientCount());
+	}
+
+	@Test
+	public void testRetryAfter() throws Exception {
+		executor = new FairExecutor(1, 0, 0, 0);
+		final CountDownLatch release = new CountDownLatch(1);
+		block("x", release).await();
+		try {
+			executor.execute("a", new Record(new ArrayList<String>(), "a", new CountDownLatch(1)));
+			Assert.fail("task accepted");
+		} catch (final OverloadedException e) {
+			Assert.assertTrue(e.getRetryAfter() >= 1);
+			Assert.assertTrue(e.getMessage().endsWith("retry after " + e.getRetryAfter() + " s"));
+		}
+		release.countDown();
+	}
+
+	/**
+	 * Run a task for the specified client which blocks until the specified
+	 * latch is released.
+	 * 
+	 * @return the latch which is released when the task runs
+	 */
+	private CountDownLatch block(final String clientId, final CountDownLatch release) {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		executor.execute(clientId, new Runnable() {
+			@Override
+			public void run() {
+				blocked.countDown();
+				await(release);
+			}
+		});
+		return blocked;
+	}
+
+	/**
+	 * Queue tasks for the specified client until one is rejected.
+	 * 
+	 * @return the number of queued tasks
+	 */
+	private int fill(final String clientId) {
+		int count = 0;
+		try {
+			while (true) {
+				executor.execute(clientId, new Record(new ArrayList<String>(), clientId, new CountDownLatch(1)));
+				count++;
+			}
+		} catch (final OverloadedException e) {
+			return count;
+		}
+	}
+
+	private static void await(final CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A task which records its name.
+	 */
+	private static final class Record implements Runnable {
+
+		private final List<String> order;
+
+		private final String name;
+
+		private final CountDownLatch done;
+
+		public Record(final List<String> order, final String name, final CountDownLatch done) {
+			this.order = order;
+			this.name = name;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			order.add(name);
+			done.countDown();
+		}
+
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.sebster.poker.webservices;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sebster.poker.Deck;
+import com.sebster.poker.Hole;
+import com.sebster.poker.Holes;
+import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Odds;
+
+public class HoldemWebServicesTest {
+
+	@Test
+	public void testDenormalize() {
+		final Hole[] holes = { Hole.fromString("2c,3c"), Hole.fromString("As,Ah"), Hole.fromString("Kd,Qd") };
+		final Hole[] normalizedHoles = holes.clone();
+		final int[] indexes = Holes.normalize(normalizedHoles);
+		final Odds[] normalizedOdds = createOdds(holes.length);
+		final Odds[] odds = HoldemWebServices.denormalize(normalizedOdds, indexes);
+		for (int i = 0; i < holes.length; i++) {
+			// The normalized hole at i is the hole of the request at
+			// indexes[i] with its suits permuted.
+			Assert.assertEquals(holes[indexes[i]].getFirst().getRank(), normalizedHoles[i].getFirst().getRank());
+			Assert.assertEquals(holes[indexes[i]].getSecond().getRank(), normalizedHoles[i].getSecond().getRank());
+			Assert.assertSame(normalizedOdds[i], odds[indexes[i]]);
+		}
+	}
+
+	@Test
+	public void testNormalizeInverse() {
+		final Random random = new Random(42);
+		for (int n = 0; n < 100; n++) {
+			final Deck deck = new Deck(random);
+			final Hole[] holes = new Hole[2 + random.nextInt(9)];
+			for (int i = 0; i < holes.length; i++) {
+				holes[i] = Hole.fromDeck(deck);
+			}
+			final int[] indexes = Holes.normalize(holes.clone());
+			final Odds[] odds = createOdds(holes.length);
+			Assert.assertArrayEquals(odds, HoldemWebServices.denormalize(HoldemWebServices.normalize(odds, indexes), indexes));
+			Assert.assertArrayEquals(odds, HoldemWebServices.normalize(HoldemWebServices.denormalize(odds, indexes), indexes));
+		}
+	}
+
+	@Test
+	public void testPermutedHolesShareKey() {
+		final Hole[] holes1 = { Hole.fromString("As,Ks"), Hole.fromString("7h,7d"), Hole.fromString("2c,3d") };
+		// The same holes in a different order with the suits permuted.
+		final Hole[] holes2 = { Hole.fromString("7c,7s"), Hole.fromString("2d,3s"), Hole.fromString("Ah,Kh") };
+		final int[] indexes1 = Holes.normalize(holes1);
+		final int[] indexes2 = Holes.normalize(holes2);
+		Assert.assertArrayEquals(holes1, holes2);
+		// The same normalized odds map back to the matching holes.
+		final Odds[] normalizedOdds = createOdds(3);
+		final Odds[] odds1 = HoldemWebServices.denormalize(normalizedOdds, indexes1);
+		final Odds[] odds2 = HoldemWebServices.denormalize(normalizedOdds, indexes2);
+		Assert.assertSame(odds1[0], odds2[2]);
+		Assert.assertSame(odds1[1], odds2[0]);
+		Assert.assertSame(odds1[2], odds2[1]);
+	}
+
+	private static Odds[] createOdds(final int count) {
+		final Odds[] odds = new Odds[count];
+		for (int i = 0; i < count; i++) {
+			odds[i] = new BasicOdds(new int[] { i, 1 });
+		}
+		return odds;
+	}
+
+}
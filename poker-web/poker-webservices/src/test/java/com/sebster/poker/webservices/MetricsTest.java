@@ -0,0 +1,54 @@
+package com.sebster.poker.webservices;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MetricsTest {
+
+	@Test
+	public void testWriteText() throws IOException {
+		final Metrics metrics = createMetrics();
+		final StringWriter out = new StringWriter();
+		metrics.writeText(out);
+		final String text = out.toString();
+		Assert.assertTrue(text.contains("# TYPE poker_hits_total counter\npoker_hits_total{service=\"holdem\"} 42\n"));
+		Assert.assertTrue(text.contains("# TYPE poker_queue_size gauge\npoker_queue_size 3\n"));
+		Assert.assertTrue(text.contains("# TYPE poker_wait_seconds histogram\n"));
+		Assert.assertTrue(text.contains("poker_wait_seconds_bucket{le=\"+Inf\"} 1\n"));
+		Assert.assertTrue(text.contains("poker_wait_seconds_count 1\n"));
+	}
+
+	@Test
+	public void testWriteJson() throws Exception {
+		final Metrics metrics = createMetrics();
+		final StringWriter out = new StringWriter();
+		metrics.writeJson(out);
+		final JSONObject json = new JSONObject(out.toString());
+		Assert.assertEquals(42, json.getJSONObject("counters").getJSONArray("poker_hits").getJSONObject(0).getLong("value"));
+		Assert.assertEquals(3, json.getJSONObject("gauges").getJSONArray("poker_queue_size").getJSONObject(0).getDouble("value"), 0);
+		Assert.assertEquals(1, json.getJSONObject("histograms").getJSONArray("poker_wait_seconds").getJSONObject(0).getLong("count"));
+	}
+
+	private static Metrics createMetrics() {
+		final Metrics metrics = new Metrics();
+		metrics.register("poker_hits", Metrics.labels("service", "holdem"), new Metrics.Counter() {
+			@Override
+			public long getCount() {
+				return 42;
+			}
+		});
+		metrics.register("poker_queue_size", "", new Metrics.Gauge() {
+			@Override
+			public double getValue() {
+				return 3;
+			}
+		});
+		metrics.getHistogram("poker_wait_seconds", "").record(1000000);
+		return metrics;
+	}
+
+}
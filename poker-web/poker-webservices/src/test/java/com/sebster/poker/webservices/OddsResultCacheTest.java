@@ -0,0 +1,284 @@
+package com.sebster.poker.webservices;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sebster.poker.odds.BasicOdds;
+import com.sebster.poker.odds.Cancellation;
+import com.sebster.poker.odds.Odds;
+
+public class OddsResultCacheTest {
+
+	private static final int[] STORE_KEY = { 1, 2, 3 };
+
+	/**
+	 * The executor of the requests which wait for results.
+	 */
+	private ExecutorService requests;
+
+	@Before
+	public void setUp() {
+		requests = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void tearDown() {
+		requests.shutdownNow();
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		final OddsResultCache<String> cache = new OddsResultCache<String>(100);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch finish = new CountDownLatch(1);
+			final AtomicInteger calls = new AtomicInteger();
+			final Odds[] result = { new BasicOdds(new int[] { 1, 2 }), new BasicOdds(new int[] { 2, 1 }) };
+			final Callable<Odds[]> callable = new Callable<Odds[]>() {
+				@Override
+				public Odds[] call() throws InterruptedException {
+					calls.incrementAndGet();
+					started.countDown();
+					finish.await();
+					return result;
+				}
+			};
+			final Future<Odds[]> first = requests.submit(new Calculate(cache, callable, executor));
+			started.await();
+			final Future<Odds[]> second = requests.submit(new Calculate(cache, callable, executor));
+			awaitCoalesced(cache, 1);
+			finish.countDown();
+			Assert.assertSame(result, first.get());
+			Assert.assertSame(result, second.get());
+			Assert.assertEquals(1, calls.get());
+			// The result is cached when the calculation is done, which can be
+			// just after the waiters are released.
+			Odds[] cached;
+			while ((cached = cache.get("key")) == null) {
+				Thread.sleep(1);
+			}
+			Assert.assertSame(result, cached);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testRejectionPropagation() throws Exception {
+		final OddsResultCache<String> cache = new OddsResultCache<String>(100);
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch reject = new CountDownLatch(1);
+		// An executor which rejects the task once a second request waits for
+		// the calculation.
+		final ExecutorService executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+			@Override
+			public void execute(final Runnable command) {
+				entered.countDown();
+				try {
+					reject.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new RejectedExecutionException("saturated");
+			}
+		};
+		final Callable<Odds[]> callable = new Callable<Odds[]>() {
+			@Override
+			public Odds[] call() {
+				throw new AssertionError("rejected calculation called");
+			}
+		};
+		final Future<Odds[]> first = requests.submit(new Calculate(cache, callable, executor));
+		entered.await();
+		final Future<Odds[]> second = requests.submit(new Calculate(cache, callable, executor));
+		awaitCoalesced(cache, 1);
+		reject.countDown();
+		assertRejected(first);
+		assertRejected(second);
+		Assert.assertNull(cache.get("key"));
+	}
+
+	@Test
+	public void testWaiterDeadline() throws Exception {
+		final OddsResultCache<String> cache = new OddsResultCache<String>(100);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			final CountDownLatch finish = new CountDownLatch(1);
+			final Odds[] result = { new BasicOdds(new int[] { 1, 2 }), new BasicOdds(new int[] { 2, 1 }) };
+			final Callable<Odds[]> callable = new Callable<Odds[]>() {
+				@Override
+				public Odds[] call() throws InterruptedException {
+					started.countDown();
+					finish.await();
+					return result;
+				}
+			};
+			final Future<Odds[]> first = requests.submit(new Calculate(cache, callable, executor));
+			started.await();
+			// The second request gives up at its own deadline.
+			final Future<Odds[]> second = requests.submit(new Calculate(cache, callable, executor, deadline(50)));
+			assertCancelled(second);
+			finish.countDown();
+			Assert.assertSame(result, first.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testReplaceCancelled() throws Exception {
+		final OddsResultCache<String> cache = new OddsResultCache<String>(100);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final CountDownLatch release = new CountDownLatch(1);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			final AtomicInteger calls = new AtomicInteger();
+			final Odds[] result = { new BasicOdds(new int[] { 1, 2 }), new BasicOdds(new int[] { 2, 1 }) };
+			final Callable<Odds[]> callable = new Callable<Odds[]>() {
+				@Override
+				public Odds[] call() {
+					calls.incrementAndGet();
+					return result;
+				}
+			};
+			// The calculation is queued until its deadline passes.
+			assertCancelled(requests.submit(new Calculate(cache, callable, executor, deadline(50))));
+			// So a new request does not wait for it, but calculates again.
+			final Future<Odds[]> second = requests.submit(new Calculate(cache, callable, executor));
+			release.countDown();
+			Assert.assertSame(result, second.get());
+			Assert.assertEquals(1, calls.get());
+			Assert.assertEquals(0, cache.getCoalescedCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testProbe() {
+		final OddsResultCache<String> cache = new OddsResultCache<String>(100);
+		final RequestContext probe = new RequestContext(RequestContext.Mode.PROBE, "client", null, new Cancellation());
+		RequestContext.set(probe);
+		try {
+			Assert.assertNull(cache.get("key"));
+			try {
+				RequestContext.acquire(1);
+				Assert.fail("calculation not deferred");
+			} catch (final CalculationDeferredException e) {
+				Assert.assertTrue(probe.isDeferred());
+			}
+			// The request is handled again inline, its lookups are not counted
+			// again.
+			RequestContext.set(new RequestContext(RequestContext.Mode.INLINE, "client", null, new Cancellation()));
+			Assert.assertNull(cache.get("key"));
+			Assert.assertEquals(1, cache.getMissCount());
+		} finally {
+			RequestContext.clear();
+		}
+	}
+
+	@Test
+	public void testGetBatchOrder() {
+		final int[][] holeIndexes = { { 1, 2, 3 }, { 4, 5, 6 }, { 1, 2, 7 }, { 4, 5, 8 }, { 7, 9, 10 } };
+		// Each next matchup shares the most holes with the previous one, the
+		// first of the remaining matchups on a tie.
+		Assert.assertArrayEquals(new int[] { 0, 2, 4, 1, 3 }, OddsResultCache.getBatchOrder(holeIndexes));
+		Assert.assertArrayEquals(new int[0], OddsResultCache.getBatchOrder(new int[0][]));
+	}
+
+	private static void awaitCoalesced(final OddsResultCache<?> cache, final int count) throws InterruptedException {
+		while (cache.getCoalescedCount() < count) {
+			Thread.sleep(1);
+		}
+	}
+
+	private static Cancellation deadline(final long millis) {
+		return new Cancellation(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	private static void assertCancelled(final Future<Odds[]> future) throws InterruptedException {
+		try {
+			future.get();
+			Assert.fail("calculation not cancelled");
+		} catch (final ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof CancellationException);
+		}
+	}
+
+	private static void assertRejected(final Future<Odds[]> future) throws InterruptedException {
+		try {
+			future.get();
+			Assert.fail("calculation not rejected");
+		} catch (final ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	/**
+	 * A request which calculates the result of "key".
+	 */
+	private static final class Calculate implements Callable<Odds[]> {
+
+		private final OddsResultCache<String> cache;
+
+		private final Callable<Odds[]> callable;
+
+		private final ExecutorService executor;
+
+		/**
+		 * The cancellation of the request, or {@code null} for no deadline.
+		 */
+		private final Cancellation cancellation;
+
+		public Calculate(final OddsResultCache<String> cache, final Callable<Odds[]> callable, final ExecutorService executor) {
+			this(cache, callable, executor, null);
+		}
+
+		public Calculate(final OddsResultCache<String> cache, final Callable<Odds[]> callable, final ExecutorService executor, final Cancellation cancellation) {
+			this.cache = cache;
+			this.callable = callable;
+			this.executor = executor;
+			this.cancellation = cancellation;
+		}
+
+		@Override
+		public Odds[] call() throws Exception {
+			if (cancellation != null) {
+				RequestContext.set(new RequestContext(RequestContext.Mode.BLOCKING, "client", null, cancellation));
+			}
+			try {
+				return cache.calculate("key", STORE_KEY, callable, executor);
+			} finally {
+				RequestContext.clear();
+			}
+		}
+
+	}
+
+}